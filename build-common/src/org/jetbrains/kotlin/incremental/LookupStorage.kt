@@ -31,8 +31,10 @@ import java.util.*
 
 open class LookupStorage(private val targetDataDir: File) : BasicMapsOwner() {
     companion object {
-        private val DELETED_TO_SIZE_TRESHOLD = 0.5
-        private val MINIMUM_GARBAGE_COLLECTIBLE_SIZE = 10000
+        // Values with more appended chunks are merged into one when they're read
+        private val MAX_CHUNKS_TO_READ_WITHOUT_COMPACTION = 4
+        // Each round of compilation compacts every n-th of the values appended to (see [shouldCompactOnAppend])
+        private val COMPACTION_ON_APPEND_PERIOD = 8
     }
 
     private val String.storageFile: File
@@ -41,20 +43,18 @@ open class LookupStorage(private val targetDataDir: File) : BasicMapsOwner() {
     private val countersFile = "counters".storageFile
     private val idToFile = registerMap(IdToFileMap("id-to-file".storageFile))
     private val fileToId = registerMap(FileToIdMap("file-to-id".storageFile))
-    private val lookupMap = registerMap(LookupMap("lookups".storageFile))
+    private val lookupMap = registerMap(CompactLookupMap("compact-lookups".storageFile))
 
     @Volatile
     private var size: Int = 0
 
+    // Number of flushes, used to choose which values are compacted when appended to
     @Volatile
-    private var deletedCount: Int = 0
+    private var generation: Int = 0
 
     init {
-        if (countersFile.exists()) {
-            val lines = countersFile.readLines()
-            size = lines[0].toInt()
-            deletedCount = lines[1].toInt()
-        }
+        readCounters()
+        migrateLegacyLookups()
     }
 
     @Synchronized
@@ -62,10 +62,24 @@ open class LookupStorage(private val targetDataDir: File) : BasicMapsOwner() {
         val key = LookupSymbolKey(lookupSymbol.name, lookupSymbol.scope)
         val fileIds = lookupMap[key] ?: return emptySet()
 
-        return fileIds.mapNotNull {
+        val paths = ArrayList<String>(fileIds.ids.size)
+        var hasRemovedFiles = false
+        for (id in fileIds.ids) {
             // null means it's outdated
-            idToFile[it]?.path
+            val file = idToFile[id]
+            if (file != null) {
+                paths.add(file.path)
+            }
+            else {
+                hasRemovedFiles = true
+            }
         }
+
+        if (hasRemovedFiles || fileIds.chunks > MAX_CHUNKS_TO_READ_WITHOUT_COMPACTION) {
+            compact(key, fileIds)
+        }
+
+        return paths
     }
 
     @Synchronized
@@ -74,9 +88,17 @@ open class LookupStorage(private val targetDataDir: File) : BasicMapsOwner() {
 
         for ((lookupSymbol, paths) in lookups) {
             val key = LookupSymbolKey(lookupSymbol.name, lookupSymbol.scope)
-            val fileIds = paths.mapTo(HashSet<Int>()) { pathToId[it]!! }
-            fileIds.addAll(lookupMap[key] ?: emptySet())
-            lookupMap[key] = fileIds
+            val fileIds = IntArray(paths.size)
+            var index = 0
+            for (path in paths) {
+                fileIds[index++] = pathToId[path]!!
+            }
+
+            lookupMap.append(key, fileIds.sortedDistinct())
+
+            if (shouldCompactOnAppend(key)) {
+                lookupMap[key]?.let { compact(key, it) }
+            }
         }
     }
 
@@ -86,7 +108,6 @@ open class LookupStorage(private val targetDataDir: File) : BasicMapsOwner() {
             val id = fileToId[file] ?: continue
             idToFile.remove(id)
             fileToId.remove(file)
-            deletedCount++
         }
     }
 
@@ -97,7 +118,7 @@ open class LookupStorage(private val targetDataDir: File) : BasicMapsOwner() {
         }
 
         size = 0
-        deletedCount = 0
+        generation = 0
 
         super.clean()
     }
@@ -105,15 +126,14 @@ open class LookupStorage(private val targetDataDir: File) : BasicMapsOwner() {
     @Synchronized
     override fun flush(memoryCachesOnly: Boolean) {
         try {
-            removeGarbageIfNeeded()
-
             if (size > 0) {
                 if (!countersFile.exists()) {
                     countersFile.parentFile.mkdirs()
                     countersFile.createNewFile()
                 }
 
-                countersFile.writeText("$size\n$deletedCount")
+                generation++
+                countersFile.writeText("$size\n$generation")
             }
         }
         finally {
@@ -121,6 +141,25 @@ open class LookupStorage(private val targetDataDir: File) : BasicMapsOwner() {
         }
     }
 
+    @Synchronized
+    override fun discardPendingWrites() {
+        super.discardPendingWrites()
+        // ids of the discarded files can be reused
+        readCounters()
+    }
+
+    private fun readCounters() {
+        if (countersFile.exists()) {
+            val lines = countersFile.readLines()
+            size = lines[0].toInt()
+            generation = lines[1].toInt()
+        }
+        else {
+            size = 0
+            generation = 0
+        }
+    }
+
     private fun addFileIfNeeded(file: File): Int {
         val existing = fileToId[file]
         if (existing != null) return existing
@@ -131,43 +170,56 @@ open class LookupStorage(private val targetDataDir: File) : BasicMapsOwner() {
         return id
     }
 
-    private fun removeGarbageIfNeeded(force: Boolean = false) {
-        if (force || (size > MINIMUM_GARBAGE_COLLECTIBLE_SIZE && deletedCount.toDouble() / size > DELETED_TO_SIZE_TRESHOLD)) {
-            doRemoveGarbage()
+    // Values which aren't read stay compact too: in a series of rounds, each value is compacted at least once in a period
+    private fun shouldCompactOnAppend(key: LookupSymbolKey): Boolean =
+            (key.hashCode() + generation) % COMPACTION_ON_APPEND_PERIOD == 0
+
+    // Merges all the chunks of a value into one and drops ids of removed files
+    private fun compact(key: LookupSymbolKey, fileIds: FileIds) {
+        val actualIds = fileIds.ids.filter { it in idToFile }.toIntArray()
+
+        if (actualIds.isEmpty()) {
+            lookupMap.remove(key)
+        }
+        else if (actualIds.size != fileIds.ids.size || fileIds.chunks > 1) {
+            lookupMap[key] = FileIds(actualIds, 1)
         }
     }
 
-    private fun doRemoveGarbage() {
-        for (hash in lookupMap.keys) {
-            lookupMap[hash] = lookupMap[hash]!!.filter { it in idToFile }.toSet()
-        }
+    // Converts the lookups of the format used before CompactLookupMap. Ids of files are the same in both formats
+    private fun migrateLegacyLookups() {
+        val legacyStorageFile = "lookups".storageFile
+        if (!legacyStorageFile.exists()) return
 
-        val oldFileToId = fileToId.toMap()
-        val oldIdToNewId = HashMap<Int, Int>(oldFileToId.size)
-        idToFile.clean()
-        fileToId.clean()
-        size = 0
-        deletedCount = 0
-
-        for ((file, oldId) in oldFileToId.entries) {
-            val newId = addFileIfNeeded(file)
-            oldIdToNewId[oldId] = newId
+        val legacyLookupMap = LookupMap(legacyStorageFile)
+        try {
+            for (key in legacyLookupMap.keys) {
+                val fileIds = legacyLookupMap[key] ?: continue
+                lookupMap[key] = FileIds(fileIds.toIntArray().sortedDistinct(), 1)
+            }
+        }
+        finally {
+            legacyLookupMap.clean()
         }
+    }
 
-        for (lookup in lookupMap.keys) {
-            val fileIds = lookupMap[lookup]!!.mapNotNull { oldIdToNewId[it] }.toSet()
+    private fun IntArray.sortedDistinct(): IntArray {
+        if (isEmpty()) return this
 
-            if (fileIds.isEmpty()) {
-                lookupMap.remove(lookup)
-            }
-            else {
-                lookupMap[lookup] = fileIds
+        sort()
+        var size = 1
+        for (i in 1..lastIndex) {
+            if (this[i] != this[size - 1]) {
+                this[size++] = this[i]
             }
         }
+        return if (size == this.size) this else copyOf(size)
     }
 
     @TestOnly fun forceGC() {
-        removeGarbageIfNeeded(force = true)
+        for (key in lookupMap.keys) {
+            lookupMap[key]?.let { compact(key, it) }
+        }
         flush(false)
     }
 
@@ -179,7 +231,7 @@ open class LookupStorage(private val targetDataDir: File) : BasicMapsOwner() {
         val lookupsStrings = lookupSymbols.groupBy { LookupSymbolKey(it.name, it.scope) }
 
         for (lookup in lookupMap.keys.sorted()) {
-            val fileIds = lookupMap[lookup]!!
+            val fileIds = lookupMap[lookup]!!.ids
 
             val key = if (lookup in lookupsStrings) {
                 lookupsStrings[lookup]!!.map { "${it.scope}#${it.name}" }.sorted().joinToString(", ")
@@ -42,6 +42,14 @@ abstract class BasicMap<K : Comparable<K>, V>(
         storage.close()
     }
 
+    fun enableWriteBehind() {
+        storage.enableWriteBehind()
+    }
+
+    fun discardPendingWrites() {
+        storage.discardPendingWrites()
+    }
+
     @TestOnly
     fun dump(): String {
         return with(StringBuilder()) {
@@ -42,5 +42,16 @@ open class BasicMapsOwner {
         maps.forEach { it.flush(memoryCachesOnly) }
     }
 
+    /**
+     * Keeps modifications of the maps in memory until [flush], so they can be dropped with [discardPendingWrites]
+     */
+    fun enableWriteBehind() {
+        maps.forEach { it.enableWriteBehind() }
+    }
+
+    open fun discardPendingWrites() {
+        maps.forEach { it.discardPendingWrites() }
+    }
+
     @TestOnly fun dump(): String = maps.map { it.dump() }.joinToString("\n\n")
 }
\ No newline at end of file
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.incremental.storage
+
+import java.io.File
+
+/**
+ * Maps a lookup symbol to ids of the files where it's used.
+ *
+ * Unlike [LookupMap], new ids are appended to the stored value without reading it,
+ * so a value consists of several chunks which need to be compacted from time to time (see [FileIdsExternalizer]).
+ */
+internal class CompactLookupMap(storage: File) : BasicMap<LookupSymbolKey, FileIds>(storage, LookupSymbolKeyDescriptor, FileIdsExternalizer) {
+    override fun dumpKey(key: LookupSymbolKey): String = key.toString()
+
+    override fun dumpValue(value: FileIds): String = value.toString()
+
+    /**
+     * @param sortedFileIds sorted distinct ids
+     */
+    fun append(key: LookupSymbolKey, sortedFileIds: IntArray) {
+        storage.append(key) { out -> FileIdsExternalizer.writeChunk(out, sortedFileIds) }
+    }
+
+    operator fun get(key: LookupSymbolKey): FileIds? = storage[key]
+
+    operator fun set(key: LookupSymbolKey, fileIds: FileIds) {
+        storage[key] = fileIds
+    }
+
+    fun remove(key: LookupSymbolKey) {
+        storage.remove(key)
+    }
+
+    val keys: Collection<LookupSymbolKey>
+        get() = storage.keys
+}
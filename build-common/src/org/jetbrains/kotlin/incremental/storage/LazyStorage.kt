@@ -20,13 +20,15 @@ import com.intellij.util.io.DataExternalizer
 import com.intellij.util.io.IOUtil
 import com.intellij.util.io.KeyDescriptor
 import com.intellij.util.io.PersistentHashMap
-import java.io.DataOutput
-import java.io.File
-import java.io.IOException
+import java.io.*
+import java.util.*
 
 
 /**
  * It's lazy in a sense that PersistentHashMap is created only on write
+ *
+ * In write-behind mode (see [enableWriteBehind]) modifications are kept in memory until [flush],
+ * reads see them on top of the values on disk. Pending modifications can be dropped with [discardPendingWrites]
  */
 class LazyStorage<K, V>(
         private val storageFile: File,
@@ -36,6 +38,10 @@ class LazyStorage<K, V>(
     @Volatile
     private var storage: PersistentHashMap<K, V>? = null
 
+    // null when write-behind mode is disabled
+    @Volatile
+    private var pendingWrites: MutableMap<K, PendingWrite<V>>? = null
+
     @Synchronized
     private fun getStorageIfExists(): PersistentHashMap<K, V>? {
         if (storage != null) return storage
@@ -58,19 +64,67 @@ class LazyStorage<K, V>(
     }
 
     val keys: Collection<K>
-        get() = getStorageIfExists()?.allKeysWithExistingMapping ?: listOf()
+        get() {
+            val existingKeys = getStorageIfExists()?.allKeysWithExistingMapping ?: listOf()
+
+            synchronized(this) {
+                val pending = pendingWrites
+                if (pending == null || pending.isEmpty()) return existingKeys
+
+                val result = LinkedHashSet<K>(existingKeys)
+                for ((key, write) in pending) {
+                    if (write.isRemoval) {
+                        result.remove(key)
+                    }
+                    else {
+                        result.add(key)
+                    }
+                }
+                return result
+            }
+        }
+
+    operator fun contains(key: K): Boolean {
+        getPendingWrite(key)?.let { return !it.isRemoval }
 
-    operator fun contains(key: K): Boolean =
-            getStorageIfExists()?.containsMapping(key) ?: false
+        return getStorageIfExists()?.containsMapping(key) ?: false
+    }
+
+    operator fun get(key: K): V? {
+        val write = getPendingWrite(key) ?: return getStorageIfExists()?.get(key)
+
+        val base = if (write.replacesStoredValue) write.value else getStorageIfExists()?.get(key)
+        val appendedData = write.appendedData ?: return base
 
-    operator fun get(key: K): V? =
-            getStorageIfExists()?.get(key)
+        val bytes = ByteArrayOutputStream()
+        DataOutputStream(bytes).use { output ->
+            if (base != null) {
+                valueExternalizer.save(output, base)
+            }
+            appendedData.writeTo(output)
+        }
+        return valueExternalizer.read(DataInputStream(ByteArrayInputStream(bytes.toByteArray())))
+    }
 
     operator fun set(key: K, value: V) {
+        synchronized(this) {
+            pendingWrites?.let { pending ->
+                pending[key] = PendingWrite(replacesStoredValue = true, value = value)
+                return
+            }
+        }
+
         getStorageOrCreateNew().put(key, value)
     }
 
     fun remove(key: K) {
+        synchronized(this) {
+            pendingWrites?.let { pending ->
+                pending[key] = PendingWrite(replacesStoredValue = true, value = null)
+                return
+            }
+        }
+
         getStorageIfExists()?.remove(key)
     }
 
@@ -82,6 +136,24 @@ class LazyStorage<K, V>(
         append(key) { out -> out.writeInt(value) }
     }
 
+    /**
+     * Starts keeping modifications in memory until the next [flush]
+     */
+    @Synchronized
+    fun enableWriteBehind() {
+        if (pendingWrites == null) {
+            pendingWrites = HashMap()
+        }
+    }
+
+    /**
+     * Drops modifications made since the last [flush], so the map is the same as it's on disk
+     */
+    @Synchronized
+    fun discardPendingWrites() {
+        pendingWrites?.clear()
+    }
+
     @Synchronized
     fun clean() {
         try {
@@ -92,10 +164,15 @@ class LazyStorage<K, V>(
 
         PersistentHashMap.deleteFilesStartingWith(storageFile)
         storage = null
+        pendingWrites?.clear()
     }
 
     @Synchronized
     fun flush(memoryCachesOnly: Boolean) {
+        if (!memoryCachesOnly) {
+            writePendingWrites()
+        }
+
         val existingStorage = storage ?: return
 
         if (memoryCachesOnly) {
@@ -116,7 +193,63 @@ class LazyStorage<K, V>(
     private fun createMap(): PersistentHashMap<K, V> =
             PersistentHashMap(storageFile, keyDescriptor, valueExternalizer)
 
-    private fun append(key: K, append: (DataOutput)->Unit) {
+    fun append(key: K, append: (DataOutput)->Unit) {
+        synchronized(this) {
+            pendingWrites?.let { pending ->
+                val write = pending.getOrPut(key) { PendingWrite(replacesStoredValue = false, value = null) }
+                val appendedData = write.appendedData ?: ByteArrayOutputStream().apply { write.appendedData = this }
+                append(DataOutputStream(appendedData))
+                return
+            }
+        }
+
         getStorageOrCreateNew().appendData(key, append)
     }
+
+    @Synchronized
+    private fun getPendingWrite(key: K): PendingWrite<V>? = pendingWrites?.get(key)
+
+    // Writes are sorted by hash code of a key to make access to the pages of the map more sequential
+    private fun writePendingWrites() {
+        val pending = pendingWrites
+        if (pending == null || pending.isEmpty()) return
+
+        val sortedWrites = pending.entries.sortedBy { keyDescriptor.getHashCode(it.key) }
+        for ((key, write) in sortedWrites) {
+            val value = write.value
+            val appendedData = write.appendedData
+
+            if (write.isRemoval) {
+                getStorageIfExists()?.remove(key)
+                continue
+            }
+
+            if (write.replacesStoredValue) {
+                if (value != null) {
+                    getStorageOrCreateNew().put(key, value)
+                }
+                else {
+                    getStorageIfExists()?.remove(key)
+                }
+            }
+
+            if (appendedData != null) {
+                getStorageOrCreateNew().appendData(key) { out -> out.write(appendedData.toByteArray()) }
+            }
+        }
+
+        pending.clear()
+    }
+
+    /**
+     * A modification of the value for some key.
+     * If [replacesStoredValue] is true, [value] (or no value if it's null) replaces the value on disk,
+     * otherwise the value on disk is kept. [appendedData] is appended to the resulting value
+     */
+    private class PendingWrite<V>(val replacesStoredValue: Boolean, val value: V?) {
+        var appendedData: ByteArrayOutputStream? = null
+
+        val isRemoval: Boolean
+            get() = replacesStoredValue && value == null && appendedData == null
+    }
 }
@@ -18,6 +18,9 @@ package org.jetbrains.kotlin.incremental.storage
 
 import java.io.File
 
+/**
+ * Format of the lookups storage used before [CompactLookupMap]. It's only read to migrate the existing caches
+ */
 internal class LookupMap(storage: File) : BasicMap<LookupSymbolKey, Collection<Int>>(storage, LookupSymbolKeyDescriptor, IntCollectionExternalizer) {
     override fun dumpKey(key: LookupSymbolKey): String = key.toString()
 
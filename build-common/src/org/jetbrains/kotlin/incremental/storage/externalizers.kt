@@ -18,6 +18,7 @@ package org.jetbrains.kotlin.incremental.storage
 
 import com.intellij.openapi.util.io.FileUtil
 import com.intellij.util.io.DataExternalizer
+import com.intellij.util.io.DataInputOutputUtil
 import com.intellij.util.io.EnumeratorStringDescriptor
 import com.intellij.util.io.IOUtil
 import com.intellij.util.io.KeyDescriptor
@@ -214,3 +215,66 @@ open class CollectionExternalizer<T>(
 object StringCollectionExternalizer : CollectionExternalizer<String>(EnumeratorStringDescriptor(), { HashSet() })
 
 object IntCollectionExternalizer : CollectionExternalizer<Int>(IntExternalizer, { HashSet() })
+
+/**
+ * Stores [FileIds] as a sequence of chunks, each of which is a size followed by sorted delta-encoded ids.
+ * A new chunk can be appended to the stored value without reading it, see [writeChunk]
+ */
+object FileIdsExternalizer : DataExternalizer<FileIds> {
+    override fun read(input: DataInput): FileIds {
+        val stream = input as DataInputStream
+        var ids = IntArray(0)
+        var chunks = 0
+
+        while (stream.available() > 0) {
+            val size = DataInputOutputUtil.readINT(stream)
+            var previous = 0
+            val chunk = IntArray(size) {
+                previous += DataInputOutputUtil.readINT(stream)
+                previous
+            }
+
+            ids = if (chunks == 0) chunk else mergeSorted(ids, chunk)
+            chunks++
+        }
+
+        return FileIds(ids, chunks)
+    }
+
+    override fun save(output: DataOutput, value: FileIds) {
+        writeChunk(output, value.ids)
+    }
+
+    /**
+     * @param sortedIds sorted distinct ids
+     */
+    fun writeChunk(output: DataOutput, sortedIds: IntArray) {
+        DataInputOutputUtil.writeINT(output, sortedIds.size)
+        var previous = 0
+        for (id in sortedIds) {
+            DataInputOutputUtil.writeINT(output, id - previous)
+            previous = id
+        }
+    }
+
+    private fun mergeSorted(first: IntArray, second: IntArray): IntArray {
+        val result = IntArray(first.size + second.size)
+        var i = 0
+        var j = 0
+        var size = 0
+        while (i < first.size || j < second.size) {
+            val next = when {
+                j == second.size -> first[i++]
+                i == first.size -> second[j++]
+                first[i] < second[j] -> first[i++]
+                first[i] > second[j] -> second[j++]
+                else -> {
+                    j++
+                    first[i++]
+                }
+            }
+            result[size++] = next
+        }
+        return if (size == result.size) result else result.copyOf(size)
+    }
+}
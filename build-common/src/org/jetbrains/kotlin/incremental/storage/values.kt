@@ -29,3 +29,10 @@ data class LookupSymbolKey(val nameHash: Int, val scopeHash: Int) : Comparable<L
 }
 
 data class ProtoMapValue(val isPackageFacade: Boolean, val bytes: ByteArray, val strings: Array<String>)
+
+/**
+ * Sorted distinct ids of files, and the number of separately appended chunks they were read from
+ */
+class FileIds(val ids: IntArray, val chunks: Int) {
+    override fun toString(): String = ids.joinToString(prefix = "[", postfix = "]")
+}
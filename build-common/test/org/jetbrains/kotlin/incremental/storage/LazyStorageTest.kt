@@ -0,0 +1,95 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.incremental.storage
+
+import com.intellij.util.io.EnumeratorStringDescriptor
+import junit.framework.TestCase
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import java.io.File
+
+class LazyStorageTest : TestCase() {
+    private lateinit var storageFile: File
+
+    override fun setUp() {
+        super.setUp()
+        storageFile = File(KotlinTestUtils.tmpDirForTest(this), "test.${BasicMapsOwner.CACHE_EXTENSION}")
+    }
+
+    fun testWriteBehind() {
+        withStorage { storage ->
+            storage["a"] = listOf("1")
+            storage["b"] = listOf("2")
+        }
+
+        withStorage(writeBehind = true) { storage ->
+            storage.append("a", "3")
+            storage.remove("b")
+            storage.append("c", "4")
+            storage["d"] = listOf("5")
+            storage.append("d", "6")
+
+            assertEquals(setOf("1", "3"), storage["a"]?.toSet())
+            assertFalse("b" in storage)
+            assertEquals(setOf("4"), storage["c"]?.toSet())
+            assertEquals(setOf("5", "6"), storage["d"]?.toSet())
+            assertEquals(setOf("a", "c", "d"), storage.keys.toSet())
+        }
+
+        withStorage { storage ->
+            assertEquals(setOf("1", "3"), storage["a"]?.toSet())
+            assertNull(storage["b"])
+            assertEquals(setOf("4"), storage["c"]?.toSet())
+            assertEquals(setOf("5", "6"), storage["d"]?.toSet())
+            assertEquals(setOf("a", "c", "d"), storage.keys.toSet())
+        }
+    }
+
+    fun testDiscardPendingWrites() {
+        withStorage { storage ->
+            storage["a"] = listOf("1")
+        }
+
+        withStorage(writeBehind = true) { storage ->
+            storage.append("a", "2")
+            storage["b"] = listOf("3")
+            storage.discardPendingWrites()
+
+            assertEquals(setOf("1"), storage["a"]?.toSet())
+            assertFalse("b" in storage)
+
+            storage.remove("a")
+        }
+
+        withStorage { storage ->
+            assertNull(storage["a"])
+        }
+    }
+
+    private fun withStorage(writeBehind: Boolean = false, body: (LazyStorage<String, Collection<String>>) -> Unit) {
+        val storage = LazyStorage(storageFile, EnumeratorStringDescriptor.INSTANCE, StringCollectionExternalizer)
+        try {
+            if (writeBehind) {
+                storage.enableWriteBehind()
+            }
+            body(storage)
+            storage.flush(false)
+        }
+        finally {
+            storage.close()
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.incremental.storage
+
+import junit.framework.TestCase
+import org.jetbrains.kotlin.incremental.LookupStorage
+import org.jetbrains.kotlin.incremental.LookupSymbol
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+
+class LookupStorageTest : TestCase() {
+    private lateinit var storageDir: File
+
+    override fun setUp() {
+        super.setUp()
+        storageDir = KotlinTestUtils.tmpDirForTest(this)
+    }
+
+    fun testAppendedLookupsAreMerged() {
+        val foo = LookupSymbol("foo", "a")
+        val bar = LookupSymbol("bar", "a")
+
+        withStorage { storage ->
+            storage.addLookups(foo to listOf("A.kt", "B.kt"), bar to listOf("B.kt"))
+        }
+        withStorage { storage ->
+            storage.addLookups(foo to listOf("C.kt", "A.kt"))
+        }
+
+        withStorage { storage ->
+            assertEquals(listOf("A.kt", "B.kt", "C.kt"), storage.getPaths(foo))
+            assertEquals(listOf("B.kt"), storage.getPaths(bar))
+        }
+    }
+
+    fun testRemovedFilesAreNotReturned() {
+        val foo = LookupSymbol("foo", "a")
+
+        withStorage { storage ->
+            storage.addLookups(foo to listOf("A.kt", "B.kt"))
+            storage.removeLookupsFrom(sequenceOf(File(storageDir, "A.kt")))
+        }
+
+        withStorage { storage ->
+            assertEquals(listOf("B.kt"), storage.getPaths(foo))
+            storage.removeLookupsFrom(sequenceOf(File(storageDir, "B.kt")))
+            assertEquals(emptyList<String>(), storage.getPaths(foo))
+        }
+    }
+
+    fun testManyRounds() {
+        val foo = LookupSymbol("foo", "a")
+
+        for (round in 1..50) {
+            withStorage { storage ->
+                storage.addLookups(foo to listOf("A$round.kt", "A${round - 1}.kt"))
+            }
+        }
+
+        withStorage { storage ->
+            assertEquals((0..50).map { "A$it.kt" }.sorted(), storage.getPaths(foo))
+        }
+    }
+
+    fun testFileIdsExternalizer() {
+        val bytes = ByteArrayOutputStream()
+        DataOutputStream(bytes).use { output ->
+            FileIdsExternalizer.save(output, FileIds(intArrayOf(1, 5, 1000, 100000), 1))
+            FileIdsExternalizer.writeChunk(output, intArrayOf(0, 5, 7))
+            FileIdsExternalizer.writeChunk(output, intArrayOf())
+        }
+
+        val fileIds = FileIdsExternalizer.read(DataInputStream(bytes.toByteArray().inputStream()))
+        assertEquals(listOf(0, 1, 5, 7, 1000, 100000), fileIds.ids.toList())
+        assertEquals(3, fileIds.chunks)
+    }
+
+    fun testMigrationFromLegacyFormat() {
+        val foo = LookupSymbol("foo", "a")
+
+        withStorage { storage ->
+            storage.addLookups(foo to listOf("A.kt"))
+        }
+
+        val bar = LookupSymbol("bar", "b")
+        val legacyStorageFile = File(storageDir, "lookups.${BasicMapsOwner.CACHE_EXTENSION}")
+        val legacyLookupMap = LookupMap(legacyStorageFile)
+        // A.kt is the only known file, so its id is 0
+        legacyLookupMap.add(foo.name, foo.scope, 0)
+        legacyLookupMap.add(bar.name, bar.scope, 0)
+        legacyLookupMap.close()
+
+        withStorage { storage ->
+            assertEquals(listOf("A.kt"), storage.getPaths(foo))
+            assertEquals(listOf("A.kt"), storage.getPaths(bar))
+        }
+        assertFalse(legacyStorageFile.exists())
+    }
+
+    private fun withStorage(body: (LookupStorage) -> Unit) {
+        val storage = LookupStorage(storageDir)
+        try {
+            body(storage)
+            storage.flush(false)
+        }
+        finally {
+            storage.close()
+        }
+    }
+
+    private fun LookupStorage.addLookups(vararg lookups: Pair<LookupSymbol, List<String>>) {
+        val lookupsWithPaths = lookups.associate { (symbol, paths) -> symbol to paths.map { File(storageDir, it).path } }
+        addAll(lookupsWithPaths.entries, lookupsWithPaths.values.flatten().toSet())
+    }
+
+    private fun LookupStorage.getPaths(symbol: LookupSymbol): List<String> =
+            get(symbol).map { File(it).toRelativeString(storageDir) }.sorted()
+}
@@ -59,6 +59,7 @@ import org.jetbrains.kotlin.storage.LockBasedStorageManager;
 import org.jetbrains.kotlin.storage.NotNullLazyValue;
 import org.jetbrains.kotlin.types.ErrorUtils;
 import org.jetbrains.kotlin.types.KotlinType;
+import org.jetbrains.kotlin.util.PhaseProfiler;
 import org.jetbrains.org.objectweb.asm.Label;
 import org.jetbrains.org.objectweb.asm.MethodVisitor;
 import org.jetbrains.org.objectweb.asm.Opcodes;
@@ -284,11 +285,13 @@ public abstract class MemberCodegen<T extends KtPureElement/* TODO: & KtDeclarat
     ) {
 
         Type classType = state.getTypeMapper().mapClass(descriptor);
-        ClassBuilder classBuilder = state.getFactory().newVisitor(
-                JvmDeclarationOriginKt.OtherOrigin(aClass, descriptor),
-                classType, aClass.getContainingKtFile());
-        ClassContext classContext = parentContext.intoClass(descriptor, OwnerKind.IMPLEMENTATION, state);
-        new ImplementationBodyCodegen(aClass, classContext, classBuilder, state, parentCodegen, false).generate();
+        try (PhaseProfiler.Phase ignored = PhaseProfiler.start("Generate class", classType.getInternalName())) {
+            ClassBuilder classBuilder = state.getFactory().newVisitor(
+                    JvmDeclarationOriginKt.OtherOrigin(aClass, descriptor),
+                    classType, aClass.getContainingKtFile());
+            ClassContext classContext = parentContext.intoClass(descriptor, OwnerKind.IMPLEMENTATION, state);
+            new ImplementationBodyCodegen(aClass, classContext, classBuilder, state, parentCodegen, false).generate();
+        }
     }
 
     public static void badDescriptor(ClassDescriptor descriptor, ClassBuilderMode mode) {
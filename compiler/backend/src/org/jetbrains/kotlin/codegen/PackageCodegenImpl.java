@@ -34,6 +34,7 @@ import org.jetbrains.kotlin.progress.ProgressIndicatorAndCompilationCanceledStat
 import org.jetbrains.kotlin.psi.*;
 import org.jetbrains.kotlin.resolve.BindingContext;
 import org.jetbrains.kotlin.resolve.jvm.diagnostics.JvmDeclarationOriginKt;
+import org.jetbrains.kotlin.util.PhaseProfiler;
 import org.jetbrains.org.objectweb.asm.Type;
 
 import java.util.ArrayList;
@@ -63,7 +64,9 @@ public class PackageCodegenImpl implements PackageCodegen {
         for (KtFile file : files) {
             ProgressIndicatorAndCompilationCanceledStatus.checkCanceled();
             try {
-                generateFile(file);
+                try (PhaseProfiler.Phase ignored = PhaseProfiler.start("Generate file", file.getName())) {
+                    generateFile(file);
+                }
                 state.afterIndependentPart();
             }
             catch (ProcessCanceledException e) {
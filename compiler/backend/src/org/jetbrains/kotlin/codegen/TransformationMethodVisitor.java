@@ -51,40 +51,59 @@ public abstract class TransformationMethodVisitor extends MethodVisitor {
 
     @Override
     public void visitEnd() {
+        completeMethodNode();
+
+        try {
+            transformMethodNode();
+            emitMethodNode();
+        }
+        catch (Throwable t) {
+            throw transformationFailed(t);
+        }
+    }
+
+    /**
+     * Finishes visiting of the method node, so that it can be transformed (possibly on another thread) and emitted afterwards
+     */
+    protected void completeMethodNode() {
         // force mv to calculate maxStack/maxLocals in case it didn't yet done
         if (methodNode.maxLocals <= 0 || methodNode.maxStack <= 0) {
             mv.visitMaxs(-1, -1);
         }
 
         super.visitEnd();
+    }
 
-        try {
-            if (shouldBeTransformed(methodNode)) {
-                performTransformations(methodNode);
-            }
+    protected void transformMethodNode() {
+        if (shouldBeTransformed(methodNode)) {
+            performTransformations(methodNode);
+        }
+    }
 
-            methodNode.accept(new EndIgnoringMethodVisitorDecorator(Opcodes.ASM5, delegate));
-
-
-            // In case of empty instructions list MethodNode.accept doesn't call visitLocalVariables of delegate
-            // So we just do it here
-            if (methodNode.instructions.size() == 0
-                // MethodNode does not create a list of variables for abstract methods, so we would get NPE in accept() instead
-                && (!(delegate instanceof MethodNode) || (methodNode.access & Opcodes.ACC_ABSTRACT) == 0)
-            ) {
-                List<LocalVariableNode> localVariables = methodNode.localVariables;
-                // visits local variables
-                int n = localVariables == null ? 0 : localVariables.size();
-                for (int i = 0; i < n; ++i) {
-                    localVariables.get(i).accept(delegate);
-                }
+    protected void emitMethodNode() {
+        methodNode.accept(new EndIgnoringMethodVisitorDecorator(Opcodes.ASM5, delegate));
+
+
+        // In case of empty instructions list MethodNode.accept doesn't call visitLocalVariables of delegate
+        // So we just do it here
+        if (methodNode.instructions.size() == 0
+            // MethodNode does not create a list of variables for abstract methods, so we would get NPE in accept() instead
+            && (!(delegate instanceof MethodNode) || (methodNode.access & Opcodes.ACC_ABSTRACT) == 0)
+        ) {
+            List<LocalVariableNode> localVariables = methodNode.localVariables;
+            // visits local variables
+            int n = localVariables == null ? 0 : localVariables.size();
+            for (int i = 0; i < n; ++i) {
+                localVariables.get(i).accept(delegate);
             }
-
-            delegate.visitEnd();
-        }
-        catch (Throwable t) {
-            throw new CompilationException("Couldn't transform method node: " + InlineCodegenUtil.getNodeText(methodNode), t, null);
         }
+
+        delegate.visitEnd();
+    }
+
+    @NotNull
+    protected CompilationException transformationFailed(@NotNull Throwable t) {
+        return new CompilationException("Couldn't transform method node: " + InlineCodegenUtil.getNodeText(methodNode), t, null);
     }
 
     protected abstract void performTransformations(@NotNull MethodNode methodNode);
@@ -16,16 +16,41 @@
 
 package org.jetbrains.kotlin.codegen.inline
 
+import com.intellij.openapi.vfs.StandardFileSystems
+import com.intellij.openapi.vfs.VirtualFile
 import com.intellij.util.containers.SLRUMap
+import org.jetbrains.kotlin.load.kotlin.ClassFileKey
 import org.jetbrains.kotlin.name.ClassId
 import org.jetbrains.kotlin.name.FqName
 import org.jetbrains.org.objectweb.asm.commons.Method
+import java.io.IOException
 
 data class MethodId(val containingFqName: FqName, val method: Method)
 
-class InlineCache {
+class InlineCache(private val sharedCache: SharedInlineCache? = SharedInlineCache.instance) {
     val classBytes: SLRUMap<ClassId, ByteArray> = SLRUMap(30, 20)
     val methodNodeById: SLRUMap<MethodId, SMAPAndMethodNode> = SLRUMap(60, 50)
+
+    @Throws(IOException::class)
+    fun getClassBytes(classId: ClassId, file: VirtualFile): ByteArray =
+            classBytes.getOrPut(classId) {
+                val key = sharedKeyFor(file)
+                if (sharedCache != null && key != null) sharedCache.getClassBytes(key) { file.contentsToByteArray() }
+                else file.contentsToByteArray()
+            }
+
+    @Throws(IOException::class)
+    fun getMethodNode(classId: ClassId, file: VirtualFile, method: Method): SMAPAndMethodNode? {
+        fun readMethodNode() = InlineCodegenUtil.getMethodNode(getClassBytes(classId, file), method.name, method.descriptor, classId)
+
+        val key = sharedKeyFor(file)
+        return if (sharedCache != null && key != null) sharedCache.getMethodNode(key, method, ::readMethodNode) else readMethodNode()
+    }
+
+    // Only classes from jars are shared, class directories are often the output of the modules being compiled,
+    // which may be rewritten with the same timestamp and length
+    private fun sharedKeyFor(file: VirtualFile): ClassFileKey? =
+            if (sharedCache != null && file.fileSystem.protocol == StandardFileSystems.JAR_PROTOCOL) ClassFileKey.of(file) else null
 }
 
 inline fun <K, V> SLRUMap<K, V>.getOrPut(key: K, defaultValue: () -> V): V {
@@ -54,6 +54,7 @@ import org.jetbrains.kotlin.serialization.deserialization.descriptors.Deserializ
 import org.jetbrains.kotlin.types.KotlinType;
 import org.jetbrains.kotlin.types.expressions.DoubleColonLHS;
 import org.jetbrains.kotlin.types.expressions.LabelResolver;
+import org.jetbrains.kotlin.util.PhaseProfiler;
 import org.jetbrains.org.objectweb.asm.Label;
 import org.jetbrains.org.objectweb.asm.MethodVisitor;
 import org.jetbrains.org.objectweb.asm.Opcodes;
@@ -180,8 +181,10 @@ public class InlineCodegen extends CallGenerator {
 
         SMAPAndMethodNode nodeAndSmap = null;
         try {
-            nodeAndSmap = createMethodNode(functionDescriptor, jvmSignature, codegen, context, callDefault, resolvedCall);
-            endCall(inlineCall(nodeAndSmap, callDefault));
+            try (PhaseProfiler.Phase ignored = PhaseProfiler.start("Inline", functionDescriptor.getName().asString())) {
+                nodeAndSmap = createMethodNode(functionDescriptor, jvmSignature, codegen, context, callDefault, resolvedCall);
+                endCall(inlineCall(nodeAndSmap, callDefault));
+            }
         }
         catch (CompilationException e) {
             throw e;
@@ -297,7 +300,7 @@ public class InlineCodegen extends CallGenerator {
     }
 
     @NotNull
-    private static MethodNode cloneMethodNode(@NotNull MethodNode methodNode) {
+    static MethodNode cloneMethodNode(@NotNull MethodNode methodNode) {
         methodNode.instructions.resetLabels();
         MethodNode result = new MethodNode(
                 API, methodNode.access, methodNode.name, methodNode.desc, methodNode.signature,
@@ -327,20 +330,16 @@ public class InlineCodegen extends CallGenerator {
 
         ClassId containerId = containingClasses.getImplClassId();
 
-        byte[] bytes = InlineCacheKt.getOrPut(state.getInlineCache().getClassBytes(), containerId, () -> {
-            VirtualFile file = InlineCodegenUtil.findVirtualFile(state, containerId);
-            if (file == null) {
-                throw new IllegalStateException("Couldn't find declaration file for " + containerId);
-            }
-            try {
-                return file.contentsToByteArray();
-            }
-            catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-        });
-
-        return InlineCodegenUtil.getMethodNode(bytes, asmMethod.getName(), asmMethod.getDescriptor(), containerId);
+        VirtualFile file = InlineCodegenUtil.findVirtualFile(state, containerId);
+        if (file == null) {
+            throw new IllegalStateException("Couldn't find declaration file for " + containerId);
+        }
+        try {
+            return state.getInlineCache().getMethodNode(containerId, file, asmMethod);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     @NotNull
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.codegen.inline
+
+import org.jetbrains.kotlin.load.kotlin.ClassFileKey
+import org.jetbrains.org.objectweb.asm.commons.Method
+import java.util.*
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Class files and inline function bodies read from the jars of the compiled dependencies, shared by all compilations
+ * in the process (e.g. in the compile daemon). Class directories are not shared (see [InlineCache]).
+ *
+ * Entries are keyed by the class file along with the timestamp and the length of the jar containing it,
+ * so a changed dependency is never served from the cache. The least recently used entries are evicted when the total
+ * (estimated) size of the entries exceeds [maxSizeInBytes].
+ *
+ * Method nodes are mutated by the inliner, so each read returns a copy of the cached node.
+ */
+class SharedInlineCache(private val maxSizeInBytes: Long) {
+    private data class MethodKey(val classFile: ClassFileKey, val name: String, val descriptor: String)
+
+    private class Entry(val value: Any, val size: Long)
+
+    class Statistics(val hits: Long, val misses: Long, val sizeInBytes: Long) {
+        operator fun minus(other: Statistics) = Statistics(hits - other.hits, misses - other.misses, sizeInBytes)
+
+        override fun toString() = "$hits hits, $misses misses, ${sizeInBytes / 1024} kb"
+    }
+
+    private val entries = LinkedHashMap<Any, Entry>(256, 0.75f, /* accessOrder = */ true)
+    private var sizeInBytes = 0L
+
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+
+    fun getClassBytes(key: ClassFileKey, compute: () -> ByteArray): ByteArray =
+            get(key) as ByteArray? ?: compute().also { put(key, it, it.size.toLong()) }
+
+    fun getMethodNode(key: ClassFileKey, method: Method, compute: () -> SMAPAndMethodNode?): SMAPAndMethodNode? {
+        val methodKey = MethodKey(key, method.name, method.descriptor)
+        val cached = get(methodKey) as SMAPAndMethodNode? ?: compute()?.also { put(methodKey, it, it.estimatedSize()) } ?: return null
+        return cached.copy()
+    }
+
+    val statistics: Statistics
+        get() = Statistics(hits.get(), misses.get(), synchronized(this) { sizeInBytes })
+
+    @Synchronized
+    fun clear() {
+        entries.clear()
+        sizeInBytes = 0
+    }
+
+    @Synchronized
+    private fun get(key: Any): Any? {
+        val entry = entries[key]
+        (if (entry != null) hits else misses).incrementAndGet()
+        return entry?.value
+    }
+
+    @Synchronized
+    private fun put(key: Any, value: Any, size: Long) {
+        if (size > maxSizeInBytes) return
+
+        entries.put(key, Entry(value, size))?.let { sizeInBytes -= it.size }
+        sizeInBytes += size
+
+        val iterator = entries.values.iterator()
+        while (sizeInBytes > maxSizeInBytes && iterator.hasNext()) {
+            sizeInBytes -= iterator.next().size
+            iterator.remove()
+        }
+    }
+
+    companion object {
+        // Rough size of an instruction node with its operands
+        private val INSTRUCTION_SIZE_ESTIMATE = 48
+
+        /**
+         * The cache used by code generation in this process, if any
+         */
+        @JvmStatic
+        @Volatile
+        var instance: SharedInlineCache? = null
+
+        private fun SMAPAndMethodNode.estimatedSize(): Long = node.instructions.size().toLong() * INSTRUCTION_SIZE_ESTIMATE
+
+        // Cloning resets the labels of the original node, so concurrent copies of the same node are not allowed
+        private fun SMAPAndMethodNode.copy(): SMAPAndMethodNode =
+                synchronized(this) { copyWithNewNode(InlineCodegen.cloneMethodNode(node)) }
+    }
+}
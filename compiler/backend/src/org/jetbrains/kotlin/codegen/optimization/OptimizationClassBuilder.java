@@ -23,13 +23,25 @@ import org.jetbrains.kotlin.codegen.DelegatingClassBuilder;
 import org.jetbrains.kotlin.resolve.jvm.diagnostics.JvmDeclarationOrigin;
 import org.jetbrains.org.objectweb.asm.MethodVisitor;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
 public class OptimizationClassBuilder extends DelegatingClassBuilder {
     private final ClassBuilder delegate;
     private final boolean disableOptimization;
+    @Nullable
+    private final Executor executor;
+    private final List<OptimizationMethodVisitor> pendingMethods = new ArrayList<>();
 
     public OptimizationClassBuilder(@NotNull ClassBuilder delegate, boolean disableOptimization) {
+        this(delegate, disableOptimization, null);
+    }
+
+    public OptimizationClassBuilder(@NotNull ClassBuilder delegate, boolean disableOptimization, @Nullable Executor executor) {
         this.delegate = delegate;
         this.disableOptimization = disableOptimization;
+        this.executor = executor;
     }
 
     @NotNull
@@ -48,10 +60,25 @@ public class OptimizationClassBuilder extends DelegatingClassBuilder {
             @Nullable String signature,
             @Nullable String[] exceptions
     ) {
-        return new OptimizationMethodVisitor(
+        OptimizationMethodVisitor visitor = new OptimizationMethodVisitor(
                 super.newMethod(origin, access, name, desc, signature, exceptions),
-                disableOptimization,
+                disableOptimization, executor,
                 access, name, desc, signature, exceptions
         );
+        pendingMethods.add(visitor);
+        return visitor;
+    }
+
+    @Override
+    public void done() {
+        // Methods are emitted in the order of their creation when the class is done, with or without the executor.
+        // So the resulting class file, including the order of its constant pool, doesn't depend on the order in which
+        // the transformations were completed, nor on whether they were run concurrently
+        for (OptimizationMethodVisitor visitor : pendingMethods) {
+            visitor.emitTransformed();
+        }
+        pendingMethods.clear();
+
+        super.done();
     }
 }
@@ -17,23 +17,37 @@
 package org.jetbrains.kotlin.codegen.optimization;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.kotlin.codegen.ClassBuilder;
 import org.jetbrains.kotlin.codegen.ClassBuilderFactory;
 import org.jetbrains.kotlin.codegen.ClassBuilderMode;
 import org.jetbrains.kotlin.codegen.DelegatingClassBuilderFactory;
 import org.jetbrains.kotlin.resolve.jvm.diagnostics.JvmDeclarationOrigin;
 
+import java.util.concurrent.Executor;
+
 public class OptimizationClassBuilderFactory extends DelegatingClassBuilderFactory {
     private final boolean disableOptimization;
+    @Nullable
+    private final Executor executor;
 
     public OptimizationClassBuilderFactory(ClassBuilderFactory delegate, boolean disableOptimization) {
+        this(delegate, disableOptimization, null);
+    }
+
+    /**
+     * @param executor if not null, method transformations are run on it concurrently,
+     *                 and the methods of each class are written out in their original order when the class is done
+     */
+    public OptimizationClassBuilderFactory(ClassBuilderFactory delegate, boolean disableOptimization, @Nullable Executor executor) {
         super(delegate);
         this.disableOptimization = disableOptimization;
+        this.executor = executor;
     }
 
     @NotNull
     @Override
     public OptimizationClassBuilder newClassBuilder(@NotNull JvmDeclarationOrigin origin) {
-        return new OptimizationClassBuilder(getDelegate().newClassBuilder(origin), disableOptimization);
+        return new OptimizationClassBuilder(getDelegate().newClassBuilder(origin), disableOptimization, executor);
     }
 }
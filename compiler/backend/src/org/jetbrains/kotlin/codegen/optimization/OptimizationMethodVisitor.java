@@ -25,9 +25,15 @@ import org.jetbrains.kotlin.codegen.optimization.captured.CapturedVarsOptimizati
 import org.jetbrains.kotlin.codegen.optimization.common.UtilKt;
 import org.jetbrains.kotlin.codegen.optimization.nullCheck.RedundantNullCheckV2MethodTransformer;
 import org.jetbrains.kotlin.codegen.optimization.transformer.MethodTransformer;
+import org.jetbrains.kotlin.util.PhaseProfiler;
 import org.jetbrains.org.objectweb.asm.MethodVisitor;
 import org.jetbrains.org.objectweb.asm.tree.MethodNode;
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
 public class OptimizationMethodVisitor extends TransformationMethodVisitor {
     private static final int MEMORY_LIMIT_BY_METHOD_MB = 50;
 
@@ -46,6 +52,14 @@ public class OptimizationMethodVisitor extends TransformationMethodVisitor {
 
     private final boolean disableOptimization;
 
+    // If true, the method is emitted only by an explicit call to emitTransformed(), and transformations are performed
+    // on the executor if it's not null, or in visitEnd() otherwise
+    private final boolean deferEmission;
+    @Nullable
+    private final Executor executor;
+    @Nullable
+    private Future<?> transformation;
+
     public OptimizationMethodVisitor(
             @NotNull MethodVisitor delegate,
             boolean disableOptimization,
@@ -54,22 +68,110 @@ public class OptimizationMethodVisitor extends TransformationMethodVisitor {
             @NotNull String desc,
             @Nullable String signature,
             @Nullable String[] exceptions
+    ) {
+        this(delegate, disableOptimization, false, null, access, name, desc, signature, exceptions);
+    }
+
+    /**
+     * Creates a visitor for a method of a class generated by {@link OptimizationClassBuilder}, which emits the method in
+     * {@link OptimizationClassBuilder#done()}
+     */
+    OptimizationMethodVisitor(
+            @NotNull MethodVisitor delegate,
+            boolean disableOptimization,
+            @Nullable Executor executor,
+            int access,
+            @NotNull String name,
+            @NotNull String desc,
+            @Nullable String signature,
+            @Nullable String[] exceptions
+    ) {
+        this(delegate, disableOptimization, true, executor, access, name, desc, signature, exceptions);
+    }
+
+    private OptimizationMethodVisitor(
+            @NotNull MethodVisitor delegate,
+            boolean disableOptimization,
+            boolean deferEmission,
+            @Nullable Executor executor,
+            int access,
+            @NotNull String name,
+            @NotNull String desc,
+            @Nullable String signature,
+            @Nullable String[] exceptions
     ) {
         super(delegate, access, name, desc, signature, exceptions);
         this.disableOptimization = disableOptimization;
+        this.deferEmission = deferEmission;
+        this.executor = executor;
+    }
+
+    @Override
+    public void visitEnd() {
+        if (!deferEmission) {
+            super.visitEnd();
+            return;
+        }
+
+        completeMethodNode();
+
+        FutureTask<Void> task = new FutureTask<>(this::transformMethodNode, null);
+        transformation = task;
+        if (executor != null) {
+            executor.execute(task);
+        }
+        else {
+            // Without the executor the method is transformed right away, so that only the transformed node is kept until
+            // the class is done, and a failure is reported by emitTransformed() as in the concurrent case
+            task.run();
+        }
+    }
+
+    /**
+     * Waits for the transformations started in {@link #visitEnd()} and writes the resulting method to the delegate.
+     * Must be called on the thread which generates the class, in the order in which the methods were created
+     */
+    void emitTransformed() {
+        if (transformation == null) return;
+
+        try {
+            transformation.get();
+            emitMethodNode();
+        }
+        catch (ExecutionException e) {
+            throw transformationFailed(e.getCause());
+        }
+        catch (Throwable t) {
+            throw transformationFailed(t);
+        }
+        finally {
+            transformation = null;
+        }
     }
 
     @Override
     protected void performTransformations(@NotNull MethodNode methodNode) {
-        MANDATORY_METHOD_TRANSFORMER.transform("fake", methodNode);
+        PhaseProfiler profiler = PhaseProfiler.current();
+        transform(MANDATORY_METHOD_TRANSFORMER, methodNode, profiler);
         if (canBeOptimized(methodNode) && !disableOptimization) {
             for (MethodTransformer transformer : OPTIMIZATION_TRANSFORMERS) {
-                transformer.transform("fake", methodNode);
+                transform(transformer, methodNode, profiler);
             }
         }
         UtilKt.prepareForEmitting(methodNode);
     }
 
+    private static void transform(@NotNull MethodTransformer transformer, @NotNull MethodNode methodNode, @Nullable PhaseProfiler profiler) {
+        if (profiler == null) {
+            transformer.transform("fake", methodNode);
+            return;
+        }
+
+        try (PhaseProfiler.Phase ignored = profiler.startPhase(transformer.getClass().getSimpleName(), null)) {
+            transformer.transform("fake", methodNode);
+        }
+    }
+
     private static boolean canBeOptimized(@NotNull MethodNode node) {
         int totalFramesSizeMb = node.instructions.size() * (node.maxLocals + node.maxStack) / (1024 * 1024);
         return totalFramesSizeMb < MEMORY_LIMIT_BY_METHOD_MB;
@@ -48,6 +48,8 @@ import org.jetbrains.kotlin.resolve.jvm.diagnostics.JvmDeclarationOrigin
 import org.jetbrains.kotlin.resolve.jvm.diagnostics.JvmDeclarationOriginKind.CLASS_MEMBER_DELEGATION_TO_DEFAULT_IMPL
 import org.jetbrains.kotlin.serialization.deserialization.DeserializationConfiguration
 import java.io.File
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.ForkJoinPool
 
 class GenerationState @JvmOverloads constructor(
         val project: Project,
@@ -120,6 +122,12 @@ class GenerationState @JvmOverloads constructor(
     private val interceptedBuilderFactory: ClassBuilderFactory
     private var used = false
 
+    // Runs method optimizations concurrently with code generation, see OptimizationClassBuilder
+    private val optimizationExecutor: ExecutorService? =
+            configuration.get(JVMConfigurationKeys.PARALLEL_BACKEND_THREADS, 1).let { threads ->
+                if (threads > 1 && builderFactory.classBuilderMode.generateBodies) ForkJoinPool(threads) else null
+            }
+
     val diagnostics: DiagnosticSink get() = extraJvmDiagnosticsTrace
     val collectedExtraJvmDiagnostics: Diagnostics = LazyJvmDiagnostics {
         duplicateSignatureFactory.reportDiagnostics()
@@ -176,7 +184,7 @@ class GenerationState @JvmOverloads constructor(
     init {
         this.interceptedBuilderFactory = builderFactory
                 .wrapWith(
-                    { OptimizationClassBuilderFactory(it, configuration.get(JVMConfigurationKeys.DISABLE_OPTIMIZATION, false)) },
+                    { OptimizationClassBuilderFactory(it, configuration.get(JVMConfigurationKeys.DISABLE_OPTIMIZATION, false), optimizationExecutor) },
                     ::CoroutineTransformerClassBuilderFactory,
                     { BuilderFactoryForDuplicateSignatureDiagnostics(
                             it, this.bindingContext, diagnostics,
@@ -212,6 +220,7 @@ class GenerationState @JvmOverloads constructor(
 
     fun destroy() {
         interceptedBuilderFactory.close()
+        optimizationExecutor?.shutdown()
     }
 
     private fun shouldOnlyCollectSignatures(origin: JvmDeclarationOrigin)
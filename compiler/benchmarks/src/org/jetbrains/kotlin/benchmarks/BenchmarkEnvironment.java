@@ -0,0 +1,128 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.benchmarks;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.vfs.CharsetToolkit;
+import com.intellij.psi.PsiFileFactory;
+import com.intellij.psi.impl.PsiFileFactoryImpl;
+import com.intellij.testFramework.LightVirtualFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.kotlin.analyzer.AnalysisResult;
+import org.jetbrains.kotlin.cli.common.CLIConfigurationKeys;
+import org.jetbrains.kotlin.cli.common.messages.MessageRenderer;
+import org.jetbrains.kotlin.cli.common.messages.PrintingMessageCollector;
+import org.jetbrains.kotlin.cli.jvm.compiler.CliLightClassGenerationSupport;
+import org.jetbrains.kotlin.cli.jvm.compiler.EnvironmentConfigFiles;
+import org.jetbrains.kotlin.cli.jvm.compiler.JvmPackagePartProvider;
+import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment;
+import org.jetbrains.kotlin.cli.jvm.config.JvmContentRootsKt;
+import org.jetbrains.kotlin.config.CommonConfigurationKeys;
+import org.jetbrains.kotlin.config.CompilerConfiguration;
+import org.jetbrains.kotlin.idea.KotlinLanguage;
+import org.jetbrains.kotlin.psi.KtFile;
+import org.jetbrains.kotlin.resolve.jvm.TopDownAnalyzerFacadeForJVM;
+import org.jetbrains.kotlin.utils.PathUtil;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compiler environment with the JDK of the current JVM and the standard library from the distribution ("dist/kotlinc")
+ * in the classpath (and optionally other libraries), shared by all invocations of a benchmark
+ */
+public class BenchmarkEnvironment {
+    private final Disposable disposable = Disposer.newDisposable();
+    private final KotlinCoreEnvironment environment;
+
+    public BenchmarkEnvironment() {
+        this(Collections.emptyList());
+    }
+
+    public BenchmarkEnvironment(@NotNull List<File> libraries) {
+        CompilerConfiguration configuration = new CompilerConfiguration();
+        configuration.put(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY,
+                          new PrintingMessageCollector(System.err, MessageRenderer.PLAIN_RELATIVE_PATHS, false));
+        configuration.put(CommonConfigurationKeys.MODULE_NAME, "benchmark");
+        JvmContentRootsKt.addJvmClasspathRoots(configuration, PathUtil.getJdkClassesRootsFromCurrentJre());
+
+        File stdlib = PathUtil.getKotlinPathsForDistDirectory().getStdlibPath();
+        if (!stdlib.isFile()) {
+            throw new IllegalStateException(stdlib + " is not found, the distribution should be built before running the benchmarks");
+        }
+        JvmContentRootsKt.addJvmClasspathRoot(configuration, stdlib);
+        JvmContentRootsKt.addJvmClasspathRoots(configuration, libraries);
+
+        environment = KotlinCoreEnvironment.createForProduction(disposable, configuration, EnvironmentConfigFiles.JVM_CONFIG_FILES);
+    }
+
+    @NotNull
+    public Project getProject() {
+        return environment.getProject();
+    }
+
+    @NotNull
+    public CompilerConfiguration getConfiguration() {
+        return environment.getConfiguration();
+    }
+
+    @NotNull
+    public List<KtFile> createFiles(@NotNull List<Corpus.SourceFile> sources) {
+        List<KtFile> files = new ArrayList<>(sources.size());
+        for (Corpus.SourceFile source : sources) {
+            files.add(createFile(source));
+        }
+        return files;
+    }
+
+    // Files are not cached by the PSI manager, so a new syntax tree is built for every created file
+    @NotNull
+    public KtFile createFile(@NotNull Corpus.SourceFile source) {
+        LightVirtualFile virtualFile = new LightVirtualFile(source.name, KotlinLanguage.INSTANCE, source.text) {
+            @NotNull
+            @Override
+            public String getPath() {
+                return "/" + source.name;
+            }
+        };
+        virtualFile.setCharset(CharsetToolkit.UTF8_CHARSET);
+        PsiFileFactoryImpl factory = (PsiFileFactoryImpl) PsiFileFactory.getInstance(getProject());
+        //noinspection ConstantConditions
+        return (KtFile) factory.trySetupPsiForFile(virtualFile, KotlinLanguage.INSTANCE, true, false);
+    }
+
+    @NotNull
+    public AnalysisResult analyze(@NotNull List<KtFile> files) {
+        return analyze(files, getConfiguration());
+    }
+
+    @NotNull
+    public AnalysisResult analyze(@NotNull List<KtFile> files, @NotNull CompilerConfiguration configuration) {
+        return TopDownAnalyzerFacadeForJVM.analyzeFilesWithJavaIntegration(
+                getProject(), files, new CliLightClassGenerationSupport.NoScopeRecordCliBindingTrace(), configuration,
+                scope -> new JvmPackagePartProvider(environment, scope)
+        );
+    }
+
+    public void dispose() {
+        Disposer.dispose(disposable);
+    }
+}
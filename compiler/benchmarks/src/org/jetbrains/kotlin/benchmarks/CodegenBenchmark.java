@@ -0,0 +1,81 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.benchmarks;
+
+import org.jetbrains.kotlin.analyzer.AnalysisResult;
+import org.jetbrains.kotlin.codegen.ClassBuilderFactories;
+import org.jetbrains.kotlin.codegen.CompilationErrorHandler;
+import org.jetbrains.kotlin.codegen.KotlinCodegenFacade;
+import org.jetbrains.kotlin.codegen.state.GenerationState;
+import org.jetbrains.kotlin.config.CompilerConfiguration;
+import org.jetbrains.kotlin.config.JVMConfigurationKeys;
+import org.jetbrains.kotlin.psi.KtFile;
+import org.jetbrains.kotlin.resolve.AnalyzingUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates bytecode for the analyzed corpus with {@code ExpressionCodegen} and the rest of the JVM backend. Optimizations
+ * of the generated methods can be switched off to see the time of the code generation alone, see also {@link OptimizationBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CodegenBenchmark {
+    @Param({Corpus.GENERATED})
+    public String corpus;
+
+    @Param({"true", "false"})
+    public boolean optimize;
+
+    private BenchmarkEnvironment environment;
+    private CompilerConfiguration configuration;
+    private List<KtFile> files;
+    private AnalysisResult analysisResult;
+
+    @Setup
+    public void setUp() throws IOException {
+        environment = new BenchmarkEnvironment();
+        configuration = environment.getConfiguration().copy();
+        configuration.put(JVMConfigurationKeys.DISABLE_OPTIMIZATION, !optimize);
+        files = environment.createFiles(Corpus.load(corpus));
+        analysisResult = environment.analyze(files, configuration);
+        AnalyzingUtils.throwExceptionOnErrors(analysisResult.getBindingContext());
+    }
+
+    @TearDown
+    public void tearDown() {
+        environment.dispose();
+    }
+
+    @Benchmark
+    public GenerationState generate() {
+        GenerationState state = new GenerationState(
+                environment.getProject(), ClassBuilderFactories.binaries(false), analysisResult.getModuleDescriptor(),
+                analysisResult.getBindingContext(), files, configuration
+        );
+        KotlinCodegenFacade.compileCorrectFiles(state, CompilationErrorHandler.THROW_EXCEPTION);
+        state.destroy();
+        return state;
+    }
+}
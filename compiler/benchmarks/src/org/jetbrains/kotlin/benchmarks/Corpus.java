@@ -0,0 +1,83 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.benchmarks;
+
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Source files which the benchmarks are run on. Corpora are fixed, so that the results of different runs are comparable:
+ * <ul>
+ *     <li>{@link #PSI} is the parser test data, which covers all syntax constructs but doesn't compile</li>
+ *     <li>{@link #GENERATED} is a few large files without errors, see {@link GeneratedCorpus}</li>
+ * </ul>
+ *
+ * Paths are relative to the project root, which is the working directory of the benchmarks.
+ */
+public class Corpus {
+    public static final String PSI = "psi";
+    public static final String GENERATED = "generated";
+
+    private static final String PSI_TEST_DATA = "compiler/testData/psi";
+
+    public static class SourceFile {
+        public final String name;
+        public final String text;
+
+        public SourceFile(@NotNull String name, @NotNull String text) {
+            this.name = name;
+            this.text = text;
+        }
+    }
+
+    @NotNull
+    public static List<SourceFile> load(@NotNull String corpus) throws IOException {
+        switch (corpus) {
+            case PSI:
+                return loadKotlinFiles(new File(PSI_TEST_DATA));
+            case GENERATED:
+                return GeneratedCorpus.generate(10, 200);
+            default:
+                throw new IllegalArgumentException("Unknown corpus: " + corpus);
+        }
+    }
+
+    @NotNull
+    private static List<SourceFile> loadKotlinFiles(@NotNull File directory) throws IOException {
+        if (!directory.isDirectory()) {
+            throw new IOException(directory + " is not found, benchmarks should be run from the project root");
+        }
+
+        List<File> files = new ArrayList<>();
+        FileUtil.collectMatchedFiles(directory, Pattern.compile(".*\\.kt"), files);
+        // The order of files affects the results of the benchmarks which process all files together
+        Collections.sort(files);
+
+        List<SourceFile> result = new ArrayList<>(files.size());
+        for (File file : files) {
+            result.add(new SourceFile(FileUtil.getRelativePath(directory, file), FileUtil.loadFile(file, true)));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.benchmarks;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.descriptors.*;
+import org.jetbrains.kotlin.name.FqName;
+import org.jetbrains.kotlin.resolve.DescriptorUtils;
+import org.jetbrains.kotlin.resolve.scopes.MemberScope;
+import org.jetbrains.kotlin.types.KotlinType;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deserializes all declarations of the given packages (the standard library by default) in a new module: classes, their members
+ * and supertypes, and the types of all functions and properties.
+ *
+ * Other libraries can be added with {@code -p libraries=<paths separated by the path separator>}, their packages
+ * with {@code -p packages=<comma-separated list>}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class DeserializationBenchmark {
+    @Param({""})
+    public String libraries;
+
+    @Param({"kotlin"})
+    public String packages;
+
+    private BenchmarkEnvironment environment;
+
+    @Setup
+    public void setUp() {
+        List<File> libraryFiles = new ArrayList<>();
+        for (String path : libraries.split(File.pathSeparator)) {
+            if (!path.isEmpty()) {
+                libraryFiles.add(new File(path));
+            }
+        }
+        environment = new BenchmarkEnvironment(libraryFiles);
+    }
+
+    @TearDown
+    public void tearDown() {
+        environment.dispose();
+    }
+
+    @Benchmark
+    public int deserialize() {
+        // A new module is created by every analysis, so nothing is deserialized before
+        ModuleDescriptor module = environment.analyze(Collections.emptyList()).getModuleDescriptor();
+        int count = 0;
+        for (String packageName : packages.split(",")) {
+            count += visitPackage(module, new FqName(packageName.trim()));
+        }
+        return count;
+    }
+
+    private static int visitPackage(@NotNull ModuleDescriptor module, @NotNull FqName fqName) {
+        int count = visitScope(module.getPackage(fqName).getMemberScope());
+        for (FqName subPackage : module.getSubPackagesOf(fqName, MemberScope.Companion.getALL_NAME_FILTER())) {
+            count += visitPackage(module, subPackage);
+        }
+        return count;
+    }
+
+    private static int visitScope(@NotNull MemberScope scope) {
+        int count = 0;
+        for (DeclarationDescriptor descriptor : DescriptorUtils.getAllDescriptors(scope)) {
+            count++;
+            if (descriptor instanceof ClassDescriptor) {
+                ClassDescriptor classDescriptor = (ClassDescriptor) descriptor;
+                for (KotlinType supertype : classDescriptor.getTypeConstructor().getSupertypes()) {
+                    count += visitType(supertype);
+                }
+                for (ClassConstructorDescriptor constructor : classDescriptor.getConstructors()) {
+                    count += visitCallable(constructor);
+                }
+                count += visitScope(classDescriptor.getUnsubstitutedMemberScope());
+            }
+            else if (descriptor instanceof CallableDescriptor) {
+                count += visitCallable((CallableDescriptor) descriptor);
+            }
+        }
+        return count;
+    }
+
+    private static int visitCallable(@NotNull CallableDescriptor callable) {
+        int count = visitType(callable.getReturnType());
+        for (ValueParameterDescriptor parameter : callable.getValueParameters()) {
+            count += visitType(parameter.getType());
+        }
+        return count;
+    }
+
+    // Deserialized types are lazy, their classifiers are resolved here
+    private static int visitType(@Nullable KotlinType type) {
+        return type != null && type.getConstructor().getDeclarationDescriptor() != null ? 1 : 0;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.benchmarks;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates large source files which compile without errors. The text depends only on the arguments, so the corpus is the same
+ * on every run.
+ *
+ * Each function uses classes, generics, lambdas passed to inline functions of the standard library, smart casts, when expressions
+ * and string templates, and calls a function from the previous file, so that all the main parts of the resolution and code generation
+ * are involved.
+ */
+public class GeneratedCorpus {
+    private static final String FILE_HEADER =
+            "package generated.p$FILE\n" +
+            "\n" +
+            "data class Item$FILE(val id: Int, val name: String, val tags: List<String>)\n" +
+            "\n" +
+            "interface Visitor$FILE<out R> {\n" +
+            "    fun visit(item: Item$FILE): R\n" +
+            "}\n" +
+            "\n" +
+            "class Repository$FILE {\n" +
+            "    private val items = ArrayList<Item$FILE>()\n" +
+            "\n" +
+            "    fun add(item: Item$FILE) {\n" +
+            "        items.add(item)\n" +
+            "    }\n" +
+            "\n" +
+            "    fun find(id: Int): Item$FILE? = items.firstOrNull { it.id == id }\n" +
+            "\n" +
+            "    fun <R> visitAll(visitor: Visitor$FILE<R>): List<R> = items.map { visitor.visit(it) }\n" +
+            "}\n" +
+            "\n" +
+            "fun Item$FILE.describe(): String = \"$name#$id(${tags.joinToString()})\"\n" +
+            "\n" +
+            "fun entry$FILE(seed: Int): Int = $ENTRY\n";
+
+    private static final String FUNCTION =
+            "\n" +
+            "fun compute$FILE_$FUNCTION(repository: Repository$FILE, seed: Int, extra: Any?): Int {\n" +
+            "    val item = Item$FILE(seed, \"item$FUNCTION\", listOf(\"a$FUNCTION\", \"b$FUNCTION\"))\n" +
+            "    repository.add(item)\n" +
+            "    val found = repository.find(seed) ?: return -1\n" +
+            "    var total = found.tags.sumBy { it.length } + found.describe().length\n" +
+            "    if (extra is String) {\n" +
+            "        total += extra.length\n" +
+            "    }\n" +
+            "    for (k in 0 until seed % 10) {\n" +
+            "        total += when (k % 3) {\n" +
+            "            0 -> k * 2\n" +
+            "            1 -> found.name.length\n" +
+            "            else -> listOf(k, total).max() ?: 0\n" +
+            "        }\n" +
+            "    }\n" +
+            "    val ids = repository.visitAll(object : Visitor$FILE<Int> {\n" +
+            "        override fun visit(item: Item$FILE) = item.id + total\n" +
+            "    })\n" +
+            "    return ids.filter { it > seed }.fold(total) { acc, id -> acc + id } + $CALL\n" +
+            "}\n";
+
+    @NotNull
+    public static List<Corpus.SourceFile> generate(int files, int functionsPerFile) {
+        List<Corpus.SourceFile> result = new ArrayList<>(files);
+        for (int file = 0; file < files; file++) {
+            String fileIndex = String.valueOf(file);
+            StringBuilder text = new StringBuilder();
+            text.append(FILE_HEADER
+                                .replace("$FILE", fileIndex)
+                                .replace("$ENTRY", "compute" + file + "_0(Repository" + file + "(), seed, null)"));
+
+            for (int function = 0; function < functionsPerFile; function++) {
+                String call = file > 0 ? "generated.p" + (file - 1) + ".entry" + (file - 1) + "(seed - 1)" : "0";
+                text.append(FUNCTION
+                                    .replace("$FILE_$FUNCTION", fileIndex + "_" + function)
+                                    .replace("$FILE", fileIndex)
+                                    .replace("$FUNCTION", String.valueOf(function))
+                                    .replace("$CALL", call));
+            }
+
+            result.add(new Corpus.SourceFile("generated" + file + ".kt", text.toString()));
+        }
+        return result;
+    }
+}
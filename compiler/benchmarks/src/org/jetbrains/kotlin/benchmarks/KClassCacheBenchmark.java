@@ -0,0 +1,82 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.benchmarks;
+
+import kotlin.jvm.JvmClassMappingKt;
+import kotlin.reflect.KClass;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looks up {@code KClass} instances of Java classes in the cache of kotlin-reflect ({@code Foo::class} in Kotlin), by one
+ * and by many threads. Before the measurement, {@link #generations} generations of class loaders load their own copy
+ * of a class, get its {@code KClass} and its constructors, and are dropped (like applications redeployed in a server),
+ * so that the lookups are also measured with the entries of the unloaded classes in the caches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class KClassCacheBenchmark {
+    @Param({"0", "1000"})
+    public int generations;
+
+    private final Class<?>[] classes = {
+            String.class, Integer.class, ArrayList.class, HashMap.class, Payload.class, KClassCacheBenchmark.class
+    };
+
+    @Setup
+    public void setUp() throws Exception {
+        URL classes = KClassCacheBenchmark.class.getProtectionDomain().getCodeSource().getLocation();
+        for (int i = 0; i < generations; i++) {
+            // No parent, so that every class loader defines its own Payload
+            try (URLClassLoader classLoader = new URLClassLoader(new URL[] {classes}, null)) {
+                Class<?> payload = classLoader.loadClass(Payload.class.getName());
+                JvmClassMappingKt.getKotlinClass(payload).getConstructors();
+            }
+        }
+        System.gc();
+    }
+
+    @Benchmark
+    public KClass<?> lookup() {
+        return lookupAll();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public KClass<?> lookupConcurrently() {
+        return lookupAll();
+    }
+
+    private KClass<?> lookupAll() {
+        KClass<?> result = null;
+        for (Class<?> klass : classes) {
+            result = JvmClassMappingKt.getKotlinClass(klass);
+        }
+        return result;
+    }
+
+    public static class Payload {
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.benchmarks;
+
+import org.jetbrains.kotlin.lexer.KotlinLexer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splits all files of the corpus into tokens with {@code _JetLexer}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class LexerBenchmark {
+    @Param({Corpus.PSI, Corpus.GENERATED})
+    public String corpus;
+
+    private List<Corpus.SourceFile> sources;
+
+    @Setup
+    public void setUp() throws IOException {
+        sources = Corpus.load(corpus);
+    }
+
+    @Benchmark
+    public int lex() {
+        KotlinLexer lexer = new KotlinLexer();
+        int tokens = 0;
+        for (Corpus.SourceFile source : sources) {
+            lexer.start(source.text);
+            while (lexer.getTokenType() != null) {
+                tokens++;
+                lexer.advance();
+            }
+        }
+        return tokens;
+    }
+}
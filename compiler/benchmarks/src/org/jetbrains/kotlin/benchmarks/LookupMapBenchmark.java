@@ -0,0 +1,166 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jetbrains.kotlin.benchmarks;
+
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.kotlin.incremental.storage.CompactLookupMap;
+import org.jetbrains.kotlin.incremental.storage.FileIds;
+import org.jetbrains.kotlin.incremental.storage.LookupMap;
+import org.jetbrains.kotlin.incremental.storage.LookupSymbolKey;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the lookups storage of incremental compilation, {@link CompactLookupMap}, with the format it replaced,
+ * {@link LookupMap}. Before each iteration, {@link #rounds} rounds of compilation add their lookups: {@link #symbols} symbols,
+ * each used in {@link #filesPerSymbol} random files out of {@link #files}. Then {@code addRound*} adds the lookups of one more
+ * round (read, merge and rewrite for {@link LookupMap}, append for {@link CompactLookupMap}), and {@code get*} reads every symbol.
+ * Compaction of the appended chunks is done by {@code LookupStorage} and isn't measured, so {@code getFromCompactLookupMap}
+ * reads values of {@link #rounds} chunks, more than {@code LookupStorage} leaves uncompacted.
+ * <p>
+ * Time is reported per round or per pass over the symbols, and heap allocation by the GC profiler. The size of the storage
+ * on disk after the iteration is printed to the output of the forked JVM.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class LookupMapBenchmark {
+    @Param({"10"})
+    public int rounds;
+
+    @Param({"10000"})
+    public int symbols;
+
+    @Param({"1000"})
+    public int files;
+
+    @Param({"5"})
+    public int filesPerSymbol;
+
+    private File storageDir;
+    private LookupMap lookupMap;
+    private CompactLookupMap compactLookupMap;
+    private LookupSymbolKey[] keys;
+    private Random random;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        storageDir = FileUtil.createTempDirectory("lookups", null);
+        lookupMap = new LookupMap(new File(storageDir, "lookups.tab"));
+        compactLookupMap = new CompactLookupMap(new File(storageDir, "compact-lookups.tab"));
+
+        keys = new LookupSymbolKey[symbols];
+        for (int i = 0; i < symbols; i++) {
+            keys[i] = new LookupSymbolKey("name" + i, "org.jetbrains.kotlin.benchmarks.scope" + (i % 100));
+        }
+
+        random = new Random(42);
+        for (int round = 0; round < rounds; round++) {
+            addRoundToLookupMap();
+            addRoundToCompactLookupMap();
+        }
+        lookupMap.flush(false);
+        compactLookupMap.flush(false);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        lookupMap.close();
+        compactLookupMap.close();
+        System.out.println("lookups: " + storageSize("lookups.tab") + " bytes, " +
+                           "compact-lookups: " + storageSize("compact-lookups.tab") + " bytes");
+        FileUtil.delete(storageDir);
+    }
+
+    @Benchmark
+    public void addRoundToLookupMap() {
+        for (LookupSymbolKey key : keys) {
+            Set<Integer> fileIds = new HashSet<>();
+            for (int id : randomFileIds()) {
+                fileIds.add(id);
+            }
+            Collection<Integer> oldFileIds = lookupMap.get(key);
+            if (oldFileIds != null) {
+                fileIds.addAll(oldFileIds);
+            }
+            lookupMap.set(key, fileIds);
+        }
+    }
+
+    @Benchmark
+    public void addRoundToCompactLookupMap() {
+        for (LookupSymbolKey key : keys) {
+            compactLookupMap.append(key, randomFileIds());
+        }
+    }
+
+    @Benchmark
+    public int getFromLookupMap() {
+        int result = 0;
+        for (LookupSymbolKey key : keys) {
+            result += lookupMap.get(key).size();
+        }
+        return result;
+    }
+
+    @Benchmark
+    public int getFromCompactLookupMap() {
+        int result = 0;
+        for (LookupSymbolKey key : keys) {
+            FileIds fileIds = compactLookupMap.get(key);
+            result += fileIds.getIds().length;
+        }
+        return result;
+    }
+
+    private int[] randomFileIds() {
+        int[] ids = new int[filesPerSymbol];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = random.nextInt(files);
+        }
+        Arrays.sort(ids);
+        // distinct, as LookupStorage does
+        int size = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (size == 0 || ids[size - 1] != ids[i]) {
+                ids[size++] = ids[i];
+            }
+        }
+        return Arrays.copyOf(ids, size);
+    }
+
+    private long storageSize(String storageName) {
+        long size = 0;
+        File[] storageFiles = storageDir.listFiles();
+        if (storageFiles != null) {
+            for (File file : storageFiles) {
+                if (file.getName().startsWith(storageName)) {
+                    size += file.length();
+                }
+            }
+        }
+        return size;
+    }
+}
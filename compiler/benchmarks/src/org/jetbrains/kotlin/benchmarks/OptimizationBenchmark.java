@@ -0,0 +1,107 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.benchmarks;
+
+import org.jetbrains.kotlin.analyzer.AnalysisResult;
+import org.jetbrains.kotlin.backend.common.output.OutputFile;
+import org.jetbrains.kotlin.codegen.ClassBuilderFactories;
+import org.jetbrains.kotlin.codegen.CompilationErrorHandler;
+import org.jetbrains.kotlin.codegen.KotlinCodegenFacade;
+import org.jetbrains.kotlin.codegen.optimization.OptimizationMethodVisitor;
+import org.jetbrains.kotlin.codegen.state.GenerationState;
+import org.jetbrains.kotlin.config.CompilerConfiguration;
+import org.jetbrains.kotlin.config.JVMConfigurationKeys;
+import org.jetbrains.kotlin.psi.KtFile;
+import org.jetbrains.kotlin.resolve.AnalyzingUtils;
+import org.jetbrains.org.objectweb.asm.ClassReader;
+import org.jetbrains.org.objectweb.asm.Opcodes;
+import org.jetbrains.org.objectweb.asm.tree.ClassNode;
+import org.jetbrains.org.objectweb.asm.tree.MethodNode;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the transformers of {@code OptimizationMethodVisitor} on the methods generated for the corpus. Methods are generated
+ * once without optimizations and are copied by the visitor before every transformation, the time of copying alone can be seen
+ * with {@code optimize = false}, when only the mandatory transformations are performed
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class OptimizationBenchmark {
+    @Param({Corpus.GENERATED})
+    public String corpus;
+
+    @Param({"true", "false"})
+    public boolean optimize;
+
+    private final List<MethodNode> methods = new ArrayList<>();
+
+    @Setup
+    public void setUp() throws IOException {
+        BenchmarkEnvironment environment = new BenchmarkEnvironment();
+        try {
+            CompilerConfiguration configuration = environment.getConfiguration().copy();
+            configuration.put(JVMConfigurationKeys.DISABLE_OPTIMIZATION, true);
+            List<KtFile> files = environment.createFiles(Corpus.load(corpus));
+            AnalysisResult analysisResult = environment.analyze(files, configuration);
+            AnalyzingUtils.throwExceptionOnErrors(analysisResult.getBindingContext());
+
+            GenerationState state = new GenerationState(
+                    environment.getProject(), ClassBuilderFactories.binaries(false), analysisResult.getModuleDescriptor(),
+                    analysisResult.getBindingContext(), files, configuration
+            );
+            KotlinCodegenFacade.compileCorrectFiles(state, CompilationErrorHandler.THROW_EXCEPTION);
+
+            for (OutputFile outputFile : state.getFactory().asList()) {
+                if (!outputFile.getRelativePath().endsWith(".class")) continue;
+
+                ClassNode classNode = new ClassNode();
+                new ClassReader(outputFile.asByteArray()).accept(classNode, 0);
+                for (MethodNode method : classNode.methods) {
+                    if (method.instructions.size() > 0) {
+                        methods.add(method);
+                    }
+                }
+            }
+            state.destroy();
+        }
+        finally {
+            environment.dispose();
+        }
+    }
+
+    @Benchmark
+    public void transform(Blackhole blackhole) {
+        for (MethodNode method : methods) {
+            MethodNode result = new MethodNode(Opcodes.ASM5, method.access, method.name, method.desc, method.signature, null);
+            String[] exceptions = method.exceptions.toArray(new String[method.exceptions.size()]);
+            method.accept(new OptimizationMethodVisitor(
+                    result, !optimize, method.access, method.name, method.desc, method.signature, exceptions
+            ));
+            blackhole.consume(result);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jetbrains.kotlin.benchmarks;
+
+import kotlin.Unit;
+import kotlin.jvm.functions.Function0;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.daemon.CallbackChannelTransport;
+import org.jetbrains.kotlin.daemon.EventManager;
+import org.jetbrains.kotlin.daemon.IncrementalCacheTransport;
+import org.jetbrains.kotlin.daemon.RemoteIncrementalCacheClient;
+import org.jetbrains.kotlin.daemon.RmiIncrementalCacheTransport;
+import org.jetbrains.kotlin.daemon.client.CompilerCallbackServicesFacadeServer;
+import org.jetbrains.kotlin.daemon.common.CompilerCallbackServicesFacade;
+import org.jetbrains.kotlin.daemon.common.DummyProfiler;
+import org.jetbrains.kotlin.incremental.components.LookupTracker;
+import org.jetbrains.kotlin.load.kotlin.incremental.components.IncrementalCache;
+import org.jetbrains.kotlin.load.kotlin.incremental.components.IncrementalCompilationComponents;
+import org.jetbrains.kotlin.load.kotlin.incremental.components.JvmPackagePartProto;
+import org.jetbrains.kotlin.modules.TargetId;
+import org.openjdk.jmh.annotations.*;
+
+import java.rmi.server.RemoteObject;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trips between the compile daemon and its client through the incremental cache: the queries and inline function
+ * registrations of one compilation of a module, sent over RMI on the loopback interface to a client-side cache which answers
+ * immediately. {@code direct} calls the facade once per query, like the daemon did before. {@code memoized} goes through
+ * {@link RemoteIncrementalCacheClient}, which memoizes the answers and sends the inline functions in one call, and {@code channel}
+ * does the same over the callback channel instead of RMI, opening the channel like every compilation does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class RemoteIncrementalCacheBenchmark {
+    /**
+     * Number of queries of the package part data and class file paths in one compilation; every name is queried
+     * {@link #repeats} times
+     */
+    @Param({"1000"})
+    public int queries;
+
+    @Param({"1", "10"})
+    public int repeats;
+
+    private static final TargetId TARGET = new TargetId("benchmark", "java-production");
+
+    private CompilerCallbackServicesFacadeServer server;
+    private CompilerCallbackServicesFacade facade;
+    private List<String> names;
+
+    @Setup
+    public void setUp() throws Exception {
+        server = new CompilerCallbackServicesFacadeServer(new Components(), null, 0);
+        // The stub, and not the server object itself, so that every call goes through RMI
+        facade = (CompilerCallbackServicesFacade) RemoteObject.toStub(server);
+
+        names = new ArrayList<>();
+        for (int i = 0; i < queries / repeats; i++) {
+            names.add("org/jetbrains/kotlin/benchmarks/Part" + i + "Kt");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        UnicastRemoteObject.unexportObject(server, true);
+    }
+
+    @Benchmark
+    public Object direct() throws Exception {
+        Object result = null;
+        for (int repeat = 0; repeat < repeats; repeat++) {
+            result = facade.incrementalCache_getObsoletePackageParts(TARGET);
+            for (String name : names) {
+                result = facade.incrementalCache_getPackagePartData(TARGET, name);
+                result = facade.incrementalCache_getClassFilePath(TARGET, name);
+                facade.incrementalCache_registerInline(TARGET, name, "inline()V", name);
+            }
+        }
+        return result;
+    }
+
+    @Benchmark
+    public Object memoized() {
+        return compile(new RmiIncrementalCacheTransport(facade));
+    }
+
+    @Benchmark
+    public Object channel() throws Exception {
+        CallbackChannelTransport transport =
+                new CallbackChannelTransport(facade.incrementalCache_openChannel(), new RmiIncrementalCacheTransport(facade));
+        try {
+            return compile(transport);
+        }
+        finally {
+            transport.close();
+        }
+    }
+
+    private Object compile(IncrementalCacheTransport transport) {
+        CompilationEvents events = new CompilationEvents();
+        IncrementalCache cache = new RemoteIncrementalCacheClient(transport, TARGET, events, new DummyProfiler());
+        Object result = null;
+        for (int repeat = 0; repeat < repeats; repeat++) {
+            result = cache.getObsoletePackageParts();
+            for (String name : names) {
+                result = cache.getPackagePartData(name);
+                result = cache.getClassFilePath(name);
+                cache.registerInline(name, "inline()V", name);
+            }
+        }
+        events.fireCompilationFinished();
+        return result;
+    }
+
+    private static class CompilationEvents implements EventManager {
+        private final List<Function0<Unit>> callbacks = new ArrayList<>();
+
+        @Override
+        public void onCompilationFinished(@NotNull Function0<Unit> f) {
+            callbacks.add(f);
+        }
+
+        void fireCompilationFinished() {
+            for (Function0<Unit> callback : callbacks) {
+                callback.invoke();
+            }
+        }
+    }
+
+    private static class Components implements IncrementalCompilationComponents {
+        private final IncrementalCache cache = new Cache();
+
+        @NotNull
+        @Override
+        public IncrementalCache getIncrementalCache(@NotNull TargetId target) {
+            return cache;
+        }
+
+        @NotNull
+        @Override
+        public LookupTracker getLookupTracker() {
+            return LookupTracker.DO_NOTHING.INSTANCE;
+        }
+    }
+
+    private static class Cache implements IncrementalCache {
+        private final JvmPackagePartProto packagePart = new JvmPackagePartProto(new byte[256], new String[] {"foo", "bar", "baz"});
+
+        @NotNull
+        @Override
+        public Collection<String> getObsoletePackageParts() {
+            return Collections.emptyList();
+        }
+
+        @NotNull
+        @Override
+        public Collection<String> getObsoleteMultifileClasses() {
+            return Collections.emptyList();
+        }
+
+        @Nullable
+        @Override
+        public Collection<String> getStableMultifileFacadeParts(@NotNull String facadeInternalName) {
+            return null;
+        }
+
+        @Nullable
+        @Override
+        public JvmPackagePartProto getPackagePartData(@NotNull String partInternalName) {
+            return packagePart;
+        }
+
+        @Nullable
+        @Override
+        public byte[] getModuleMappingData() {
+            return null;
+        }
+
+        @Override
+        public void registerInline(@NotNull String fromPath, @NotNull String jvmSignature, @NotNull String toPath) {
+        }
+
+        @NotNull
+        @Override
+        public String getClassFilePath(@NotNull String internalClassName) {
+            return "/out/" + internalClassName + ".class";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.benchmarks;
+
+import org.jetbrains.kotlin.analyzer.AnalysisResult;
+import org.jetbrains.kotlin.psi.KtFile;
+import org.jetbrains.kotlin.psi.KtTreeVisitorVoid;
+import org.jetbrains.kotlin.resolve.AnalyzingUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Analyzes the corpus: resolves declarations and bodies (calls are resolved by {@code TowerResolver}), then runs control flow
+ * analysis and checkers. Syntax trees are built once, before the measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ResolveBenchmark {
+    @Param({Corpus.GENERATED})
+    public String corpus;
+
+    private BenchmarkEnvironment environment;
+    private List<KtFile> files;
+
+    @Setup
+    public void setUp() throws IOException {
+        environment = new BenchmarkEnvironment();
+        files = environment.createFiles(Corpus.load(corpus));
+        for (KtFile file : files) {
+            file.accept(new KtTreeVisitorVoid());
+        }
+        // Make sure that the whole corpus is resolved
+        AnalyzingUtils.throwExceptionOnErrors(environment.analyze(files).getBindingContext());
+    }
+
+    @TearDown
+    public void tearDown() {
+        environment.dispose();
+    }
+
+    @Benchmark
+    public AnalysisResult analyze() {
+        return environment.analyze(files);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.benchmarks;
+
+import org.jetbrains.kotlin.analyzer.AnalysisResult;
+import org.jetbrains.kotlin.psi.KtFile;
+import org.jetbrains.kotlin.resolve.AnalyzingUtils;
+import org.jetbrains.kotlin.resolve.BindingContext;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the storages of the binding trace: {@code SliceTablesMap} ({@code slicedMap=tables}) and the legacy {@code SlicedMapImpl}
+ * ({@code slicedMap=legacy}). {@link #analyze} measures the analysis of the corpus (see {@code gc.alloc.rate.norm} for the allocations),
+ * {@link #retained} reports the memory retained by the binding context in the {@code retainedKb} counter.
+ *
+ * The storage is chosen by a system property when {@code BindingTraceContext} is loaded. The property is set before the environment
+ * is created, which works because every parameter value is run in its own fork, so the benchmark shouldn't be run with {@code -f 0}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SlicedMapBenchmark {
+    private static final String SLICE_TABLES_PROPERTY = "kotlin.binding.trace.slice.tables";
+
+    @Param({"tables", "legacy"})
+    public String slicedMap;
+
+    @Param({Corpus.GENERATED})
+    public String corpus;
+
+    private List<Corpus.SourceFile> sources;
+    private BenchmarkEnvironment environment;
+    private List<KtFile> files;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class RetainedMemory {
+        public long retainedKb;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            retainedKb = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        System.setProperty(SLICE_TABLES_PROPERTY, String.valueOf("tables".equals(slicedMap)));
+
+        sources = Corpus.load(corpus);
+        environment = new BenchmarkEnvironment();
+        files = environment.createFiles(sources);
+        // Make sure that the whole corpus is resolved
+        AnalyzingUtils.throwExceptionOnErrors(environment.analyze(files).getBindingContext());
+    }
+
+    @TearDown
+    public void tearDown() {
+        environment.dispose();
+    }
+
+    @Benchmark
+    public AnalysisResult analyze() {
+        return environment.analyze(files);
+    }
+
+    // The corpus is analyzed in its own environment, which is disposed before the measurement: otherwise the binding context
+    // is also kept by the environment (e.g. by CliLightClassGenerationSupport), and nothing is freed when it's dropped here
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int retained(RetainedMemory counters) {
+        BenchmarkEnvironment environment = new BenchmarkEnvironment();
+        List<KtFile> files;
+        BindingContext bindingContext;
+        try {
+            files = environment.createFiles(sources);
+            bindingContext = environment.analyze(files).getBindingContext();
+        }
+        finally {
+            environment.dispose();
+        }
+
+        long withBindingContext = usedMemory();
+        // The binding context is used after the measurement, so that it can't be collected before it
+        int diagnostics = bindingContext.getDiagnostics().all().size();
+        bindingContext = null;
+        // Syntax trees are kept, so that only what's reachable from the binding context alone is counted
+        counters.retainedKb += (withBindingContext - usedMemory()) / 1024;
+        return diagnostics + files.size();
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
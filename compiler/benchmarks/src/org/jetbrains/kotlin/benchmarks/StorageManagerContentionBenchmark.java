@@ -0,0 +1,113 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.benchmarks;
+
+import org.jetbrains.kotlin.storage.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@code LockBasedStorageManager} and {@code ConcurrentStorageManager} when a group of threads requests values
+ * of the same memoized function and lazy values, like parallel resolution of a module does. Every iteration starts with
+ * a new storage manager, and each thread of the group makes a pass over all keys, so the values are computed during the
+ * measurement. The number of threads in the group can be changed with {@code -tg}.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class StorageManagerContentionBenchmark {
+    private static final int KEYS = 20000;
+    private static final int WORK_PER_VALUE = 2000;
+
+    @Param({"lockBased", "concurrent"})
+    public String storageManager;
+
+    private MemoizedFunctionToNotNull<Integer, Long> function;
+    private final Queue<Long> sums = new ConcurrentLinkedQueue<>();
+
+    @State(Scope.Thread)
+    public static class Pass {
+        // Threads start from different keys, so most of the time they compute different values
+        public int firstKey;
+
+        @Setup
+        public void setUp(ThreadParams params) {
+            firstKey = params.getGroupThreadIndex() * KEYS / params.getGroupThreadCount();
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        StorageManager manager = createStorageManager();
+        // Each value depends on a lazy value, like a member scope of a class depends on its supertypes
+        List<NotNullLazyValue<Long>> lazyValues = new ArrayList<>(KEYS);
+        for (int i = 0; i < KEYS; i++) {
+            int key = i;
+            lazyValues.add(manager.createLazyValue(() -> work(key)));
+        }
+        function = manager.createMemoizedFunction(key -> work(key) + lazyValues.get(key).invoke());
+        sums.clear();
+    }
+
+    @TearDown(Level.Iteration)
+    public void checkSums() {
+        if (new HashSet<>(sums).size() != 1) {
+            throw new IllegalStateException("Different results: " + sums);
+        }
+    }
+
+    @Benchmark
+    @Group("resolve")
+    @GroupThreads(4)
+    public long resolve(Pass pass) {
+        long sum = 0;
+        for (int i = 0; i < KEYS; i++) {
+            sum += function.invoke((i + pass.firstKey) % KEYS);
+        }
+        sums.add(sum);
+        return sum;
+    }
+
+    private StorageManager createStorageManager() {
+        switch (storageManager) {
+            case "lockBased":
+                return new LockBasedStorageManager();
+            case "concurrent":
+                return new ConcurrentStorageManager();
+            default:
+                throw new IllegalArgumentException("Unknown storage manager: " + storageManager);
+        }
+    }
+
+    private static long work(int seed) {
+        long result = seed;
+        for (int i = 1; i <= WORK_PER_VALUE; i++) {
+            result = result * 31 + i ^ (result >>> 7);
+        }
+        return result;
+    }
+}
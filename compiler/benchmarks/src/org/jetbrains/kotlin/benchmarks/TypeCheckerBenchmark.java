@@ -0,0 +1,93 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.benchmarks;
+
+import org.jetbrains.kotlin.psi.KtFile;
+import org.jetbrains.kotlin.resolve.BindingContext;
+import org.jetbrains.kotlin.types.KotlinType;
+import org.jetbrains.kotlin.types.TypeUtils;
+import org.jetbrains.kotlin.types.checker.NewKotlinTypeChecker;
+import org.jetbrains.kotlin.types.expressions.KotlinTypeInfo;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks subtyping with {@code NewKotlinTypeChecker} on the types of expressions of the analyzed corpus. Each type is checked
+ * against all its supertypes and against the type of the next expression, so that both successful and failed checks are measured
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TypeCheckerBenchmark {
+    @Param({Corpus.GENERATED})
+    public String corpus;
+
+    private BenchmarkEnvironment environment;
+    private KotlinType[] subtypes;
+    private KotlinType[] supertypes;
+
+    @Setup
+    public void setUp() throws IOException {
+        environment = new BenchmarkEnvironment();
+        List<KtFile> files = environment.createFiles(Corpus.load(corpus));
+        BindingContext bindingContext = environment.analyze(files).getBindingContext();
+
+        List<KotlinType> types = new ArrayList<>();
+        for (KotlinTypeInfo typeInfo : bindingContext.getSliceContents(BindingContext.EXPRESSION_TYPE_INFO).values()) {
+            if (typeInfo.getType() != null) {
+                types.add(typeInfo.getType());
+            }
+        }
+
+        List<KotlinType> subtypeList = new ArrayList<>();
+        List<KotlinType> supertypeList = new ArrayList<>();
+        for (int i = 0; i < types.size(); i++) {
+            KotlinType type = types.get(i);
+            for (KotlinType supertype : TypeUtils.getAllSupertypes(type)) {
+                subtypeList.add(type);
+                supertypeList.add(supertype);
+            }
+            subtypeList.add(type);
+            supertypeList.add(types.get((i + 1) % types.size()));
+        }
+        subtypes = subtypeList.toArray(new KotlinType[subtypeList.size()]);
+        supertypes = supertypeList.toArray(new KotlinType[supertypeList.size()]);
+    }
+
+    @TearDown
+    public void tearDown() {
+        environment.dispose();
+    }
+
+    @Benchmark
+    public int isSubtypeOf() {
+        int subtypesCount = 0;
+        for (int i = 0; i < subtypes.length; i++) {
+            if (NewKotlinTypeChecker.INSTANCE.isSubtypeOf(subtypes[i], supertypes[i])) {
+                subtypesCount++;
+            }
+        }
+        return subtypesCount;
+    }
+}
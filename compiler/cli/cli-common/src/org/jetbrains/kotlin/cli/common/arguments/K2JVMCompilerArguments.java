@@ -98,6 +98,34 @@ public class K2JVMCompilerArguments extends CommonCompilerArguments {
     @Argument(value = "-Xno-optimize", description = "Disable optimizations")
     public boolean noOptimize;
 
+    @Argument(
+            value = "-Xbackend-threads",
+            valueDescription = "<N>",
+            description = "Run bytecode optimizations of generated methods on N threads (experimental)"
+    )
+    public String backendThreads;
+
+    @Argument(
+            value = "-Xparsing-threads",
+            valueDescription = "<N>",
+            description = "Parse source files on N threads before the analysis (experimental)"
+    )
+    public String parsingThreads;
+
+    @Argument(
+            value = "-Xbody-resolution-threads",
+            valueDescription = "<N>",
+            description = "Resolve bodies of functions from different files on N threads (experimental)"
+    )
+    public String bodyResolutionThreads;
+
+    @Argument(
+            value = "-Xprofile-phases",
+            valueDescription = "<path>",
+            description = "Write the time and allocations of compiler phases to the file in the Chrome trace event format"
+    )
+    public String profilePhases;
+
     @Argument(value = "-Xreport-perf", description = "Report detailed performance statistics")
     public boolean reportPerf;
 
@@ -21,7 +21,9 @@ import com.intellij.openapi.util.text.StringUtil
 import com.intellij.psi.PsiElement
 import com.intellij.psi.PsiErrorElement
 import com.intellij.psi.PsiModifierListOwner
+import com.intellij.psi.impl.source.tree.LazyParseableElement
 import com.intellij.psi.util.PsiFormatUtil
+import org.jetbrains.kotlin.KtNodeTypes
 import org.jetbrains.kotlin.analyzer.AnalysisResult
 import org.jetbrains.kotlin.cli.common.messages.CompilerMessageSeverity.*
 import org.jetbrains.kotlin.codegen.state.IncompatibleClassTrackerImpl
@@ -84,7 +86,8 @@ class AnalyzerWithCompilerReport(private val messageCollector: MessageCollector)
 
     private fun reportSyntaxErrors(files: Collection<KtFile>) {
         for (file in files) {
-            reportSyntaxErrors(file, messageCollector)
+            // The analysis has already parsed the bodies it needed, those which it hasn't resolved are not parsed just to be checked
+            reportSyntaxErrors(file, messageCollector, skipUnparsedBodies = true)
         }
     }
 
@@ -170,9 +173,14 @@ class AnalyzerWithCompilerReport(private val messageCollector: MessageCollector)
             return hasErrors
         }
 
+        /**
+         * @param skipUnparsedBodies whether function bodies which haven't been parsed yet are skipped instead of being parsed
+         */
         fun reportSyntaxErrors(
                 file: PsiElement,
-                reporter: DiagnosticMessageReporter): SyntaxErrorReport {
+                reporter: DiagnosticMessageReporter,
+                skipUnparsedBodies: Boolean = false
+        ): SyntaxErrorReport {
             class ErrorReportingVisitor : AnalyzingUtils.PsiErrorElementVisitor() {
                 var hasErrors = false
                 var allErrorsAtEof = true
@@ -186,6 +194,13 @@ class AnalyzerWithCompilerReport(private val messageCollector: MessageCollector)
                     hasErrors = true
                 }
 
+                override fun visitElement(element: PsiElement) {
+                    val node = element.node
+                    if (skipUnparsedBodies && node is LazyParseableElement && node.elementType == KtNodeTypes.BLOCK && !node.isParsed) return
+
+                    super.visitElement(element)
+                }
+
                 override fun visitErrorElement(element: PsiErrorElement) {
                     val description = element.errorDescription
                     reportDiagnostic(element, SYNTAX_ERROR_FACTORY,
@@ -42,10 +42,12 @@ import org.jetbrains.kotlin.load.kotlin.incremental.components.IncrementalCompil
 import org.jetbrains.kotlin.script.KotlinScriptDefinitionFromAnnotatedTemplate
 import org.jetbrains.kotlin.script.StandardScriptDefinition
 import org.jetbrains.kotlin.util.PerformanceCounter
+import org.jetbrains.kotlin.util.PhaseProfiler
 import org.jetbrains.kotlin.utils.KotlinPaths
 import org.jetbrains.kotlin.utils.KotlinPathsFromHomeDir
 import org.jetbrains.kotlin.utils.PathUtil
 import java.io.File
+import java.io.IOException
 import java.lang.management.ManagementFactory
 import java.net.URLClassLoader
 import java.util.*
@@ -53,6 +55,19 @@ import java.util.concurrent.TimeUnit
 
 class K2JVMCompiler : CLICompiler<K2JVMCompilerArguments>() {
     override fun doExecute(arguments: K2JVMCompilerArguments, configuration: CompilerConfiguration, rootDisposable: Disposable): ExitCode {
+        val phaseProfileFile = arguments.profilePhases?.let(::File) ?: return compile(arguments, configuration, rootDisposable)
+
+        // The daemon may already profile the compilation to return the profile to the client
+        val profiler = PhaseProfiler.current() ?: PhaseProfiler()
+        try {
+            return PhaseProfiler.profile(profiler) { compile(arguments, configuration, rootDisposable) }
+        }
+        finally {
+            writePhaseProfile(configuration, profiler, phaseProfileFile)
+        }
+    }
+
+    private fun compile(arguments: K2JVMCompilerArguments, configuration: CompilerConfiguration, rootDisposable: Disposable): ExitCode {
         val messageCollector = configuration.getNotNull(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY)
 
         val paths = if (arguments.kotlinHome != null)
@@ -285,6 +300,19 @@ class K2JVMCompiler : CLICompiler<K2JVMCompilerArguments>() {
             configuration.getNotNull(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY).report(INFO, "PERF: $message")
         }
 
+        private fun writePhaseProfile(configuration: CompilerConfiguration, profiler: PhaseProfiler, file: File) {
+            profiler.summary().forEach { reportPerf(configuration, it) }
+
+            try {
+                file.absoluteFile.parentFile?.mkdirs()
+                file.bufferedWriter().use(profiler::writeChromeTrace)
+            }
+            catch (e: IOException) {
+                configuration.getNotNull(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY)
+                        .report(WARNING, "Failed to write the phase profile to $file: ${e.message}")
+            }
+        }
+
         fun reportGCTime(configuration: CompilerConfiguration) {
             ManagementFactory.getGarbageCollectorMXBeans().forEach {
                 val currentTime = it.collectionTime
@@ -306,6 +334,10 @@ class K2JVMCompiler : CLICompiler<K2JVMCompilerArguments>() {
             configuration.put(JVMConfigurationKeys.DISABLE_CALL_ASSERTIONS, arguments.noCallAssertions)
             configuration.put(JVMConfigurationKeys.DISABLE_PARAM_ASSERTIONS, arguments.noParamAssertions)
             configuration.put(JVMConfigurationKeys.DISABLE_OPTIMIZATION, arguments.noOptimize)
+            putThreadCount(configuration, JVMConfigurationKeys.PARALLEL_BACKEND_THREADS, "-Xbackend-threads", arguments.backendThreads)
+            putThreadCount(configuration, JVMConfigurationKeys.PARALLEL_PARSING_THREADS, "-Xparsing-threads", arguments.parsingThreads)
+            putThreadCount(configuration, JVMConfigurationKeys.PARALLEL_BODY_RESOLUTION_THREADS, "-Xbody-resolution-threads",
+                           arguments.bodyResolutionThreads)
             configuration.put(JVMConfigurationKeys.INHERIT_MULTIFILE_PARTS, arguments.inheritMultifileParts)
             configuration.put(JVMConfigurationKeys.SKIP_RUNTIME_VERSION_CHECK, arguments.skipRuntimeVersionCheck)
             configuration.put(JVMConfigurationKeys.USE_FAST_CLASS_FILES_READING, !arguments.useOldClassFilesReading)
@@ -324,6 +356,21 @@ class K2JVMCompiler : CLICompiler<K2JVMCompilerArguments>() {
             arguments.declarationsOutputPath?.let { configuration.put(JVMConfigurationKeys.DECLARATIONS_JSON_PATH, it) }
         }
 
+        private fun putThreadCount(
+                configuration: CompilerConfiguration, key: CompilerConfigurationKey<Int>, argumentName: String, value: String?
+        ) {
+            if (value == null) return
+
+            val threads = value.toIntOrNull()
+            if (threads != null && threads > 0) {
+                configuration.put(key, threads)
+            }
+            else {
+                configuration.getNotNull(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY)
+                        .report(STRONG_WARNING, "Invalid value of $argumentName, a positive number is expected: $value")
+            }
+        }
+
         private fun getClasspath(paths: KotlinPaths, arguments: K2JVMCompilerArguments): List<File> {
             val classpath = arrayListOf<File>()
             if (arguments.classpath != null) {
@@ -186,7 +186,7 @@ class CliLightClassGenerationSupport(project: Project) : LightClassGenerationSup
     }
 
     // TODO: needs better name + list of keys to skip somewhere
-    class NoScopeRecordCliBindingTrace : CliBindingTrace() {
+    class NoScopeRecordCliBindingTrace @JvmOverloads constructor(threadSafe: Boolean = false) : CliBindingTrace(threadSafe) {
         override fun <K, V> record(slice: WritableSlice<K, V>, key: K, value: V) {
             if (slice === BindingContext.LEXICAL_SCOPE || slice == BindingContext.DATA_FLOW_INFO_BEFORE) {
                 // In the compiler there's no need to keep scopes
@@ -200,7 +200,9 @@ class CliLightClassGenerationSupport(project: Project) : LightClassGenerationSup
         }
     }
 
-    open class CliBindingTrace @TestOnly constructor() : BindingTraceContext() {
+    open class CliBindingTrace @TestOnly @JvmOverloads constructor(
+            threadSafe: Boolean = false
+    ) : BindingTraceContext(BindingTraceFilter.ACCEPT_ALL, threadSafe) {
         private var kotlinCodeAnalyzer: KotlinCodeAnalyzer? = null
 
         override fun toString(): String {
@@ -18,6 +18,7 @@ package org.jetbrains.kotlin.cli.jvm.compiler;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.io.FileUtil;
@@ -28,13 +29,13 @@ import com.intellij.openapi.vfs.VirtualFileManager;
 import com.intellij.openapi.vfs.VirtualFileSystem;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiManager;
+import com.intellij.psi.impl.source.tree.TreeUtil;
 import kotlin.Unit;
 import kotlin.io.FilesKt;
 import kotlin.jvm.functions.Function1;
 import kotlin.sequences.SequencesKt;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
-import org.jetbrains.kotlin.backend.common.output.OutputFile;
 import org.jetbrains.kotlin.backend.common.output.OutputFileCollection;
 import org.jetbrains.kotlin.cli.common.messages.MessageCollector;
 import org.jetbrains.kotlin.cli.common.modules.ModuleScriptData;
@@ -45,14 +46,16 @@ import org.jetbrains.kotlin.extensions.PreprocessedFileCreator;
 import org.jetbrains.kotlin.idea.KotlinFileType;
 import org.jetbrains.kotlin.name.FqName;
 import org.jetbrains.kotlin.psi.KtFile;
+import org.jetbrains.kotlin.util.PhaseProfiler;
 import org.jetbrains.kotlin.utils.ExceptionUtilsKt;
 import org.jetbrains.kotlin.utils.PathUtil;
 
 import java.io.*;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
-import java.util.jar.*;
+import java.util.concurrent.*;
 
 import static org.jetbrains.kotlin.cli.common.messages.CompilerMessageSeverity.ERROR;
 
@@ -75,36 +78,49 @@ public class CompileEnvironmentUtil {
     }
 
     // TODO: includeRuntime should be not a flag but a path to runtime
-    private static void doWriteToJar(OutputFileCollection outputFiles, OutputStream fos, @Nullable FqName mainClass, boolean includeRuntime) {
+    // If writing fails, the partially written jar is deleted
+    public static void writeToJar(File jarPath, boolean jarRuntime, FqName mainClass, OutputFileCollection outputFiles) {
+        StreamingJarWriter writer = openJar(jarPath, mainClass);
+        Throwable failure = null;
         try {
-            Manifest manifest = new Manifest();
-            Attributes mainAttributes = manifest.getMainAttributes();
-            mainAttributes.putValue("Manifest-Version", "1.0");
-            mainAttributes.putValue("Created-By", "JetBrains Kotlin");
-            if (mainClass != null) {
-                mainAttributes.putValue("Main-Class", mainClass.asString());
-            }
-            JarOutputStream stream = new JarOutputStream(fos, manifest);
-            for (OutputFile outputFile : outputFiles.asList()) {
-                stream.putNextEntry(new JarEntry(outputFile.getRelativePath()));
-                stream.write(outputFile.asByteArray());
-            }
-            if (includeRuntime) {
-                writeRuntimeToJar(stream);
+            writer.add(outputFiles.asList());
+            if (jarRuntime) {
+                writeRuntimeToJar(writer);
             }
-            stream.finish();
         }
         catch (IOException e) {
-            throw new CompileEnvironmentException("Failed to generate jar file", e);
+            CompileEnvironmentException exception = new CompileEnvironmentException("Failed to generate jar file", e);
+            failure = exception;
+            throw exception;
+        }
+        catch (Throwable t) {
+            failure = t;
+            throw t;
+        }
+        finally {
+            try {
+                closeJar(writer);
+            }
+            catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                    throw e;
+                }
+                // Closing a jar after a failure is likely to fail as well, the original failure is reported instead
+                failure.addSuppressed(e);
+            }
+            finally {
+                if (failure != null) {
+                    jarPath.delete();
+                }
+            }
         }
     }
 
-    public static void writeToJar(File jarPath, boolean jarRuntime, FqName mainClass, OutputFileCollection outputFiles) {
-        FileOutputStream outputStream = null;
+    @NotNull
+    public static StreamingJarWriter openJar(@NotNull File jarPath, @Nullable FqName mainClass) {
         try {
-            outputStream = new FileOutputStream(jarPath);
-            doWriteToJar(outputFiles, outputStream, mainClass, jarRuntime);
-            outputStream.close();
+            return new StreamingJarWriter(jarPath, mainClass);
         }
         catch (FileNotFoundException e) {
             throw new CompileEnvironmentException("Invalid jar path " + jarPath, e);
@@ -112,12 +128,18 @@ public class CompileEnvironmentUtil {
         catch (IOException e) {
             throw ExceptionUtilsKt.rethrow(e);
         }
-        finally {
-            ExceptionUtilsKt.closeQuietly(outputStream);
+    }
+
+    public static void closeJar(@NotNull StreamingJarWriter writer) {
+        try {
+            writer.close();
+        }
+        catch (IOException e) {
+            throw new CompileEnvironmentException("Failed to generate jar file", e);
         }
     }
 
-    private static void writeRuntimeToJar(JarOutputStream stream) throws IOException {
+    public static void writeRuntimeToJar(@NotNull StreamingJarWriter writer) throws IOException {
         File runtimePath = PathUtil.getKotlinPathsForCompiler().getRuntimePath();
         if (!runtimePath.exists()) {
             throw new CompileEnvironmentException("Couldn't find runtime library");
@@ -127,22 +149,7 @@ public class CompileEnvironmentUtil {
             throw new CompileEnvironmentException("Couldn't find script runtime library");
         }
 
-        copyJarImpl(stream, runtimePath);
-    }
-
-    private static void copyJarImpl(JarOutputStream stream, File jarPath) throws IOException {
-        try (JarInputStream jis = new JarInputStream(new FileInputStream(jarPath))) {
-            while (true) {
-                JarEntry e = jis.getNextJarEntry();
-                if (e == null) {
-                    break;
-                }
-                if (FileUtilRt.extensionEquals(e.getName(), "class")) {
-                    stream.putNextEntry(e);
-                    FileUtil.copy(jis, stream);
-                }
-            }
-        }
+        writer.addClassesFromJar(runtimePath);
     }
 
     @NotNull
@@ -202,4 +209,45 @@ public class CompileEnvironmentUtil {
 
         return result;
     }
+
+    /**
+     * Builds the syntax trees of the files, on a fixed pool of {@code threads} threads if there's more than one.
+     * The order of the files in the list is not affected
+     */
+    public static void parseFiles(@NotNull List<KtFile> files, int threads) {
+        if (threads <= 1 || files.size() <= 1) {
+            for (KtFile file : files) {
+                parse(file);
+            }
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, files.size()));
+        try {
+            List<Future<?>> futures = new ArrayList<>(files.size());
+            for (KtFile file : files) {
+                futures.add(executor.submit(() -> ApplicationManager.getApplication().runReadAction(() -> parse(file))));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw ExceptionUtilsKt.rethrow(e);
+        }
+        catch (ExecutionException e) {
+            throw ExceptionUtilsKt.rethrow(e.getCause());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void parse(@NotNull KtFile file) {
+        try (PhaseProfiler.Phase ignored = PhaseProfiler.start("Parse", file.getName())) {
+            // getNode() only creates the lazy file element, the text is lexed and parsed when its children are requested
+            TreeUtil.ensureParsed(file.getNode());
+        }
+    }
 }
@@ -45,7 +45,9 @@ import kotlin.properties.Delegates
 class KotlinCliJavaFileManagerImpl(private val myPsiManager: PsiManager) : CoreJavaFileManager(myPsiManager), KotlinCliJavaFileManager {
     private val perfCounter = PerformanceCounter.create("Find Java class")
     private var index: JvmDependenciesIndex by Delegates.notNull()
-    private val topLevelClassesCache: MutableMap<FqName, VirtualFile?> = THashMap()
+    // The caches are shared by the threads resolving function bodies (see BodyResolveParallelism). A value may be computed twice
+    // by racing threads, which is fine because both values are read from the same file
+    private val topLevelClassesCache: MutableMap<FqName, VirtualFile?> = Collections.synchronizedMap(THashMap())
     private val allScope = GlobalSearchScope.allScope(myPsiManager.project)
     private var useFastClassFilesReading = false
 
@@ -67,7 +69,7 @@ class KotlinCliJavaFileManagerImpl(private val myPsiManager: PsiManager) : CoreJ
         }?.takeIf { it in searchScope }
     }
 
-    private val binaryCache: MutableMap<ClassId, JavaClass?> = THashMap()
+    private val binaryCache: MutableMap<ClassId, JavaClass?> = Collections.synchronizedMap(THashMap())
     private val signatureParsingComponent =
             BinaryClassSignatureParser(ClassifierResolutionContext { findClass(it, allScope) })
 
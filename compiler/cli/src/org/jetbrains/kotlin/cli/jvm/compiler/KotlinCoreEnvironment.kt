@@ -70,6 +70,7 @@ import org.jetbrains.kotlin.cli.common.messages.CompilerMessageSeverity
 import org.jetbrains.kotlin.cli.common.messages.CompilerMessageSeverity.*
 import org.jetbrains.kotlin.cli.common.toBooleanLenient
 import org.jetbrains.kotlin.cli.jvm.JvmRuntimeVersionsConsistencyChecker
+import org.jetbrains.kotlin.cli.jvm.K2JVMCompiler
 import org.jetbrains.kotlin.cli.jvm.config.JavaSourceRoot
 import org.jetbrains.kotlin.cli.jvm.config.JvmClasspathRoot
 import org.jetbrains.kotlin.cli.jvm.config.JvmContentRoot
@@ -107,8 +108,10 @@ import org.jetbrains.kotlin.resolve.lazy.declarations.DeclarationProviderFactory
 import org.jetbrains.kotlin.script.KotlinScriptDefinitionProvider
 import org.jetbrains.kotlin.script.KotlinScriptExternalImportsProvider
 import org.jetbrains.kotlin.script.KotlinScriptExternalImportsProviderImpl
+import org.jetbrains.kotlin.util.PhaseProfiler
 import org.jetbrains.kotlin.utils.PathUtil
 import java.io.File
+import java.util.concurrent.TimeUnit
 
 class KotlinCoreEnvironment private constructor(
         parentDisposable: Disposable,
@@ -175,10 +178,27 @@ class KotlinCoreEnvironment private constructor(
         registerProjectServicesForCLI(projectEnvironment)
         registerProjectServices(projectEnvironment)
 
+        val discoveryStart = System.nanoTime()
         sourceFiles += CompileEnvironmentUtil.getKtFiles(project, getSourceRootsCheckingForDuplicates(), this.configuration, {
             message ->
             report(ERROR, message)
         })
+        // Modules look up their files again later, only the first collection of the sources is reported
+        K2JVMCompiler.reportPerf(configuration, "Found ${sourceFiles.size} source files in " +
+                                                "${TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - discoveryStart)} ms")
+
+        // Files are parsed lazily by the analysis otherwise
+        val parsingThreads = configuration.get(JVMConfigurationKeys.PARALLEL_PARSING_THREADS) ?: 1
+        if (parsingThreads > 1 && sourceFiles.size > 1) {
+            val parsingStart = System.nanoTime()
+            CompileEnvironmentUtil.parseFiles(sourceFiles, parsingThreads)
+            K2JVMCompiler.reportPerf(configuration, "Parsed ${sourceFiles.size} source files on $parsingThreads threads in " +
+                                                    "${TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - parsingStart)} ms")
+        }
+        else if (PhaseProfiler.current() != null) {
+            // So that parsing is not attributed to the phases of the analysis which happen to touch the files first
+            CompileEnvironmentUtil.parseFiles(sourceFiles, 1)
+        }
         sourceFiles.sortBy { it.virtualFile.path }
 
         KotlinScriptDefinitionProvider.getInstance(project)?.let { scriptDefinitionProvider ->
@@ -33,6 +33,8 @@ import org.jetbrains.kotlin.cli.common.CLIConfigurationKeys
 import org.jetbrains.kotlin.cli.common.ExitCode
 import org.jetbrains.kotlin.cli.common.checkKotlinPackageUsage
 import org.jetbrains.kotlin.cli.common.messages.AnalyzerWithCompilerReport
+import org.jetbrains.kotlin.cli.common.messages.CompilerMessageLocation
+import org.jetbrains.kotlin.cli.common.messages.CompilerMessageSeverity
 import org.jetbrains.kotlin.cli.common.messages.CompilerMessageSeverity.ERROR
 import org.jetbrains.kotlin.cli.common.messages.CompilerMessageSeverity.OUTPUT
 import org.jetbrains.kotlin.cli.common.messages.MessageCollector
@@ -57,8 +59,10 @@ import org.jetbrains.kotlin.modules.TargetId
 import org.jetbrains.kotlin.name.FqName
 import org.jetbrains.kotlin.progress.ProgressIndicatorAndCompilationCanceledStatus
 import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.resolve.BindingContext
 import org.jetbrains.kotlin.resolve.jvm.TopDownAnalyzerFacadeForJVM
 import org.jetbrains.kotlin.util.PerformanceCounter
+import org.jetbrains.kotlin.util.phase
 import org.jetbrains.kotlin.utils.KotlinPaths
 import org.jetbrains.kotlin.utils.PathUtil
 import org.jetbrains.kotlin.utils.newLinkedHashMapWithExpectedSize
@@ -67,6 +71,11 @@ import java.io.File
 import java.io.IOException
 import java.lang.reflect.InvocationTargetException
 import java.net.URLClassLoader
+import java.util.Collections
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
 import java.util.concurrent.TimeUnit
 import java.util.jar.Attributes
 
@@ -85,29 +94,35 @@ object KotlinToJVMBytecodeCompiler {
     private fun writeOutput(
             configuration: CompilerConfiguration,
             outputFiles: OutputFileCollection,
-            mainClass: FqName?
-    ) {
+            mainClass: FqName?,
+            messageCollector: MessageCollector = configuration.get(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY, MessageCollector.NONE)
+    ) = phase("Write output") {
         val jarPath = configuration.get(JVMConfigurationKeys.OUTPUT_JAR)
-        val messageCollector = configuration.get(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY, MessageCollector.NONE)
         if (jarPath != null) {
             val includeRuntime = configuration.get(JVMConfigurationKeys.INCLUDE_RUNTIME, false)
             CompileEnvironmentUtil.writeToJar(jarPath, includeRuntime, mainClass, outputFiles)
             messageCollector.report(
                     OUTPUT, OutputMessageUtil.formatOutputMessage(outputFiles.asList().flatMap { it.sourceFiles }.distinct(), jarPath)
             )
-            return
+            return@phase
         }
 
         val outputDir = configuration.get(JVMConfigurationKeys.OUTPUT_DIRECTORY) ?: File(".")
         outputFiles.writeAll(outputDir, messageCollector)
     }
 
-    private fun createOutputFilesFlushingCallbackIfPossible(configuration: CompilerConfiguration): GenerationStateEventCallback {
+    private fun createOutputFilesFlushingCallbackIfPossible(
+            configuration: CompilerConfiguration,
+            writtenFiles: MutableList<File>? = null
+    ): GenerationStateEventCallback {
         if (configuration.get(JVMConfigurationKeys.OUTPUT_DIRECTORY) == null) {
             return GenerationStateEventCallback.DO_NOTHING
         }
         return GenerationStateEventCallback { state ->
             val currentOutput = SimpleOutputFileCollection(state.factory.currentOutput)
+            if (writtenFiles != null) {
+                recordOutputFiles(configuration, currentOutput, writtenFiles)
+            }
             writeOutput(configuration, currentOutput, mainClass = null)
             if (!configuration.get(JVMConfigurationKeys.RETAIN_OUTPUT_IN_MEMORY, false)) {
                 state.factory.releaseGeneratedOutput()
@@ -140,7 +155,7 @@ object KotlinToJVMBytecodeCompiler {
 
         result.throwIfError()
 
-        val outputs = newLinkedHashMapWithExpectedSize<Module, GenerationState>(chunk.size)
+        val moduleFiles = newLinkedHashMapWithExpectedSize<Module, List<KtFile>>(chunk.size)
 
         for (module in chunk) {
             ProgressIndicatorAndCompilationCanceledStatus.checkCanceled()
@@ -149,22 +164,120 @@ object KotlinToJVMBytecodeCompiler {
             ) { path -> throw IllegalStateException("Should have been checked before: $path") }
             if (!checkKotlinPackageUsage(environment, ktFiles)) return false
 
-            val moduleConfiguration = projectConfiguration.copy().apply {
-                put(JVMConfigurationKeys.OUTPUT_DIRECTORY, File(module.getOutputDirectory()))
-            }
-
-            outputs[module] = generate(environment, moduleConfiguration, result, ktFiles, module)
+            moduleFiles[module] = ktFiles
         }
 
+        // Output of each module is written on a separate thread while the next module is being generated,
+        // and is released right after that, so that at most two modules' outputs are kept in memory at once.
+        // If any module fails, the files created for the modules before it are deleted, so that no partial output is left.
+        // Files which replaced existing ones are kept, deleting them would leave neither the old nor the new output
+        val outputWriter = Executors.newSingleThreadExecutor()
+        val writtenFiles = Collections.synchronizedList(arrayListOf<File>())
+        var pendingOutput: PendingOutput? = null
+        var completed = false
         try {
-            for ((_, state) in outputs) {
+            for ((module, ktFiles) in moduleFiles) {
                 ProgressIndicatorAndCompilationCanceledStatus.checkCanceled()
-                writeOutput(state.configuration, state.factory, null)
+
+                val moduleConfiguration = projectConfiguration.copy().apply {
+                    put(JVMConfigurationKeys.OUTPUT_DIRECTORY, File(module.getOutputDirectory()))
+                }
+
+                val state = generate(environment, moduleConfiguration, result, ktFiles, module,
+                                     createOutputFilesFlushingCallbackIfPossible(moduleConfiguration, writtenFiles))
+
+                pendingOutput?.let { previous ->
+                    pendingOutput = null
+                    try {
+                        awaitOutput(previous, environment.messageCollector)
+                    }
+                    catch (e: Throwable) {
+                        // The new state isn't pending yet, so it's not destroyed by the finally block below.
+                        // Its output hasn't been written, apart from the files already flushed and recorded by the callback
+                        state.destroy()
+                        throw e
+                    }
+                }
+                pendingOutput = PendingOutput(state, outputWriter.submit(Callable {
+                    try {
+                        DeferredMessageCollector().also { collector ->
+                            recordOutputFiles(state.configuration, state.factory, writtenFiles)
+                            writeOutput(state.configuration, state.factory, null, collector)
+                        }
+                    }
+                    finally {
+                        if (!state.configuration.get(JVMConfigurationKeys.RETAIN_OUTPUT_IN_MEMORY, false)) {
+                            state.factory.releaseGeneratedOutput()
+                        }
+                    }
+                }))
             }
+
+            pendingOutput?.let { last ->
+                pendingOutput = null
+                awaitOutput(last, environment.messageCollector)
+            }
+            completed = true
             return true
         }
         finally {
-            outputs.values.forEach(GenerationState::destroy)
+            outputWriter.shutdown()
+            outputWriter.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS)
+            pendingOutput?.state?.destroy()
+            if (!completed) {
+                writtenFiles.forEach { it.delete() }
+            }
+        }
+    }
+
+    private class PendingOutput(val state: GenerationState, val messages: Future<DeferredMessageCollector>)
+
+    // The state is destroyed on the thread which created it, once its output has been written
+    private fun awaitOutput(pendingOutput: PendingOutput, messageCollector: MessageCollector) {
+        val deferredMessages = try {
+            pendingOutput.messages.get()
+        }
+        catch (e: ExecutionException) {
+            throw e.cause ?: e
+        }
+        finally {
+            pendingOutput.state.destroy()
+        }
+        deferredMessages.reportTo(messageCollector)
+    }
+
+    // Records the files which are about to be created by writing the output, the existing files are not recorded
+    private fun recordOutputFiles(configuration: CompilerConfiguration, outputFiles: OutputFileCollection, writtenFiles: MutableList<File>) {
+        val jarPath = configuration.get(JVMConfigurationKeys.OUTPUT_JAR)
+        if (jarPath != null) {
+            if (!jarPath.exists()) {
+                writtenFiles.add(jarPath)
+            }
+        }
+        else {
+            val outputDir = configuration.get(JVMConfigurationKeys.OUTPUT_DIRECTORY) ?: File(".")
+            outputFiles.asList().map { File(outputDir, it.relativePath) }.filterTo(writtenFiles) { !it.exists() }
+        }
+    }
+
+    // Message collectors are not thread-safe, so messages reported while writing output are passed on from the main thread
+    private class DeferredMessageCollector : MessageCollector {
+        private val messages = arrayListOf<Triple<CompilerMessageSeverity, String, CompilerMessageLocation?>>()
+
+        override fun report(severity: CompilerMessageSeverity, message: String, location: CompilerMessageLocation?) {
+            messages.add(Triple(severity, message, location))
+        }
+
+        override fun clear() {
+            messages.clear()
+        }
+
+        override fun hasErrors(): Boolean = messages.any { (severity) -> severity.isError }
+
+        fun reportTo(collector: MessageCollector) {
+            for ((severity, message, location) in messages) {
+                collector.report(severity, message, location)
+            }
         }
     }
 
@@ -188,8 +301,8 @@ object KotlinToJVMBytecodeCompiler {
         configuration.addAll(JVMConfigurationKeys.MODULES, chunk)
     }
 
-    private fun findMainClass(generationState: GenerationState, files: List<KtFile>): FqName? {
-        val mainFunctionDetector = MainFunctionDetector(generationState.bindingContext)
+    private fun findMainClass(bindingContext: BindingContext, files: List<KtFile>): FqName? {
+        val mainFunctionDetector = MainFunctionDetector(bindingContext)
         return files.asSequence()
                 .map { file ->
                     if (mainFunctionDetector.hasMain(file.declarations))
@@ -210,9 +323,14 @@ object KotlinToJVMBytecodeCompiler {
 
         if (!checkKotlinPackageUsage(environment, environment.getSourceFiles())) return false
 
+        val jarPath = environment.configuration.get(JVMConfigurationKeys.OUTPUT_JAR)
+        if (jarPath != null) {
+            return compileBunchOfSourcesToJar(environment, jarPath)
+        }
+
         val generationState = analyzeAndGenerate(environment) ?: return false
 
-        val mainClass = findMainClass(generationState, environment.getSourceFiles())
+        val mainClass = findMainClass(generationState.bindingContext, environment.getSourceFiles())
 
         try {
             writeOutput(environment.configuration, generationState.factory, mainClass)
@@ -223,6 +341,60 @@ object KotlinToJVMBytecodeCompiler {
         }
     }
 
+    private fun compileBunchOfSourcesToJar(environment: KotlinCoreEnvironment, jarPath: File): Boolean {
+        val result = analyzeForGeneration(environment) ?: return false
+
+        val configuration = environment.configuration
+        val sourceFiles = environment.getSourceFiles()
+
+        // The main class is looked up before generation, so that the manifest can be written first
+        // and the classes can be passed to the jar as soon as they are generated
+        val jar = CompileEnvironmentUtil.openJar(jarPath, findMainClass(result.bindingContext, sourceFiles))
+        var generationState: GenerationState? = null
+        var failure: Throwable? = null
+        try {
+            val state = generate(environment, configuration, result, sourceFiles, null, GenerationStateEventCallback { state ->
+                jar.add(state.factory.currentOutput)
+                if (!configuration.get(JVMConfigurationKeys.RETAIN_OUTPUT_IN_MEMORY, false)) {
+                    state.factory.releaseGeneratedOutput()
+                }
+            })
+            generationState = state
+
+            jar.add(state.factory.asList())
+            if (configuration.get(JVMConfigurationKeys.INCLUDE_RUNTIME, false)) {
+                CompileEnvironmentUtil.writeRuntimeToJar(jar)
+            }
+        }
+        catch (e: Throwable) {
+            failure = e
+            throw e
+        }
+        finally {
+            try {
+                CompileEnvironmentUtil.closeJar(jar)
+            }
+            catch (e: Throwable) {
+                val compilationFailure = failure
+                if (compilationFailure == null) {
+                    failure = e
+                    throw e
+                }
+                // Closing a jar after a failure is likely to fail as well, the failure of the compilation is reported instead
+                compilationFailure.addSuppressed(e)
+            }
+            finally {
+                generationState?.destroy()
+                if (failure != null) {
+                    jarPath.delete()
+                }
+            }
+        }
+
+        environment.messageCollector.report(OUTPUT, OutputMessageUtil.formatOutputMessage(jar.allSourceFiles, jarPath))
+        return true
+    }
+
     fun compileAndExecuteScript(
             environment: KotlinCoreEnvironment,
             paths: KotlinPaths,
@@ -324,13 +496,19 @@ object KotlinToJVMBytecodeCompiler {
     }
 
     fun analyzeAndGenerate(environment: KotlinCoreEnvironment): GenerationState? {
+        val result = analyzeForGeneration(environment) ?: return null
+
+        return generate(environment, environment.configuration, result, environment.getSourceFiles(), null)
+    }
+
+    private fun analyzeForGeneration(environment: KotlinCoreEnvironment): AnalysisResult? {
         val result = repeatAnalysisIfNeeded(analyze(environment, null), environment, null) ?: return null
 
         if (!result.shouldGenerateCode) return null
 
         result.throwIfError()
 
-        return generate(environment, environment.configuration, result, environment.getSourceFiles(), null)
+        return result
     }
 
     private fun analyze(environment: KotlinCoreEnvironment, targetDescription: String?): AnalysisResult? {
@@ -338,31 +516,36 @@ object KotlinToJVMBytecodeCompiler {
 
         val analysisStart = PerformanceCounter.currentTime()
         val analyzerWithCompilerReport = AnalyzerWithCompilerReport(collector)
-        analyzerWithCompilerReport.analyzeAndReport(
-                environment.getSourceFiles(), object : AnalyzerWithCompilerReport.Analyzer {
-            override fun analyze(): AnalysisResult {
-                val project = environment.project
-                val moduleOutputs = environment.configuration.get(JVMConfigurationKeys.MODULES)?.mapNotNull { module ->
-                    environment.findLocalDirectory(module.getOutputDirectory())
-                }.orEmpty()
-                val sourcesOnly = TopDownAnalyzerFacadeForJVM.newModuleSearchScope(project, environment.getSourceFiles())
-                // To support partial and incremental compilation, we add the scope which contains binaries from output directories
-                // of the compiled modules (.class) to the list of scopes of the source module
-                val scope = if (moduleOutputs.isEmpty()) sourcesOnly else sourcesOnly.uniteWith(DirectoriesScope(project, moduleOutputs))
-                return TopDownAnalyzerFacadeForJVM.analyzeFilesWithJavaIntegration(
-                        project,
-                        environment.getSourceFiles(),
-                        CliLightClassGenerationSupport.NoScopeRecordCliBindingTrace(),
-                        environment.configuration,
-                        { scope -> JvmPackagePartProvider(environment, scope) },
-                        sourceModuleSearchScope = scope
-                )
-            }
+        phase("Analysis", targetDescription?.trim()) {
+            analyzerWithCompilerReport.analyzeAndReport(
+                    environment.getSourceFiles(), object : AnalyzerWithCompilerReport.Analyzer {
+                override fun analyze(): AnalysisResult {
+                    val project = environment.project
+                    val moduleOutputs = environment.configuration.get(JVMConfigurationKeys.MODULES)?.mapNotNull { module ->
+                        environment.findLocalDirectory(module.getOutputDirectory())
+                    }.orEmpty()
+                    val sourcesOnly = TopDownAnalyzerFacadeForJVM.newModuleSearchScope(project, environment.getSourceFiles())
+                    // To support partial and incremental compilation, we add the scope which contains binaries from output directories
+                    // of the compiled modules (.class) to the list of scopes of the source module
+                    val scope = if (moduleOutputs.isEmpty()) sourcesOnly else sourcesOnly.uniteWith(DirectoriesScope(project, moduleOutputs))
+                    return TopDownAnalyzerFacadeForJVM.analyzeFilesWithJavaIntegration(
+                            project,
+                            environment.getSourceFiles(),
+                            CliLightClassGenerationSupport.NoScopeRecordCliBindingTrace(
+                                    // Lazy declarations are resolved to the trace from several threads in this case
+                                    threadSafe = environment.configuration.get(JVMConfigurationKeys.PARALLEL_BODY_RESOLUTION_THREADS, 1) > 1
+                            ),
+                            environment.configuration,
+                            { scope -> JvmPackagePartProvider(environment, scope) },
+                            sourceModuleSearchScope = scope
+                    )
+                }
 
-            override fun reportEnvironmentErrors() {
-                reportRuntimeConflicts(collector, environment.configuration.jvmClasspathRoots)
-            }
-        })
+                override fun reportEnvironmentErrors() {
+                    reportRuntimeConflicts(collector, environment.configuration.jvmClasspathRoots)
+                }
+            })
+        }
 
         val analysisNanos = PerformanceCounter.currentTime() - analysisStart
 
@@ -399,7 +582,8 @@ object KotlinToJVMBytecodeCompiler {
             configuration: CompilerConfiguration,
             result: AnalysisResult,
             sourceFiles: List<KtFile>,
-            module: Module?
+            module: Module?,
+            onIndependentPartCompilationEnd: GenerationStateEventCallback = createOutputFilesFlushingCallbackIfPossible(configuration)
     ): GenerationState {
         val isKapt2Enabled = environment.project.getUserData(IS_KAPT2_ENABLED_KEY) ?: false
         val generationState = GenerationState(
@@ -413,13 +597,15 @@ object KotlinToJVMBytecodeCompiler {
                 module?.let(::TargetId),
                 module?.let(Module::getModuleName),
                 module?.let { File(it.getOutputDirectory()) },
-                createOutputFilesFlushingCallbackIfPossible(configuration)
+                onIndependentPartCompilationEnd
         )
         ProgressIndicatorAndCompilationCanceledStatus.checkCanceled()
 
         val generationStart = PerformanceCounter.currentTime()
 
-        KotlinCodegenFacade.compileCorrectFiles(generationState, CompilationErrorHandler.THROW_EXCEPTION)
+        phase("Generation", module?.getModuleName()) {
+            KotlinCodegenFacade.compileCorrectFiles(generationState, CompilationErrorHandler.THROW_EXCEPTION)
+        }
 
         val generationNanos = PerformanceCounter.currentTime() - generationStart
         val desc = if (module != null) "target " + module.getModuleName() + "-" + module.getModuleType() + " " else ""
@@ -0,0 +1,366 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.cli.jvm.compiler
+
+import com.intellij.openapi.util.io.FileUtilRt
+import org.jetbrains.kotlin.backend.common.output.OutputFile
+import org.jetbrains.kotlin.name.FqName
+import java.io.*
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+import java.util.*
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.jar.JarFile
+import java.util.jar.Manifest
+import java.util.zip.CRC32
+import java.util.zip.Deflater
+import java.util.zip.ZipEntry
+
+/**
+ * Writes a jar file incrementally, as soon as the output files are passed to [add].
+ * Entries are deflated on a thread pool and written in the order in which they were added.
+ * Entries of other jars (e.g. the runtime) are copied as is, without inflating and deflating them again.
+ *
+ * Only the subset of the ZIP format needed for compiler output is supported: no entry or jar may exceed 4 Gb.
+ */
+class StreamingJarWriter @Throws(IOException::class) constructor(jarPath: File, mainClass: FqName?) : Closeable {
+    private val output = BufferedOutputStream(FileOutputStream(jarPath), BUFFER_SIZE)
+    private var offset = 0L
+
+    private val centralDirectory = arrayListOf<EntryHeader>()
+    private val writtenPaths = hashSetOf<String>()
+    private val sourceFiles = linkedSetOf<File>()
+
+    private val deflaters: ExecutorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()) { runnable ->
+        Thread(runnable, "Jar entries compression").apply { isDaemon = true }
+    }
+    private val pendingEntries: Queue<Future<CompressedEntry>> = ArrayDeque()
+
+    init {
+        val manifest = Manifest()
+        val mainAttributes = manifest.mainAttributes
+        mainAttributes.putValue("Manifest-Version", "1.0")
+        mainAttributes.putValue("Created-By", "JetBrains Kotlin")
+        if (mainClass != null) {
+            mainAttributes.putValue("Main-Class", mainClass.asString())
+        }
+        val manifestBytes = ByteArrayOutputStream().apply { manifest.write(this) }.toByteArray()
+        try {
+            writeEntry(compress(JarFile.MANIFEST_NAME, manifestBytes, System.currentTimeMillis()))
+        }
+        catch (e: Throwable) {
+            // The writer isn't returned to the caller, so it's closed here
+            deflaters.shutdownNow()
+            try {
+                output.close()
+            }
+            catch (closeFailure: IOException) {
+                e.addSuppressed(closeFailure)
+            }
+            throw e
+        }
+        writtenPaths.add(JarFile.MANIFEST_NAME)
+    }
+
+    /**
+     * Source files of all the output files added so far
+     */
+    val allSourceFiles: List<File>
+        get() = sourceFiles.toList()
+
+    @Throws(IOException::class)
+    fun add(outputFiles: Collection<OutputFile>) {
+        for (outputFile in outputFiles) {
+            val path = outputFile.relativePath
+            if (!writtenPaths.add(path)) continue
+
+            sourceFiles.addAll(outputFile.sourceFiles)
+            val bytes = outputFile.asByteArray()
+            val time = System.currentTimeMillis()
+            pendingEntries.add(deflaters.submit<CompressedEntry> { compress(path, bytes, time) })
+
+            writeCompletedEntries(maxPending = MAX_PENDING_ENTRIES_PER_THREAD * Runtime.getRuntime().availableProcessors())
+        }
+    }
+
+    /**
+     * Copies all the class files of the given jar, skipping the ones which have already been written
+     */
+    @Throws(IOException::class)
+    fun addClassesFromJar(jar: File) {
+        writeCompletedEntries(maxPending = 0)
+
+        FileChannel.open(jar.toPath(), StandardOpenOption.READ).use { channel ->
+            for (entry in readCentralDirectory(channel)) {
+                if (!FileUtilRt.extensionEquals(entry.name, "class") || !writtenPaths.add(entry.name)) continue
+
+                val localHeader = channel.read(entry.localHeaderOffset, LOCAL_HEADER_SIZE)
+                if (localHeader.getInt(0) != LOCAL_HEADER_SIGNATURE) throw IOException("Invalid local header of ${entry.name} in $jar")
+                val dataOffset = entry.localHeaderOffset + LOCAL_HEADER_SIZE +
+                                 localHeader.getUnsignedShort(26) + localHeader.getUnsignedShort(28)
+
+                writeHeader(entry, LOCAL_HEADER_SIGNATURE)
+                var position = dataOffset
+                val end = dataOffset + entry.compressedSize
+                val buffer = ByteBuffer.allocate(BUFFER_SIZE)
+                while (position < end) {
+                    buffer.clear()
+                    buffer.limit(minOf(BUFFER_SIZE.toLong(), end - position).toInt())
+                    val read = channel.read(buffer, position)
+                    if (read < 0) throw EOFException("Unexpected end of $jar")
+                    output.write(buffer.array(), 0, read)
+                    position += read
+                }
+                offset += entry.compressedSize
+            }
+        }
+    }
+
+    @Throws(IOException::class)
+    override fun close() {
+        try {
+            writeCompletedEntries(maxPending = 0)
+
+            val centralDirectoryOffset = offset
+            for (entry in centralDirectory) {
+                writeHeader(entry, CENTRAL_HEADER_SIGNATURE)
+            }
+            writeEndOfCentralDirectory(centralDirectoryOffset, offset - centralDirectoryOffset)
+        }
+        finally {
+            deflaters.shutdownNow()
+            output.close()
+        }
+    }
+
+    private fun writeCompletedEntries(maxPending: Int) {
+        while (pendingEntries.isNotEmpty()) {
+            val next = pendingEntries.peek()
+            if (!next.isDone && pendingEntries.size <= maxPending) return
+
+            pendingEntries.remove()
+            val entry = try {
+                next.get()
+            }
+            catch (e: ExecutionException) {
+                throw e.cause ?: e
+            }
+            writeEntry(entry)
+        }
+    }
+
+    private fun writeEntry(entry: CompressedEntry) {
+        writeHeader(entry.header, LOCAL_HEADER_SIGNATURE)
+        output.write(entry.data, 0, entry.header.compressedSize.toInt())
+        offset += entry.header.compressedSize
+    }
+
+    private fun writeHeader(entry: EntryHeader, signature: Int) {
+        if (offset > MAX_UNSIGNED_INT) throw CompileEnvironmentException("Jar file is too big: more than 4 Gb")
+
+        val name = entry.name.toByteArray(Charsets.UTF_8)
+        val isCentral = signature == CENTRAL_HEADER_SIGNATURE
+        val header = ByteBuffer.allocate((if (isCentral) CENTRAL_HEADER_SIZE else LOCAL_HEADER_SIZE) + name.size)
+                .order(ByteOrder.LITTLE_ENDIAN)
+        header.putInt(signature)
+        if (isCentral) {
+            header.putShort(ZIP_VERSION)
+        }
+        header.putShort(ZIP_VERSION)
+        header.putShort(UTF8_NAMES_FLAG)
+        header.putShort(entry.method.toShort())
+        header.putInt(entry.dosTime)
+        header.putInt(entry.crc.toInt())
+        header.putInt(entry.compressedSize.toInt())
+        header.putInt(entry.size.toInt())
+        header.putShort(name.size.toShort())
+        header.putShort(0) // extra field length
+        if (isCentral) {
+            header.putShort(0) // comment length
+            header.putShort(0) // disk number
+            header.putShort(0) // internal attributes
+            header.putInt(0) // external attributes
+            header.putInt(entry.localHeaderOffset.toInt())
+        }
+        header.put(name)
+
+        if (!isCentral) {
+            centralDirectory.add(entry.copy(localHeaderOffset = offset))
+        }
+        output.write(header.array())
+        offset += header.capacity()
+    }
+
+    private fun writeEndOfCentralDirectory(centralDirectoryOffset: Long, centralDirectorySize: Long) {
+        val entries = centralDirectory.size
+        val buffer = ByteBuffer.allocate(ZIP64_END_SIZE + ZIP64_LOCATOR_SIZE + END_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+        if (entries > MAX_UNSIGNED_SHORT) {
+            // The only ZIP64 feature needed in practice: more than 65535 entries in a fat jar
+            val zip64EndOffset = offset
+            buffer.putInt(ZIP64_END_SIGNATURE)
+            buffer.putLong((ZIP64_END_SIZE - 12).toLong())
+            buffer.putShort(ZIP64_VERSION)
+            buffer.putShort(ZIP64_VERSION)
+            buffer.putInt(0) // number of this disk
+            buffer.putInt(0) // disk where central directory starts
+            buffer.putLong(entries.toLong())
+            buffer.putLong(entries.toLong())
+            buffer.putLong(centralDirectorySize)
+            buffer.putLong(centralDirectoryOffset)
+
+            buffer.putInt(ZIP64_LOCATOR_SIGNATURE)
+            buffer.putInt(0) // disk with ZIP64 end of central directory
+            buffer.putLong(zip64EndOffset)
+            buffer.putInt(1) // total number of disks
+        }
+        buffer.putInt(END_SIGNATURE)
+        buffer.putShort(0) // number of this disk
+        buffer.putShort(0) // disk where central directory starts
+        buffer.putShort(minOf(entries, MAX_UNSIGNED_SHORT).toShort())
+        buffer.putShort(minOf(entries, MAX_UNSIGNED_SHORT).toShort())
+        buffer.putInt(centralDirectorySize.toInt())
+        buffer.putInt(centralDirectoryOffset.toInt())
+        buffer.putShort(0) // comment length
+
+        output.write(buffer.array(), 0, buffer.position())
+        offset += buffer.position()
+    }
+
+    private data class EntryHeader(
+            val name: String,
+            val method: Int,
+            val dosTime: Int,
+            val crc: Long,
+            val compressedSize: Long,
+            val size: Long,
+            val localHeaderOffset: Long = 0
+    )
+
+    private class CompressedEntry(val header: EntryHeader, val data: ByteArray)
+
+    companion object {
+        private const val BUFFER_SIZE = 64 * 1024
+        private const val MAX_PENDING_ENTRIES_PER_THREAD = 4
+
+        private const val LOCAL_HEADER_SIGNATURE = 0x04034b50
+        private const val CENTRAL_HEADER_SIGNATURE = 0x02014b50
+        private const val END_SIGNATURE = 0x06054b50
+        private const val ZIP64_END_SIGNATURE = 0x06064b50
+        private const val ZIP64_LOCATOR_SIGNATURE = 0x07064b50
+
+        private const val LOCAL_HEADER_SIZE = 30
+        private const val CENTRAL_HEADER_SIZE = 46
+        private const val END_SIZE = 22
+        private const val ZIP64_END_SIZE = 56
+        private const val ZIP64_LOCATOR_SIZE = 20
+
+        private const val ZIP_VERSION: Short = 20
+        private const val ZIP64_VERSION: Short = 45
+        private const val UTF8_NAMES_FLAG: Short = 0x800
+
+        private const val MAX_UNSIGNED_SHORT = 0xFFFF
+        private const val MAX_UNSIGNED_INT = 0xFFFFFFFFL
+
+        private fun compress(name: String, bytes: ByteArray, time: Long): CompressedEntry {
+            val crc = CRC32().apply { update(bytes) }.value
+
+            val deflater = Deflater(Deflater.DEFAULT_COMPRESSION, /* nowrap = */ true)
+            try {
+                deflater.setInput(bytes)
+                deflater.finish()
+                var data = ByteArray(maxOf(bytes.size / 2, 64))
+                var size = 0
+                while (!deflater.finished()) {
+                    if (size == data.size) {
+                        data = data.copyOf(data.size * 2)
+                    }
+                    size += deflater.deflate(data, size, data.size - size)
+                }
+                return CompressedEntry(EntryHeader(name, ZipEntry.DEFLATED, dosTime(time), crc, size.toLong(), bytes.size.toLong()), data)
+            }
+            finally {
+                deflater.end()
+            }
+        }
+
+        private fun readCentralDirectory(channel: FileChannel): List<EntryHeader> {
+            val size = channel.size()
+            val tailSize = minOf(size, (END_SIZE + MAX_UNSIGNED_SHORT).toLong()).toInt()
+            val tail = channel.read(size - tailSize, tailSize)
+            val endOffset = (tailSize - END_SIZE downTo 0).firstOrNull { tail.getInt(it) == END_SIGNATURE }
+                            ?: throw IOException("End of central directory is not found")
+
+            val entries = tail.getUnsignedShort(endOffset + 10)
+            val directorySize = tail.getInt(endOffset + 12).toLong() and MAX_UNSIGNED_INT
+            val directoryOffset = tail.getInt(endOffset + 16).toLong() and MAX_UNSIGNED_INT
+            if (entries == MAX_UNSIGNED_SHORT || directoryOffset == MAX_UNSIGNED_INT) {
+                throw IOException("ZIP64 archives are not supported")
+            }
+
+            val directory = channel.read(directoryOffset, directorySize.toInt())
+            val result = ArrayList<EntryHeader>(entries)
+            var position = 0
+            repeat(entries) {
+                if (directory.getInt(position) != CENTRAL_HEADER_SIGNATURE) throw IOException("Invalid central directory header")
+                val nameLength = directory.getUnsignedShort(position + 28)
+                val name = ByteArray(nameLength).also { bytes ->
+                    directory.position(position + CENTRAL_HEADER_SIZE)
+                    directory.get(bytes)
+                }
+                result.add(EntryHeader(
+                        String(name, Charsets.UTF_8),
+                        method = directory.getUnsignedShort(position + 10),
+                        dosTime = directory.getInt(position + 12),
+                        crc = directory.getInt(position + 16).toLong() and MAX_UNSIGNED_INT,
+                        compressedSize = directory.getInt(position + 20).toLong() and MAX_UNSIGNED_INT,
+                        size = directory.getInt(position + 24).toLong() and MAX_UNSIGNED_INT,
+                        localHeaderOffset = directory.getInt(position + 42).toLong() and MAX_UNSIGNED_INT
+                ))
+                position += CENTRAL_HEADER_SIZE + nameLength + directory.getUnsignedShort(position + 30) + directory.getUnsignedShort(position + 32)
+            }
+            return result
+        }
+
+        private fun FileChannel.read(position: Long, size: Int): ByteBuffer {
+            val buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN)
+            while (buffer.hasRemaining()) {
+                if (read(buffer, position + buffer.position()) < 0) throw EOFException()
+            }
+            buffer.flip()
+            return buffer
+        }
+
+        private fun ByteBuffer.getUnsignedShort(index: Int): Int = getShort(index).toInt() and MAX_UNSIGNED_SHORT
+
+        private fun dosTime(time: Long): Int {
+            val calendar = Calendar.getInstance().apply { timeInMillis = time }
+            val year = calendar.get(Calendar.YEAR)
+            if (year < 1980) return (1 shl 21) or (1 shl 16)
+            return ((year - 1980) shl 25) or
+                    ((calendar.get(Calendar.MONTH) + 1) shl 21) or
+                    (calendar.get(Calendar.DAY_OF_MONTH) shl 16) or
+                    (calendar.get(Calendar.HOUR_OF_DAY) shl 11) or
+                    (calendar.get(Calendar.MINUTE) shl 5) or
+                    (calendar.get(Calendar.SECOND) shr 1)
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.cli.jvm.index
+
+import com.intellij.openapi.util.io.FileUtil
+import java.io.*
+import java.util.*
+import java.util.zip.ZipFile
+
+/**
+ * Packages of a jar and the class files in each of them, so that the roots which can't contain a package or a class
+ * are skipped without looking at the jar.
+ *
+ * Class files are stored by the part of their name before the first '$' (i.e. the name of the top level class in most cases),
+ * which is enough to rule out a class and keeps the index small.
+ */
+class JarPackageIndex private constructor(
+        // package path separated by '/' -> sorted class name prefixes, every parent package of a package is also present here
+        private val classNamesByPackage: Map<String, Array<String>>
+) {
+    /**
+     * Rough size of the index in memory: the strings and the entries of the map
+     */
+    val estimatedSize: Long = classNamesByPackage.entries.fold(0L) { size, (packagePath, classNames) ->
+        size + ENTRY_SIZE_ESTIMATE + 2L * packagePath.length + classNames.fold(0L) { namesSize, name ->
+            namesSize + STRING_SIZE_ESTIMATE + 2L * name.length
+        }
+    }
+
+    fun hasPackage(packagePath: String): Boolean = packagePath in classNamesByPackage
+
+    /**
+     * Returns false if there's definitely no class file with the given name in the package
+     */
+    fun mayContainClassFile(packagePath: String, className: String): Boolean {
+        val classNames = classNamesByPackage[packagePath] ?: return false
+        return Arrays.binarySearch(classNames, classNamePrefix(className)) >= 0
+    }
+
+    private fun write(output: DataOutput) {
+        output.writeInt(classNamesByPackage.size)
+        for ((packagePath, classNames) in classNamesByPackage) {
+            output.writeUTF(packagePath)
+            output.writeInt(classNames.size)
+            classNames.forEach(output::writeUTF)
+        }
+    }
+
+    companion object {
+        private val CLASS_FILE_EXTENSION = ".class"
+
+        // Rough size of an entry of the map with the package path and the array, and of a string apart from its characters
+        private val ENTRY_SIZE_ESTIMATE = 96L
+        private val STRING_SIZE_ESTIMATE = 48L
+
+        private fun classNamePrefix(className: String) = className.substringBefore('$')
+
+        fun build(jar: File): JarPackageIndex {
+            val classNames = HashMap<String, MutableSet<String>>()
+            classNames.put("", HashSet())
+
+            ZipFile(jar).use { zip ->
+                for (entry in zip.entries()) {
+                    val name = entry.name.trimEnd('/')
+                    val packagePath = if (entry.isDirectory) name else name.substringBeforeLast('/', "")
+
+                    var parent = packagePath
+                    while (parent.isNotEmpty() && !classNames.containsKey(parent)) {
+                        classNames.put(parent, HashSet())
+                        parent = parent.substringBeforeLast('/', "")
+                    }
+
+                    if (!entry.isDirectory && name.endsWith(CLASS_FILE_EXTENSION)) {
+                        val className = name.substringAfterLast('/').removeSuffix(CLASS_FILE_EXTENSION)
+                        classNames[packagePath]!!.add(classNamePrefix(className))
+                    }
+                }
+            }
+
+            return JarPackageIndex(classNames.mapValues { (_, names) -> names.toTypedArray().apply { sort() } })
+        }
+
+        fun read(input: DataInput): JarPackageIndex {
+            val size = input.readInt()
+            val classNamesByPackage = HashMap<String, Array<String>>(size * 2)
+            repeat(size) {
+                val packagePath = input.readUTF()
+                classNamesByPackage.put(packagePath, Array(input.readInt()) { input.readUTF() })
+            }
+            return JarPackageIndex(classNamesByPackage)
+        }
+    }
+
+    /**
+     * Indices of jars shared by all compilations in the process, so that an unchanged jar is indexed only once.
+     * Indices are validated by the length and the timestamp of the jar. If [storageDirectory] is specified, indices are also
+     * saved there and reused by the following processes.
+     *
+     * The least recently used indices are evicted when the total (estimated) size of the indices in memory exceeds [maxSizeInBytes].
+     */
+    class Cache(private val storageDirectory: File?, private val maxSizeInBytes: Long = DEFAULT_MAX_SIZE_BYTES) {
+        private class Entry(val length: Long, val lastModified: Long, val index: JarPackageIndex)
+
+        private val entries = LinkedHashMap<String, Entry>(64, 0.75f, /* accessOrder = */ true)
+        private var sizeInBytes = 0L
+
+        /**
+         * Returns null if the jar can't be read, the caller should fall back to traversing the jar in this case
+         */
+        fun getIndex(jar: File): JarPackageIndex? {
+            val path = jar.absolutePath
+            val length = jar.length()
+            val lastModified = jar.lastModified()
+
+            get(path)?.let { entry ->
+                if (entry.length == length && entry.lastModified == lastModified) return entry.index
+            }
+
+            val index = try {
+                load(path, length, lastModified) ?: build(jar).also { save(path, length, lastModified, it) }
+            }
+            catch (e: IOException) {
+                return null
+            }
+
+            put(path, Entry(length, lastModified, index))
+            return index
+        }
+
+        @Synchronized
+        fun clear() {
+            entries.clear()
+            sizeInBytes = 0
+        }
+
+        @Synchronized
+        private fun get(path: String): Entry? = entries[path]
+
+        @Synchronized
+        private fun put(path: String, entry: Entry) {
+            if (entry.index.estimatedSize > maxSizeInBytes) return
+
+            entries.put(path, entry)?.let { sizeInBytes -= it.index.estimatedSize }
+            sizeInBytes += entry.index.estimatedSize
+
+            val iterator = entries.values.iterator()
+            while (sizeInBytes > maxSizeInBytes && iterator.hasNext()) {
+                sizeInBytes -= iterator.next().index.estimatedSize
+                iterator.remove()
+            }
+        }
+
+        private fun storageFile(path: String): File? =
+                storageDirectory?.let { File(it, "${File(path).name}-${Integer.toHexString(path.hashCode())}.index") }
+
+        private fun load(path: String, length: Long, lastModified: Long): JarPackageIndex? {
+            val file = storageFile(path)?.takeIf(File::isFile) ?: return null
+            return try {
+                DataInputStream(BufferedInputStream(FileInputStream(file))).use { input ->
+                    if (input.readInt() != STORAGE_VERSION || input.readUTF() != path ||
+                        input.readLong() != length || input.readLong() != lastModified) null
+                    else read(input)
+                }
+            }
+            catch (e: IOException) {
+                // The index will be rebuilt and saved again
+                null
+            }
+        }
+
+        private fun save(path: String, length: Long, lastModified: Long, index: JarPackageIndex) {
+            val file = storageFile(path) ?: return
+            try {
+                FileUtil.createParentDirs(file)
+                // Another process may save the same index at the same time, so the file is replaced only when it's complete
+                val tempFile = FileUtil.createTempFile(file.parentFile, file.name, ".tmp", true, false)
+                DataOutputStream(BufferedOutputStream(FileOutputStream(tempFile))).use { output ->
+                    output.writeInt(STORAGE_VERSION)
+                    output.writeUTF(path)
+                    output.writeLong(length)
+                    output.writeLong(lastModified)
+                    index.write(output)
+                }
+                if (!tempFile.renameTo(file)) {
+                    FileUtil.delete(file)
+                    if (!tempFile.renameTo(file)) {
+                        FileUtil.delete(tempFile)
+                    }
+                }
+            }
+            catch (e: IOException) {
+                // The index is still used by this process
+            }
+        }
+
+        companion object {
+            private val STORAGE_VERSION = 1
+
+            private val DEFAULT_MAX_SIZE_BYTES = 32L * 1024 * 1024
+
+            /**
+             * The cache used by the compiler in this process, if any. Storage directory can be specified with the system property
+             * [STORAGE_DIRECTORY_PROPERTY], the compile daemon also keeps the indices in memory between compilations.
+             */
+            @JvmStatic
+            @Volatile
+            var instance: Cache? = System.getProperty(STORAGE_DIRECTORY_PROPERTY)?.let { Cache(File(it)) }
+
+            const val STORAGE_DIRECTORY_PROPERTY = "kotlin.jar.package.index.dir"
+        }
+    }
+}
@@ -18,16 +18,20 @@ package org.jetbrains.kotlin.cli.jvm.index
 
 import com.intellij.ide.highlighter.JavaClassFileType
 import com.intellij.ide.highlighter.JavaFileType
+import com.intellij.openapi.vfs.StandardFileSystems
 import com.intellij.openapi.vfs.VfsUtilCore
 import com.intellij.openapi.vfs.VirtualFile
 import com.intellij.util.containers.IntArrayList
 import gnu.trove.THashMap
 import org.jetbrains.kotlin.name.ClassId
 import org.jetbrains.kotlin.name.FqName
+import java.io.File
 import java.util.*
+import java.util.concurrent.atomic.AtomicReferenceArray
 
 // speeds up finding files/classes in classpath/java source roots
-// NOT THREADSAFE, needs to be adapted/removed if we want compiler to be multithreaded
+// searches are synchronized, because function bodies may be resolved on several threads (see BodyResolveParallelism),
+// the handlers passed to them are called under the lock and must not wait for other threads
 // the main idea of this class is for each package to store roots which contains it to avoid excessive file system traversal
 class JvmDependenciesIndexImpl(_roots: List<JavaRoot>): JvmDependenciesIndex {
     //these fields are computed based on _roots passed to constructor which are filled in later
@@ -68,7 +72,13 @@ class JvmDependenciesIndexImpl(_roots: List<JavaRoot>): JvmDependenciesIndex {
         Array(roots.size) { THashMap<String, VirtualFile?>() }
     }
 
+    private val jarIndexCache: JarPackageIndex.Cache? = JarPackageIndex.Cache.instance
+
+    // indices of jar roots (or NO_JAR_INDEX), which are loaded on the first access to the root
+    private val jarIndices: AtomicReferenceArray<Any> by lazy { AtomicReferenceArray<Any>(roots.size) }
+
     // findClassGivenDirectory MUST check whether the class with this classId exists in given package
+    @Synchronized
     override fun <T : Any> findClass(
             classId: ClassId,
             acceptedRootTypes: Set<JavaRoot.RootType>,
@@ -80,6 +90,7 @@ class JvmDependenciesIndexImpl(_roots: List<JavaRoot>): JvmDependenciesIndex {
         }
     }
 
+    @Synchronized
     override fun traverseDirectoriesInPackage(
             packageFqName: FqName,
             acceptedRootTypes: Set<JavaRoot.RootType>,
@@ -137,8 +148,8 @@ class JvmDependenciesIndexImpl(_roots: List<JavaRoot>): JvmDependenciesIndex {
             }
         }
 
-        fun handle(root: JavaRoot, targetDirInRoot: VirtualFile): T? {
-            if (root.type in request.acceptedRootTypes) {
+        fun handle(rootIndex: Int, root: JavaRoot, targetDirInRoot: VirtualFile): T? {
+            if (root.type in request.acceptedRootTypes && mayContainClass(rootIndex, request)) {
                 val (result, shouldContinue) = handler(targetDirInRoot, root.type)
                 if (!shouldContinue) {
                     return result
@@ -166,7 +177,7 @@ class JvmDependenciesIndexImpl(_roots: List<JavaRoot>): JvmDependenciesIndex {
 
                 val directoryInRoot = travelPath(rootIndex, request.packageFqName, packagesPath, reverseCacheIndex, caches) ?: continue
                 val root = roots[rootIndex]
-                val result = handle(root, directoryInRoot)
+                val result = handle(rootIndex, root, directoryInRoot)
                 if (result != null) {
                     return found(directoryInRoot, root, result)
                 }
@@ -201,6 +212,26 @@ class JvmDependenciesIndexImpl(_roots: List<JavaRoot>): JvmDependenciesIndex {
     }
 
     private fun doTravelPath(rootIndex: Int, packagesPath: List<String>, fillCachesAfter: Int, cachesPath: List<Cache>): VirtualFile? {
+        val jarIndex = jarIndex(rootIndex)
+        if (jarIndex != null) {
+            // The index knows all the directories of the jar, the jar is only traversed if it contains the package
+            var packagePath = ""
+            for (pathIndex in packagesPath.indices) {
+                packagePath = if (pathIndex == 0) packagesPath[0] else packagePath + "/" + packagesPath[pathIndex]
+                if (!jarIndex.hasPackage(packagePath)) return null
+
+                val correspondingCacheIndex = pathIndex + 1
+                if (correspondingCacheIndex > fillCachesAfter) {
+                    cachesPath[correspondingCacheIndex].rootIndices.add(rootIndex)
+                }
+            }
+            return travelDirectories(rootIndex, packagesPath, fillCachesAfter = cachesPath.lastIndex, cachesPath = cachesPath)
+        }
+
+        return travelDirectories(rootIndex, packagesPath, fillCachesAfter, cachesPath)
+    }
+
+    private fun travelDirectories(rootIndex: Int, packagesPath: List<String>, fillCachesAfter: Int, cachesPath: List<Cache>): VirtualFile? {
         val pathRoot = roots[rootIndex]
         val prefixPathSegments = pathRoot.prefixFqName?.pathSegments()
 
@@ -228,6 +259,33 @@ class JvmDependenciesIndexImpl(_roots: List<JavaRoot>): JvmDependenciesIndex {
         return currentFile
     }
 
+    private fun mayContainClass(rootIndex: Int, request: SearchRequest): Boolean {
+        if (request !is FindClassRequest) return true
+        val jarIndex = jarIndex(rootIndex) ?: return true
+
+        val packagePath = request.packageFqName.pathSegments().joinToString("/") { it.identifier }
+        return jarIndex.mayContainClassFile(packagePath, request.classId.relativeClassName.pathSegments().first().identifier)
+    }
+
+    // Racing threads may load the same index twice, which is fine because the indices are immutable
+    private fun jarIndex(rootIndex: Int): JarPackageIndex? {
+        if (jarIndexCache == null) return null
+
+        val loaded = jarIndices[rootIndex] ?: (loadJarIndex(roots[rootIndex]) ?: NO_JAR_INDEX).also { jarIndices[rootIndex] = it }
+        return loaded as? JarPackageIndex
+    }
+
+    private fun loadJarIndex(root: JavaRoot): JarPackageIndex? {
+        if (root.type != JavaRoot.RootType.BINARY || root.prefixFqName != null ||
+            root.file.fileSystem.protocol != StandardFileSystems.JAR_PROTOCOL) return null
+
+        // The index is built for the whole jar, so it can't be used for a root which is a directory inside the jar
+        val jarPath = root.file.path.substringBefore(StandardFileSystems.JAR_SEPARATOR)
+        if (root.file.path != jarPath + StandardFileSystems.JAR_SEPARATOR) return null
+
+        return jarIndexCache?.getIndex(File(jarPath))
+    }
+
     private fun VirtualFile.findChildPackage(subPackageName: String, rootType: JavaRoot.RootType): VirtualFile? {
         val childDirectory = findChild(subPackageName) ?: return null
 
@@ -278,4 +336,9 @@ class JvmDependenciesIndexImpl(_roots: List<JavaRoot>): JvmDependenciesIndex {
 
         object NotFound : SearchResult()
     }
+
+    private companion object {
+        // Marks roots which have no jar index, so that they are checked only once
+        val NO_JAR_INDEX = Any()
+    }
 }
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.daemon.client
+
+import org.jetbrains.kotlin.daemon.common.CallbackChannel
+import org.jetbrains.kotlin.daemon.common.CallbackChannelAddress
+import org.jetbrains.kotlin.daemon.common.LoopbackNetworkInterface
+import org.jetbrains.kotlin.daemon.common.SOCKET_ANY_FREE_PORT
+import org.jetbrains.kotlin.load.kotlin.incremental.components.IncrementalCache
+import org.jetbrains.kotlin.load.kotlin.incremental.components.IncrementalCompilationComponents
+import java.io.*
+import java.security.SecureRandom
+import kotlin.concurrent.thread
+
+/**
+ * Answers the incremental cache calls of the daemon sent over a [CallbackChannel]. The channel accepts one connection,
+ * which is served on its own thread until the daemon closes it at the end of the compilation
+ */
+class CallbackChannelServer(private val components: IncrementalCompilationComponents) {
+    private val token = random.nextLong()
+
+    private val serverSocket = LoopbackNetworkInterface.serverLoopbackSocketFactory.createServerSocket(SOCKET_ANY_FREE_PORT).apply {
+        soTimeout = ACCEPT_TIMEOUT_MS
+    }
+
+    val address = CallbackChannelAddress(serverSocket.localPort, token)
+
+    init {
+        thread(isDaemon = true, name = "Kotlin compile daemon callback channel") { serve() }
+    }
+
+    private fun serve() {
+        try {
+            val socket = serverSocket.use { it.accept() }
+            socket.use {
+                socket.tcpNoDelay = true
+                val input = DataInputStream(BufferedInputStream(socket.getInputStream()))
+                val output = DataOutputStream(BufferedOutputStream(socket.getOutputStream()))
+                if (input.readLong() != token) return
+
+                while (true) {
+                    val request = try {
+                        CallbackChannel.readFrame(input)
+                    }
+                    catch (e: EOFException) {
+                        // the daemon has closed the channel
+                        return
+                    }
+                    CallbackChannel.writeFrame(output, respond(request))
+                }
+            }
+        }
+        catch (e: IOException) {
+            // the daemon didn't connect in time or the connection is broken, it makes RMI calls then
+        }
+    }
+
+    private fun respond(request: DataInputStream): ByteArrayOutputStream {
+        val response = ByteArrayOutputStream()
+        val output = DataOutputStream(response)
+        repeat(request.readInt()) {
+            val operation = request.readByte().toInt()
+            val target = CallbackChannel.readTarget(request)
+            val arguments = CallbackChannel.readStrings(request)
+
+            // a failed call is reported in its result, the rest of the batch is still answered
+            val result = ByteArrayOutputStream()
+            val status = try {
+                call(operation, components.getIncrementalCache(target), arguments, DataOutputStream(result))
+            }
+            catch (e: Exception) {
+                result.reset()
+                DataOutputStream(result).writeUTF(e.toString().take(MAX_ERROR_MESSAGE_LENGTH))
+                CallbackChannel.RESULT_ERROR
+            }
+            output.writeByte(status)
+            result.writeTo(output)
+        }
+        return response
+    }
+
+    private fun call(operation: Int, cache: IncrementalCache, arguments: List<String>, output: DataOutput): Int {
+        when (operation) {
+            CallbackChannel.GET_OBSOLETE_PACKAGE_PARTS -> CallbackChannel.writeStrings(output, cache.getObsoletePackageParts())
+            CallbackChannel.GET_OBSOLETE_MULTIFILE_CLASSES -> CallbackChannel.writeStrings(output, cache.getObsoleteMultifileClasses())
+            CallbackChannel.GET_MULTIFILE_FACADE_PARTS -> {
+                val parts = cache.getStableMultifileFacadeParts(arguments.single()) ?: return CallbackChannel.RESULT_NULL
+                CallbackChannel.writeStrings(output, parts)
+            }
+            CallbackChannel.GET_PACKAGE_PART_DATA -> {
+                val proto = cache.getPackagePartData(arguments.single()) ?: return CallbackChannel.RESULT_NULL
+                CallbackChannel.writeBytes(output, proto.data)
+                CallbackChannel.writeStrings(output, proto.strings.asList())
+            }
+            CallbackChannel.GET_MODULE_MAPPING_DATA -> {
+                val data = cache.getModuleMappingData() ?: return CallbackChannel.RESULT_NULL
+                CallbackChannel.writeBytes(output, data)
+            }
+            CallbackChannel.GET_CLASS_FILE_PATH -> output.writeUTF(cache.getClassFilePath(arguments.single()))
+            CallbackChannel.REGISTER_INLINES -> {
+                for (i in arguments.indices step 3) {
+                    cache.registerInline(arguments[i], arguments[i + 1], arguments[i + 2])
+                }
+            }
+            CallbackChannel.CLOSE -> cache.close()
+            else -> throw IllegalArgumentException("Unknown operation: $operation")
+        }
+        return CallbackChannel.RESULT_VALUE
+    }
+
+    private companion object {
+        // the daemon connects right after it gets the address
+        val ACCEPT_TIMEOUT_MS = 30000
+
+        val MAX_ERROR_MESSAGE_LENGTH = 10000
+
+        val random = SecureRandom()
+    }
+}
@@ -16,8 +16,11 @@
 
 package org.jetbrains.kotlin.daemon.client
 
+import org.jetbrains.kotlin.daemon.common.CallbackChannelAddress
 import org.jetbrains.kotlin.daemon.common.CompilerCallbackServicesFacade
+import org.jetbrains.kotlin.daemon.common.LookupsChunk
 import org.jetbrains.kotlin.daemon.common.LoopbackNetworkInterface
+import org.jetbrains.kotlin.daemon.common.RegisteredInline
 import org.jetbrains.kotlin.daemon.common.RmiFriendlyCompilationCanceledException
 import org.jetbrains.kotlin.daemon.common.SOCKET_ANY_FREE_PORT
 import org.jetbrains.kotlin.incremental.components.LookupInfo
@@ -59,12 +62,23 @@ open class CompilerCallbackServicesFacadeServer(
         incrementalCompilationComponents!!.getIncrementalCache(target).registerInline(fromPath, jvmSignature, toPath)
     }
 
+    override fun incrementalCache_registerInlines(target: TargetId, inlines: Collection<RegisteredInline>) {
+        val incrementalCache = incrementalCompilationComponents!!.getIncrementalCache(target)
+
+        for (it in inlines) {
+            incrementalCache.registerInline(it.fromPath, it.jvmSignature, it.toPath)
+        }
+    }
+
     override fun incrementalCache_getClassFilePath(target: TargetId, internalClassName: String): String = incrementalCompilationComponents!!.getIncrementalCache(target).getClassFilePath(internalClassName)
 
     override fun incrementalCache_close(target: TargetId) {
         incrementalCompilationComponents!!.getIncrementalCache(target).close()
     }
 
+    override fun incrementalCache_openChannel(): CallbackChannelAddress? =
+            incrementalCompilationComponents?.let { CallbackChannelServer(it).address }
+
     override fun lookupTracker_requiresPosition() = incrementalCompilationComponents!!.getLookupTracker().requiresPosition
 
     override fun lookupTracker_record(lookups: Collection<LookupInfo>) {
@@ -75,6 +89,10 @@ open class CompilerCallbackServicesFacadeServer(
         }
     }
 
+    override fun lookupTracker_recordChunk(chunk: ByteArray) {
+        LookupsChunk.decode(chunk, incrementalCompilationComponents!!.getLookupTracker())
+    }
+
     private val lookupTracker_isDoNothing: Boolean = incrementalCompilationComponents?.getLookupTracker() === LookupTracker.DO_NOTHING
 
     override fun lookupTracker_isDoNothing(): Boolean = lookupTracker_isDoNothing
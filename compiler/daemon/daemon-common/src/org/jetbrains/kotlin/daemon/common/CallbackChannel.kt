@@ -0,0 +1,93 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.daemon.common
+
+import org.jetbrains.kotlin.modules.TargetId
+import java.io.*
+
+/**
+ * Loopback socket of a [CompilerCallbackServicesFacade] which accepts one connection of the daemon, see [CallbackChannel].
+ * The daemon sends [token] first, it is only passed over RMI, so that other local processes can't use the channel
+ */
+data class CallbackChannelAddress(val port: Int, val token: Long) : Serializable {
+    companion object {
+        const val serialVersionUID: Long = 0
+    }
+}
+
+/**
+ * Framed binary protocol for the incremental cache calls of the daemon, which replaces a separate RMI call per query.
+ *
+ * Every frame is its size followed by the payload. A request frame is a batch of calls, possibly for different targets
+ * of the compilation: the number of calls, then the operation, the target and the string arguments of every call.
+ * The response frame has the results of the calls in the same order: [RESULT_VALUE] followed by the value (nothing
+ * for the calls without a result), [RESULT_NULL], or [RESULT_ERROR] followed by the message of the failure.
+ */
+object CallbackChannel {
+    const val GET_OBSOLETE_PACKAGE_PARTS = 1
+    const val GET_OBSOLETE_MULTIFILE_CLASSES = 2
+    const val GET_MULTIFILE_FACADE_PARTS = 3
+    const val GET_PACKAGE_PART_DATA = 4
+    const val GET_MODULE_MAPPING_DATA = 5
+    const val GET_CLASS_FILE_PATH = 6
+    // the arguments are the from path, the JVM signature and the to path of every inline function
+    const val REGISTER_INLINES = 7
+    const val CLOSE = 8
+
+    const val RESULT_VALUE = 0
+    const val RESULT_NULL = 1
+    const val RESULT_ERROR = 2
+
+    // a larger size means that the stream is corrupted
+    private val MAX_FRAME_SIZE = 1 shl 30
+
+    fun writeFrame(output: DataOutputStream, payload: ByteArrayOutputStream) {
+        output.writeInt(payload.size())
+        payload.writeTo(output)
+        output.flush()
+    }
+
+    fun readFrame(input: DataInputStream): DataInputStream {
+        val size = input.readInt()
+        if (size < 0 || size > MAX_FRAME_SIZE) throw IOException("Invalid frame size: $size")
+
+        val payload = ByteArray(size)
+        input.readFully(payload)
+        return DataInputStream(ByteArrayInputStream(payload))
+    }
+
+    fun writeTarget(output: DataOutput, target: TargetId) {
+        output.writeUTF(target.name)
+        output.writeUTF(target.type)
+    }
+
+    fun readTarget(input: DataInput): TargetId = TargetId(input.readUTF(), input.readUTF())
+
+    fun writeStrings(output: DataOutput, strings: Collection<String>) {
+        output.writeInt(strings.size)
+        strings.forEach(output::writeUTF)
+    }
+
+    fun readStrings(input: DataInput): List<String> = Array(input.readInt()) { input.readUTF() }.asList()
+
+    fun writeBytes(output: DataOutput, bytes: ByteArray) {
+        output.writeInt(bytes.size)
+        output.write(bytes)
+    }
+
+    fun readBytes(input: DataInput): ByteArray = ByteArray(input.readInt()).also { input.readFully(it) }
+}
@@ -58,6 +58,12 @@ interface CompilerCallbackServicesFacade : Remote {
     @Throws(RemoteException::class)
     fun incrementalCache_registerInline(target: TargetId, fromPath: String, jvmSignature: String, toPath: String)
 
+    /**
+     * Same as [incrementalCache_registerInline] for every element of [inlines], the daemon sends them in one call per compilation
+     */
+    @Throws(RemoteException::class)
+    fun incrementalCache_registerInlines(target: TargetId, inlines: Collection<RegisteredInline>)
+
     @Throws(RemoteException::class)
     fun incrementalCache_getClassFilePath(target: TargetId, internalClassName: String): String
 
@@ -67,6 +73,13 @@ interface CompilerCallbackServicesFacade : Remote {
     @Throws(RemoteException::class)
     fun incrementalCache_getMultifileFacadeParts(target: TargetId, internalName: String): Collection<String>?
 
+    /**
+     * Opens a [CallbackChannel] for the incremental cache calls of the compilation, returns null if the caches aren't available.
+     * The daemon uses the RMI calls above if the channel can't be opened
+     */
+    @Throws(RemoteException::class)
+    fun incrementalCache_openChannel(): CallbackChannelAddress?
+
     // ----------------------------------------------------
     // LookupTracker
     @Throws(RemoteException::class)
@@ -75,6 +88,12 @@ interface CompilerCallbackServicesFacade : Remote {
     @Throws(RemoteException::class)
     fun lookupTracker_record(lookups: Collection<LookupInfo>)
 
+    /**
+     * Records lookups encoded with [LookupsChunk.encode], the daemon sends them in chunks while the compilation is running
+     */
+    @Throws(RemoteException::class)
+    fun lookupTracker_recordChunk(chunk: ByteArray)
+
     @Throws(RemoteException::class)
     fun lookupTracker_isDoNothing(): Boolean
 
@@ -90,3 +109,10 @@ class RmiFriendlyCompilationCanceledException : Exception(), Serializable {
         private val serialVersionUID: Long = 8228357578L // just a random number, but should never be changed to avoid deserialization problems
     }
 }
+
+
+data class RegisteredInline(val fromPath: String, val jvmSignature: String, val toPath: String) : Serializable {
+    companion object {
+        const val serialVersionUID: Long = 0
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.daemon.common
+
+import org.jetbrains.kotlin.incremental.components.LookupInfo
+import org.jetbrains.kotlin.incremental.components.LookupTracker
+import org.jetbrains.kotlin.incremental.components.Position
+import org.jetbrains.kotlin.incremental.components.ScopeKind
+import java.io.*
+
+/**
+ * Compact binary encoding of lookups sent from the daemon to the client in chunks during the compilation.
+ *
+ * Each chunk is self-contained: it starts with the table of its strings, followed by the lookups grouped by file,
+ * where every string is an index in the table. Indices, counts and positions are written as var-ints,
+ * the scope kind is packed into the lowest bit of the name index, and positions are omitted entirely
+ * when the receiving tracker doesn't need them.
+ */
+object LookupsChunk {
+    private val FLAG_WITH_POSITIONS = 1
+
+    private val SCOPE_KINDS = ScopeKind.values()
+
+    init {
+        // The scope kind is packed into a single bit, so a new kind requires a new encoding
+        require(SCOPE_KINDS.size <= 2) { "Scope kinds don't fit into one bit: ${SCOPE_KINDS.joinToString()}" }
+    }
+
+    fun encode(lookups: Collection<LookupInfo>, withPositions: Boolean): ByteArray {
+        val stringIndices = LinkedHashMap<String, Int>()
+        fun index(string: String): Int = stringIndices.getOrPut(string) { stringIndices.size }
+
+        val lookupsBytes = ByteArrayOutputStream()
+        DataOutputStream(lookupsBytes).use { output ->
+            val lookupsByFile = lookups.groupBy(LookupInfo::filePath)
+            output.writeVarInt(lookupsByFile.size)
+            for ((filePath, fileLookups) in lookupsByFile) {
+                output.writeVarInt(index(filePath))
+                output.writeVarInt(fileLookups.size)
+                for (lookup in fileLookups) {
+                    output.writeVarInt(index(lookup.scopeFqName))
+                    output.writeVarInt((index(lookup.name) shl 1) or lookup.scopeKind.ordinal)
+                    if (withPositions) {
+                        // NO_POSITION is (-1, -1)
+                        output.writeVarInt(lookup.position.line + 1)
+                        output.writeVarInt(lookup.position.column + 1)
+                    }
+                }
+            }
+        }
+
+        val bytes = ByteArrayOutputStream(lookupsBytes.size() + stringIndices.size * 32)
+        DataOutputStream(bytes).use { output ->
+            output.writeByte(if (withPositions) FLAG_WITH_POSITIONS else 0)
+            output.writeVarInt(stringIndices.size)
+            stringIndices.keys.forEach(output::writeUTF)
+            lookupsBytes.writeTo(output)
+        }
+        return bytes.toByteArray()
+    }
+
+    /**
+     * Records the lookups of the chunk in [tracker] as they are read, without materializing the whole chunk
+     */
+    fun decode(chunk: ByteArray, tracker: LookupTracker) {
+        DataInputStream(ByteArrayInputStream(chunk)).use { input ->
+            val withPositions = input.readByte().toInt() and FLAG_WITH_POSITIONS != 0
+            val strings = Array(input.readVarInt()) { input.readUTF() }
+
+            repeat(input.readVarInt()) {
+                val filePath = strings[input.readVarInt()]
+                repeat(input.readVarInt()) {
+                    val scopeFqName = strings[input.readVarInt()]
+                    val nameAndKind = input.readVarInt()
+                    val position =
+                            if (withPositions) Position(input.readVarInt() - 1, input.readVarInt() - 1)
+                            else Position.NO_POSITION
+                    tracker.record(filePath, position, scopeFqName, SCOPE_KINDS[nameAndKind and 1], strings[nameAndKind ushr 1])
+                }
+            }
+        }
+    }
+
+    private fun DataOutput.writeVarInt(value: Int) {
+        var rest = value
+        while (rest and 0x7F.inv() != 0) {
+            writeByte((rest and 0x7F) or 0x80)
+            rest = rest ushr 7
+        }
+        writeByte(rest)
+    }
+
+    private fun DataInput.readVarInt(): Int {
+        var result = 0
+        var shift = 0
+        while (true) {
+            val byte = readByte().toInt()
+            result = result or ((byte and 0x7F) shl shift)
+            if (byte and 0x80 == 0) return result
+            shift += 7
+        }
+    }
+}
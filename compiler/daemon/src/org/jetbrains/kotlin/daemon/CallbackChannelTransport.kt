@@ -0,0 +1,199 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.daemon
+
+import org.jetbrains.kotlin.daemon.common.CallbackChannel
+import org.jetbrains.kotlin.daemon.common.CallbackChannelAddress
+import org.jetbrains.kotlin.daemon.common.LoopbackNetworkInterface
+import org.jetbrains.kotlin.daemon.common.RegisteredInline
+import org.jetbrains.kotlin.load.kotlin.incremental.components.JvmPackagePartProto
+import org.jetbrains.kotlin.modules.TargetId
+import java.io.*
+import java.util.logging.Logger
+
+/**
+ * Sends the incremental cache calls over the [CallbackChannel] of the client, one connection is shared by all targets.
+ *
+ * The calls without a result are not sent immediately: they are batched with the next call which needs an answer,
+ * or sent when the channel is closed, so their failures are reported by those calls. If the channel is broken,
+ * the queued calls and all the following ones go through [fallback].
+ */
+class CallbackChannelTransport(address: CallbackChannelAddress, private val fallback: IncrementalCacheTransport) : IncrementalCacheTransport {
+    private val log by lazy { Logger.getLogger("compiler") }
+
+    private val socket = LoopbackNetworkInterface.clientLoopbackSocketFactory.createSocket(LoopbackNetworkInterface.loopbackInetAddressName, address.port)
+    private val input: DataInputStream
+    private val output: DataOutputStream
+
+    private val queuedCalls = arrayListOf<Call>()
+    private var isOpen = true
+
+    private class Call(val operation: Int, val target: TargetId, val arguments: List<String>, val fallback: () -> Unit)
+
+    init {
+        try {
+            socket.tcpNoDelay = true
+            input = DataInputStream(BufferedInputStream(socket.getInputStream()))
+            output = DataOutputStream(BufferedOutputStream(socket.getOutputStream()))
+            output.writeLong(address.token)
+        }
+        catch (e: IOException) {
+            socket.close()
+            throw e
+        }
+    }
+
+    override fun getObsoletePackageParts(target: TargetId): Collection<String> =
+            request<Collection<String>>(target, CallbackChannel.GET_OBSOLETE_PACKAGE_PARTS, emptyList(), CallbackChannel::readStrings) {
+                fallback.getObsoletePackageParts(target)
+            }!!
+
+    override fun getObsoleteMultifileClasses(target: TargetId): Collection<String> =
+            request<Collection<String>>(target, CallbackChannel.GET_OBSOLETE_MULTIFILE_CLASSES, emptyList(), CallbackChannel::readStrings) {
+                fallback.getObsoleteMultifileClasses(target)
+            }!!
+
+    override fun getMultifileFacadeParts(target: TargetId, internalName: String): Collection<String>? =
+            request<Collection<String>>(target, CallbackChannel.GET_MULTIFILE_FACADE_PARTS, listOf(internalName), CallbackChannel::readStrings) {
+                fallback.getMultifileFacadeParts(target, internalName)
+            }
+
+    override fun getPackagePartData(target: TargetId, partInternalName: String): JvmPackagePartProto? =
+            request(target, CallbackChannel.GET_PACKAGE_PART_DATA, listOf(partInternalName), ::readPackagePartProto) {
+                fallback.getPackagePartData(target, partInternalName)
+            }
+
+    override fun getModuleMappingData(target: TargetId): ByteArray? =
+            request(target, CallbackChannel.GET_MODULE_MAPPING_DATA, emptyList(), CallbackChannel::readBytes) {
+                fallback.getModuleMappingData(target)
+            }
+
+    override fun getClassFilePath(target: TargetId, internalClassName: String): String =
+            request(target, CallbackChannel.GET_CLASS_FILE_PATH, listOf(internalClassName), DataInput::readUTF) {
+                fallback.getClassFilePath(target, internalClassName)
+            }!!
+
+    override fun registerInlines(target: TargetId, inlines: Collection<RegisteredInline>) {
+        val arguments = inlines.flatMap { listOf(it.fromPath, it.jvmSignature, it.toPath) }
+        post(Call(CallbackChannel.REGISTER_INLINES, target, arguments) { fallback.registerInlines(target, inlines) })
+    }
+
+    override fun close(target: TargetId) {
+        post(Call(CallbackChannel.CLOSE, target, emptyList()) { fallback.close(target) })
+    }
+
+    /**
+     * Sends the queued calls and closes the connection, the calls made after that go through [fallback]
+     */
+    fun close() {
+        val failedCalls = synchronized(this) {
+            if (!isOpen) return
+            val calls = queuedCalls.toList()
+            queuedCalls.clear()
+            try {
+                if (calls.isNotEmpty()) {
+                    readResults(exchange(calls), calls.size)
+                }
+                emptyList<Call>()
+            }
+            catch (e: IOException) {
+                log.warning("Incremental cache channel is broken, using RMI (${e.message})")
+                calls
+            }
+            finally {
+                isOpen = false
+                socket.close()
+            }
+        }
+        failedCalls.forEach { it.fallback() }
+    }
+
+    private fun post(call: Call) {
+        synchronized(this) {
+            if (isOpen) {
+                queuedCalls.add(call)
+                return
+            }
+        }
+        call.fallback()
+    }
+
+    private fun <T : Any> request(
+            target: TargetId,
+            operation: Int,
+            arguments: List<String>,
+            readValue: (DataInput) -> T,
+            fallbackCall: () -> T?
+    ): T? {
+        val failedCalls = synchronized(this) {
+            if (!isOpen) return@synchronized emptyList<Call>()
+
+            val calls = queuedCalls + Call(operation, target, arguments) {}
+            queuedCalls.clear()
+            try {
+                val response = exchange(calls)
+                readResults(response, calls.size - 1)
+                return when (response.readByte().toInt()) {
+                    CallbackChannel.RESULT_VALUE -> readValue(response)
+                    CallbackChannel.RESULT_NULL -> null
+                    else -> throw callFailed(response.readUTF())
+                }
+            }
+            catch (e: IOException) {
+                log.warning("Incremental cache channel is broken, using RMI (${e.message})")
+                isOpen = false
+                socket.close()
+                calls.dropLast(1)
+            }
+        }
+        failedCalls.forEach { it.fallback() }
+        return fallbackCall()
+    }
+
+    private fun exchange(calls: List<Call>): DataInputStream {
+        val request = ByteArrayOutputStream()
+        with(DataOutputStream(request)) {
+            writeInt(calls.size)
+            for (call in calls) {
+                writeByte(call.operation)
+                CallbackChannel.writeTarget(this, call.target)
+                CallbackChannel.writeStrings(this, call.arguments)
+            }
+        }
+        CallbackChannel.writeFrame(output, request)
+        return CallbackChannel.readFrame(input)
+    }
+
+    // results of the calls without a value, the first failure among them is rethrown
+    private fun readResults(response: DataInputStream, count: Int) {
+        var failure: Exception? = null
+        repeat(count) {
+            if (response.readByte().toInt() == CallbackChannel.RESULT_ERROR) {
+                val message = response.readUTF()
+                if (failure == null) failure = callFailed(message)
+            }
+        }
+        failure?.let { throw it }
+    }
+
+}
+
+// not an IOException, so that a failure of the call in the client isn't taken for a broken channel
+private fun callFailed(message: String) = IllegalStateException("Incremental cache call failed in the client: $message")
+
+private fun readPackagePartProto(input: DataInput): JvmPackagePartProto =
+        JvmPackagePartProto(CallbackChannel.readBytes(input), CallbackChannel.readStrings(input).toTypedArray())
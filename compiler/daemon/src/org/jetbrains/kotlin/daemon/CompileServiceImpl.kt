@@ -39,7 +39,9 @@ import org.jetbrains.kotlin.cli.common.repl.ReplEvalResult
 import org.jetbrains.kotlin.cli.js.K2JSCompiler
 import org.jetbrains.kotlin.cli.jvm.K2JVMCompiler
 import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
+import org.jetbrains.kotlin.cli.jvm.index.JarPackageIndex
 import org.jetbrains.kotlin.cli.metadata.K2MetadataCompiler
+import org.jetbrains.kotlin.codegen.inline.SharedInlineCache
 import org.jetbrains.kotlin.config.Services
 import org.jetbrains.kotlin.daemon.common.*
 import org.jetbrains.kotlin.daemon.incremental.RemoteAnnotationsFileUpdater
@@ -48,11 +50,14 @@ import org.jetbrains.kotlin.daemon.incremental.RemoteChangesRegistry
 import org.jetbrains.kotlin.daemon.report.CompileServicesFacadeMessageCollector
 import org.jetbrains.kotlin.daemon.report.DaemonMessageReporter
 import org.jetbrains.kotlin.daemon.report.DaemonMessageReporterPrintStreamAdapter
+import org.jetbrains.kotlin.daemon.report.PhaseProfileResult
 import org.jetbrains.kotlin.daemon.report.RemoteICReporter
 import org.jetbrains.kotlin.incremental.*
+import org.jetbrains.kotlin.load.kotlin.SharedKotlinClassCache
 import org.jetbrains.kotlin.load.kotlin.incremental.components.IncrementalCompilationComponents
 import org.jetbrains.kotlin.modules.Module
 import org.jetbrains.kotlin.progress.CompilationCanceledStatus
+import org.jetbrains.kotlin.util.PhaseProfiler
 import org.jetbrains.kotlin.utils.stackTraceStr
 import java.io.BufferedOutputStream
 import java.io.ByteArrayOutputStream
@@ -74,6 +79,10 @@ import kotlin.concurrent.write
 
 const val REMOTE_STREAM_BUFFER_SIZE = 4096
 
+const val SHARED_INLINE_CACHE_SIZE_BYTES = 64L * 1024 * 1024
+const val SHARED_KOTLIN_CLASS_CACHE_SIZE_BYTES = 64L * 1024 * 1024
+const val JAR_PACKAGE_INDEX_CACHE_SIZE_BYTES = 16L * 1024 * 1024
+
 fun nowSeconds() = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime())
 
 interface CompilerSelector {
@@ -91,8 +100,19 @@ private class EventManagerImpl : EventManager {
         onCompilationFinished.add(f)
     }
 
+    // every callback is run, even if the previous ones fail, since each of them flushes its own data to the client
     fun fireCompilationFinished() {
-        onCompilationFinished.forEach { it() }
+        var failure: Throwable? = null
+        for (callback in onCompilationFinished) {
+            try {
+                callback()
+            }
+            catch (e: Throwable) {
+                val previousFailure = failure
+                if (previousFailure == null) failure = e else previousFailure.addSuppressed(e)
+            }
+        }
+        failure?.let { throw it }
     }
 }
 
@@ -109,6 +129,12 @@ class CompileServiceImpl(
 
     init {
         System.setProperty(KOTLIN_COMPILER_ENVIRONMENT_KEEPALIVE_PROPERTY, "true")
+        SharedInlineCache.instance = SharedInlineCache(SHARED_INLINE_CACHE_SIZE_BYTES)
+        SharedKotlinClassCache.instance = SharedKotlinClassCache(SHARED_KOTLIN_CLASS_CACHE_SIZE_BYTES)
+        // keep indices of the classpath jars between compilations, they are also stored on disk if the storage is specified
+        if (JarPackageIndex.Cache.instance == null) {
+            JarPackageIndex.Cache.instance = JarPackageIndex.Cache(storageDirectory = null, maxSizeInBytes = JAR_PACKAGE_INDEX_CACHE_SIZE_BYTES)
+        }
     }
 
     // wrapped in a class to encapsulate alive check logic
@@ -347,38 +373,62 @@ class CompileServiceImpl(
             return@ifAlive CompileService.CallResult.Error("Could not deserialize compiler arguments")
         }
 
-        return@ifAlive when (compilerMode) {
-            CompilerMode.JPS_COMPILER -> {
-                val jpsServicesFacade = servicesFacade as JpsCompilerServicesFacade
+        val phaseProfiler =
+                if (compilationResults != null && CompilationResultCategory.PHASE_PROFILE.code in compilationOptions.requestedCompilationResults)
+                    PhaseProfiler()
+                else null
 
-                doCompile(sessionId, daemonReporter, tracer = null) { eventManger, profiler ->
-                    val services = createCompileServices(jpsServicesFacade, eventManger, profiler)
-                    execCompiler(compilationOptions.targetPlatform, services, k2PlatformArgs, messageCollector)
-                }
-            }
-            CompilerMode.NON_INCREMENTAL_COMPILER -> {
-                doCompile(sessionId, daemonReporter, tracer = null) { _, _ ->
-                    execCompiler(targetPlatform, Services.EMPTY, k2PlatformArgs, messageCollector)
+        return@ifAlive profilePhases(phaseProfiler, compilationResults) {
+            when (compilerMode) {
+                CompilerMode.JPS_COMPILER -> {
+                    val jpsServicesFacade = servicesFacade as JpsCompilerServicesFacade
+
+                    doCompile(sessionId, daemonReporter, tracer = null) { eventManger, profiler ->
+                        val services = createCompileServices(jpsServicesFacade, eventManger, profiler)
+                        execCompiler(compilationOptions.targetPlatform, services, k2PlatformArgs, messageCollector)
+                    }
                 }
-            }
-            CompilerMode.INCREMENTAL_COMPILER -> {
-                if (targetPlatform != CompileService.TargetPlatform.JVM) {
-                    throw IllegalStateException("Incremental compilation is not supported for target platform: $targetPlatform")
+                CompilerMode.NON_INCREMENTAL_COMPILER -> {
+                    doCompile(sessionId, daemonReporter, tracer = null) { _, _ ->
+                        execCompiler(targetPlatform, Services.EMPTY, k2PlatformArgs, messageCollector)
+                    }
                 }
+                CompilerMode.INCREMENTAL_COMPILER -> {
+                    if (targetPlatform != CompileService.TargetPlatform.JVM) {
+                        throw IllegalStateException("Incremental compilation is not supported for target platform: $targetPlatform")
+                    }
 
-                val k2jvmArgs = k2PlatformArgs as K2JVMCompilerArguments
-                val gradleIncrementalArgs = compilationOptions as IncrementalCompilationOptions
-                val gradleIncrementalServicesFacade = servicesFacade as IncrementalCompilerServicesFacade
+                    val k2jvmArgs = k2PlatformArgs as K2JVMCompilerArguments
+                    val gradleIncrementalArgs = compilationOptions as IncrementalCompilationOptions
+                    val gradleIncrementalServicesFacade = servicesFacade as IncrementalCompilerServicesFacade
 
-                withIC {
-                    doCompile(sessionId, daemonReporter, tracer = null) { _, _ ->
-                        execIncrementalCompiler(k2jvmArgs, gradleIncrementalArgs, gradleIncrementalServicesFacade, compilationResults!!,
-                                                messageCollector, daemonReporter)
+                    withIC {
+                        doCompile(sessionId, daemonReporter, tracer = null) { _, _ ->
+                            execIncrementalCompiler(k2jvmArgs, gradleIncrementalArgs, gradleIncrementalServicesFacade, compilationResults!!,
+                                                    messageCollector, daemonReporter)
+                        }
                     }
+
                 }
+                else -> throw IllegalStateException("Unknown compilation mode $compilerMode")
+            }
+        }
+    }
+
+    private fun <T> profilePhases(profiler: PhaseProfiler?, compilationResults: CompilationResults?, body: () -> T): T {
+        if (profiler == null || compilationResults == null) return body()
 
+        try {
+            return PhaseProfiler.profile(profiler, body)
+        }
+        finally {
+            // The profile is optional, a failure to report it mustn't replace the result of the compilation
+            try {
+                compilationResults.add(CompilationResultCategory.PHASE_PROFILE.code, PhaseProfileResult(profiler.summary(), profiler.chromeTrace()))
+            }
+            catch (e: Exception) {
+                log.log(Level.WARNING, "Cannot report the phase profile", e)
             }
-            else -> throw IllegalStateException("Unknown compilation mode $compilerMode")
         }
     }
 
@@ -813,6 +863,8 @@ class CompileServiceImpl(
     private fun<R> checkedCompile(daemonMessageReporter: DaemonMessageReporter, rpcProfiler: Profiler, body: () -> R): R {
         try {
             val profiler = if (daemonOptions.reportPerf) WallAndThreadAndMemoryTotalProfiler(withGC = false) else DummyProfiler()
+            val inlineCacheStatisticsBefore = SharedInlineCache.instance?.statistics
+            val classCacheStatisticsBefore = SharedKotlinClassCache.instance?.statistics
 
             val res = profiler.withMeasure(null, body)
 
@@ -831,6 +883,20 @@ class CompileServiceImpl(
                     log.info(it)
                 }
 
+                SharedInlineCache.instance?.statistics?.let { statistics ->
+                    "PERF: inline cache: ${inlineCacheStatisticsBefore?.let { statistics - it } ?: statistics}".let {
+                        daemonMessageReporter.report(ReportSeverity.INFO, it)
+                        log.info(it)
+                    }
+                }
+
+                SharedKotlinClassCache.instance?.statistics?.let { statistics ->
+                    "PERF: library class cache: ${classCacheStatisticsBefore?.let { statistics - it } ?: statistics}".let {
+                        daemonMessageReporter.report(ReportSeverity.INFO, it)
+                        log.info(it)
+                    }
+                }
+
                 // this will only be reported if if appropriate (e.g. ByClass) profiler is used
                 for ((obj, counters) in rpcProfiler.getCounters()) {
                     "PERF: rpc by $obj: ${counters.count} calls, ${counters.time.ms()} ms, thread ${counters.threadTime.ms()} ms".let {
@@ -851,6 +917,9 @@ class CompileServiceImpl(
     override fun clearJarCache() {
         ZipHandler.clearFileAccessorCache()
         (KotlinCoreEnvironment.applicationEnvironment?.jarFileSystem as? CoreJarFileSystem)?.clearHandlersCache()
+        SharedInlineCache.instance?.clear()
+        SharedKotlinClassCache.instance?.clear()
+        JarPackageIndex.Cache.instance?.clear()
     }
 
     private fun<R> ifAlive(minAliveness: Aliveness = Aliveness.Alive,
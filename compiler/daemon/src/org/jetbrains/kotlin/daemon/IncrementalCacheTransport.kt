@@ -0,0 +1,68 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.daemon
+
+import org.jetbrains.kotlin.daemon.common.CompilerCallbackServicesFacade
+import org.jetbrains.kotlin.daemon.common.RegisteredInline
+import org.jetbrains.kotlin.load.kotlin.incremental.components.JvmPackagePartProto
+import org.jetbrains.kotlin.modules.TargetId
+
+/**
+ * Calls of [RemoteIncrementalCacheClient] to the incremental caches of the client process
+ */
+interface IncrementalCacheTransport {
+    fun getObsoletePackageParts(target: TargetId): Collection<String>
+
+    fun getObsoleteMultifileClasses(target: TargetId): Collection<String>
+
+    fun getMultifileFacadeParts(target: TargetId, internalName: String): Collection<String>?
+
+    fun getPackagePartData(target: TargetId, partInternalName: String): JvmPackagePartProto?
+
+    fun getModuleMappingData(target: TargetId): ByteArray?
+
+    fun getClassFilePath(target: TargetId, internalClassName: String): String
+
+    fun registerInlines(target: TargetId, inlines: Collection<RegisteredInline>)
+
+    fun close(target: TargetId)
+}
+
+class RmiIncrementalCacheTransport(val facade: CompilerCallbackServicesFacade) : IncrementalCacheTransport {
+    override fun getObsoletePackageParts(target: TargetId): Collection<String> = facade.incrementalCache_getObsoletePackageParts(target)
+
+    override fun getObsoleteMultifileClasses(target: TargetId): Collection<String> = facade.incrementalCache_getObsoleteMultifileClassFacades(target)
+
+    override fun getMultifileFacadeParts(target: TargetId, internalName: String): Collection<String>? =
+            facade.incrementalCache_getMultifileFacadeParts(target, internalName)
+
+    override fun getPackagePartData(target: TargetId, partInternalName: String): JvmPackagePartProto? =
+            facade.incrementalCache_getPackagePartData(target, partInternalName)
+
+    override fun getModuleMappingData(target: TargetId): ByteArray? = facade.incrementalCache_getModuleMappingData(target)
+
+    override fun getClassFilePath(target: TargetId, internalClassName: String): String =
+            facade.incrementalCache_getClassFilePath(target, internalClassName)
+
+    override fun registerInlines(target: TargetId, inlines: Collection<RegisteredInline>) {
+        facade.incrementalCache_registerInlines(target, inlines)
+    }
+
+    override fun close(target: TargetId) {
+        facade.incrementalCache_close(target)
+    }
+}
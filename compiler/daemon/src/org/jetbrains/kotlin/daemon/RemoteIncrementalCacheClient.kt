@@ -16,30 +16,90 @@
 
 package org.jetbrains.kotlin.daemon
 
-import org.jetbrains.kotlin.daemon.common.CompilerCallbackServicesFacade
 import org.jetbrains.kotlin.daemon.common.DummyProfiler
 import org.jetbrains.kotlin.daemon.common.Profiler
+import org.jetbrains.kotlin.daemon.common.RegisteredInline
 import org.jetbrains.kotlin.load.kotlin.incremental.components.IncrementalCache
 import org.jetbrains.kotlin.load.kotlin.incremental.components.JvmPackagePartProto
 import org.jetbrains.kotlin.modules.TargetId
+import java.util.concurrent.ConcurrentHashMap
 
-class RemoteIncrementalCacheClient(val facade: CompilerCallbackServicesFacade, val target: TargetId, val profiler: Profiler = DummyProfiler()): IncrementalCache {
+/**
+ * Every call here is a round trip to the client, so the answers are memoized for the compilation (the client doesn't update
+ * its caches until the compilation is finished), and inline functions are sent to the client in one call when it's finished
+ */
+class RemoteIncrementalCacheClient(
+        val transport: IncrementalCacheTransport,
+        val target: TargetId,
+        eventManager: EventManager,
+        val profiler: Profiler = DummyProfiler()
+): IncrementalCache {
+    private val obsoletePackageParts by lazy { profiler.withMeasure(this) { transport.getObsoletePackageParts(target) } }
+
+    private val obsoleteMultifileClasses by lazy { profiler.withMeasure(this) { transport.getObsoleteMultifileClasses(target) } }
+
+    private val moduleMappingData by lazy { profiler.withMeasure(this) { transport.getModuleMappingData(target) } }
+
+    private val multifileFacadeParts = Memoized<Collection<String>> { transport.getMultifileFacadeParts(target, it) }
+
+    private val packagePartData = Memoized<JvmPackagePartProto> { transport.getPackagePartData(target, it) }
+
+    private val classFilePaths = Memoized<String> { transport.getClassFilePath(target, it) }
+
+    private val registeredInlines = arrayListOf<RegisteredInline>()
+
+    init {
+        eventManager.onCompilationFinished { flushInlines() }
+    }
 
-    override fun getObsoletePackageParts(): Collection<String> = profiler.withMeasure(this) { facade.incrementalCache_getObsoletePackageParts(target) }
+    override fun getObsoletePackageParts(): Collection<String> = obsoletePackageParts
 
-    override fun getObsoleteMultifileClasses(): Collection<String> = profiler.withMeasure(this) { facade.incrementalCache_getObsoleteMultifileClassFacades(target) }
+    override fun getObsoleteMultifileClasses(): Collection<String> = obsoleteMultifileClasses
 
-    override fun getStableMultifileFacadeParts(facadeInternalName: String): Collection<String>? = profiler.withMeasure(this) { facade.incrementalCache_getMultifileFacadeParts(target, facadeInternalName) }
+    override fun getStableMultifileFacadeParts(facadeInternalName: String): Collection<String>? = multifileFacadeParts[facadeInternalName]
 
-    override fun getPackagePartData(partInternalName: String): JvmPackagePartProto? = profiler.withMeasure(this) { facade.incrementalCache_getPackagePartData(target, partInternalName) }
+    override fun getPackagePartData(partInternalName: String): JvmPackagePartProto? = packagePartData[partInternalName]
 
-    override fun getModuleMappingData(): ByteArray? = profiler.withMeasure(this) { facade.incrementalCache_getModuleMappingData(target) }
+    override fun getModuleMappingData(): ByteArray? = moduleMappingData
 
     override fun registerInline(fromPath: String, jvmSignature: String, toPath: String) {
-        profiler.withMeasure(this) { facade.incrementalCache_registerInline(target, fromPath, jvmSignature, toPath) }
+        synchronized(registeredInlines) {
+            registeredInlines.add(RegisteredInline(fromPath, jvmSignature, toPath))
+        }
     }
 
-    override fun getClassFilePath(internalClassName: String): String = profiler.withMeasure(this) { facade.incrementalCache_getClassFilePath(target,internalClassName) }
+    override fun getClassFilePath(internalClassName: String): String = classFilePaths[internalClassName]!!
 
-    override fun close(): Unit = profiler.withMeasure(this) { facade.incrementalCache_close(target) }
+    override fun close() {
+        try {
+            flushInlines()
+        }
+        finally {
+            profiler.withMeasure(this) { transport.close(target) }
+        }
+    }
+
+    internal fun flushInlines() {
+        val inlines = synchronized(registeredInlines) {
+            registeredInlines.toList().also { registeredInlines.clear() }
+        }
+        if (inlines.isEmpty()) return
+
+        profiler.withMeasure(this) { transport.registerInlines(target, inlines) }
+    }
+
+    private inner class Memoized<out V : Any>(private val compute: (String) -> V?) {
+        private val values = ConcurrentHashMap<String, Any>()
+
+        operator fun get(key: String): V? {
+            val value = values.getOrPut(key) { profiler.withMeasure(this@RemoteIncrementalCacheClient) { compute(key) } ?: NULL_VALUE }
+            @Suppress("UNCHECKED_CAST")
+            return if (value === NULL_VALUE) null else value as V
+        }
+    }
+
+    private companion object {
+        // null answers are memoized as well
+        val NULL_VALUE = Any()
+    }
 }
@@ -23,12 +23,59 @@ import org.jetbrains.kotlin.modules.TargetId
 import org.jetbrains.kotlin.daemon.common.CompilerCallbackServicesFacade
 import org.jetbrains.kotlin.daemon.common.DummyProfiler
 import org.jetbrains.kotlin.daemon.common.Profiler
+import java.util.concurrent.ConcurrentHashMap
+import java.util.logging.Logger
 
 
-class RemoteIncrementalCompilationComponentsClient(val facade: CompilerCallbackServicesFacade, eventManager: EventManager, val profiler: Profiler = DummyProfiler()) : IncrementalCompilationComponents {
+/**
+ * The incremental caches are called over a [CallbackChannelTransport] if the client can open it, and over RMI otherwise
+ */
+class RemoteIncrementalCompilationComponentsClient(
+        val facade: CompilerCallbackServicesFacade,
+        val eventManager: EventManager,
+        val profiler: Profiler = DummyProfiler(),
+        private val useCallbackChannel: Boolean = true
+) : IncrementalCompilationComponents {
+    private val log by lazy { Logger.getLogger("compiler") }
+
     val remoteLookupTrackerClient = RemoteLookupTrackerClient(facade, eventManager, profiler)
 
-    override fun getIncrementalCache(target: TargetId): IncrementalCache = RemoteIncrementalCacheClient(facade, target, profiler)
+    // one client per target, so that the answers memoized by it are shared by all users of the cache
+    private val incrementalCaches = ConcurrentHashMap<TargetId, RemoteIncrementalCacheClient>()
+
+    private val transport = lazy { openTransport() }
+
+    init {
+        // the caches are flushed before the channel is closed, since their own callbacks may be registered after this one
+        eventManager.onCompilationFinished {
+            try {
+                incrementalCaches.values.forEach { it.flushInlines() }
+            }
+            finally {
+                if (transport.isInitialized()) {
+                    (transport.value as? CallbackChannelTransport)?.close()
+                }
+            }
+        }
+    }
+
+    override fun getIncrementalCache(target: TargetId): IncrementalCache =
+            incrementalCaches.getOrPut(target) { RemoteIncrementalCacheClient(transport.value, target, eventManager, profiler) }
 
     override fun getLookupTracker(): LookupTracker = remoteLookupTrackerClient
+
+    private fun openTransport(): IncrementalCacheTransport {
+        val rmiTransport = RmiIncrementalCacheTransport(facade)
+        if (!useCallbackChannel) return rmiTransport
+
+        return try {
+            val address = profiler.withMeasure(this) { facade.incrementalCache_openChannel() }
+            if (address != null) CallbackChannelTransport(address, rmiTransport) else rmiTransport
+        }
+        catch (e: Exception) {
+            // e.g. the client is older than the daemon
+            log.info("Cannot open the incremental cache channel, using RMI (${e.message})")
+            rmiTransport
+        }
+    }
 }
@@ -19,6 +19,7 @@ package org.jetbrains.kotlin.daemon
 import com.intellij.util.containers.StringInterner
 import org.jetbrains.kotlin.daemon.common.CompilerCallbackServicesFacade
 import org.jetbrains.kotlin.daemon.common.DummyProfiler
+import org.jetbrains.kotlin.daemon.common.LookupsChunk
 import org.jetbrains.kotlin.daemon.common.Profiler
 import org.jetbrains.kotlin.incremental.components.LookupInfo
 import org.jetbrains.kotlin.incremental.components.LookupTracker
@@ -26,11 +27,16 @@ import org.jetbrains.kotlin.incremental.components.Position
 import org.jetbrains.kotlin.incremental.components.ScopeKind
 
 
+/**
+ * Sends lookups to the client in chunks of at most [CHUNK_SIZE] distinct lookups while the compilation is running,
+ * so that the daemon never holds all lookups of a module at once, see [LookupsChunk] for the encoding
+ */
 class RemoteLookupTrackerClient(val facade: CompilerCallbackServicesFacade, eventManager: EventManager, val profiler: Profiler = DummyProfiler()) : LookupTracker {
     private val isDoNothing = profiler.withMeasure(this) { facade.lookupTracker_isDoNothing() }
 
+    // lookups of the current chunk
     private val lookups = hashSetOf<LookupInfo>()
-    private val interner = StringInterner()
+    private var interner = StringInterner()
 
     override val requiresPosition: Boolean = profiler.withMeasure(this) { facade.lookupTracker_requiresPosition() }
 
@@ -42,6 +48,10 @@ class RemoteLookupTrackerClient(val facade: CompilerCallbackServicesFacade, even
         val internedName = interner.intern(name)
 
         lookups.add(LookupInfo(internedFilePath, position, internedScopeFqName, scopeKind, internedName))
+
+        if (lookups.size >= CHUNK_SIZE) {
+            flush()
+        }
     }
 
     init {
@@ -52,9 +62,14 @@ class RemoteLookupTrackerClient(val facade: CompilerCallbackServicesFacade, even
         if (isDoNothing || lookups.isEmpty()) return
 
         profiler.withMeasure(this) {
-            facade.lookupTracker_record(lookups)
+            facade.lookupTracker_recordChunk(LookupsChunk.encode(lookups, requiresPosition))
         }
 
         lookups.clear()
+        interner = StringInterner()
+    }
+
+    companion object {
+        private val CHUNK_SIZE = 50000
     }
 }
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.daemon.report
+
+import java.io.Serializable
+
+/**
+ * Phases of a compilation recorded by the daemon, see [org.jetbrains.kotlin.util.PhaseProfiler]
+ */
+class PhaseProfileResult(
+        @Suppress("unused") // used in Gradle
+        val summary: List<String>,
+        // In the Chrome trace event format
+        @Suppress("unused") // used in Gradle
+        val chromeTrace: String
+) : Serializable {
+    companion object {
+        const val serialVersionUID: Long = 0
+    }
+}
@@ -54,6 +54,12 @@ public class JVMConfigurationKeys {
             CompilerConfigurationKey.create("disable not-null parameter assertions");
     public static final CompilerConfigurationKey<Boolean> DISABLE_OPTIMIZATION =
             CompilerConfigurationKey.create("disable optimization");
+    public static final CompilerConfigurationKey<Integer> PARALLEL_BACKEND_THREADS =
+            CompilerConfigurationKey.create("number of threads used to run bytecode optimizations");
+    public static final CompilerConfigurationKey<Integer> PARALLEL_PARSING_THREADS =
+            CompilerConfigurationKey.create("number of threads used to parse source files");
+    public static final CompilerConfigurationKey<Integer> PARALLEL_BODY_RESOLUTION_THREADS =
+            CompilerConfigurationKey.create("number of threads used to resolve bodies of functions");
     public static final CompilerConfigurationKey<Boolean> INHERIT_MULTIFILE_PARTS =
             CompilerConfigurationKey.create("compile multifile classes to a hierarchy of parts and facade");
     public static final CompilerConfigurationKey<Boolean> USE_TYPE_TABLE =
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.load.kotlin
+
+import com.intellij.openapi.vfs.StandardFileSystems
+import com.intellij.openapi.vfs.VirtualFile
+import java.io.File
+
+/**
+ * Identifies the contents of a class file read by one of the compilations in the process, so that the data read from it
+ * can be shared with other compilations. Includes the timestamp and the length of the file or the jar containing it,
+ * so a changed class file gets a new key.
+ */
+data class ClassFileKey(val path: String, val containerTimestamp: Long, val containerLength: Long) {
+    companion object {
+        /**
+         * Returns null for files which aren't stored on the local file system, such files are not shared
+         */
+        @JvmStatic
+        fun of(file: VirtualFile): ClassFileKey? {
+            val containerPath = when (file.fileSystem.protocol) {
+                StandardFileSystems.FILE_PROTOCOL -> file.path
+                StandardFileSystems.JAR_PROTOCOL -> file.path.substringBefore(StandardFileSystems.JAR_SEPARATOR)
+                else -> return null
+            }
+            val container = File(containerPath)
+            return ClassFileKey(file.path, container.lastModified(), container.length())
+        }
+    }
+}
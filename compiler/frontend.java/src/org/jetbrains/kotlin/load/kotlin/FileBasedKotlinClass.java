@@ -136,6 +136,11 @@ public abstract class FileBasedKotlinClass implements KotlinJvmBinaryClass {
         return classVersion;
     }
 
+    @NotNull
+    public InnerClassesInfo getInnerClasses() {
+        return innerClasses;
+    }
+
     @NotNull
     @Override
     public KotlinClassHeader getClassHeader() {
@@ -159,7 +164,7 @@ public abstract class FileBasedKotlinClass implements KotlinJvmBinaryClass {
     }
 
     @Nullable
-    private static org.jetbrains.org.objectweb.asm.AnnotationVisitor convertAnnotationVisitor(
+    public static org.jetbrains.org.objectweb.asm.AnnotationVisitor convertAnnotationVisitor(
             @NotNull AnnotationVisitor visitor, @NotNull String desc, @NotNull InnerClassesInfo innerClasses
     ) {
         AnnotationArgumentVisitor v = visitor.visitAnnotation(resolveNameByDesc(desc, innerClasses), SourceElement.NO_SOURCE);
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.load.kotlin
+
+import org.jetbrains.kotlin.load.kotlin.header.KotlinClassHeader
+import org.jetbrains.kotlin.name.ClassId
+import java.util.*
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Headers of the class files from the dependencies and the metadata parsed from them, shared by all compilations in the process
+ * (e.g. in the compile daemon), so that an unchanged library is read and parsed once.
+ *
+ * Descriptors themselves are not shared: they belong to the module and the storage manager of a compilation.
+ * The least recently used entries are evicted when the total (estimated) size of the entries exceeds [maxSizeInBytes].
+ */
+class SharedKotlinClassCache(private val maxSizeInBytes: Long) {
+    /**
+     * Everything [VirtualFileKotlinClass] reads from a class file. All the data is immutable after the class file is read,
+     * [parsedMetadata] is computed once by the first compilation which deserializes the class.
+     */
+    class Entry(
+            val classId: ClassId,
+            val classVersion: Int,
+            val classHeader: KotlinClassHeader,
+            val innerClasses: FileBasedKotlinClass.InnerClassesInfo
+    ) {
+        @Volatile private var parsedMetadata: Any? = null
+
+        fun <T : Any> getOrParseMetadata(parse: () -> T): T {
+            // Parsing is idempotent, so concurrent compilations may parse the same metadata twice, but will get equal results
+            @Suppress("UNCHECKED_CAST")
+            return parsedMetadata as T? ?: parse().also { parsedMetadata = it }
+        }
+
+        // Includes the metadata which will be parsed and retained by the entry, because the size is only computed once,
+        // when the entry is put into the cache
+        internal val estimatedSize: Long
+            get() {
+                val dataLength = classHeader.data?.sumBy { it.length } ?: 0
+                val stringsLength = classHeader.strings?.sumBy { it.length } ?: 0
+                return ENTRY_SIZE_ESTIMATE + 2L * (dataLength + stringsLength) + PARSED_METADATA_SIZE_FACTOR * (dataLength + stringsLength)
+            }
+    }
+
+    class Statistics(val hits: Long, val misses: Long, val sizeInBytes: Long) {
+        operator fun minus(other: Statistics) = Statistics(hits - other.hits, misses - other.misses, sizeInBytes)
+
+        override fun toString() = "$hits hits, $misses misses, ${sizeInBytes / 1024} kb"
+    }
+
+    private class CachedValue(val entry: Entry?, val size: Long)
+
+    private val entries = LinkedHashMap<ClassFileKey, CachedValue>(1024, 0.75f, /* accessOrder = */ true)
+    private var sizeInBytes = 0L
+
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+
+    /**
+     * Returns the entry for the class file, or null if the class file is not a Kotlin class.
+     * [read] is called if the class file is not cached yet and returns null for the files which are not Kotlin classes.
+     */
+    fun getOrRead(key: ClassFileKey, read: () -> Entry?): Entry? {
+        get(key)?.let { return it.entry }
+
+        val entry = read()
+        put(key, CachedValue(entry, entry?.estimatedSize ?: ENTRY_SIZE_ESTIMATE))
+        return entry
+    }
+
+    val statistics: Statistics
+        get() = Statistics(hits.get(), misses.get(), synchronized(this) { sizeInBytes })
+
+    @Synchronized
+    fun clear() {
+        entries.clear()
+        sizeInBytes = 0
+    }
+
+    @Synchronized
+    private fun get(key: ClassFileKey): CachedValue? {
+        val value = entries[key]
+        (if (value != null) hits else misses).incrementAndGet()
+        return value
+    }
+
+    @Synchronized
+    private fun put(key: ClassFileKey, value: CachedValue) {
+        if (value.size > maxSizeInBytes) return
+
+        entries.put(key, value)?.let { sizeInBytes -= it.size }
+        sizeInBytes += value.size
+
+        val iterator = entries.values.iterator()
+        while (sizeInBytes > maxSizeInBytes && iterator.hasNext()) {
+            sizeInBytes -= iterator.next().size
+            iterator.remove()
+        }
+    }
+
+    companion object {
+        // Rough size of the key, the header and the parsed metadata apart from the strings
+        private val ENTRY_SIZE_ESTIMATE = 256L
+
+        // Rough ratio of the size of the parsed metadata (protobuf messages and the name resolver) to the length
+        // of the serialized data and strings it's parsed from
+        private val PARSED_METADATA_SIZE_FACTOR = 8L
+
+        /**
+         * The cache used by compilations in this process, if any
+         */
+        @JvmStatic
+        @Volatile
+        var instance: SharedKotlinClassCache? = null
+    }
+}
@@ -18,6 +18,7 @@ package org.jetbrains.kotlin.load.kotlin
 
 import com.intellij.ide.highlighter.JavaClassFileType
 import com.intellij.openapi.diagnostic.Logger
+import com.intellij.openapi.vfs.StandardFileSystems
 import com.intellij.openapi.vfs.VirtualFile
 import org.jetbrains.kotlin.load.kotlin.header.KotlinClassHeader
 import org.jetbrains.kotlin.name.ClassId
@@ -31,8 +32,9 @@ class VirtualFileKotlinClass private constructor(
         className: ClassId,
         classVersion: Int,
         classHeader: KotlinClassHeader,
-        innerClasses: InnerClassesInfo
-) : FileBasedKotlinClass(className, classVersion, classHeader, innerClasses) {
+        innerClasses: InnerClassesInfo,
+        private val sharedEntry: SharedKotlinClassCache.Entry? = null
+) : FileBasedKotlinClass(className, classVersion, classHeader, innerClasses), KotlinJvmBinaryClassWithParsedMetadata {
 
     override val location: String
         get() = file.path
@@ -47,6 +49,9 @@ class VirtualFileKotlinClass private constructor(
         }
     }
 
+    override fun <T : Any> getOrParseMetadata(parse: () -> T): T =
+            sharedEntry?.getOrParseMetadata(parse) ?: parse()
+
     override fun equals(other: Any?) = other is VirtualFileKotlinClass && other.file == file
     override fun hashCode() = file.hashCode()
     override fun toString() = "${this::class.java.simpleName}: $file"
@@ -61,13 +66,19 @@ class VirtualFileKotlinClass private constructor(
                 assert(file.fileType == JavaClassFileType.INSTANCE) { "Trying to read binary data from a non-class file $file" }
 
                 try {
-                    val byteContent = fileContent ?: file.contentsToByteArray(false)
-                    if (!byteContent.isEmpty()) {
-                        return@time FileBasedKotlinClass.create(byteContent) {
-                            name, classVersion, header, innerClasses ->
-                            VirtualFileKotlinClass(file, name, classVersion, header, innerClasses)
+                    val sharedCache = SharedKotlinClassCache.instance
+                    // Only classes from jars are shared, class directories are often the output of the modules being compiled
+                    val key = if (sharedCache != null && fileContent == null && file.fileSystem.protocol == StandardFileSystems.JAR_PROTOCOL)
+                        ClassFileKey.of(file)
+                    else null
+                    if (sharedCache != null && key != null) {
+                        val entry = sharedCache.getOrRead(key) {
+                            read(file, null)?.run { SharedKotlinClassCache.Entry(classId, classVersion, classHeader, innerClasses) }
                         }
+                        return@time entry?.let { VirtualFileKotlinClass(file, it.classId, it.classVersion, it.classHeader, it.innerClasses, it) }
                     }
+
+                    return@time read(file, fileContent)
                 }
                 catch (e: FileNotFoundException) {
                     // Valid situation. User can delete jar file.
@@ -79,6 +90,16 @@ class VirtualFileKotlinClass private constructor(
             }
         }
 
+        private fun read(file: VirtualFile, fileContent: ByteArray?): VirtualFileKotlinClass? {
+            val byteContent = fileContent ?: file.contentsToByteArray(false)
+            if (byteContent.isEmpty()) return null
+
+            return FileBasedKotlinClass.create(byteContent) {
+                name, classVersion, header, innerClasses ->
+                VirtualFileKotlinClass(file, name, classVersion, header, innerClasses)
+            }
+        }
+
         private fun renderFileReadingErrorMessage(file: VirtualFile): String =
                 "Could not read file: ${file.path}; size in bytes: ${file.length}; file type: ${file.fileType.name}"
     }
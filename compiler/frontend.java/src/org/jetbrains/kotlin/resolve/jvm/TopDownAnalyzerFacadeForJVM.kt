@@ -41,6 +41,8 @@ import org.jetbrains.kotlin.frontend.java.di.createContainerForTopDownAnalyzerFo
 import org.jetbrains.kotlin.frontend.java.di.initJvmBuiltInsForTopDownAnalysis
 import org.jetbrains.kotlin.frontend.java.di.initialize
 import org.jetbrains.kotlin.incremental.components.LookupTracker
+import org.jetbrains.kotlin.incremental.components.Position
+import org.jetbrains.kotlin.incremental.components.ScopeKind
 import org.jetbrains.kotlin.load.java.lazy.ModuleClassResolver
 import org.jetbrains.kotlin.load.java.structure.JavaClass
 import org.jetbrains.kotlin.load.java.structure.impl.JavaClassImpl
@@ -52,6 +54,8 @@ import org.jetbrains.kotlin.name.Name
 import org.jetbrains.kotlin.platform.JvmBuiltIns
 import org.jetbrains.kotlin.psi.KtFile
 import org.jetbrains.kotlin.resolve.BindingTrace
+import org.jetbrains.kotlin.resolve.BindingTraceContext
+import org.jetbrains.kotlin.resolve.BodyResolveParallelism
 import org.jetbrains.kotlin.resolve.LazyTopDownAnalyzer
 import org.jetbrains.kotlin.resolve.TopDownAnalysisMode
 import org.jetbrains.kotlin.resolve.jvm.extensions.AnalysisHandlerExtension
@@ -124,7 +128,14 @@ object TopDownAnalyzerFacadeForJVM {
         val module = moduleContext.module
 
         val incrementalComponents = configuration.get(JVMConfigurationKeys.INCREMENTAL_COMPILATION_COMPONENTS)
-        val lookupTracker = incrementalComponents?.getLookupTracker() ?: LookupTracker.DO_NOTHING
+        // Lazy declarations are resolved to the trace by all threads, so bodies are resolved sequentially if the trace isn't thread-safe
+        val threadSafeTrace = (trace as? BindingTraceContext)?.isThreadSafe ?: false
+        val bodyResolutionThreads = if (threadSafeTrace) configuration.get(JVMConfigurationKeys.PARALLEL_BODY_RESOLUTION_THREADS, 1) else 1
+        val bodyResolveParallelism =
+                if (bodyResolutionThreads > 1) BodyResolveParallelism.Parallel(bodyResolutionThreads) else BodyResolveParallelism.Sequential
+        val lookupTracker = (incrementalComponents?.getLookupTracker() ?: LookupTracker.DO_NOTHING).let { tracker ->
+            if (bodyResolutionThreads > 1 && tracker != LookupTracker.DO_NOTHING) SynchronizedLookupTracker(tracker) else tracker
+        }
         val targetIds = configuration.get(JVMConfigurationKeys.MODULES)?.map(::TargetId)
 
         val separateModules = !configuration.getBoolean(JVMConfigurationKeys.USE_SINGLE_MODULE)
@@ -181,7 +192,7 @@ object TopDownAnalyzerFacadeForJVM {
         // TODO: get rid of duplicate invocation of CodeAnalyzerInitializer#initialize, or refactor CliLightClassGenerationSupport
         val container = createContainerForTopDownAnalyzerForJvm(
                 moduleContext, trace, declarationProviderFactory(storageManager, files), sourceScope, lookupTracker,
-                partProvider, moduleClassResolver, jvmTarget, languageVersionSettings
+                partProvider, moduleClassResolver, jvmTarget, languageVersionSettings, bodyResolveParallelism
         ).apply {
             initJvmBuiltInsForTopDownAnalysis()
             (partProvider as? IncrementalPackagePartProvider)?.deserializationConfiguration = get<DeserializationConfiguration>()
@@ -273,3 +284,14 @@ object TopDownAnalyzerFacadeForJVM {
         }
     }
 }
+
+// Lookups are recorded from all threads resolving bodies in parallel
+private class SynchronizedLookupTracker(private val delegate: LookupTracker) : LookupTracker {
+    override val requiresPosition: Boolean
+        get() = delegate.requiresPosition
+
+    @Synchronized
+    override fun record(filePath: String, position: Position, scopeFqName: String, scopeKind: ScopeKind, name: String) {
+        delegate.record(filePath, position, scopeFqName, scopeKind, name)
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin;
+
+import com.intellij.lang.ASTNode;
+import com.intellij.lang.Language;
+import com.intellij.lang.PsiBuilder;
+import com.intellij.lang.PsiBuilderFactory;
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.tree.IErrorCounterReparseableElementType;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.idea.KotlinLanguage;
+import org.jetbrains.kotlin.parsing.KotlinParser;
+
+/*
+ * Blocks are lazy-parseable, so that function bodies collapsed by the parser are only parsed when they're accessed.
+ * Nodes of this type are plain LazyParseableElements, KtBlockExpression is created for them by KotlinParserDefinition.
+ */
+class BlockExpressionElementType extends IErrorCounterReparseableElementType {
+    public BlockExpressionElementType() {
+        super("BLOCK", KotlinLanguage.INSTANCE);
+    }
+
+    @Override
+    public ASTNode parseContents(ASTNode chameleon) {
+        Project project = chameleon.getPsi().getProject();
+        PsiBuilder builder = PsiBuilderFactory.getInstance().createBuilder(
+                project, chameleon, null, KotlinLanguage.INSTANCE, chameleon.getChars());
+        return KotlinParser.parseBlockExpression(builder).getFirstChildNode();
+    }
+
+    /*
+     * Only the bodies of functions and accessors are reparsed on their own, because they are always blocks. Other blocks
+     * (e.g. bodies of if, when and loops) become lambdas when an arrow is added, and are reparsed with their parents.
+     * A text with an arrow outside of nested braces isn't reparsed as a block either
+     */
+    @Override
+    public boolean isParsable(@Nullable ASTNode parent, CharSequence buffer, Language fileLanguage, Project project) {
+        if (parent == null) return false;
+
+        IElementType parentType = parent.getElementType();
+        return (parentType == KtNodeTypes.FUN || parentType == KtNodeTypes.PROPERTY_ACCESSOR) &&
+               super.isParsable(parent, buffer, fileLanguage, project) &&
+               !ElementTypeUtils.hasArrowInBraces(buffer);
+    }
+
+    @Override
+    public int getErrorsCount(CharSequence seq, Language fileLanguage, Project project) {
+        return ElementTypeUtils.getBracedBlockErrorsCount(seq);
+    }
+}
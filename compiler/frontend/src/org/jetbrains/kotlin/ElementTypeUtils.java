@@ -0,0 +1,80 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin;
+
+import com.intellij.lexer.Lexer;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.tree.IErrorCounterReparseableElementType;
+import org.jetbrains.kotlin.lexer.KotlinLexer;
+import org.jetbrains.kotlin.lexer.KtTokens;
+
+class ElementTypeUtils {
+    private ElementTypeUtils() {
+    }
+
+    /*
+     * Errors count of a text in braces for IErrorCounterReparseableElementType: the number of unclosed braces,
+     * or FATAL_ERROR if the text doesn't start with a brace or has tokens after the brace closing it
+     */
+    static int getBracedBlockErrorsCount(CharSequence seq) {
+        Lexer lexer = new KotlinLexer();
+
+        lexer.start(seq);
+        if (lexer.getTokenType() != KtTokens.LBRACE) return IErrorCounterReparseableElementType.FATAL_ERROR;
+        lexer.advance();
+        int balance = 1;
+        while (true) {
+            IElementType type = lexer.getTokenType();
+            if (type == null) break;
+            if (balance == 0) {
+                return IErrorCounterReparseableElementType.FATAL_ERROR;
+            }
+            if (type == KtTokens.LBRACE) {
+                balance++;
+            }
+            else if (type == KtTokens.RBRACE) {
+                balance--;
+            }
+            lexer.advance();
+        }
+        return balance;
+    }
+
+    /*
+     * True if the text in braces has an arrow which isn't inside nested braces, like a lambda with parameters
+     */
+    static boolean hasArrowInBraces(CharSequence seq) {
+        Lexer lexer = new KotlinLexer();
+
+        lexer.start(seq);
+        int depth = 0;
+        while (true) {
+            IElementType type = lexer.getTokenType();
+            if (type == null) return false;
+            if (type == KtTokens.LBRACE) {
+                depth++;
+            }
+            else if (type == KtTokens.RBRACE) {
+                depth--;
+            }
+            else if (type == KtTokens.ARROW && depth == 1) {
+                return true;
+            }
+            lexer.advance();
+        }
+    }
+}
@@ -253,6 +253,27 @@ import static org.jetbrains.kotlin.lexer.KtTokens.*;
         }
     }
 
+    /*
+     * Skips the tokens up to the closing brace of the block whose opening brace has just been consumed, the closing brace is consumed too
+     */
+    protected void advanceBalancedBlock() {
+        int braceCount = 1;
+        while (!eof()) {
+            if (_at(LBRACE)) {
+                braceCount++;
+            }
+            else if (_at(RBRACE)) {
+                braceCount--;
+            }
+
+            advance();
+
+            if (braceCount == 0) {
+                break;
+            }
+        }
+    }
+
     protected void errorUntil(String message, TokenSet tokenSet) {
         assert tokenSet.contains(LBRACE) : "Cannot include LBRACE into error element!";
         assert tokenSet.contains(RBRACE) : "Cannot include RBRACE into error element!";
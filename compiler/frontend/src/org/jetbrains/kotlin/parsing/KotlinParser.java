@@ -74,6 +74,13 @@ public class KotlinParser implements PsiParser {
         return psiBuilder.getTreeBuilt();
     }
 
+    @NotNull
+    public static ASTNode parseBlockExpression(PsiBuilder psiBuilder) {
+        KotlinParsing ktParsing = KotlinParsing.createForTopLevel(new SemanticWhitespaceAwarePsiBuilderImpl(psiBuilder));
+        ktParsing.parseBlockExpression();
+        return psiBuilder.getTreeBuilt();
+    }
+
     @NotNull
     public static ASTNode parseLambdaExpression(PsiBuilder psiBuilder) {
         KotlinParsing ktParsing = KotlinParsing.createForTopLevel(new SemanticWhitespaceAwarePsiBuilderImpl(psiBuilder));
@@ -38,6 +38,7 @@ import org.jetbrains.kotlin.kdoc.psi.impl.KDocLink
 import org.jetbrains.kotlin.lexer.KotlinLexer
 import org.jetbrains.kotlin.lexer.KtKeywordToken
 import org.jetbrains.kotlin.lexer.KtTokens
+import org.jetbrains.kotlin.psi.KtBlockExpression
 import org.jetbrains.kotlin.psi.KtFile
 import org.jetbrains.kotlin.psi.KtWhenEntry
 import org.jetbrains.kotlin.psi.psiUtil.getNonStrictParentOfType
@@ -66,6 +67,7 @@ class KotlinParserDefinition : ParserDefinition {
             KtNodeTypes.TYPE_CODE_FRAGMENT, KtNodeTypes.EXPRESSION_CODE_FRAGMENT, KtNodeTypes.BLOCK_CODE_FRAGMENT -> ASTWrapperPsiElement(astNode)
             is KDocElementType -> elementType.createPsi(astNode)
             KDocTokens.MARKDOWN_LINK -> KDocLink(astNode)
+            KtNodeTypes.BLOCK -> KtBlockExpression(astNode)
             else -> (elementType as KtNodeType).createPsi(astNode)
         }
     }
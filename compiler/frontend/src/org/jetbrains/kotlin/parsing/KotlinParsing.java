@@ -156,6 +156,10 @@ public class KotlinParsing extends AbstractKotlinParsing {
         marker.done(BLOCK_CODE_FRAGMENT);
     }
 
+    void parseBlockExpression() {
+        parseBlock(/* collapse = */ false);
+    }
+
     void parseLambdaExpression() {
         myExpressionParsing.parseFunctionLiteral(/* preferBlock = */ false, /* collapse = */false);
     }
@@ -1681,7 +1685,7 @@ public class KotlinParsing extends AbstractKotlinParsing {
      */
     private void parseFunctionBody() {
         if (at(LBRACE)) {
-            parseBlock();
+            parseBlock(/* collapse = */ true);
         }
         else if (at(EQ)) {
             advance(); // EQ
@@ -1699,17 +1703,36 @@ public class KotlinParsing extends AbstractKotlinParsing {
      *   ;
      */
     void parseBlock() {
+        parseBlock(/* collapse = */ false);
+    }
+
+    /*
+     * A collapsed block is a lazy-parseable node, its statements are parsed when its children are accessed for the first time,
+     * so that the bodies of functions are not parsed by the passes which only need the declarations
+     */
+    private void parseBlock(boolean collapse) {
         PsiBuilder.Marker block = mark();
 
         myBuilder.enableNewlines();
-        expect(LBRACE, "Expecting '{' to open a block");
+        boolean hasLBrace = expect(LBRACE, "Expecting '{' to open a block");
+        boolean canCollapse = collapse && hasLBrace;
 
-        myExpressionParsing.parseStatements();
+        if (canCollapse) {
+            advanceBalancedBlock();
+        }
+        else {
+            myExpressionParsing.parseStatements();
 
-        expect(RBRACE, "Expecting '}'");
+            expect(RBRACE, "Expecting '}'");
+        }
         myBuilder.restoreNewlinesState();
 
-        block.done(BLOCK);
+        if (canCollapse) {
+            block.collapse(BLOCK);
+        }
+        else {
+            block.done(BLOCK);
+        }
     }
 
     /*
@@ -36,9 +36,14 @@ public class BindingTraceContext implements BindingTrace {
     /* package */ final static boolean TRACK_REWRITES = false;
     /* package */ final static boolean TRACK_WITH_STACK_TRACES = true;
 
+    // Per-slice tables are only used when requested with this system property, until SlicedMapBenchmark shows
+    // that they use less memory than the old storage without slowing down the analysis
+    private static final boolean USE_SLICE_TABLES = Boolean.getBoolean("kotlin.binding.trace.slice.tables");
+
     private final MutableSlicedMap map;
     @Nullable private final MutableDiagnosticsWithSuppression mutableDiagnostics;
     @NotNull private final BindingTraceFilter filter;
+    private final boolean threadSafe;
 
     private final BindingContext bindingContext = new BindingContext() {
 
@@ -83,22 +88,37 @@ public class BindingTraceContext implements BindingTrace {
     }
 
     public BindingTraceContext(BindingTraceFilter filter) {
+        this(filter, false);
+    }
+
+    /**
+     * A thread-safe trace can be used by several threads at the same time, e.g. by lazy declarations when bodies are resolved
+     * in parallel (see {@link BodyResolveParallelism})
+     */
+    public BindingTraceContext(BindingTraceFilter filter, boolean threadSafe) {
+        this(threadSafe ? new SynchronizedSlicedMap(createSlicedMap()) : createSlicedMap(), filter, threadSafe);
+    }
+
+    @NotNull
+    /* package */ static MutableSlicedMap createSlicedMap() {
         //noinspection ConstantConditions
-        this(TRACK_REWRITES ? new TrackingSlicedMap(TRACK_WITH_STACK_TRACES) : SlicedMapImpl.create(), filter);
+        if (TRACK_REWRITES) return new TrackingSlicedMap(TRACK_WITH_STACK_TRACES);
+        return USE_SLICE_TABLES ? SliceTablesMap.create() : SlicedMapImpl.create();
     }
 
 
-    private BindingTraceContext(@NotNull MutableSlicedMap map, BindingTraceFilter filter) {
+    private BindingTraceContext(@NotNull MutableSlicedMap map, BindingTraceFilter filter, boolean threadSafe) {
         this.map = map;
         this.mutableDiagnostics = !filter.getIgnoreDiagnostics()
                                   ? new MutableDiagnosticsWithSuppression(bindingContext, Diagnostics.Companion.getEMPTY())
                                   : null;
         this.filter = filter;
+        this.threadSafe = threadSafe;
     }
 
     @TestOnly
     public static BindingTraceContext createTraceableBindingTrace() {
-        return new BindingTraceContext(new TrackingSlicedMap(TRACK_WITH_STACK_TRACES), BindingTraceFilter.Companion.getACCEPT_ALL());
+        return new BindingTraceContext(new TrackingSlicedMap(TRACK_WITH_STACK_TRACES), BindingTraceFilter.Companion.getACCEPT_ALL(), false);
     }
 
     @Override
@@ -106,7 +126,14 @@ public class BindingTraceContext implements BindingTrace {
         if (mutableDiagnostics == null) {
             return;
         }
-        mutableDiagnostics.report(diagnostic);
+        if (threadSafe) {
+            synchronized (mutableDiagnostics) {
+                mutableDiagnostics.report(diagnostic);
+            }
+        }
+        else {
+            mutableDiagnostics.report(diagnostic);
+        }
     }
 
     public void clearDiagnostics() {
@@ -115,6 +142,10 @@ public class BindingTraceContext implements BindingTrace {
         }
     }
 
+    public boolean isThreadSafe() {
+        return threadSafe;
+    }
+
     @Override
     public boolean wantsDiagnostics() {
         return mutableDiagnostics != null;
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.resolve
+
+import org.jetbrains.kotlin.container.DefaultImplementation
+
+/**
+ * Number of threads on which [BodyResolver] resolves bodies of functions declared in different files.
+ *
+ * More than one thread can only be used if the binding trace of the container is thread-safe,
+ * since lazy declarations are resolved to it from all threads.
+ */
+@DefaultImplementation(BodyResolveParallelism.Sequential::class)
+interface BodyResolveParallelism {
+    val threads: Int
+
+    object Sequential : BodyResolveParallelism {
+        override val threads: Int
+            get() = 1
+    }
+
+    class Parallel(override val threads: Int) : BodyResolveParallelism
+}
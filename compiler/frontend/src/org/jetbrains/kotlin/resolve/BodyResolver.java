@@ -18,7 +18,9 @@ package org.jetbrains.kotlin.resolve;
 
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Computable;
 import com.intellij.psi.PsiElement;
 import com.intellij.util.containers.Queue;
 import kotlin.Unit;
@@ -31,6 +33,7 @@ import org.jetbrains.kotlin.config.LanguageFeature;
 import org.jetbrains.kotlin.config.LanguageVersionSettings;
 import org.jetbrains.kotlin.descriptors.*;
 import org.jetbrains.kotlin.descriptors.impl.SyntheticFieldDescriptor;
+import org.jetbrains.kotlin.diagnostics.Diagnostic;
 import org.jetbrains.kotlin.diagnostics.Errors;
 import org.jetbrains.kotlin.lexer.KtTokens;
 import org.jetbrains.kotlin.psi.*;
@@ -49,9 +52,16 @@ import org.jetbrains.kotlin.types.expressions.PreliminaryDeclarationVisitor;
 import org.jetbrains.kotlin.types.expressions.ValueParameterResolver;
 import org.jetbrains.kotlin.types.expressions.typeInfoFactory.TypeInfoFactoryKt;
 import org.jetbrains.kotlin.util.Box;
+import org.jetbrains.kotlin.util.PhaseProfiler;
 import org.jetbrains.kotlin.util.ReenteringLazyValueComputationException;
+import org.jetbrains.kotlin.util.slicedMap.WritableSlice;
+import org.jetbrains.kotlin.utils.ExceptionUtilsKt;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.jetbrains.kotlin.config.LanguageFeature.TopLevelSealedInheritance;
 import static org.jetbrains.kotlin.diagnostics.Errors.*;
@@ -59,6 +69,8 @@ import static org.jetbrains.kotlin.resolve.BindingContext.*;
 import static org.jetbrains.kotlin.types.TypeUtils.NO_EXPECTED_TYPE;
 
 public class BodyResolver {
+    private static final String RESOLVE_FILE_PHASE = "Resolve function bodies";
+
     @NotNull private final Project project;
     @NotNull private final AnnotationChecker annotationChecker;
     @NotNull private final ExpressionTypingServices expressionTypingServices;
@@ -74,6 +86,7 @@ public class BodyResolver {
     @NotNull private final KotlinBuiltIns builtIns;
     @NotNull private final OverloadChecker overloadChecker;
     @NotNull private final LanguageVersionSettings languageVersionSettings;
+    @NotNull private final BodyResolveParallelism bodyResolveParallelism;
 
     public BodyResolver(
             @NotNull Project project,
@@ -90,7 +103,8 @@ public class BodyResolver {
             @NotNull AnnotationChecker annotationChecker,
             @NotNull KotlinBuiltIns builtIns,
             @NotNull OverloadChecker overloadChecker,
-            @NotNull LanguageVersionSettings languageVersionSettings
+            @NotNull LanguageVersionSettings languageVersionSettings,
+            @NotNull BodyResolveParallelism bodyResolveParallelism
     ) {
         this.project = project;
         this.annotationResolver = annotationResolver;
@@ -107,6 +121,7 @@ public class BodyResolver {
         this.valueParameterResolver = valueParameterResolver;
         this.builtIns = builtIns;
         this.languageVersionSettings = languageVersionSettings;
+        this.bodyResolveParallelism = bodyResolveParallelism;
     }
 
     private void resolveBehaviorDeclarationBodies(@NotNull BodiesResolveContext c) {
@@ -237,10 +252,22 @@ public class BodyResolver {
     }
 
     public void resolveBodies(@NotNull BodiesResolveContext c) {
-        resolveBehaviorDeclarationBodies(c);
-        controlFlowAnalyzer.process(c);
-        declarationsChecker.process(c);
-        analyzerExtensions.process(c);
+        try (PhaseProfiler.Phase ignored = startPhase(c, "Resolve bodies")) {
+            resolveBehaviorDeclarationBodies(c);
+        }
+        try (PhaseProfiler.Phase ignored = startPhase(c, "Control flow analysis")) {
+            controlFlowAnalyzer.process(c);
+        }
+        try (PhaseProfiler.Phase ignored = startPhase(c, "Declaration checkers")) {
+            declarationsChecker.process(c);
+            analyzerExtensions.process(c);
+        }
+    }
+
+    @NotNull
+    private static PhaseProfiler.Phase startPhase(@NotNull BodiesResolveContext c, @NotNull String name) {
+        // Local declarations are resolved as a part of the bodies which contain them
+        return c.getTopDownAnalysisMode().isLocalDeclarations() ? PhaseProfiler.NO_PHASE : PhaseProfiler.start(name);
     }
 
     private void resolveSuperTypeEntryLists(@NotNull BodiesResolveContext c) {
@@ -807,18 +834,122 @@ public class BodyResolver {
     }
 
     private void resolveFunctionBodies(@NotNull BodiesResolveContext c) {
-        for (Map.Entry<KtNamedFunction, SimpleFunctionDescriptor> entry : c.getFunctions().entrySet()) {
-            KtNamedFunction declaration = entry.getKey();
+        int threads = bodyResolveParallelism.getThreads();
+        if (threads > 1 && !c.getTopDownAnalysisMode().isLocalDeclarations() &&
+            bodyResolveCache instanceof BodyResolveCache.ThrowException) {
+            Map<KtFile, List<KtNamedFunction>> functionsByFile = new LinkedHashMap<>();
+            for (KtNamedFunction function : c.getFunctions().keySet()) {
+                functionsByFile.computeIfAbsent(function.getContainingKtFile(), file -> new ArrayList<>()).add(function);
+            }
+            if (functionsByFile.size() > 1) {
+                resolveFunctionBodiesInParallel(c, functionsByFile, threads);
+                return;
+            }
+        }
+
+        // Functions of a file are mostly next to each other here, a phase is recorded for each sequence of functions of one file
+        boolean profileFiles = !c.getTopDownAnalysisMode().isLocalDeclarations() && PhaseProfiler.current() != null;
+        PhaseProfiler.Phase filePhase = PhaseProfiler.NO_PHASE;
+        KtFile currentFile = null;
+        try {
+            for (Map.Entry<KtNamedFunction, SimpleFunctionDescriptor> entry : c.getFunctions().entrySet()) {
+                KtNamedFunction declaration = entry.getKey();
+
+                if (profileFiles && declaration.getContainingKtFile() != currentFile) {
+                    filePhase.close();
+                    currentFile = declaration.getContainingKtFile();
+                    filePhase = PhaseProfiler.start(RESOLVE_FILE_PHASE, currentFile.getName());
+                }
+
+                LexicalScope scope = c.getDeclaringScope(declaration);
+                assert scope != null : "Scope is null: " + PsiUtilsKt.getElementTextWithContext(declaration);
+
+                if (!c.getTopDownAnalysisMode().isLocalDeclarations() && !(bodyResolveCache instanceof BodyResolveCache.ThrowException) &&
+                    expressionTypingServices.getStatementFilter() != StatementFilter.NONE) {
+                    bodyResolveCache.resolveFunctionBody(declaration).addOwnDataTo(trace, true);
+                }
+                else {
+                    resolveFunctionBody(c.getOuterDataFlowInfo(), trace, declaration, entry.getValue(), scope);
+                }
+            }
+        }
+        finally {
+            filePhase.close();
+        }
+    }
 
-            LexicalScope scope = c.getDeclaringScope(declaration);
-            assert scope != null : "Scope is null: " + PsiUtilsKt.getElementTextWithContext(declaration);
+    // Functions of each file are resolved to a separate trace on one of the threads. The traces are committed to the main trace
+    // in the order of the files, so the result doesn't depend on the order in which the threads finish
+    private void resolveFunctionBodiesInParallel(
+            @NotNull BodiesResolveContext c,
+            @NotNull Map<KtFile, List<KtNamedFunction>> functionsByFile,
+            int threads
+    ) {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, functionsByFile.size()));
+        try {
+            List<Future<FileBodiesTrace>> futures = new ArrayList<>(functionsByFile.size());
+            for (Map.Entry<KtFile, List<KtNamedFunction>> entry : functionsByFile.entrySet()) {
+                futures.add(executor.submit(() -> ApplicationManager.getApplication().runReadAction((Computable<FileBodiesTrace>) () -> {
+                    FileBodiesTrace fileTrace = new FileBodiesTrace(trace, entry.getKey());
+                    try (PhaseProfiler.Phase ignored = PhaseProfiler.start(RESOLVE_FILE_PHASE, entry.getKey().getName())) {
+                        for (KtNamedFunction function : entry.getValue()) {
+                            LexicalScope scope = c.getDeclaringScope(function);
+                            assert scope != null : "Scope is null: " + PsiUtilsKt.getElementTextWithContext(function);
+                            resolveFunctionBody(c.getOuterDataFlowInfo(), fileTrace, function, c.getFunctions().get(function), scope);
+                        }
+                    }
+                    return fileTrace;
+                })));
+            }
+            for (Future<FileBodiesTrace> future : futures) {
+                future.get().commit();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw ExceptionUtilsKt.rethrow(e);
+        }
+        catch (ExecutionException e) {
+            throw ExceptionUtilsKt.rethrow(e.getCause());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static class FileBodiesTrace extends DelegatingBindingTrace {
+        private final BindingTrace mainTrace;
+        private volatile boolean committed = false;
+
+        private FileBodiesTrace(@NotNull BindingTrace mainTrace, @NotNull KtFile file) {
+            super(mainTrace.getBindingContext(), "Bodies of functions in " + file.getName(), true,
+                  BindingTraceFilter.Companion.getACCEPT_ALL());
+            this.mainTrace = mainTrace;
+        }
+
+        private void commit() {
+            moveAllMyDataTo(mainTrace);
+            committed = true;
+        }
+
+        // Descriptors created during the resolution (e.g. of local classes) keep this trace and may record to it lazily later
+        @Override
+        public <K, V> void record(@NotNull WritableSlice<K, V> slice, K key, V value) {
+            if (committed) {
+                mainTrace.record(slice, key, value);
+            }
+            else {
+                super.record(slice, key, value);
+            }
+        }
 
-            if (!c.getTopDownAnalysisMode().isLocalDeclarations() && !(bodyResolveCache instanceof BodyResolveCache.ThrowException) &&
-                expressionTypingServices.getStatementFilter() != StatementFilter.NONE) {
-                bodyResolveCache.resolveFunctionBody(declaration).addOwnDataTo(trace, true);
+        @Override
+        public void report(@NotNull Diagnostic diagnostic) {
+            if (committed) {
+                mainTrace.report(diagnostic);
             }
             else {
-                resolveFunctionBody(c.getOuterDataFlowInfo(), trace, declaration, entry.getValue(), scope);
+                super.report(diagnostic);
             }
         }
     }
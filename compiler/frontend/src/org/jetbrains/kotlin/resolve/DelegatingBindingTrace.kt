@@ -30,7 +30,7 @@ open class DelegatingBindingTrace(private val parentContext: BindingContext,
                                   private val name: String,
                                   withParentDiagnostics: Boolean = true,
                                   private val filter: BindingTraceFilter = BindingTraceFilter.ACCEPT_ALL) : BindingTrace {
-    private val map = if (BindingTraceContext.TRACK_REWRITES) TrackingSlicedMap(BindingTraceContext.TRACK_WITH_STACK_TRACES) else SlicedMapImpl.create()
+    private val map = BindingTraceContext.createSlicedMap()
     private val mutableDiagnostics: MutableDiagnosticsWithSuppression?
 
     private inner class MyBindingContext : BindingContext {
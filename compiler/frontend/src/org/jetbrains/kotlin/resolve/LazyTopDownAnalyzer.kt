@@ -31,6 +31,7 @@ import org.jetbrains.kotlin.resolve.checkers.ClassifierUsageChecker
 import org.jetbrains.kotlin.resolve.lazy.*
 import org.jetbrains.kotlin.resolve.lazy.descriptors.LazyClassDescriptor
 import org.jetbrains.kotlin.resolve.lazy.descriptors.LazyScriptDescriptor
+import org.jetbrains.kotlin.util.PhaseProfiler
 import java.util.*
 
 class LazyTopDownAnalyzer(
@@ -187,24 +188,32 @@ class LazyTopDownAnalyzer(
             declaration.accept(visitor)
         }
 
-        createFunctionDescriptors(c, functions)
+        // Local declarations are resolved as a part of the bodies which contain them
+        val declarationsPhase =
+                if (topDownAnalysisMode.isLocalDeclarations) PhaseProfiler.NO_PHASE else PhaseProfiler.start("Resolve declarations")
+        try {
+            createFunctionDescriptors(c, functions)
 
-        createPropertyDescriptors(c, topLevelFqNames, properties)
+            createPropertyDescriptors(c, topLevelFqNames, properties)
 
-        createTypeAliasDescriptors(c, topLevelFqNames, typeAliases)
+            createTypeAliasDescriptors(c, topLevelFqNames, typeAliases)
 
-        resolveAllHeadersInClasses(c)
+            resolveAllHeadersInClasses(c)
 
-        declarationResolver.checkRedeclarationsInPackages(topLevelDescriptorProvider, topLevelFqNames)
-        declarationResolver.checkRedeclarations(c)
+            declarationResolver.checkRedeclarationsInPackages(topLevelDescriptorProvider, topLevelFqNames)
+            declarationResolver.checkRedeclarations(c)
 
-        overrideResolver.check(c)
+            overrideResolver.check(c)
 
-        varianceChecker.check(c)
+            varianceChecker.check(c)
 
-        declarationResolver.resolveAnnotationsOnFiles(c, fileScopeProvider)
+            declarationResolver.resolveAnnotationsOnFiles(c, fileScopeProvider)
 
-        overloadResolver.checkOverloads(c)
+            overloadResolver.checkOverloads(c)
+        }
+        finally {
+            declarationsPhase.close()
+        }
 
         bodyResolver.resolveBodies(c)
 
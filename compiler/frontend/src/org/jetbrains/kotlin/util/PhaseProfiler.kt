@@ -0,0 +1,240 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.util
+
+import java.io.StringWriter
+import java.io.Writer
+import java.lang.management.ManagementFactory
+import java.lang.management.ThreadMXBean
+import java.util.*
+import java.util.concurrent.ConcurrentLinkedQueue
+
+/**
+ * Records nested compiler phases with their wall time, CPU time and allocated bytes of the thread which runs them.
+ *
+ * Unlike [PerformanceCounter], which sums the time of all compilations in the process, a profiler belongs to one compilation:
+ * it's set as the current one for the thread which runs the compilation with [profile], and the threads started by this
+ * thread during the compilation (e.g. parsing, body resolution and bytecode optimization pools) see it too.
+ * Phases are started with [start] (or [phase] in Kotlin) and cost nothing when there's no current profiler.
+ *
+ * Recorded phases can be exported in the Chrome trace event format (see [writeChromeTrace]), which is understood
+ * by chrome://tracing and most profiler UIs.
+ */
+class PhaseProfiler {
+    class Event(
+            val name: String,
+            val detail: String?,
+            val threadId: Long,
+            val threadName: String,
+            // Relative to the creation of the profiler
+            val startNanos: Long,
+            val wallNanos: Long,
+            // -1 if not supported by the JVM
+            val cpuNanos: Long,
+            val allocatedBytes: Long,
+            // True if the phase is nested into another phase with the same name, such phases are not counted in the summary
+            val reentered: Boolean
+    )
+
+    interface Phase : AutoCloseable {
+        override fun close()
+    }
+
+    private val creationNanos = System.nanoTime()
+    private val recordedEvents = ConcurrentLinkedQueue<Event>()
+    private val openPhases = ThreadLocal.withInitial { ArrayList<String>() }
+
+    val events: Collection<Event> get() = recordedEvents
+
+    private inner class RecordingPhase(private val name: String, private val detail: String?) : Phase {
+        private val thread = Thread.currentThread()
+        private val reentered = name in openPhases.get()
+        private val startNanos = System.nanoTime()
+        private val startCpuNanos = ThreadMetrics.cpuTime()
+        private val startAllocatedBytes = ThreadMetrics.allocatedBytes(thread)
+
+        init {
+            openPhases.get().add(name)
+        }
+
+        override fun close() {
+            val endNanos = System.nanoTime()
+            val cpuNanos = if (startCpuNanos >= 0) ThreadMetrics.cpuTime() - startCpuNanos else -1
+            val allocatedBytes = if (startAllocatedBytes >= 0) ThreadMetrics.allocatedBytes(thread) - startAllocatedBytes else -1
+
+            val phases = openPhases.get()
+            phases.removeAt(phases.lastIndexOf(name))
+
+            recordedEvents.add(Event(name, detail, thread.id, thread.name, startNanos - creationNanos, endNanos - startNanos,
+                                     cpuNanos, allocatedBytes, reentered))
+        }
+    }
+
+    fun startPhase(name: String, detail: String? = null): Phase = RecordingPhase(name, detail)
+
+    /**
+     * Total wall time, CPU time and allocated bytes of the phases with each name, in the order of the first start of a phase
+     */
+    fun summary(): List<String> {
+        class Total(var count: Int = 0, var wallNanos: Long = 0, var cpuNanos: Long = 0, var allocatedBytes: Long = 0)
+
+        val totals = LinkedHashMap<String, Total>()
+        for (event in recordedEvents.filter { !it.reentered }.sortedBy(Event::startNanos)) {
+            val total = totals.getOrPut(event.name) { Total() }
+            total.count++
+            total.wallNanos += event.wallNanos
+            total.cpuNanos += maxOf(event.cpuNanos, 0)
+            total.allocatedBytes += maxOf(event.allocatedBytes, 0)
+        }
+
+        return totals.map { (name, total) ->
+            "$name: ${total.count} times, wall ${total.wallNanos / 1000000} ms, cpu ${total.cpuNanos / 1000000} ms, " +
+            "allocated ${total.allocatedBytes / (1024 * 1024)} MB"
+        }
+    }
+
+    fun writeChromeTrace(writer: Writer) {
+        writer.write("{\"traceEvents\":[")
+        var first = true
+        for (event in recordedEvents.sortedBy(Event::startNanos)) {
+            if (!first) writer.write(",")
+            first = false
+
+            writer.write("\n{\"name\":")
+            writeJsonString(writer, event.name)
+            writer.write(",\"cat\":\"compiler\",\"ph\":\"X\",\"ts\":${event.startNanos / 1000},\"dur\":${event.wallNanos / 1000}")
+            writer.write(",\"pid\":1,\"tid\":${event.threadId},\"args\":{")
+            writer.write("\"cpu_us\":${if (event.cpuNanos >= 0) event.cpuNanos / 1000 else -1}")
+            writer.write(",\"allocated_bytes\":${event.allocatedBytes}")
+            if (event.detail != null) {
+                writer.write(",\"detail\":")
+                writeJsonString(writer, event.detail)
+            }
+            writer.write("}}")
+        }
+
+        // Thread names are reported as metadata events
+        for ((threadId, threadName) in recordedEvents.associate { it.threadId to it.threadName }) {
+            writer.write(",\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":$threadId,\"args\":{\"name\":")
+            writeJsonString(writer, threadName)
+            writer.write("}}")
+        }
+
+        writer.write("\n]}\n")
+        writer.flush()
+    }
+
+    fun chromeTrace(): String = StringWriter().also(this::writeChromeTrace).toString()
+
+    companion object {
+        private val current = InheritableThreadLocal<PhaseProfiler?>()
+
+        /**
+         * The phase returned by [start] when there's no current profiler
+         */
+        @JvmField
+        val NO_PHASE: Phase = object : Phase {
+            override fun close() {}
+        }
+
+        @JvmStatic
+        fun current(): PhaseProfiler? = current.get()
+
+        /**
+         * Runs [block] with [profiler] set as the current profiler of this thread and the threads started in [block]
+         */
+        @JvmStatic
+        fun <T> profile(profiler: PhaseProfiler, block: () -> T): T {
+            val previous = current.get()
+            current.set(profiler)
+            try {
+                return block()
+            }
+            finally {
+                current.set(previous)
+            }
+        }
+
+        /**
+         * Starts a phase of the current profiler, should be closed on the same thread, e.g. with try-with-resources
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun start(name: String, detail: String? = null): Phase = current.get()?.startPhase(name, detail) ?: NO_PHASE
+
+        private fun writeJsonString(writer: Writer, value: String) {
+            writer.write("\"")
+            for (c in value) {
+                when {
+                    c == '"' -> writer.write("\\\"")
+                    c == '\\' -> writer.write("\\\\")
+                    c == '\n' -> writer.write("\\n")
+                    c == '\r' -> writer.write("\\r")
+                    c == '\t' -> writer.write("\\t")
+                    c < ' ' -> writer.write(String.format("\\u%04x", c.toInt()))
+                    else -> writer.write(c.toInt())
+                }
+            }
+            writer.write("\"")
+        }
+    }
+}
+
+// Initialized by the first recorded phase, so that the compiler doesn't touch the management beans unless phases are profiled.
+// CPU time and allocated bytes are reported as -1 when the JVM doesn't support them
+private object ThreadMetrics {
+    private val threadMXBean: ThreadMXBean? =
+            try {
+                ManagementFactory.getThreadMXBean()
+            }
+            catch (e: LinkageError) {
+                null
+            }
+
+    private val cpuTimeSupported = threadMXBean?.isCurrentThreadCpuTimeSupported ?: false
+
+    // com.sun.management.ThreadMXBean is HotSpot-specific, so AllocationMetrics is only loaded if the bean implements it
+    private val allocationSupported: Boolean =
+            try {
+                Class.forName("com.sun.management.ThreadMXBean").isInstance(threadMXBean) && AllocationMetrics.isSupported
+            }
+            catch (e: ClassNotFoundException) {
+                false
+            }
+
+    fun cpuTime(): Long = if (cpuTimeSupported) threadMXBean!!.currentThreadCpuTime else -1
+
+    fun allocatedBytes(thread: Thread): Long = if (allocationSupported) AllocationMetrics.allocatedBytes(thread) else -1
+}
+
+private object AllocationMetrics {
+    private val threadMXBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+
+    val isSupported = threadMXBean.isThreadAllocatedMemorySupported && threadMXBean.isThreadAllocatedMemoryEnabled
+
+    fun allocatedBytes(thread: Thread): Long = threadMXBean.getThreadAllocatedBytes(thread.id)
+}
+
+inline fun <T> phase(name: String, detail: String? = null, block: () -> T): T {
+    val phase = PhaseProfiler.start(name, detail)
+    try {
+        return block()
+    }
+    finally {
+        phase.close()
+    }
+}
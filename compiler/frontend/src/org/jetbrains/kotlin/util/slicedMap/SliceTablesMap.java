@@ -0,0 +1,198 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.util.slicedMap;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Multimap;
+import gnu.trove.THashMap;
+import gnu.trove.THashSet;
+import gnu.trove.TIntObjectHashMap;
+import kotlin.jvm.functions.Function3;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stores the values of each slice in a separate hash table, unlike {@link SlicedMapImpl} which keeps an immutable map
+ * of slices for each key and reallocates it on every put.
+ *
+ * Tables are found by the index of the slice key (which is its hash code, see {@link com.intellij.openapi.util.Key#hashCode()}),
+ * so a lookup in a slice is one primitive-keyed lookup followed by a lookup in a table of this slice only,
+ * and {@link #getSliceContents} only visits the entries of the slice.
+ */
+public class SliceTablesMap implements MutableSlicedMap {
+
+    public static SliceTablesMap create() {
+        return new SliceTablesMap();
+    }
+
+    private final TIntObjectHashMap<SliceTable> tablesByKeyIndex = new TIntObjectHashMap<>(0);
+    // Tables and keys of the entries in the order in which they were put, alternating, so that forEach visits the entries
+    // in the order of their records (committing a trace to its parent in another order may change the order of diagnostics).
+    // Removed entries are dropped from it lazily, see compactInsertionOrder()
+    private final List<Object> insertionOrder = new ArrayList<>(0);
+    private boolean hasRemovedEntries = false;
+    private Multimap<WritableSlice<?, ?>, Object> collectiveSliceKeys = null;
+
+    @Override
+    public <K, V> void put(WritableSlice<K, V> slice, K key, V value) {
+        if (!slice.check(key, value)) {
+            return;
+        }
+
+        SliceTable table = getTable(slice);
+
+        RewritePolicy rewritePolicy = slice.getRewritePolicy();
+        if (rewritePolicy.rewriteProcessingNeeded(key) && table != null) {
+            //noinspection unchecked
+            V oldValue = (V) table.get(key);
+            if (oldValue != null) {
+                if (!rewritePolicy.processRewrite(slice, key, oldValue, value)) {
+                    return;
+                }
+            }
+        }
+
+        if (slice.isCollective()) {
+            if (collectiveSliceKeys == null) {
+                collectiveSliceKeys = ArrayListMultimap.create();
+            }
+
+            collectiveSliceKeys.put(slice, key);
+        }
+
+        if (value == null) {
+            if (table != null && table.remove(key) != null) {
+                hasRemovedEntries = true;
+            }
+        }
+        else {
+            if (table == null) {
+                // Report the slice which owns the key, like SlicedMapImpl does, even if the value is put through a delegating slice
+                table = new SliceTable(((AbstractWritableSlice<?, ?>) slice.getKey()).getSlice());
+                tablesByKeyIndex.put(keyIndex(slice), table);
+            }
+            if (table.put(key, value) == null) {
+                insertionOrder.add(table);
+                insertionOrder.add(key);
+            }
+        }
+
+        slice.afterPut(this, key, value);
+    }
+
+    @Override
+    public void clear() {
+        tablesByKeyIndex.clear();
+        insertionOrder.clear();
+        hasRemovedEntries = false;
+        collectiveSliceKeys = null;
+    }
+
+    @Override
+    public <K, V> V get(ReadOnlySlice<K, V> slice, K key) {
+        SliceTable table = getTable(slice);
+
+        //noinspection unchecked
+        V value = table == null ? null : (V) table.get(key);
+
+        return slice.computeValue(this, key, value, value == null);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <K, V> Collection<K> getKeys(WritableSlice<K, V> slice) {
+        assert slice.isCollective() : "Keys are not collected for slice " + slice;
+
+        if (collectiveSliceKeys == null) return Collections.emptyList();
+        return (Collection<K>) collectiveSliceKeys.get(slice);
+    }
+
+    @Override
+    public void forEach(@NotNull Function3<WritableSlice, Object, Object, Void> f) {
+        if (hasRemovedEntries) {
+            compactInsertionOrder();
+        }
+
+        for (int i = 0; i < insertionOrder.size(); i += 2) {
+            SliceTable table = (SliceTable) insertionOrder.get(i);
+            Object key = insertionOrder.get(i + 1);
+            f.invoke(table.slice, key, table.get(key));
+        }
+    }
+
+    // Drops the removed entries, and the first positions of the entries which were put again after being removed
+    private void compactInsertionOrder() {
+        Map<SliceTable, Set<Object>> visitedKeys = new IdentityHashMap<>();
+        List<Object> compacted = new ArrayList<>(insertionOrder.size());
+        for (int i = insertionOrder.size() - 2; i >= 0; i -= 2) {
+            SliceTable table = (SliceTable) insertionOrder.get(i);
+            Object key = insertionOrder.get(i + 1);
+            Set<Object> keys = visitedKeys.get(table);
+            if (keys == null) {
+                keys = new THashSet<>();
+                visitedKeys.put(table, keys);
+            }
+            if (table.containsKey(key) && keys.add(key)) {
+                compacted.add(key);
+                compacted.add(table);
+            }
+        }
+        Collections.reverse(compacted);
+
+        insertionOrder.clear();
+        insertionOrder.addAll(compacted);
+        hasRemovedEntries = false;
+    }
+
+    @NotNull
+    @Override
+    public <K, V> ImmutableMap<K, V> getSliceContents(@NotNull ReadOnlySlice<K, V> slice) {
+        SliceTable table = getTable(slice);
+        if (table == null) return ImmutableMap.of();
+
+        //noinspection unchecked
+        return ImmutableMap.copyOf((Map<K, V>) table);
+    }
+
+    @Nullable
+    private SliceTable getTable(@NotNull ReadOnlySlice<?, ?> slice) {
+        return tablesByKeyIndex.get(keyIndex(slice));
+    }
+
+    private static int keyIndex(@NotNull ReadOnlySlice<?, ?> slice) {
+        // Hash codes of keys are their unique indices
+        return slice.getKey().hashCode();
+    }
+
+    private static class SliceTable extends THashMap<Object, Object> {
+        private final WritableSlice<?, ?> slice;
+
+        private SliceTable(@NotNull WritableSlice<?, ?> slice) {
+            super(2);
+            this.slice = slice;
+        }
+    }
+}
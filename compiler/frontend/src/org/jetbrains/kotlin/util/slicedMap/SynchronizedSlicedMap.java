@@ -0,0 +1,67 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.util.slicedMap;
+
+import com.google.common.collect.ImmutableMap;
+import kotlin.jvm.functions.Function3;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * A sliced map which can be read and written by several threads, all operations are performed under the lock of this map.
+ */
+public class SynchronizedSlicedMap implements MutableSlicedMap {
+    private final MutableSlicedMap delegate;
+
+    public SynchronizedSlicedMap(@NotNull MutableSlicedMap delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public synchronized <K, V> void put(WritableSlice<K, V> slice, K key, V value) {
+        delegate.put(slice, key, value);
+    }
+
+    @Override
+    public synchronized void clear() {
+        delegate.clear();
+    }
+
+    @Override
+    public synchronized <K, V> V get(ReadOnlySlice<K, V> slice, K key) {
+        return delegate.get(slice, key);
+    }
+
+    @Override
+    public synchronized <K, V> Collection<K> getKeys(WritableSlice<K, V> slice) {
+        // The collection may be a view of the delegate which is modified by other threads
+        return new ArrayList<>(delegate.getKeys(slice));
+    }
+
+    @Override
+    public synchronized void forEach(@NotNull Function3<WritableSlice, Object, Object, Void> f) {
+        delegate.forEach(f);
+    }
+
+    @NotNull
+    @Override
+    public synchronized <K, V> ImmutableMap<K, V> getSliceContents(@NotNull ReadOnlySlice<K, V> slice) {
+        return delegate.getSliceContents(slice);
+    }
+}
@@ -16,66 +16,118 @@
 
 package org.jetbrains.kotlin.incremental
 
-import org.jetbrains.kotlin.cli.jvm.compiler.EnvironmentConfigFiles
-import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
-import com.intellij.lang.java.JavaLanguage
-import com.intellij.openapi.util.Disposer
-import com.intellij.psi.PsiClass
-import com.intellij.psi.PsiFile
-import com.intellij.psi.PsiFileFactory
-import com.intellij.psi.PsiJavaFile
-import org.jetbrains.kotlin.config.CompilerConfiguration
+import org.jetbrains.kotlin.incremental.snapshots.JavaClassSignatures
+import org.jetbrains.kotlin.incremental.snapshots.JavaSourceSignatures
+import org.jetbrains.kotlin.incremental.snapshots.JavaSourceSignaturesMap
+import org.jetbrains.kotlin.name.FqName
 import java.io.File
 import java.util.*
 
+/**
+ * Finds the declarations of Java sources which have changed since the previous build by comparing the signatures
+ * of their classes and members (see [JavaSourceSignatures]), so that changes in method bodies don't affect Kotlin sources.
+ *
+ * The new signatures are kept until [saveProcessedSignatures] is called after a successful build, otherwise the changes would
+ * be lost for the next build.
+ */
 internal class ChangedJavaFilesProcessor(private val reporter: ICReporter) {
     private val allSymbols = HashSet<LookupSymbol>()
-    private val javaLang = JavaLanguage.INSTANCE
-    private val psiFileFactory: PsiFileFactory by lazy {
-        val rootDisposable = Disposer.newDisposable()
-        val configuration = CompilerConfiguration()
-        val environment = KotlinCoreEnvironment.createForProduction(rootDisposable, configuration, EnvironmentConfigFiles.JVM_CONFIG_FILES)
-        val project = environment.project
-        PsiFileFactory.getInstance(project)
-    }
+    // null for removed files
+    private val processedSignatures = HashMap<File, JavaSourceSignatures?>()
 
     val allChangedSymbols: Collection<LookupSymbol>
             get() = allSymbols
 
-    fun process(filesDiff: ChangedFiles.Known): ChangesEither {
+    fun process(filesDiff: ChangedFiles.Known, signaturesMap: JavaSourceSignaturesMap): ChangesEither {
         val modifiedJava = filesDiff.modified.filter(File::isJavaFile)
         val removedJava = filesDiff.removed.filter(File::isJavaFile)
 
-        if (removedJava.any()) {
-            reporter.report { "Some java files are removed: [${removedJava.joinToString()}]" }
-            return ChangesEither.Unknown()
+        val symbols = HashSet<LookupSymbol>()
+        val fqNames = HashSet<FqName>()
+
+        for (javaFile in removedJava) {
+            val oldSignatures = signaturesMap[javaFile]
+            if (oldSignatures == null) {
+                reporter.report { "Java file is removed, its declarations are unknown: $javaFile" }
+                return ChangesEither.Unknown()
+            }
+
+            addChanges(oldSignatures, null, symbols, fqNames)
+            processedSignatures[javaFile] = null
         }
 
-        val symbols = HashSet<LookupSymbol>()
         for (javaFile in modifiedJava) {
             assert(javaFile.extension.equals("java", ignoreCase = true))
 
-            val psiFile = javaFile.psiFile()
-            if (psiFile !is PsiJavaFile) {
-                reporter.report { "Expected PsiJavaFile, got ${psiFile?.javaClass}" }
+            val newSignatures = JavaSourceSignatures.extract(javaFile.readText())
+            if (newSignatures == null) {
+                reporter.report { "Could not get declarations of java file: $javaFile" }
                 return ChangesEither.Unknown()
             }
 
-            psiFile.classes.forEach { it.addLookupSymbols(symbols) }
+            addChanges(signaturesMap[javaFile], newSignatures, symbols, fqNames)
+            processedSignatures[javaFile] = newSignatures
         }
+
         allSymbols.addAll(symbols)
-        return ChangesEither.Known(lookupSymbols = symbols)
+        return ChangesEither.Known(lookupSymbols = symbols, fqNames = fqNames)
+    }
+
+    fun saveProcessedSignatures(signaturesMap: JavaSourceSignaturesMap) {
+        for ((javaFile, signatures) in processedSignatures) {
+            if (signatures != null) {
+                signaturesMap[javaFile] = signatures
+            }
+            else {
+                signaturesMap.remove(javaFile)
+            }
+        }
+        processedSignatures.clear()
+    }
+
+    fun saveSignatures(javaFiles: Iterable<File>, signaturesMap: JavaSourceSignaturesMap) {
+        for (javaFile in javaFiles) {
+            val signatures = JavaSourceSignatures.extract(javaFile.readText())
+            if (signatures != null) {
+                signaturesMap[javaFile] = signatures
+            }
+            else {
+                signaturesMap.remove(javaFile)
+            }
+        }
     }
 
-    private fun PsiClass.addLookupSymbols(symbols: MutableSet<LookupSymbol>) {
-        val fqn = qualifiedName.orEmpty()
+    private fun addChanges(
+            old: JavaSourceSignatures?,
+            new: JavaSourceSignatures?,
+            symbols: MutableSet<LookupSymbol>,
+            fqNames: MutableSet<FqName>
+    ) {
+        // Names in the declarations may now refer to other classes, so everything is considered changed
+        val allChanged = old == null || new == null || old.importsHash != new.importsHash
 
-        symbols.add(LookupSymbol(name.orEmpty(), if (fqn == name) "" else fqn.removeSuffix("." + name!!)))
-        methods.forEach { symbols.add(LookupSymbol(it.name, fqn)) }
-        fields.forEach { symbols.add(LookupSymbol(it.name.orEmpty(), fqn)) }
-        innerClasses.forEach { it.addLookupSymbols(symbols) }
+        val classFqNames = old?.classes.orEmpty().keys + new?.classes.orEmpty().keys
+        for (fqName in classFqNames) {
+            val oldClass = old?.classes?.get(fqName)
+            val newClass = new?.classes?.get(fqName)
+
+            if (allChanged || oldClass == null || newClass == null || oldClass.headerHash != newClass.headerHash) {
+                symbols.add(LookupSymbol(fqName.substringAfterLast('.'), fqName.substringBeforeLast('.', "")))
+                oldClass?.addMemberSymbols(fqName, symbols)
+                newClass?.addMemberSymbols(fqName, symbols)
+                fqNames.add(FqName(fqName))
+                continue
+            }
+
+            for (name in oldClass.memberHashes.keys + newClass.memberHashes.keys) {
+                if (oldClass.memberHashes[name] != newClass.memberHashes[name]) {
+                    symbols.add(LookupSymbol(name, fqName))
+                }
+            }
+        }
     }
 
-    private fun File.psiFile(): PsiFile? =
-            psiFileFactory.createFileFromText(nameWithoutExtension, javaLang, readText())
-}
\ No newline at end of file
+    private fun JavaClassSignatures.addMemberSymbols(fqName: String, symbols: MutableSet<LookupSymbol>) {
+        memberHashes.keys.forEach { symbols.add(LookupSymbol(it, fqName)) }
+    }
+}
@@ -18,6 +18,7 @@ package org.jetbrains.kotlin.incremental
 
 import org.jetbrains.kotlin.build.GeneratedJvmClass
 import org.jetbrains.kotlin.incremental.snapshots.FileSnapshotMap
+import org.jetbrains.kotlin.incremental.snapshots.JavaSourceSignaturesMap
 import org.jetbrains.kotlin.incremental.storage.BasicStringMap
 import org.jetbrains.kotlin.incremental.storage.PathStringDescriptor
 import org.jetbrains.kotlin.incremental.storage.StringCollectionExternalizer
@@ -34,11 +35,16 @@ class GradleIncrementalCacheImpl(
         private val SOURCES_TO_CLASSFILES = "sources-to-classfiles"
         private val GENERATED_SOURCE_SNAPSHOTS = "generated-source-snapshot"
         private val SOURCE_SNAPSHOTS = "source-snapshot"
+        private val JAVA_SOURCE_SIGNATURES = "java-source-signatures"
     }
 
     internal val sourceToClassfilesMap = registerMap(SourceToClassfilesMap(SOURCES_TO_CLASSFILES.storageFile))
     internal val generatedSourceSnapshotMap = registerMap(FileSnapshotMap(GENERATED_SOURCE_SNAPSHOTS.storageFile))
     internal val sourceSnapshotMap = registerMap(FileSnapshotMap(SOURCE_SNAPSHOTS.storageFile))
+    internal val javaSourceSignaturesMap = registerMap(JavaSourceSignaturesMap(JAVA_SOURCE_SIGNATURES.storageFile))
+
+    fun classfilesBySources(sources: Iterable<File>): Collection<File> =
+            sources.flatMap { sourceToClassfilesMap[it] }
 
     fun removeClassfilesBySources(sources: Iterable<File>): Unit =
             sources.forEach { sourceToClassfilesMap.remove(it) }
@@ -16,6 +16,7 @@
 
 package org.jetbrains.kotlin.incremental
 
+import org.jetbrains.kotlin.incremental.classpath.ClasspathSnapshotStorage
 import org.jetbrains.kotlin.modules.TargetId
 import java.io.File
 
@@ -27,6 +28,7 @@ class IncrementalCachesManager (
 ) {
     private val incrementalCacheDir = File(cacheDirectory, "increCache.${targetId.name}")
     private val lookupCacheDir = File(cacheDirectory, "lookups")
+    private val classpathSnapshotsDir = File(cacheDirectory, "classpath")
     private var incrementalCacheField: GradleIncrementalCacheImpl? = null
     private var lookupCacheField: LookupStorage? = null
 
@@ -34,7 +36,7 @@ class IncrementalCachesManager (
         get() {
             if (incrementalCacheField == null) {
                 val targetDataRoot = incrementalCacheDir.apply { mkdirs() }
-                incrementalCacheField = GradleIncrementalCacheImpl(targetDataRoot, outputDir, targetId, reporter)
+                incrementalCacheField = GradleIncrementalCacheImpl(targetDataRoot, outputDir, targetId, reporter).apply { enableWriteBehind() }
             }
 
             return incrementalCacheField!!
@@ -43,12 +45,30 @@ class IncrementalCachesManager (
     val lookupCache: LookupStorage
         get() {
             if (lookupCacheField == null) {
-                lookupCacheField = LookupStorage(lookupCacheDir.apply { mkdirs() })
+                lookupCacheField = LookupStorage(lookupCacheDir.apply { mkdirs() }).apply { enableWriteBehind() }
             }
 
             return lookupCacheField!!
         }
 
+    val classpathSnapshots: ClasspathSnapshotStorage by lazy { ClasspathSnapshotStorage(classpathSnapshotsDir) }
+
+    /**
+     * Writes the changes of the caches to disk
+     */
+    fun flush() {
+        incrementalCacheField?.flush(false)
+        lookupCacheField?.flush(false)
+    }
+
+    /**
+     * Drops the changes of the caches made since the last [flush]
+     */
+    fun discardPendingWrites() {
+        incrementalCacheField?.discardPendingWrites()
+        lookupCacheField?.discardPendingWrites()
+    }
+
     fun clean() {
         close(flush = false)
         cacheDirectory.deleteRecursively()
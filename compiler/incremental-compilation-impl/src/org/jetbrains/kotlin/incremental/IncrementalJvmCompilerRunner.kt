@@ -16,6 +16,7 @@
 
 package org.jetbrains.kotlin.incremental
 
+import com.intellij.openapi.progress.ProcessCanceledException
 import com.intellij.util.io.PersistentEnumeratorBase
 import org.jetbrains.kotlin.annotation.AnnotationFileUpdater
 import org.jetbrains.kotlin.build.GeneratedFile
@@ -100,6 +101,12 @@ class IncrementalJvmCompilerRunner(
     private val cacheDirectory = File(workingDir, CACHES_DIR_NAME)
     private val dirtySourcesSinceLastTimeFile = File(workingDir, DIRTY_SOURCES_FILE_NAME)
     private val lastBuildInfoFile = File(workingDir, LAST_BUILD_INFO_FILE_NAME)
+    private val rebuildRequiredFile = File(workingDir, REBUILD_REQUIRED_FILE_NAME)
+    private val outputsBackup = OutputsBackup(File(workingDir, OUTPUTS_BACKUP_DIR_NAME), reporter)
+    // A failed build can't be rolled back by discarding the pending writes of the caches after the caches were cleaned for a rebuild,
+    // or while they're being written to the disk
+    private var cachesCleaned = false
+    private var cachesFlushStarted = false
 
     fun compile(
             allKotlinSources: List<File>,
@@ -109,6 +116,10 @@ class IncrementalJvmCompilerRunner(
     ): ExitCode {
         val targetId = TargetId(name = args.moduleName, type = "java-production")
         var caches = IncrementalCachesManager(targetId, cacheDirectory, File(args.destination), reporter)
+        // Left by a build which didn't finish
+        outputsBackup.clear()
+        cachesCleaned = false
+        cachesFlushStarted = false
 
         fun onError(e: Exception): ExitCode {
             caches.clean()
@@ -133,8 +144,21 @@ class IncrementalJvmCompilerRunner(
         catch (e: IOException) {
             onError(e)
         }
+        catch (e: Exception) {
+            // The caches and the outputs are rolled back to their state after the last completed round.
+            // The next build is a rebuild only if that's not possible, but not when the build is canceled
+            caches.discardPendingWrites()
+            val outputsRestored = outputsBackup.restore()
+            val canceled = e is ProcessCanceledException || e is InterruptedException
+            if (!canceled && (!outputsRestored || cachesCleaned || cachesFlushStarted)) {
+                reporter.report { "The caches or the outputs could not be rolled back, the next build is a rebuild" }
+                rebuildRequiredFile.createNewFile()
+            }
+            throw e
+        }
         finally {
             caches.close(flush = true)
+            outputsBackup.clear()
             reporter.report { "flushed incremental caches" }
         }
     }
@@ -155,13 +179,17 @@ class IncrementalJvmCompilerRunner(
         fun rebuild(reason: ()->String): CompilationMode {
             reporter.report {"Non-incremental compilation will be performed: ${reason()}"}
             caches.clean()
+            cachesCleaned = true
             dirtySourcesSinceLastTimeFile.delete()
+            rebuildRequiredFile.delete()
             args.destinationAsFile.deleteRecursively()
             return CompilationMode.Rebuild
         }
 
         if (changedFiles !is ChangedFiles.Known) return rebuild {"inputs' changes are unknown (first or clean build)"}
 
+        if (rebuildRequiredFile.exists()) return rebuild {"the last build failed and could not be rolled back"}
+
         val removedClassFiles = changedFiles.removed.filter(File::isClassFile)
         if (removedClassFiles.any()) return rebuild {"Removed class files: ${reporter.pathsAsString(removedClassFiles)}"}
 
@@ -172,16 +200,13 @@ class IncrementalJvmCompilerRunner(
         val modifiedClasspathEntries = changedFiles.modified.filter {it in classpathSet}
         val lastBuildInfo = BuildInfo.read(lastBuildInfoFile)
         reporter.report { "Last Kotlin Build info -- $lastBuildInfo" }
-        val classpathChanges = getClasspathChanges(modifiedClasspathEntries, lastBuildInfo)
+        val classpathChanges = getClasspathChanges(modifiedClasspathEntries, lastBuildInfo, caches)
         if (classpathChanges !is ChangesEither.Known) {
             return rebuild {"could not get changes from modified classpath entries: ${reporter.pathsAsString(modifiedClasspathEntries)}"}
         }
 
-        val javaFilesChanges = javaFilesProcessor.process(changedFiles)
-        val affectedJavaSymbols = when (javaFilesChanges) {
-            is ChangesEither.Known -> javaFilesChanges.lookupSymbols
-            is ChangesEither.Unknown -> return rebuild {"Could not get changes for java files"}
-        }
+        val javaFilesChanges = javaFilesProcessor.process(changedFiles, caches.incrementalCache.javaSourceSignaturesMap)
+        if (javaFilesChanges !is ChangesEither.Known) return rebuild {"Could not get changes for java files"}
 
         val dirtyFiles = HashSet<File>(with(changedFiles) {modified.size + removed.size})
         with(changedFiles) {
@@ -189,7 +214,7 @@ class IncrementalJvmCompilerRunner(
         }.forEach {if (it.isKotlinFile()) dirtyFiles.add(it)}
 
         val lookupSymbols = HashSet<LookupSymbol>()
-        lookupSymbols.addAll(affectedJavaSymbols)
+        lookupSymbols.addAll(javaFilesChanges.lookupSymbols)
         lookupSymbols.addAll(classpathChanges.lookupSymbols)
 
         if (lookupSymbols.any()) {
@@ -197,7 +222,7 @@ class IncrementalJvmCompilerRunner(
             dirtyFiles.addAll(dirtyFilesFromLookups)
         }
 
-        val dirtyClassesFqNames = classpathChanges.fqNames.flatMap {withSubtypes(it, listOf(caches.incrementalCache))}
+        val dirtyClassesFqNames = (classpathChanges.fqNames + javaFilesChanges.fqNames).flatMap {withSubtypes(it, listOf(caches.incrementalCache))}
         if (dirtyClassesFqNames.any()) {
             val dirtyFilesFromFqNames = mapClassesFqNamesToFiles(listOf(caches.incrementalCache), dirtyClassesFqNames, reporter)
             dirtyFiles.addAll(dirtyFilesFromFqNames)
@@ -217,7 +242,8 @@ class IncrementalJvmCompilerRunner(
 
     private fun getClasspathChanges(
             modifiedClasspath: List<File>,
-            lastBuildInfo: BuildInfo?
+            lastBuildInfo: BuildInfo?,
+            caches: IncrementalCachesManager
     ): ChangesEither {
         if (modifiedClasspath.isEmpty()) {
             reporter.report {"No classpath changes"}
@@ -234,6 +260,7 @@ class IncrementalJvmCompilerRunner(
         val fqNames = HashSet<FqName>()
         for (file in modifiedClasspath) {
             val diffs = artifactChangesProvider?.getChanges(file, lastBuildTS)
+                        ?: getChangesFromSnapshot(file, caches)
 
             if (diffs == null) {
                 reporter.report {"Could not get changes for file: $file"}
@@ -249,6 +276,13 @@ class IncrementalJvmCompilerRunner(
         return ChangesEither.Known(symbols, fqNames)
     }
 
+    // Compares the ABI of the classpath entry with its snapshot from the last build, when there's no history of its changes
+    private fun getChangesFromSnapshot(file: File, caches: IncrementalCachesManager): List<DirtyData>? {
+        val changes = caches.classpathSnapshots.getChanges(file) ?: return null
+        reporter.report {"Changes of $file computed from its ABI snapshot: ${changes.size}"}
+        return listOf(CompilationResult(changes = changes.asSequence()).getDirtyData(listOf(caches.incrementalCache), reporter))
+    }
+
     private fun compileIncrementally(
             args: K2JVMCompilerArguments,
             caches: IncrementalCachesManager,
@@ -263,6 +297,7 @@ class IncrementalJvmCompilerRunner(
 
         val allGeneratedFiles = hashSetOf<GeneratedFile<TargetId>>()
         val dirtySources: MutableList<File>
+        val classpath = args.classpathAsList
 
         when (compilationMode) {
             is CompilationMode.Incremental -> {
@@ -288,6 +323,7 @@ class IncrementalJvmCompilerRunner(
             val lookupTracker = LookupTrackerImpl(LookupTracker.DO_NOTHING)
             val outdatedClasses = caches.incrementalCache.classesBySources(dirtySources)
             caches.incrementalCache.markOutputClassesDirty(dirtySources)
+            outputsBackup.moveToBackup(caches.incrementalCache.classfilesBySources(dirtySources))
             caches.incrementalCache.removeClassfilesBySources(dirtySources)
 
             val (sourcesToCompile, removedKotlinSources) = dirtySources.partition(File::exists)
@@ -298,7 +334,10 @@ class IncrementalJvmCompilerRunner(
             val text = allSourcesToCompile.map { it.canonicalPath }.joinToString(separator = System.getProperty("line.separator"))
             dirtySourcesSinceLastTimeFile.writeText(text)
 
-            val compilerOutput = compileChanged(listOf(targetId), sourcesToCompile.toSet(), args, { caches.incrementalCache }, lookupTracker, messageCollector)
+            val outputItemCollector = OutputItemsCollectorImpl()
+            outputsBackup.trackGeneratedFiles(outputItemCollector)
+            val compilerOutput = compileChanged(listOf(targetId), sourcesToCompile.toSet(), args, { caches.incrementalCache },
+                                                lookupTracker, outputItemCollector, messageCollector)
             exitCode = compilerOutput.exitCode
             val generatedClassFiles = compilerOutput.generatedFiles
             anyClassesCompiled = anyClassesCompiled || generatedClassFiles.isNotEmpty() || removedKotlinSources.isNotEmpty()
@@ -326,6 +365,10 @@ class IncrementalJvmCompilerRunner(
                     getIncrementalCache = { caches.incrementalCache })
 
             caches.lookupCache.update(lookupTracker, sourcesToCompile, removedKotlinSources)
+            cachesFlushStarted = true
+            caches.flush()
+            cachesFlushStarted = false
+            outputsBackup.clear()
 
             if (compilationMode is CompilationMode.Rebuild) {
                 break
@@ -360,6 +403,17 @@ class IncrementalJvmCompilerRunner(
 
         if (exitCode == ExitCode.OK) {
             cacheVersions.forEach { it.saveIfNeeded() }
+            caches.classpathSnapshots.update(classpath)
+
+            if (compilationMode is CompilationMode.Rebuild) {
+                // Otherwise the first change of every java file would be considered to affect all its declarations
+                val javaFiles = javaSourceRoots.flatMap { root -> root.walk().filter(File::isJavaFile).toList() }
+                javaFilesProcessor.saveSignatures(javaFiles, caches.incrementalCache.javaSourceSignaturesMap)
+            }
+            else {
+                // Java changes are registered only by a successful build, until then they're found again
+                javaFilesProcessor.saveProcessedSignatures(caches.incrementalCache.javaSourceSignaturesMap)
+            }
         }
 
         return exitCode
@@ -409,6 +463,7 @@ class IncrementalJvmCompilerRunner(
             args: K2JVMCompilerArguments,
             getIncrementalCache: (TargetId)->GradleIncrementalCacheImpl,
             lookupTracker: LookupTracker,
+            outputItemCollector: OutputItemsCollectorImpl,
             messageCollector: MessageCollector
     ): CompileChangedResults {
         val compiler = K2JVMCompiler()
@@ -424,7 +479,6 @@ class IncrementalJvmCompilerRunner(
         val destination = args.destination
         args.destination = null
         args.module = moduleFile.absolutePath
-        val outputItemCollector = OutputItemsCollectorImpl()
         @Suppress("NAME_SHADOWING")
         val messageCollector = MessageCollectorWrapper(messageCollector, outputItemCollector)
 
@@ -466,6 +520,8 @@ class IncrementalJvmCompilerRunner(
         const val CACHES_DIR_NAME = "caches"
         const val DIRTY_SOURCES_FILE_NAME = "dirty-sources.txt"
         const val LAST_BUILD_INFO_FILE_NAME = "last-build.bin"
+        const val REBUILD_REQUIRED_FILE_NAME = "rebuild-required"
+        const val OUTPUTS_BACKUP_DIR_NAME = "outputs-backup"
     }
 }
 
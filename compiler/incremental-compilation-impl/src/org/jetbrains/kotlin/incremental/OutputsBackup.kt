@@ -0,0 +1,89 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.incremental
+
+import org.jetbrains.kotlin.compilerRunner.OutputItemsCollectorImpl
+import java.io.File
+import java.io.IOException
+
+/**
+ * Keeps the outputs of the compilation rounds since the last flush of the caches, so that they can be rolled back together with
+ * the pending writes of the caches: the class files of the dirty sources are moved to [backupDir] instead of being deleted,
+ * and the files generated by the rounds are tracked.
+ */
+internal class OutputsBackup(private val backupDir: File, private val reporter: ICReporter) {
+    // Original location -> backup
+    private val movedFiles = LinkedHashMap<File, File>()
+    private val generatedOutputs = arrayListOf<OutputItemsCollectorImpl>()
+
+    fun moveToBackup(files: Iterable<File>) {
+        for (file in files.map(File::getAbsoluteFile)) {
+            if (file in movedFiles || !file.isFile) continue
+
+            val backup = File(backupDir, movedFiles.size.toString())
+            move(file, backup)
+            movedFiles[file] = backup
+        }
+    }
+
+    fun trackGeneratedFiles(outputs: OutputItemsCollectorImpl) {
+        generatedOutputs.add(outputs)
+    }
+
+    /**
+     * Deletes the generated files and moves the backed up files back, returns false if some of the files could not be restored
+     */
+    fun restore(): Boolean {
+        var restored = true
+        for (output in generatedOutputs.flatMap { it.outputs }) {
+            val file = output.outputFile.absoluteFile
+            if (file !in movedFiles && file.exists() && !file.delete()) {
+                reporter.report { "Could not delete $file generated by the failed round" }
+                restored = false
+            }
+        }
+
+        for ((file, backup) in movedFiles) {
+            try {
+                move(backup, file)
+            }
+            catch (e: IOException) {
+                reporter.report { "Could not restore $file: $e" }
+                restored = false
+            }
+        }
+
+        clear()
+        return restored
+    }
+
+    fun clear() {
+        movedFiles.clear()
+        generatedOutputs.clear()
+        backupDir.deleteRecursively()
+    }
+
+    private fun move(from: File, to: File) {
+        to.parentFile.mkdirs()
+        to.delete()
+        if (from.renameTo(to)) return
+
+        // The backup directory may be on another file system than the destination
+        from.copyTo(to, overwrite = true)
+        if (!from.delete()) throw IOException("Could not delete $from")
+    }
+}
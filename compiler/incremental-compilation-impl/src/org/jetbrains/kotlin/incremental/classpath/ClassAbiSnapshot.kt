@@ -0,0 +1,383 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.incremental.classpath
+
+import org.jetbrains.kotlin.incremental.ChangeInfo
+import org.jetbrains.kotlin.incremental.difference
+import org.jetbrains.kotlin.incremental.snapshots.murmurHash3x64
+import org.jetbrains.kotlin.incremental.storage.ProtoMapValue
+import org.jetbrains.kotlin.incremental.storage.ProtoMapValueExternalizer
+import org.jetbrains.kotlin.incremental.storage.StringToLongMapExternalizer
+import org.jetbrains.kotlin.inline.inlineFunctionsJvmNames
+import org.jetbrains.kotlin.load.kotlin.FileBasedKotlinClass
+import org.jetbrains.kotlin.load.kotlin.header.KotlinClassHeader
+import org.jetbrains.kotlin.load.kotlin.header.ReadKotlinClassHeaderAnnotationVisitor
+import org.jetbrains.kotlin.resolve.jvm.JvmClassName
+import org.jetbrains.kotlin.serialization.Flags
+import org.jetbrains.kotlin.serialization.ProtoBuf
+import org.jetbrains.kotlin.serialization.jvm.BitEncoding
+import org.jetbrains.kotlin.serialization.jvm.JvmProtoBufUtil
+import org.jetbrains.org.objectweb.asm.*
+import java.io.ByteArrayOutputStream
+import java.io.DataInput
+import java.io.DataOutput
+import java.io.DataOutputStream
+import java.nio.ByteBuffer
+import java.util.*
+
+/**
+ * ABI of a class file from the classpath: the Kotlin metadata of the class, and the hashes of its non-private members
+ * which aren't described by the metadata (grouped by name).
+ *
+ * All the members of Java classes are hashed. The metadata of Kotlin classes doesn't cover the values of constants
+ * and the bodies of inline functions, so only those members are hashed for them. Default values of annotation parameters
+ * aren't covered either, they are hashed with the class.
+ */
+class ClassAbiSnapshot(
+        val kind: Kind,
+        val classHash: Long,
+        val memberHashes: Map<String, Long>,
+        val proto: ProtoMapValue?
+) {
+    enum class Kind {
+        JAVA_CLASS,
+        KOTLIN_CLASS,
+        // File facades, multifile classes and their parts, the members of these classes are looked up in their package
+        KOTLIN_PACKAGE_MEMBERS
+    }
+
+    fun write(output: DataOutput) {
+        output.writeByte(kind.ordinal)
+        output.writeLong(classHash)
+        StringToLongMapExternalizer.save(output, memberHashes)
+        output.writeBoolean(proto != null)
+        proto?.let { ProtoMapValueExternalizer.save(output, it) }
+    }
+
+    companion object {
+        fun read(input: DataInput): ClassAbiSnapshot {
+            val kind = Kind.values()[input.readByte().toInt()]
+            val classHash = input.readLong()
+            val memberHashes = StringToLongMapExternalizer.read(input)
+            val proto = if (input.readBoolean()) ProtoMapValueExternalizer.read(input) else null
+            return ClassAbiSnapshot(kind, classHash, memberHashes, proto)
+        }
+
+        /**
+         * Returns null for the classes which are not a part of the ABI: Kotlin synthetic classes, anonymous and local classes
+         */
+        fun build(bytes: ByteArray): ClassAbiSnapshot? {
+            val header = readClassHeader(bytes)
+            val kind = when (header?.kind) {
+                KotlinClassHeader.Kind.CLASS -> Kind.KOTLIN_CLASS
+                KotlinClassHeader.Kind.FILE_FACADE,
+                KotlinClassHeader.Kind.MULTIFILE_CLASS,
+                KotlinClassHeader.Kind.MULTIFILE_CLASS_PART -> Kind.KOTLIN_PACKAGE_MEMBERS
+                KotlinClassHeader.Kind.SYNTHETIC_CLASS -> return null
+                else -> Kind.JAVA_CLASS
+            }
+
+            val data = header?.data
+            val strings = header?.strings
+            val proto =
+                    if (kind == Kind.JAVA_CLASS || header?.kind == KotlinClassHeader.Kind.MULTIFILE_CLASS || data == null || strings == null) null
+                    else ProtoMapValue(kind == Kind.KOTLIN_PACKAGE_MEMBERS, BitEncoding.decodeBytes(data), strings)
+
+            val builder = SnapshotBuilder(
+                    hashAllMembers = proto == null,
+                    inlineFunctions = if (header != null && proto != null) inlineFunctionsJvmNames(header) else emptySet()
+            )
+            // Bodies of methods are only needed for inline functions, debug info is a part of their ABI because it's inlined too
+            val flags = if (builder.inlineFunctions.isEmpty()) ClassReader.SKIP_CODE or ClassReader.SKIP_DEBUG or ClassReader.SKIP_FRAMES else 0
+            ClassReader(bytes).accept(builder, flags)
+
+            if (builder.isLocalOrAnonymous) return null
+            return ClassAbiSnapshot(kind, builder.classHash.hash(), builder.memberHashes, proto)
+        }
+    }
+}
+
+/**
+ * Changes of the class [internalName] between the snapshots, null snapshot means that the class is absent
+ */
+fun abiChanges(internalName: String, old: ClassAbiSnapshot?, new: ClassAbiSnapshot?): List<ChangeInfo> {
+    val className = JvmClassName.byInternalName(internalName)
+    val classFqName = className.fqNameForClassNameWithoutDollars
+    val packageFqName = className.packageFqName
+
+    if (old == null || new == null || old.kind != new.kind) {
+        // The class is added, removed or replaced, everything it declares is changed
+        return listOfNotNull(old, new).map { snapshot ->
+            if (snapshot.kind == ClassAbiSnapshot.Kind.KOTLIN_PACKAGE_MEMBERS) {
+                ChangeInfo.MembersChanged(packageFqName, snapshot.memberHashes.keys + snapshot.proto.packageMemberNames())
+            }
+            else {
+                ChangeInfo.SignatureChanged(classFqName, areSubclassesAffected = true)
+            }
+        }
+    }
+
+    val isPackageMembers = new.kind == ClassAbiSnapshot.Kind.KOTLIN_PACKAGE_MEMBERS
+    val fqName = if (isPackageMembers) packageFqName else classFqName
+    val changes = ArrayList<ChangeInfo>()
+    val changedMemberNames = HashSet<String>()
+
+    if (!isPackageMembers && old.classHash != new.classHash) {
+        changes.add(ChangeInfo.SignatureChanged(fqName, areSubclassesAffected = true))
+    }
+
+    if (old.proto != null && new.proto != null) {
+        val difference = difference(old.proto, new.proto)
+        if (difference.isClassAffected && !isPackageMembers) {
+            changes.add(ChangeInfo.SignatureChanged(fqName, difference.areSubclassesAffected))
+        }
+        changedMemberNames.addAll(difference.changedMembersNames)
+    }
+    else if (old.proto != null || new.proto != null) {
+        changes.add(ChangeInfo.SignatureChanged(fqName, areSubclassesAffected = true))
+    }
+
+    for (name in old.memberHashes.keys + new.memberHashes.keys) {
+        if (old.memberHashes[name] != new.memberHashes[name]) {
+            changedMemberNames.add(name)
+        }
+    }
+
+    if (changedMemberNames.isNotEmpty()) {
+        changes.add(ChangeInfo.MembersChanged(fqName, changedMemberNames))
+    }
+
+    return changes
+}
+
+private fun ProtoMapValue?.packageMemberNames(): Set<String> {
+    if (this == null) return emptySet()
+
+    val packageData = JvmProtoBufUtil.readPackageDataFrom(bytes, strings)
+    val nameResolver = packageData.nameResolver
+    val packageProto = packageData.packageProto
+    val result = HashSet<String>()
+    packageProto.functionList.filterNot { isPrivate(it.flags) }.mapTo(result) { nameResolver.getString(it.name) }
+    packageProto.propertyList.filterNot { isPrivate(it.flags) }.mapTo(result) { nameResolver.getString(it.name) }
+    packageProto.typeAliasList.filterNot { isPrivate(it.flags) }.mapTo(result) { nameResolver.getString(it.name) }
+    return result
+}
+
+private fun isPrivate(flags: Int): Boolean {
+    val visibility = Flags.VISIBILITY.get(flags)
+    return visibility == ProtoBuf.Visibility.PRIVATE || visibility == ProtoBuf.Visibility.PRIVATE_TO_THIS
+}
+
+private fun readClassHeader(bytes: ByteArray): KotlinClassHeader? {
+    val headerVisitor = ReadKotlinClassHeaderAnnotationVisitor()
+    val innerClasses = FileBasedKotlinClass.InnerClassesInfo()
+    ClassReader(bytes).accept(object : ClassVisitor(Opcodes.ASM5) {
+        override fun visitAnnotation(desc: String, visible: Boolean): AnnotationVisitor? =
+                FileBasedKotlinClass.convertAnnotationVisitor(headerVisitor, desc, innerClasses)
+
+        override fun visitEnd() {
+            headerVisitor.visitEnd()
+        }
+    }, ClassReader.SKIP_CODE or ClassReader.SKIP_DEBUG or ClassReader.SKIP_FRAMES)
+    return headerVisitor.createHeader()
+}
+
+private class Hasher {
+    private val bytes = ByteArrayOutputStream()
+    val output = DataOutputStream(bytes)
+
+    fun hash(): Long = ByteBuffer.wrap(murmurHash3x64(ByteBuffer.wrap(bytes.toByteArray()))).long
+}
+
+/**
+ * Writes the arguments of an annotation to [output], nested annotations and arrays are written with the same visitor
+ */
+private class AnnotationHasher(private val output: DataOutputStream) : AnnotationVisitor(Opcodes.ASM5) {
+    override fun visit(name: String?, value: Any) {
+        output.writeByte(VALUE)
+        output.writeUTF(name.orEmpty())
+        output.writeUTF(value.javaClass.name)
+        if (value.javaClass.isArray) {
+            // Arrays of primitive values are reported as a single value
+            val size = java.lang.reflect.Array.getLength(value)
+            output.writeInt(size)
+            for (i in 0 until size) {
+                output.writeUTF(java.lang.reflect.Array.get(value, i).toString())
+            }
+        }
+        else {
+            output.writeUTF(value.toString())
+        }
+    }
+
+    override fun visitEnum(name: String?, desc: String, value: String) {
+        output.writeByte(ENUM)
+        output.writeUTF(name.orEmpty())
+        output.writeUTF(desc)
+        output.writeUTF(value)
+    }
+
+    override fun visitAnnotation(name: String?, desc: String): AnnotationVisitor {
+        output.writeByte(ANNOTATION)
+        output.writeUTF(name.orEmpty())
+        output.writeUTF(desc)
+        return AnnotationHasher(output)
+    }
+
+    override fun visitArray(name: String?): AnnotationVisitor {
+        output.writeByte(ARRAY)
+        output.writeUTF(name.orEmpty())
+        return AnnotationHasher(output)
+    }
+
+    override fun visitEnd() {
+        output.writeByte(END)
+    }
+
+    private companion object {
+        const val VALUE = 1
+        const val ENUM = 2
+        const val ANNOTATION = 3
+        const val ARRAY = 4
+        const val END = 5
+    }
+}
+
+private class SnapshotBuilder(private val hashAllMembers: Boolean, val inlineFunctions: Set<String>) : ClassVisitor(Opcodes.ASM5) {
+    private var className: String? = null
+    private var isAnnotationClass = false
+
+    var isLocalOrAnonymous = false
+        private set
+
+    val classHash = Hasher()
+    val memberHashes = HashMap<String, Long>()
+
+    override fun visit(version: Int, access: Int, name: String, signature: String?, superName: String?, interfaces: Array<out String>?) {
+        className = name
+        isAnnotationClass = access and Opcodes.ACC_ANNOTATION != 0
+        with(classHash.output) {
+            writeInt(access and (Opcodes.ACC_SUPER or Opcodes.ACC_SYNTHETIC).inv())
+            writeUTF(signature.orEmpty())
+            writeUTF(superName.orEmpty())
+            interfaces?.forEach { writeUTF(it) }
+        }
+    }
+
+    override fun visitInnerClass(name: String, outerName: String?, innerName: String?, access: Int) {
+        if (name == className && (outerName == null || innerName == null)) {
+            isLocalOrAnonymous = true
+        }
+    }
+
+    override fun visitAnnotation(desc: String, visible: Boolean): AnnotationVisitor? {
+        if (!hashAllMembers) return null
+
+        classHash.output.writeUTF(desc)
+        return AnnotationHasher(classHash.output)
+    }
+
+    override fun visitField(access: Int, name: String, desc: String, signature: String?, value: Any?): FieldVisitor? {
+        if (isPrivateOrSynthetic(access)) return null
+
+        val isConstant = value != null && access and Opcodes.ACC_STATIC != 0 && access and Opcodes.ACC_FINAL != 0
+        if (!hashAllMembers && !isConstant) return null
+
+        val hasher = Hasher()
+        with(hasher.output) {
+            writeInt(access)
+            writeUTF(desc)
+            writeUTF(signature.orEmpty())
+            writeUTF(value?.toString().orEmpty())
+        }
+
+        return object : FieldVisitor(Opcodes.ASM5) {
+            override fun visitAnnotation(desc: String, visible: Boolean): AnnotationVisitor {
+                hasher.output.writeUTF(desc)
+                return AnnotationHasher(hasher.output)
+            }
+
+            override fun visitEnd() {
+                addMemberHash(name, hasher.hash())
+            }
+        }
+    }
+
+    override fun visitMethod(access: Int, name: String, desc: String, signature: String?, exceptions: Array<out String>?): MethodVisitor? {
+        if (isPrivateOrSynthetic(access) || name == "<clinit>") return null
+
+        if (name + desc in inlineFunctions) {
+            // Same as in the inline functions map of the incremental cache: the bytecode of the whole method is hashed
+            val dummyClassWriter = ClassWriter(Opcodes.ASM5)
+            return object : MethodVisitor(Opcodes.ASM5, dummyClassWriter.visitMethod(access, name, desc, signature, exceptions)) {
+                override fun visitEnd() {
+                    super.visitEnd()
+                    addMemberHash(name, ByteBuffer.wrap(murmurHash3x64(ByteBuffer.wrap(dummyClassWriter.toByteArray()))).long)
+                }
+            }
+        }
+
+        if (!hashAllMembers) {
+            if (!isAnnotationClass) return null
+            // The metadata of annotation classes only tells whether a parameter has a default value
+            return object : MethodVisitor(Opcodes.ASM5) {
+                override fun visitAnnotationDefault(): AnnotationVisitor = hashAnnotationDefault(name)
+            }
+        }
+
+        val hasher = Hasher()
+        with(hasher.output) {
+            writeInt(access)
+            writeUTF(desc)
+            writeUTF(signature.orEmpty())
+            exceptions?.forEach { writeUTF(it) }
+        }
+
+        return object : MethodVisitor(Opcodes.ASM5) {
+            override fun visitAnnotation(desc: String, visible: Boolean): AnnotationVisitor {
+                hasher.output.writeUTF(desc)
+                return AnnotationHasher(hasher.output)
+            }
+
+            override fun visitParameterAnnotation(parameter: Int, desc: String, visible: Boolean): AnnotationVisitor {
+                hasher.output.writeInt(parameter)
+                hasher.output.writeUTF(desc)
+                return AnnotationHasher(hasher.output)
+            }
+
+            override fun visitAnnotationDefault(): AnnotationVisitor = hashAnnotationDefault(name)
+
+            override fun visitEnd() {
+                addMemberHash(name, hasher.hash())
+            }
+        }
+    }
+
+    // Default values change the meaning of every usage of the annotation, so they're a part of the class signature
+    private fun hashAnnotationDefault(name: String): AnnotationVisitor {
+        classHash.output.writeUTF(name)
+        return AnnotationHasher(classHash.output)
+    }
+
+    private fun isPrivateOrSynthetic(access: Int): Boolean =
+            access and (Opcodes.ACC_PRIVATE or Opcodes.ACC_SYNTHETIC) != 0
+
+    private fun addMemberHash(name: String, hash: Long) {
+        // Overloads are combined regardless of their order in the class file
+        memberHashes[name] = (memberHashes[name] ?: 0L) + hash
+    }
+}
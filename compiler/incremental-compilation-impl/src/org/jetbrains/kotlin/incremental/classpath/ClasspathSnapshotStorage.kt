@@ -0,0 +1,156 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.incremental.classpath
+
+import com.intellij.openapi.util.io.FileUtil
+import org.jetbrains.kotlin.incremental.ChangeInfo
+import org.jetbrains.kotlin.utils.rethrow
+import java.io.*
+import java.util.*
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.zip.ZipFile
+
+/**
+ * ABI snapshots of the classpath jars, so that the changes of a jar can be computed without the history of its changes.
+ * A snapshot is saved with the length and the timestamp of the jar, and is only rebuilt when one of them changes.
+ */
+class ClasspathSnapshotStorage(private val storageDirectory: File) {
+    private class JarSnapshot(val length: Long, val lastModified: Long, val classes: Map<String, ClassAbiSnapshot>)
+
+    // Snapshots built during this build, they're saved by [update]
+    private val builtSnapshots = HashMap<File, JarSnapshot>()
+
+    /**
+     * Returns the changes of the ABI of the jar since its snapshot was saved, or null if there's no saved snapshot
+     */
+    fun getChanges(jar: File): List<ChangeInfo>? {
+        val oldClasses = load(jar, readClasses = true)?.classes ?: return null
+        val newSnapshot = build(jar)
+        builtSnapshots[jar] = newSnapshot
+        val newClasses = newSnapshot.classes
+
+        val changes = ArrayList<ChangeInfo>()
+        for (internalName in oldClasses.keys + newClasses.keys) {
+            changes.addAll(abiChanges(internalName, oldClasses[internalName], newClasses[internalName]))
+        }
+        return changes
+    }
+
+    /**
+     * Saves the snapshots of the jars which have changed since their snapshots were saved
+     */
+    fun update(classpath: List<File>) {
+        val jarsToSave = classpath.filter { it.isJar() && !isUpToDate(it) }
+        if (jarsToSave.isEmpty()) return
+
+        val executor = Executors.newFixedThreadPool(minOf(jarsToSave.size, Runtime.getRuntime().availableProcessors()))
+        try {
+            val futures = jarsToSave.map { jar ->
+                val builtSnapshot = builtSnapshots[jar]
+                executor.submit { save(jar, builtSnapshot ?: build(jar)) }
+            }
+            futures.forEach { it.get() }
+        }
+        catch (e: ExecutionException) {
+            throw rethrow(e.cause!!)
+        }
+        finally {
+            executor.shutdownNow()
+        }
+
+        builtSnapshots.clear()
+    }
+
+    private fun isUpToDate(jar: File): Boolean {
+        val snapshot = load(jar, readClasses = false) ?: return false
+        return snapshot.length == jar.length() && snapshot.lastModified == jar.lastModified()
+    }
+
+    private fun build(jar: File): JarSnapshot {
+        // The timestamp is taken before the contents, so that a modification during reading changes it
+        val length = jar.length()
+        val lastModified = jar.lastModified()
+        val classes = HashMap<String, ClassAbiSnapshot>()
+
+        ZipFile(jar).use { zip ->
+            for (entry in zip.entries()) {
+                if (entry.isDirectory || !entry.name.endsWith(CLASS_FILE_EXTENSION) || entry.name.startsWith("META-INF/")) continue
+
+                val bytes = zip.getInputStream(entry).use { it.readBytes() }
+                val snapshot = ClassAbiSnapshot.build(bytes) ?: continue
+                classes[entry.name.removeSuffix(CLASS_FILE_EXTENSION)] = snapshot
+            }
+        }
+
+        return JarSnapshot(length, lastModified, classes)
+    }
+
+    private fun storageFile(jar: File): File {
+        val path = jar.absolutePath
+        return File(storageDirectory, "${jar.name}-${Integer.toHexString(path.hashCode())}.abi")
+    }
+
+    private fun load(jar: File, readClasses: Boolean): JarSnapshot? {
+        val file = storageFile(jar).takeIf(File::isFile) ?: return null
+        return try {
+            DataInputStream(BufferedInputStream(FileInputStream(file))).use { input ->
+                if (input.readInt() != STORAGE_VERSION || input.readUTF() != jar.absolutePath) return null
+
+                val length = input.readLong()
+                val lastModified = input.readLong()
+                val classes = if (!readClasses) emptyMap() else {
+                    val size = input.readInt()
+                    val classes = HashMap<String, ClassAbiSnapshot>(size * 2)
+                    repeat(size) {
+                        val internalName = input.readUTF()
+                        classes.put(internalName, ClassAbiSnapshot.read(input))
+                    }
+                    classes
+                }
+                JarSnapshot(length, lastModified, classes)
+            }
+        }
+        catch (e: IOException) {
+            // The snapshot will be rebuilt and saved again
+            null
+        }
+    }
+
+    private fun save(jar: File, snapshot: JarSnapshot) {
+        val file = storageFile(jar)
+        FileUtil.createParentDirs(file)
+        DataOutputStream(BufferedOutputStream(FileOutputStream(file))).use { output ->
+            output.writeInt(STORAGE_VERSION)
+            output.writeUTF(jar.absolutePath)
+            output.writeLong(snapshot.length)
+            output.writeLong(snapshot.lastModified)
+            output.writeInt(snapshot.classes.size)
+            for ((internalName, classSnapshot) in snapshot.classes) {
+                output.writeUTF(internalName)
+                classSnapshot.write(output)
+            }
+        }
+    }
+
+    private fun File.isJar(): Boolean = isFile && extension.equals("jar", ignoreCase = true)
+
+    private companion object {
+        private val STORAGE_VERSION = 1
+        private val CLASS_FILE_EXTENSION = ".class"
+    }
+}
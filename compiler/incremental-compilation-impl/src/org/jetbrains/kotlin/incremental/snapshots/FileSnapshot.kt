@@ -19,9 +19,14 @@ package org.jetbrains.kotlin.incremental.snapshots
 import java.io.File
 import java.util.*
 
+/**
+ * [lastModified] is only used to tell whether the file should be hashed again, so it doesn't affect equality.
+ * It's [UNKNOWN_TIMESTAMP] if the timestamp can't be trusted.
+ */
 class FileSnapshot(
         val file: File,
         val length: Long,
+        val lastModified: Long,
         val hash: ByteArray
 ) {
     init {
@@ -51,4 +56,8 @@ class FileSnapshot(
     override fun toString(): String {
         return "FileSnapshot(file=$file, length=$length, hash=${Arrays.toString(hash)})"
     }
+
+    companion object {
+        const val UNKNOWN_TIMESTAMP = -1L
+    }
 }
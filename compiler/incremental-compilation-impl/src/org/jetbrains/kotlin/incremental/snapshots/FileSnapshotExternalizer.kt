@@ -25,6 +25,7 @@ object FileSnapshotExternalizer : DataExternalizer<FileSnapshot> {
     override fun save(out: DataOutput, value: FileSnapshot) {
         out.writeUTF(value.file.canonicalPath)
         out.writeLong(value.length)
+        out.writeLong(value.lastModified)
         out.writeInt(value.hash.size)
         out.write(value.hash)
     }
@@ -32,9 +33,10 @@ object FileSnapshotExternalizer : DataExternalizer<FileSnapshot> {
     override fun read(input: DataInput): FileSnapshot {
         val file = File(input.readUTF())
         val length = input.readLong()
+        val lastModified = input.readLong()
         val hashSize = input.readInt()
         val hash = ByteArray(hashSize)
         input.readFully(hash)
-        return FileSnapshot(file, length, hash)
+        return FileSnapshot(file, length, lastModified, hash)
     }
 }
\ No newline at end of file
@@ -27,7 +27,6 @@ class FileSnapshotMap(storageFile: File) : BasicStringMap<FileSnapshot>(storageF
             value.toString()
 
     fun compareAndUpdate(newFiles: Iterable<File>): ChangedFiles.Known {
-        val snapshotProvider = SimpleFileSnapshotProviderImpl()
         val newOrModified = ArrayList<File>()
         val removed = ArrayList<File>()
 
@@ -39,15 +38,22 @@ class FileSnapshotMap(storageFile: File) : BasicStringMap<FileSnapshot>(storageF
             }
         }
 
-        for (path in newPaths) {
-            val file = File(path)
+        // Only the files with a different length or timestamp are hashed
+        val snapshotProvider = CachingFileSnapshotProvider(previousSnapshots = { storage[it.path] })
+        val newSnapshots = snapshotProvider.getAll(newPaths.map(::File))
+
+        for ((file, newSnapshot) in newSnapshots) {
+            val path = file.path
             val oldSnapshot = storage[path]
-            val newSnapshot = snapshotProvider[file]
 
             if (oldSnapshot == null || oldSnapshot != newSnapshot) {
                 newOrModified.add(file)
                 storage[path] = newSnapshot
             }
+            else if (oldSnapshot.lastModified != newSnapshot.lastModified) {
+                // The contents are the same, the new timestamp lets the next build skip hashing
+                storage[path] = newSnapshot
+            }
         }
 
         return ChangedFiles.Known(newOrModified, removed)
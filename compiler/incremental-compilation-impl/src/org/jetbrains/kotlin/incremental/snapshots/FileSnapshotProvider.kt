@@ -16,7 +16,12 @@
 
 package org.jetbrains.kotlin.incremental.snapshots
 
+import org.jetbrains.kotlin.utils.rethrow
 import java.io.File
+import java.util.*
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
 
 interface FileSnapshotProvider {
     operator fun get(file: File): FileSnapshot
@@ -24,8 +29,81 @@ interface FileSnapshotProvider {
 
 class SimpleFileSnapshotProviderImpl : FileSnapshotProvider {
     override fun get(file: File): FileSnapshot {
+        // The timestamp is taken before the contents, so that a modification during hashing changes it
         val length = file.length()
-        val hash = file.md5
-        return FileSnapshot(file, length, hash)
+        val lastModified = file.lastModified()
+        val hash = file.contentHash
+
+        // A file modified within the timestamp resolution of the file system may be modified again without changing the timestamp
+        val trustedLastModified =
+                if (System.currentTimeMillis() - lastModified > TIMESTAMP_RESOLUTION_MS) lastModified else FileSnapshot.UNKNOWN_TIMESTAMP
+
+        return FileSnapshot(file, length, trustedLastModified, hash)
     }
-}
\ No newline at end of file
+
+    private companion object {
+        // FAT has the coarsest resolution among the common file systems
+        private val TIMESTAMP_RESOLUTION_MS = 2000L
+    }
+}
+
+/**
+ * Returns the previous snapshot of a file if both its length and timestamp are the same, so that only the files
+ * which have likely been modified are read. [getAll] hashes the files on [threads] threads.
+ */
+class CachingFileSnapshotProvider(
+        private val previousSnapshots: (File) -> FileSnapshot?,
+        private val threads: Int = Runtime.getRuntime().availableProcessors()
+) : FileSnapshotProvider {
+    private val hashingProvider = SimpleFileSnapshotProviderImpl()
+
+    override fun get(file: File): FileSnapshot =
+            unchangedSnapshot(file) ?: hashingProvider[file]
+
+    fun getAll(files: Collection<File>): Map<File, FileSnapshot> {
+        val result = LinkedHashMap<File, FileSnapshot>(files.size * 2)
+        val filesToHash = ArrayList<File>()
+        for (file in files) {
+            val snapshot = unchangedSnapshot(file)
+            if (snapshot != null) {
+                result[file] = snapshot
+            }
+            else {
+                filesToHash.add(file)
+            }
+        }
+
+        if (threads <= 1 || filesToHash.size < MIN_FILES_TO_HASH_IN_PARALLEL) {
+            filesToHash.associateTo(result) { it to hashingProvider[it] }
+        }
+        else {
+            hashInParallel(filesToHash).associateTo(result) { it.file to it }
+        }
+
+        return result
+    }
+
+    private fun unchangedSnapshot(file: File): FileSnapshot? {
+        val snapshot = previousSnapshots(file) ?: return null
+        if (snapshot.lastModified == FileSnapshot.UNKNOWN_TIMESTAMP) return null
+        return snapshot.takeIf { it.lastModified == file.lastModified() && it.length == file.length() }
+    }
+
+    private fun hashInParallel(files: List<File>): List<FileSnapshot> {
+        val executor = Executors.newFixedThreadPool(minOf(threads, files.size))
+        try {
+            val futures: List<Future<FileSnapshot>> = files.map { file -> executor.submit<FileSnapshot> { hashingProvider[file] } }
+            return futures.map { it.get() }
+        }
+        catch (e: ExecutionException) {
+            throw rethrow(e.cause!!)
+        }
+        finally {
+            executor.shutdownNow()
+        }
+    }
+
+    private companion object {
+        private val MIN_FILES_TO_HASH_IN_PARALLEL = 16
+    }
+}
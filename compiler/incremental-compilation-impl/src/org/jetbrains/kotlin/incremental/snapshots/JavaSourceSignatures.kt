@@ -0,0 +1,374 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.incremental.snapshots
+
+import com.intellij.lang.java.lexer.JavaLexer
+import com.intellij.pom.java.LanguageLevel
+import com.intellij.psi.JavaTokenType
+import com.intellij.psi.impl.source.tree.ElementType
+import com.intellij.psi.tree.IElementType
+import com.intellij.util.io.DataExternalizer
+import org.jetbrains.kotlin.incremental.storage.StringToLongMapExternalizer
+import java.io.DataInput
+import java.io.DataOutput
+import java.nio.ByteBuffer
+import java.util.*
+
+/**
+ * Hashes of the declarations of a Java source file, without the bodies of its methods and initializers.
+ *
+ * Declarations are extracted from the tokens of the file, so the meaning of the names in them isn't known.
+ * That's why a change of the imports of the file is considered to affect all its declarations.
+ */
+class JavaSourceSignatures(
+        val importsHash: Long,
+        // Classes by their fq names, including nested ones
+        val classes: Map<String, JavaClassSignatures>
+) {
+    companion object {
+        /**
+         * Returns null if the file can't be split into declarations, e.g. because of unbalanced braces
+         */
+        fun extract(text: CharSequence): JavaSourceSignatures? = JavaSignaturesExtractor(tokenize(text)).extract()
+
+        private fun tokenize(text: CharSequence): List<Token> {
+            val lexer = JavaLexer(LanguageLevel.HIGHEST)
+            lexer.start(text)
+            val result = ArrayList<Token>()
+            while (true) {
+                val type = lexer.tokenType ?: break
+                if (type !in ElementType.JAVA_COMMENT_OR_WHITESPACE_BIT_SET) {
+                    result.add(Token(type, lexer.tokenText))
+                }
+                lexer.advance()
+            }
+            return result
+        }
+    }
+}
+
+/**
+ * [headerHash] covers the modifiers, type parameters and supertypes of the class and its constructors.
+ * Members are grouped by name, constants include their values since they're inlined by the compiler.
+ */
+class JavaClassSignatures(val headerHash: Long, val memberHashes: Map<String, Long>)
+
+object JavaSourceSignaturesExternalizer : DataExternalizer<JavaSourceSignatures> {
+    override fun save(output: DataOutput, value: JavaSourceSignatures) {
+        output.writeLong(value.importsHash)
+        output.writeInt(value.classes.size)
+        for ((fqName, classSignatures) in value.classes) {
+            output.writeUTF(fqName)
+            output.writeLong(classSignatures.headerHash)
+            StringToLongMapExternalizer.save(output, classSignatures.memberHashes)
+        }
+    }
+
+    override fun read(input: DataInput): JavaSourceSignatures {
+        val importsHash = input.readLong()
+        val size = input.readInt()
+        val classes = LinkedHashMap<String, JavaClassSignatures>(size * 2)
+        repeat(size) {
+            val fqName = input.readUTF()
+            val headerHash = input.readLong()
+            classes.put(fqName, JavaClassSignatures(headerHash, StringToLongMapExternalizer.read(input)))
+        }
+        return JavaSourceSignatures(importsHash, classes)
+    }
+}
+
+private class Token(val type: IElementType, val text: String)
+
+private class MalformedSourceException : Exception()
+
+private class JavaSignaturesExtractor(private val tokens: List<Token>) {
+    private var position = 0
+    private val classes = LinkedHashMap<String, JavaClassSignatures>()
+
+    private val current: IElementType?
+        get() = tokens.getOrNull(position)?.type
+
+    private fun lookahead(k: Int): IElementType? = tokens.getOrNull(position + k)?.type
+
+    fun extract(): JavaSourceSignatures? {
+        try {
+            var packageName = ""
+            val imports = ArrayList<String>()
+
+            while (current != null) {
+                when (current) {
+                    JavaTokenType.PACKAGE_KEYWORD -> {
+                        position++
+                        packageName = textUntilSemicolon()
+                    }
+                    JavaTokenType.IMPORT_KEYWORD -> {
+                        position++
+                        imports.add(textUntilSemicolon())
+                    }
+                    JavaTokenType.SEMICOLON -> position++
+                    else -> parseMember(outerFqName = packageName, className = null, isInterface = false, members = null)
+                }
+            }
+
+            imports.sort()
+            return JavaSourceSignatures(hash(imports), classes)
+        }
+        catch (e: MalformedSourceException) {
+            return null
+        }
+    }
+
+    private fun textUntilSemicolon(): String {
+        val start = position
+        while (current != JavaTokenType.SEMICOLON) {
+            if (current == null) throw MalformedSourceException()
+            position++
+        }
+        return tokens.subList(start, position++).joinToString("") { it.text }
+    }
+
+    /*
+     * Parses a declaration in a class body (or at the top level if [members] is null) and adds its hash to [members]
+     */
+    private fun parseMember(outerFqName: String, className: String?, isInterface: Boolean, members: MutableMap<String, Long>?) {
+        val start = position
+        // The first parenthesis which doesn't belong to an annotation, it follows the name of a method
+        var parametersStart = -1
+
+        while (true) {
+            when (current) {
+                null -> throw MalformedSourceException()
+                JavaTokenType.AT -> {
+                    if (lookahead(1) == JavaTokenType.INTERFACE_KEYWORD) {
+                        position++
+                        continue
+                    }
+                    skipAnnotation()
+                }
+                JavaTokenType.CLASS_KEYWORD, JavaTokenType.INTERFACE_KEYWORD, JavaTokenType.ENUM_KEYWORD -> {
+                    parseClass(start, outerFqName)
+                    return
+                }
+                JavaTokenType.LPARENTH -> {
+                    if (parametersStart < 0) parametersStart = position
+                    skipBalanced(JavaTokenType.LPARENTH, JavaTokenType.RPARENTH)
+                }
+                JavaTokenType.LBRACE -> {
+                    // A method or an initializer
+                    val end = position
+                    skipBalanced(JavaTokenType.LBRACE, JavaTokenType.RBRACE)
+                    if (members != null && parametersStart >= 0) {
+                        addMethod(start, parametersStart, end, className, members)
+                    }
+                    return
+                }
+                JavaTokenType.SEMICOLON, JavaTokenType.EQ -> {
+                    if (members == null) throw MalformedSourceException()
+                    if (parametersStart >= 0) {
+                        addMethod(start, parametersStart, position++, className, members)
+                    }
+                    else {
+                        parseField(start, isInterface, members)
+                    }
+                    return
+                }
+                JavaTokenType.RBRACE -> throw MalformedSourceException()
+                else -> position++
+            }
+        }
+    }
+
+    private fun parseClass(start: Int, outerFqName: String) {
+        val keyword = current
+        val isInterface = keyword == JavaTokenType.INTERFACE_KEYWORD
+        position++
+        if (current != JavaTokenType.IDENTIFIER) throw MalformedSourceException()
+        val name = tokens[position].text
+        val fqName = if (outerFqName.isEmpty()) name else "$outerFqName.$name"
+
+        while (current != JavaTokenType.LBRACE) {
+            if (current == null) throw MalformedSourceException()
+            position++
+        }
+        val header = arrayListOf(text(start, position))
+        position++
+
+        val members = HashMap<String, Long>()
+        if (keyword == JavaTokenType.ENUM_KEYWORD) {
+            parseEnumEntries(members)
+        }
+        while (current != JavaTokenType.RBRACE) {
+            when (current) {
+                null -> throw MalformedSourceException()
+                JavaTokenType.SEMICOLON -> position++
+                else -> parseMember(fqName, name, isInterface, members)
+            }
+        }
+        position++
+
+        // Constructors are called by the name of the class, so they're a part of its header
+        members.remove(CONSTRUCTORS)?.let { header.add(it.toString()) }
+        classes[fqName] = JavaClassSignatures(hash(header), members)
+    }
+
+    private fun parseEnumEntries(members: MutableMap<String, Long>) {
+        while (true) {
+            while (current == JavaTokenType.AT) {
+                skipAnnotation()
+            }
+            when (current) {
+                JavaTokenType.IDENTIFIER -> {
+                    val name = tokens[position++].text
+                    if (current == JavaTokenType.LPARENTH) skipBalanced(JavaTokenType.LPARENTH, JavaTokenType.RPARENTH)
+                    if (current == JavaTokenType.LBRACE) skipBalanced(JavaTokenType.LBRACE, JavaTokenType.RBRACE)
+                    addMemberHash(members, name, hash(listOf(name)))
+                    if (current == JavaTokenType.COMMA) position++
+                }
+                JavaTokenType.SEMICOLON -> {
+                    position++
+                    return
+                }
+                JavaTokenType.RBRACE -> return
+                else -> throw MalformedSourceException()
+            }
+        }
+    }
+
+    private fun addMethod(start: Int, parametersStart: Int, end: Int, className: String?, members: MutableMap<String, Long>) {
+        val nameToken = tokens.getOrNull(parametersStart - 1)
+        if (nameToken?.type != JavaTokenType.IDENTIFIER) throw MalformedSourceException()
+        val name = if (nameToken.text == className) CONSTRUCTORS else nameToken.text
+        addMemberHash(members, name, hash(listOf(text(start, end))))
+    }
+
+    // Parses the rest of a field declaration, possibly declaring several variables, e.g. `Type a, b[] = ..., c;`
+    private fun parseField(start: Int, isInterface: Boolean, members: MutableMap<String, Long>) {
+        skipInitializer()
+        val end = position++
+
+        val declaration = tokens.subList(start, end)
+        val firstInitializer = declaration.indexOfFirst { it.type == JavaTokenType.EQ }.takeIf { it >= 0 } ?: declaration.size
+        // Values of constants are inlined to the code which uses them
+        val isConstant = isInterface || declaration.subList(0, firstInitializer).any { it.type == JavaTokenType.FINAL_KEYWORD }
+
+        val hash = hash(listOf(if (isConstant) text(start, end) else textWithoutInitializers(start, end)))
+        for (name in fieldNames(start, end)) {
+            addMemberHash(members, name, hash)
+        }
+    }
+
+    // Identifiers which follow a type or a comma and precede an initializer, a comma or the end of the declaration.
+    // Some names in type arguments may also be included, which only makes the changes more conservative
+    private fun fieldNames(start: Int, end: Int): List<String> {
+        val result = ArrayList<String>()
+        var depth = 0
+        for (i in start until end) {
+            val type = tokens[i].type
+            when (type) {
+                JavaTokenType.LPARENTH, JavaTokenType.LBRACE -> depth++
+                JavaTokenType.RPARENTH, JavaTokenType.RBRACE -> depth--
+                JavaTokenType.IDENTIFIER -> {
+                    if (depth == 0 && i > start && tokens[i - 1].type.canPrecedeVariableName() && endsDeclarator(i + 1, end)) {
+                        result.add(tokens[i].text)
+                    }
+                }
+            }
+        }
+        return result
+    }
+
+    private fun IElementType.canPrecedeVariableName(): Boolean =
+            this == JavaTokenType.IDENTIFIER || this == JavaTokenType.COMMA || this == JavaTokenType.RBRACKET ||
+            this == JavaTokenType.GT || this == JavaTokenType.GTGT || this == JavaTokenType.GTGTGT ||
+            this in ElementType.PRIMITIVE_TYPE_BIT_SET
+
+    private fun endsDeclarator(from: Int, end: Int): Boolean {
+        var i = from
+        while (i + 1 < end && tokens[i].type == JavaTokenType.LBRACKET && tokens[i + 1].type == JavaTokenType.RBRACKET) {
+            i += 2
+        }
+        return i == end || tokens[i].type == JavaTokenType.EQ || tokens[i].type == JavaTokenType.COMMA
+    }
+
+    private fun textWithoutInitializers(start: Int, end: Int): String {
+        val result = ArrayList<String>()
+        var depth = 0
+        var inInitializer = false
+        for (token in tokens.subList(start, end)) {
+            when (token.type) {
+                JavaTokenType.LPARENTH, JavaTokenType.LBRACE -> depth++
+                JavaTokenType.RPARENTH, JavaTokenType.RBRACE -> depth--
+                JavaTokenType.EQ -> if (depth == 0) inInitializer = true
+                JavaTokenType.COMMA -> if (depth == 0) inInitializer = false
+            }
+            if (!inInitializer) result.add(token.text)
+        }
+        return result.joinToString(" ")
+    }
+
+    private fun addMemberHash(members: MutableMap<String, Long>, name: String, hash: Long) {
+        // Overloads are combined regardless of their order in the file
+        members[name] = (members[name] ?: 0L) + hash
+    }
+
+    private fun skipAnnotation() {
+        position++ // AT
+        while (current == JavaTokenType.IDENTIFIER || current == JavaTokenType.DOT) {
+            position++
+        }
+        if (current == JavaTokenType.LPARENTH) {
+            skipBalanced(JavaTokenType.LPARENTH, JavaTokenType.RPARENTH)
+        }
+    }
+
+    // Skips the rest of a field declaration up to its semicolon, the braces of array initializers and anonymous classes are balanced
+    private fun skipInitializer() {
+        while (current != JavaTokenType.SEMICOLON) {
+            when (current) {
+                null, JavaTokenType.RBRACE, JavaTokenType.RPARENTH -> throw MalformedSourceException()
+                JavaTokenType.LBRACE -> skipBalanced(JavaTokenType.LBRACE, JavaTokenType.RBRACE)
+                JavaTokenType.LPARENTH -> skipBalanced(JavaTokenType.LPARENTH, JavaTokenType.RPARENTH)
+                else -> position++
+            }
+        }
+    }
+
+    private fun skipBalanced(open: IElementType, close: IElementType) {
+        var depth = 0
+        do {
+            when (current) {
+                null -> throw MalformedSourceException()
+                open -> depth++
+                close -> depth--
+            }
+            position++
+        }
+        while (depth > 0)
+    }
+
+    private fun text(start: Int, end: Int): String =
+            tokens.subList(start, end).joinToString(" ") { it.text }
+
+    private fun hash(strings: List<String>): Long {
+        val bytes = strings.joinToString("\n").toByteArray(Charsets.UTF_8)
+        return ByteBuffer.wrap(murmurHash3x64(ByteBuffer.wrap(bytes))).long
+    }
+
+    private companion object {
+        private val CONSTRUCTORS = "<init>"
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.incremental.snapshots
+
+import org.jetbrains.kotlin.incremental.storage.BasicStringMap
+import org.jetbrains.kotlin.incremental.storage.PathStringDescriptor
+import java.io.File
+
+class JavaSourceSignaturesMap(storageFile: File) : BasicStringMap<JavaSourceSignatures>(storageFile, PathStringDescriptor, JavaSourceSignaturesExternalizer) {
+    override fun dumpValue(value: JavaSourceSignatures): String =
+            value.classes.keys.sorted().joinToString(prefix = "[", postfix = "]")
+
+    operator fun get(file: File): JavaSourceSignatures? =
+            storage[file.canonicalPath]
+
+    operator fun set(file: File, signatures: JavaSourceSignatures) {
+        storage[file.canonicalPath] = signatures
+    }
+
+    fun remove(file: File) {
+        storage.remove(file.canonicalPath)
+    }
+}
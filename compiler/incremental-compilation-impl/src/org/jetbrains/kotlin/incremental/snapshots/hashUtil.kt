@@ -17,20 +17,95 @@
 package org.jetbrains.kotlin.incremental.snapshots
 
 import java.io.File
-import java.security.MessageDigest
-
-internal val File.md5: ByteArray
-    get() {
-        val messageDigest = MessageDigest.getInstance("MD5")
-        val buffer = ByteArray(4048)
-        inputStream().use { input ->
-            while (true) {
-                val len = input.read(buffer)
-                if (len < 0) {
-                    break
-                }
-                messageDigest.update(buffer, 0, len)
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+
+// Smaller files are read at once: mapping them costs more than reading, and a mapped file can't be modified on Windows
+// until the mapping is collected
+private const val MIN_MAPPED_FILE_SIZE = 1L shl 20
+
+/**
+ * 128-bit MurmurHash3 (x64 variant) of the file contents
+ */
+internal val File.contentHash: ByteArray
+    get() = FileChannel.open(toPath(), StandardOpenOption.READ).use { channel ->
+        val size = channel.size()
+        val buffer = if (size >= MIN_MAPPED_FILE_SIZE) {
+            channel.map(FileChannel.MapMode.READ_ONLY, 0, size)
+        }
+        else {
+            ByteBuffer.allocate(size.toInt()).apply {
+                while (hasRemaining() && channel.read(this) >= 0) {}
+                flip()
             }
         }
-        return messageDigest.digest()
+        murmurHash3x64(buffer)
+    }
+
+private const val C1 = -0x783c846eeebdac2bL // 0x87c37b91114253d5
+private const val C2 = 0x4cf5ad432745937fL
+
+internal fun murmurHash3x64(data: ByteBuffer, seed: Long = 0): ByteArray {
+    val buffer = data.slice().order(ByteOrder.LITTLE_ENDIAN)
+    val length = buffer.remaining()
+
+    var h1 = seed
+    var h2 = seed
+
+    while (buffer.remaining() >= 16) {
+        h1 = h1 xor mixK1(buffer.long)
+        h1 = java.lang.Long.rotateLeft(h1, 27) + h2
+        h1 = h1 * 5 + 0x52dce729
+
+        h2 = h2 xor mixK2(buffer.long)
+        h2 = java.lang.Long.rotateLeft(h2, 31) + h1
+        h2 = h2 * 5 + 0x38495ab5
     }
+
+    val tailLength = buffer.remaining()
+    if (tailLength > 0) {
+        var k1 = 0L
+        var k2 = 0L
+        for (i in 0 until tailLength) {
+            val byte = buffer.get().toLong() and 0xff
+            if (i < 8) {
+                k1 = k1 or (byte shl (8 * i))
+            }
+            else {
+                k2 = k2 or (byte shl (8 * (i - 8)))
+            }
+        }
+        h1 = h1 xor mixK1(k1)
+        h2 = h2 xor mixK2(k2)
+    }
+
+    h1 = h1 xor length.toLong()
+    h2 = h2 xor length.toLong()
+
+    h1 += h2
+    h2 += h1
+
+    h1 = fmix64(h1)
+    h2 = fmix64(h2)
+
+    h1 += h2
+    h2 += h1
+
+    return ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN).putLong(h1).putLong(h2).array()
+}
+
+private fun mixK1(k: Long): Long = java.lang.Long.rotateLeft(k * C1, 31) * C2
+
+private fun mixK2(k: Long): Long = java.lang.Long.rotateLeft(k * C2, 33) * C1
+
+private fun fmix64(value: Long): Long {
+    var k = value
+    k = k xor (k ushr 33)
+    k *= -0xae502812aa7333L // 0xff51afd7ed558ccd
+    k = k xor (k ushr 33)
+    k *= -0x3b314601e57a13adL // 0xc4ceb9fe1a85ec53
+    k = k xor (k ushr 33)
+    return k
+}
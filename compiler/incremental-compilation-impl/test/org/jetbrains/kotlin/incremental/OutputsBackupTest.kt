@@ -0,0 +1,84 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.incremental
+
+import org.jetbrains.kotlin.TestWithWorkingDir
+import org.jetbrains.kotlin.compilerRunner.OutputItemsCollectorImpl
+import org.junit.Assert.*
+import org.junit.Test
+import java.io.File
+
+class OutputsBackupTest : TestWithWorkingDir() {
+    private val reporter = object : ICReporter {
+        override fun report(message: () -> String) {
+        }
+    }
+
+    @Test
+    fun testRestore() {
+        val output = File(workingDir, "out").apply { mkdirs() }
+        val changed = File(output, "foo/Changed.class").apply { parentFile.mkdirs(); writeText("old changed") }
+        val removed = File(output, "foo/Removed.class").apply { writeText("removed") }
+        val unchanged = File(output, "foo/Unchanged.class").apply { writeText("unchanged") }
+
+        val backupDir = File(workingDir, "backup")
+        val backup = OutputsBackup(backupDir, reporter)
+        backup.moveToBackup(listOf(changed, removed))
+        assertFalse(changed.exists())
+        assertFalse(removed.exists())
+
+        // Outputs of the failed round
+        val added = File(output, "foo/Added.class")
+        val generated = OutputItemsCollectorImpl()
+        backup.trackGeneratedFiles(generated)
+        for (file in listOf(changed, added)) {
+            file.writeText("new")
+            generated.add(emptyList(), file)
+        }
+
+        assertTrue(backup.restore())
+
+        assertEquals("old changed", changed.readText())
+        assertEquals("removed", removed.readText())
+        assertEquals("unchanged", unchanged.readText())
+        assertFalse(added.exists())
+        assertFalse(backupDir.exists())
+    }
+
+    @Test
+    fun testClearAfterCompletedRound() {
+        val output = File(workingDir, "out").apply { mkdirs() }
+        val removed = File(output, "Removed.class").apply { writeText("removed") }
+        val generatedFile = File(output, "Generated.class")
+
+        val backupDir = File(workingDir, "backup")
+        val backup = OutputsBackup(backupDir, reporter)
+        backup.moveToBackup(listOf(removed))
+        val generated = OutputItemsCollectorImpl()
+        backup.trackGeneratedFiles(generated)
+        generatedFile.writeText("generated")
+        generated.add(emptyList(), generatedFile)
+
+        backup.clear()
+        // Nothing is left to roll back once the round is completed
+        assertTrue(backup.restore())
+
+        assertFalse(removed.exists())
+        assertEquals("generated", generatedFile.readText())
+        assertFalse(backupDir.exists())
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.incremental.classpath
+
+import org.jetbrains.kotlin.TestWithWorkingDir
+import org.jetbrains.kotlin.incremental.ChangeInfo
+import org.jetbrains.kotlin.name.FqName
+import org.jetbrains.org.objectweb.asm.ClassWriter
+import org.jetbrains.org.objectweb.asm.Opcodes
+import org.junit.Assert.*
+import org.junit.Test
+import java.io.File
+import java.io.FileOutputStream
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+class ClasspathSnapshotStorageTest : TestWithWorkingDir() {
+    @Test
+    fun testNoSnapshot() {
+        val jar = writeJar(File(workingDir, "lib.jar"), "foo/A" to javaClass("foo/A", methods = listOf("bar")))
+        assertNull(storage().getChanges(jar))
+    }
+
+    @Test
+    fun testMethodBodyChanged() {
+        val jar = File(workingDir, "lib.jar")
+        writeJar(jar, "foo/A" to javaClass("foo/A", methods = listOf("bar"), returnValue = 1))
+        storage().update(listOf(jar))
+
+        writeJar(jar, "foo/A" to javaClass("foo/A", methods = listOf("bar"), returnValue = 2))
+        assertEquals(emptyList<ChangeInfo>(), storage().getChanges(jar))
+    }
+
+    @Test
+    fun testMethodAdded() {
+        val jar = File(workingDir, "lib.jar")
+        writeJar(jar, "foo/A" to javaClass("foo/A", methods = listOf("bar")))
+        storage().update(listOf(jar))
+
+        writeJar(jar, "foo/A" to javaClass("foo/A", methods = listOf("bar", "baz")))
+        val change = storage().getChanges(jar)!!.single() as ChangeInfo.MembersChanged
+        assertEquals(FqName("foo.A"), change.fqName)
+        assertEquals(setOf("baz"), change.names.toSet())
+    }
+
+    @Test
+    fun testPrivateMethodAdded() {
+        val jar = File(workingDir, "lib.jar")
+        writeJar(jar, "foo/A" to javaClass("foo/A", methods = listOf("bar")))
+        storage().update(listOf(jar))
+
+        writeJar(jar, "foo/A" to javaClass("foo/A", methods = listOf("bar"), privateMethods = listOf("baz")))
+        assertEquals(emptyList<ChangeInfo>(), storage().getChanges(jar))
+    }
+
+    @Test
+    fun testAnnotationArgumentChanged() {
+        val jar = File(workingDir, "lib.jar")
+        writeJar(jar, "foo/A" to javaClass("foo/A", methods = listOf("bar"), annotationArgument = 1))
+        storage().update(listOf(jar))
+
+        writeJar(jar, "foo/A" to javaClass("foo/A", methods = listOf("bar"), annotationArgument = 2))
+        val change = storage().getChanges(jar)!!.single() as ChangeInfo.MembersChanged
+        assertEquals(FqName("foo.A"), change.fqName)
+        assertEquals(setOf("bar"), change.names.toSet())
+    }
+
+    @Test
+    fun testAnnotationDefaultChanged() {
+        val jar = File(workingDir, "lib.jar")
+        writeJar(jar, "foo/Ann" to annotationClass("foo/Ann", defaultValue = 1))
+        storage().update(listOf(jar))
+
+        writeJar(jar, "foo/Ann" to annotationClass("foo/Ann", defaultValue = 2))
+        val change = storage().getChanges(jar)!!.single() as ChangeInfo.SignatureChanged
+        assertEquals(FqName("foo.Ann"), change.fqName)
+    }
+
+    @Test
+    fun testSupertypeChanged() {
+        val jar = File(workingDir, "lib.jar")
+        writeJar(jar, "foo/A" to javaClass("foo/A"))
+        storage().update(listOf(jar))
+
+        writeJar(jar, "foo/A" to javaClass("foo/A", superName = "java/lang/Exception"))
+        val change = storage().getChanges(jar)!!.single() as ChangeInfo.SignatureChanged
+        assertEquals(FqName("foo.A"), change.fqName)
+        assertTrue(change.areSubclassesAffected)
+    }
+
+    @Test
+    fun testClassRemoved() {
+        val jar = File(workingDir, "lib.jar")
+        writeJar(jar, "foo/A" to javaClass("foo/A"), "foo/B" to javaClass("foo/B"))
+        storage().update(listOf(jar))
+
+        writeJar(jar, "foo/A" to javaClass("foo/A"))
+        val change = storage().getChanges(jar)!!.single() as ChangeInfo.SignatureChanged
+        assertEquals(FqName("foo.B"), change.fqName)
+    }
+
+    @Test
+    fun testUpdateSavesOnlyChangedJars() {
+        val jar = File(workingDir, "lib.jar")
+        writeJar(jar, "foo/A" to javaClass("foo/A"))
+        storage().update(listOf(jar))
+
+        val snapshotFile = File(workingDir, "snapshots").listFiles().single()
+        val lastModified = snapshotFile.lastModified() - 10000
+        snapshotFile.setLastModified(lastModified)
+
+        storage().update(listOf(jar))
+        assertEquals(lastModified, snapshotFile.lastModified())
+    }
+
+    private fun storage() = ClasspathSnapshotStorage(File(workingDir, "snapshots"))
+
+    private fun writeJar(jar: File, vararg classes: Pair<String, ByteArray>): File {
+        ZipOutputStream(FileOutputStream(jar)).use { zip ->
+            for ((internalName, bytes) in classes) {
+                zip.putNextEntry(ZipEntry("$internalName.class"))
+                zip.write(bytes)
+                zip.closeEntry()
+            }
+        }
+        // The timestamp of the rewritten jar may be the same
+        jar.setLastModified(jar.lastModified() + 2000)
+        return jar
+    }
+
+    private fun javaClass(
+            internalName: String,
+            superName: String = "java/lang/Object",
+            methods: List<String> = emptyList(),
+            privateMethods: List<String> = emptyList(),
+            returnValue: Int = 0,
+            annotationArgument: Int? = null
+    ): ByteArray {
+        val writer = ClassWriter(ClassWriter.COMPUTE_MAXS)
+        writer.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC or Opcodes.ACC_SUPER, internalName, null, superName, null)
+        fun method(name: String, access: Int) {
+            with(writer.visitMethod(access, name, "()I", null, null)) {
+                if (annotationArgument != null) {
+                    with(visitAnnotation("Lfoo/Ann;", true)) {
+                        visit("value", annotationArgument)
+                        visitEnd()
+                    }
+                }
+                visitCode()
+                visitLdcInsn(returnValue)
+                visitInsn(Opcodes.IRETURN)
+                visitMaxs(0, 0)
+                visitEnd()
+            }
+        }
+        methods.forEach { method(it, Opcodes.ACC_PUBLIC) }
+        privateMethods.forEach { method(it, Opcodes.ACC_PRIVATE) }
+        writer.visitEnd()
+        return writer.toByteArray()
+    }
+
+    private fun annotationClass(internalName: String, defaultValue: Int): ByteArray {
+        val writer = ClassWriter(0)
+        val access = Opcodes.ACC_PUBLIC or Opcodes.ACC_ABSTRACT or Opcodes.ACC_INTERFACE or Opcodes.ACC_ANNOTATION
+        writer.visit(Opcodes.V1_6, access, internalName, null, "java/lang/Object", arrayOf("java/lang/annotation/Annotation"))
+        with(writer.visitMethod(Opcodes.ACC_PUBLIC or Opcodes.ACC_ABSTRACT, "value", "()I", null, null)) {
+            with(visitAnnotationDefault()) {
+                visit(null, defaultValue)
+                visitEnd()
+            }
+            visitEnd()
+        }
+        writer.visitEnd()
+        return writer.toByteArray()
+    }
+}
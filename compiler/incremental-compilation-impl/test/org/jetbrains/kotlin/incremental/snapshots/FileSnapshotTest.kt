@@ -67,6 +67,50 @@ class FileSnapshotTest : TestWithWorkingDir() {
         assertNotEquals(oldSnapshot, newSnapshot)
     }
 
+    @Test
+    fun testCachingProviderReusesSnapshotOfUnmodifiedFile() {
+        val file = File(workingDir, "1.txt").apply {
+            writeText("file")
+            setLastModified(System.currentTimeMillis() - 10000)
+        }
+        val oldSnapshot = FileSnapshot(file, file.length(), file.lastModified(), ByteArray(16))
+        val newSnapshot = CachingFileSnapshotProvider(previousSnapshots = { oldSnapshot })[file]
+        assertSame(oldSnapshot, newSnapshot)
+    }
+
+    @Test
+    fun testCachingProviderHashesFileWithDifferentTimestamp() {
+        val file = File(workingDir, "1.txt").apply {
+            writeText("file")
+            setLastModified(System.currentTimeMillis() - 10000)
+        }
+        val oldSnapshot = FileSnapshot(file, file.length(), file.lastModified() - 1000, ByteArray(16))
+        val newSnapshot = CachingFileSnapshotProvider(previousSnapshots = { oldSnapshot })[file]
+        assertEquals(fileSnapshotProvider[file], newSnapshot)
+        assertNotEquals(oldSnapshot, newSnapshot)
+    }
+
+    @Test
+    fun testCachingProviderHashesRecentlyModifiedFile() {
+        val file = File(workingDir, "1.txt").apply { writeText("file") }
+        val oldSnapshot = fileSnapshotProvider[file]
+        assertEquals(FileSnapshot.UNKNOWN_TIMESTAMP, oldSnapshot.lastModified)
+
+        file.writeText("main")
+        val newSnapshot = CachingFileSnapshotProvider(previousSnapshots = { oldSnapshot })[file]
+        assertNotEquals(oldSnapshot, newSnapshot)
+    }
+
+    @Test
+    fun testCachingProviderGetAllInParallel() {
+        val files = (1..100).map { File(workingDir, "$it.txt").apply { writeText("file $it") } }
+        val snapshots = CachingFileSnapshotProvider(previousSnapshots = { null }, threads = 4).getAll(files)
+        assertEquals(files, snapshots.keys.toList())
+        for (file in files) {
+            assertEquals(fileSnapshotProvider[file], snapshots[file])
+        }
+    }
+
     private fun saveAndReadBack(snapshot: FileSnapshot): FileSnapshot {
         val byteOut = ByteArrayOutputStream()
         DataOutputStream(byteOut).use { FileSnapshotExternalizer.save(it, snapshot) }
@@ -0,0 +1,125 @@
+package org.jetbrains.kotlin.incremental.snapshots
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.io.*
+
+class JavaSourceSignaturesTest {
+    private val source = """
+        package foo;
+
+        import java.util.*;
+
+        /** Documentation */
+        public class A<T extends List<String>> extends B {
+            public static final int CONSTANT = 1, OTHER_CONSTANT = 2;
+            private Map<String, Integer> map = new HashMap<>(), otherMap;
+            int[] array = {1, 2}, otherArray[];
+
+            static { init(); }
+
+            public A(int x) { super(x); }
+
+            @SuppressWarnings("unchecked")
+            public <R> R get(@Ann(value = 1) int index) { return (R) map.get(index); }
+            void get() { new Runnable() { public void run() {} }; }
+
+            enum E { ONE(1) { void f() {} }, TWO; E(int x) {} E() {} }
+
+            interface I { int Z = 3; void m(); }
+        }
+    """.trimIndent()
+
+    @Test
+    fun testDeclarations() {
+        val signatures = extract(source)
+        assertEquals(listOf("foo.A", "foo.A.E", "foo.A.I"), signatures.classes.keys.sorted())
+        assertEquals(listOf("CONSTANT", "OTHER_CONSTANT", "array", "get", "map", "otherArray", "otherMap"),
+                     signatures.classes["foo.A"]!!.memberHashes.keys.sorted())
+        assertEquals(listOf("ONE", "TWO"), signatures.classes["foo.A.E"]!!.memberHashes.keys.sorted())
+        assertEquals(listOf("Z", "m"), signatures.classes["foo.A.I"]!!.memberHashes.keys.sorted())
+    }
+
+    @Test
+    fun testBodyChanges() {
+        val changed = source
+                .replace("return (R) map.get(index);", "return null;")
+                .replace("static { init(); }", "static { init(); init(); }")
+                .replace("new HashMap<>()", "new TreeMap<>()")
+                .replace("/** Documentation */", "// Comment")
+        assertEquals(changedDeclarations(source, source), changedDeclarations(source, changed))
+    }
+
+    @Test
+    fun testConstantChanged() {
+        assertEquals(listOf("foo.A.CONSTANT", "foo.A.OTHER_CONSTANT"),
+                     changedDeclarations(source, source.replace("CONSTANT = 1", "CONSTANT = 5")))
+        assertEquals(listOf("foo.A.I.Z"), changedDeclarations(source, source.replace("Z = 3", "Z = 4")))
+    }
+
+    @Test
+    fun testMemberChanged() {
+        assertEquals(listOf("foo.A.get"), changedDeclarations(source, source.replace("int index", "long index")))
+        // Variables declared together share their signature
+        assertEquals(listOf("foo.A.array", "foo.A.otherArray"),
+                     changedDeclarations(source, source.replace("otherArray[]", "otherArray")))
+    }
+
+    @Test
+    fun testHeaderChanged() {
+        assertEquals(listOf("foo.A"), changedDeclarations(source, source.replace("extends B", "extends C")))
+        assertEquals(listOf("foo.A"), changedDeclarations(source, source.replace("public A(int x)", "public A(long x)")))
+        assertEquals(listOf("foo.A.E"), changedDeclarations(source, source.replace("E() {}", "")))
+    }
+
+    @Test
+    fun testImportsChanged() {
+        assertNotEquals(extract(source).importsHash, extract(source.replace("java.util.*", "java.util.List")).importsHash)
+    }
+
+    @Test
+    fun testMalformedSource() {
+        assertNull(JavaSourceSignatures.extract("class A { void f() { }"))
+        assertNull(JavaSourceSignatures.extract("class A { } }"))
+    }
+
+    @Test
+    fun testExternalizer() {
+        val signatures = extract(source)
+
+        val bytes = ByteArrayOutputStream().apply {
+            DataOutputStream(this).use { JavaSourceSignaturesExternalizer.save(it, signatures) }
+        }.toByteArray()
+        val deserialized = DataInputStream(ByteArrayInputStream(bytes)).use { JavaSourceSignaturesExternalizer.read(it) }
+
+        assertEquals(signatures.importsHash, deserialized.importsHash)
+        assertEquals(signatures.classes.keys, deserialized.classes.keys)
+        for ((fqName, classSignatures) in signatures.classes) {
+            assertEquals(classSignatures.headerHash, deserialized.classes[fqName]!!.headerHash)
+            assertEquals(classSignatures.memberHashes, deserialized.classes[fqName]!!.memberHashes)
+        }
+    }
+
+    private fun extract(text: String): JavaSourceSignatures =
+            JavaSourceSignatures.extract(text) ?: throw AssertionError("Could not extract signatures from:\n$text")
+
+    // Classes with a changed header and members with a changed signature
+    private fun changedDeclarations(oldText: String, newText: String): List<String> {
+        val old = extract(oldText)
+        val new = extract(newText)
+        val result = ArrayList<String>()
+        for ((fqName, newClass) in new.classes) {
+            val oldClass = old.classes[fqName]!!
+            if (oldClass.headerHash != newClass.headerHash) {
+                result.add(fqName)
+                continue
+            }
+            for (name in oldClass.memberHashes.keys + newClass.memberHashes.keys) {
+                if (oldClass.memberHashes[name] != newClass.memberHashes[name]) {
+                    result.add("$fqName.$name")
+                }
+            }
+        }
+        return result.sorted()
+    }
+}
@@ -0,0 +1,49 @@
+package org.jetbrains.kotlin.incremental.snapshots
+
+import org.jetbrains.kotlin.TestWithWorkingDir
+import org.junit.Assert.*
+import org.junit.Test
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.*
+
+class MurmurHash3Test : TestWithWorkingDir() {
+    // Hashes of the reference MurmurHash3_x64_128 (h1 and h2), they cover inputs shorter than a block and the tail after the blocks
+    @Test
+    fun testKnownAnswers() {
+        assertHash(0, 0x0L, 0x0L, "")
+        assertHash(0, 0x629942693e10f867L, -0x6d24f47d4514acb9L /* 0x92db0b82baeb5347 */, "hell")
+        assertHash(1, -0x5872200a525172f0L /* 0xa78ddff5adae8d10 */, 0x128900ef20900135L, "hello")
+        assertHash(2, -0x75b794dc0bdd17daL /* 0x8a486b23f422e826 */, -0x69d5d3a76b889a1L /* 0xf962a2c58947765f */, "hello ")
+        assertHash(3, 0x2ea59f466f6bed8cL, -0x39ef66f533bd75e9L /* 0xc610990acc428a17 */, "hello w")
+        assertHash(4, 0x79f6305a386c572cL, 0x46305aed3483b94eL, "hello wo")
+        assertHash(5, -0x3dde62dec13e0e4bL /* 0xc2219d213ec1f1b5 */, -0x5e271d1f5ad87a43L /* 0xa1d8e2e0a52785bd */, "hello wor")
+        assertHash(0, -0x1cb4438443f8e494L /* 0xe34bbc7bbc071b6c */, 0x7a433ca9c49a9347L, "The quick brown fox jumps over the lazy dog")
+        assertHash(0, 0x658ca970ff85269aL, 0x43fee3eaa68e5c3eL, "The quick brown fox jumps over the lazy cog")
+    }
+
+    @Test
+    fun testBufferPosition() {
+        val text = "The quick brown fox jumps over the lazy dog"
+        val buffer = ByteBuffer.wrap("prefix $text".toByteArray())
+        buffer.position("prefix ".length)
+        assertArrayEquals(murmurHash3x64(ByteBuffer.wrap(text.toByteArray())), murmurHash3x64(buffer))
+        assertEquals("prefix ".length, buffer.position())
+    }
+
+    @Test
+    fun testFileContentHash() {
+        // Small files are read, large ones are mapped
+        for (size in listOf(100, 3 shl 20)) {
+            val bytes = ByteArray(size).apply { Random(size.toLong()).nextBytes(this) }
+            val file = File(workingDir, "$size.bin").apply { writeBytes(bytes) }
+            assertArrayEquals(murmurHash3x64(ByteBuffer.wrap(bytes)), file.contentHash)
+        }
+    }
+
+    private fun assertHash(seed: Long, h1: Long, h2: Long, input: String) {
+        val expected = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN).putLong(h1).putLong(h2).array()
+        assertArrayEquals(input, expected, murmurHash3x64(ByteBuffer.wrap(input.toByteArray()), seed))
+    }
+}
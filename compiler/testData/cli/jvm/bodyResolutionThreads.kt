@@ -0,0 +1,14 @@
+package bodyResolutionThreads
+
+class A {
+    fun first(): String {
+        val local = object {
+            fun value() = second()
+        }
+        return local.value()
+    }
+}
+
+fun second() = third().length.toString()
+
+fun third(): String = listOf("a", "b").joinToString { it.toUpperCase() }
@@ -0,0 +1,10 @@
+@file:JvmName("Collections")
+@file:JvmMultifileClass
+package parallelCompilation
+
+inline fun <T, R> Iterable<T>.mapIndexedNotEmpty(transform: (Int, T) -> R): List<R> =
+        mapIndexed(transform).filter { it.toString().isNotEmpty() }
+
+fun <T> List<T>.second(): T = this[1]
+
+val unused = listOf(1, 2, 3).map { x -> x * 2 }.sum()
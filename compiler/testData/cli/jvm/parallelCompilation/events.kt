@@ -0,0 +1,37 @@
+package parallelCompilation
+
+interface Listener {
+    fun onEvent(name: String, payload: Any?)
+}
+
+class EventBus {
+    private val listeners = mutableListOf<Listener>()
+
+    fun subscribe(block: (String) -> Unit): Listener {
+        val listener = object : Listener {
+            override fun onEvent(name: String, payload: Any?) {
+                block(name + ": " + describe(payload))
+            }
+        }
+        listeners += listener
+        return listener
+    }
+
+    fun publish(name: String, payload: Any?) {
+        listeners.forEach { it.onEvent(name, payload) }
+    }
+
+    inner class Counter {
+        var count = 0
+            private set
+
+        fun attach() = subscribe { count++ }
+    }
+
+    companion object {
+        @JvmStatic
+        fun withShapes(vararg shapes: Shape): EventBus = EventBus().apply {
+            shapes.toList().mapIndexedNotEmpty { index, shape -> publish("shape$index", shape.scaled(2.0)) }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package parallelCompilation
+
+import parallelCompilation.Shape.*
+
+class Report(private val bus: EventBus) {
+    private val lines = arrayListOf<String>()
+
+    init {
+        bus.subscribe { lines.add(it) }
+    }
+
+    fun run(): String {
+        val shapes = listOf(Circle(1.0), Rectangle(2.0, 3.0), Empty)
+        shapes.forEachIndexed { index, shape -> bus.publish("shape$index", shape) }
+        bus.publish("total", totalArea(shapes))
+        bus.publish("second", shapes.second())
+        bus.publish("deprecated", deprecatedCaller(41))
+        return lines.joinToString("\n")
+    }
+
+    fun unsafe(text: String?) = text!!.length + text!!.length
+}
+
+fun main(args: Array<String>) {
+    val counter = EventBus.withShapes(Circle(2.0)).Counter()
+    counter.attach()
+    println(Report(EventBus()).run())
+    val lambda: (Int) -> Int = { it -> it + 1 }
+    println(lambda(counter.count))
+}
@@ -0,0 +1,35 @@
+package parallelCompilation
+
+sealed class Shape {
+    abstract fun area(): Double
+
+    data class Circle(val radius: Double) : Shape() {
+        override fun area() = Math.PI * radius * radius
+    }
+
+    data class Rectangle(val width: Double, val height: Double) : Shape() {
+        override fun area() = width * height
+    }
+
+    object Empty : Shape() {
+        override fun area() = 0.0
+    }
+}
+
+fun totalArea(shapes: List<Shape>): Double {
+    var total = 0.0
+    for (shape in shapes) {
+        total += when (shape) {
+            is Shape.Circle -> shape.area()
+            is Shape.Rectangle -> shape.area()
+            Shape.Empty -> 0.0
+        }
+    }
+    return total
+}
+
+fun <T : Shape> T.scaled(factor: Double): Shape = when (this) {
+    is Shape.Circle -> copy(radius = radius * factor)
+    is Shape.Rectangle -> copy(width = width * factor, height = height * factor)
+    else -> this
+}
@@ -0,0 +1,21 @@
+@file:JvmName("Collections")
+@file:JvmMultifileClass
+package parallelCompilation
+
+fun String.shout(): String = toUpperCase() + "!"
+
+fun describe(value: Any?): String = when (value) {
+    null -> "null"
+    is String -> value.shout()
+    is Int -> if (value > 0) "positive" else "not positive"
+    is Shape -> value.area().toString()
+    else -> value.toString()
+}
+
+fun deprecatedCaller(x: Int): Int {
+    val unusedVariable = x
+    return old(x)
+}
+
+@Deprecated("Use new")
+fun old(x: Int) = x + 1
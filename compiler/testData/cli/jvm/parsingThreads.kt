@@ -0,0 +1,5 @@
+package parsingThreads
+
+fun second() = first()
+
+fun first() = "first"
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jetbrains.kotlin.cli.jvm
+
+import org.jetbrains.kotlin.cli.AbstractCliTest
+import org.jetbrains.kotlin.cli.common.ExitCode
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import org.jetbrains.kotlin.test.TestCaseWithTmpdir
+import java.io.File
+import java.util.*
+
+/**
+ * Checks that compiling on several threads produces exactly the same diagnostics and class files as compiling on one thread
+ */
+class ParallelCompilationTest : TestCaseWithTmpdir() {
+    fun testBodyResolutionThreads() {
+        assertSameOutput(listOf("-Xbody-resolution-threads=1"), listOf("-Xbody-resolution-threads=4"))
+    }
+
+    fun testBackendThreads() {
+        // The class files and the module mapping are compared to those of the compilation without the option
+        assertSameOutput(emptyList(), listOf("-Xbackend-threads=4"))
+    }
+
+    private fun assertSameOutput(sequentialArguments: List<String>, parallelArguments: List<String>) {
+        val sequentialOutput = File(tmpdir, "sequential")
+        val parallelOutput = File(tmpdir, "parallel")
+        val sequentialMessages = compile(sequentialOutput, sequentialArguments)
+        val parallelMessages = compile(parallelOutput, parallelArguments)
+
+        assertEquals(sequentialMessages, parallelMessages)
+
+        val sequentialFiles = sequentialOutput.relativeFiles()
+        assertEquals(sequentialFiles.keys, parallelOutput.relativeFiles().keys)
+        for ((path, file) in sequentialFiles) {
+            assertTrue("Output files differ: $path", Arrays.equals(file.readBytes(), File(parallelOutput, path).readBytes()))
+        }
+    }
+
+    private fun compile(destination: File, arguments: List<String>): String {
+        val (output, exitCode) = AbstractCliTest.executeCompilerGrabOutput(
+                K2JVMCompiler(), listOf(SOURCES_DIR, "-d", destination.path) + arguments
+        )
+        assertEquals(output, ExitCode.OK, exitCode)
+        return output
+    }
+
+    private fun File.relativeFiles(): Map<String, File> =
+            walk().filter(File::isFile).associateBy { it.relativeTo(this).path }.toSortedMap()
+
+    companion object {
+        private val SOURCES_DIR = KotlinTestUtils.getTestDataPathBase() + "/cli/jvm/parallelCompilation"
+    }
+}
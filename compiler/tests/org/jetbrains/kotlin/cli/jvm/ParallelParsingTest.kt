@@ -0,0 +1,60 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.cli.jvm
+
+import com.intellij.psi.impl.source.tree.FileElement
+import org.jetbrains.kotlin.cli.jvm.compiler.CompileEnvironmentUtil
+import org.jetbrains.kotlin.cli.jvm.compiler.EnvironmentConfigFiles
+import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
+import org.jetbrains.kotlin.config.addKotlinSourceRoot
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.test.ConfigurationKind
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import org.jetbrains.kotlin.test.TestJdkKind
+import org.jetbrains.kotlin.test.testFramework.KtUsefulTestCase
+import org.jetbrains.kotlin.util.PhaseProfiler
+
+class ParallelParsingTest : KtUsefulTestCase() {
+    fun testFilesAreParsedOnWorkerThreads() {
+        val configuration = KotlinTestUtils.newConfiguration(ConfigurationKind.JDK_ONLY, TestJdkKind.MOCK_JDK)
+        configuration.addKotlinSourceRoot(SOURCES_DIR)
+        val environment = KotlinCoreEnvironment.createForTests(testRootDisposable, configuration, EnvironmentConfigFiles.JVM_CONFIG_FILES)
+
+        val files = environment.getSourceFiles()
+        assertTrue(files.size > 1)
+        assertTrue("Files should not be parsed before parseFiles", files.none(KtFile::isParsed))
+
+        val profiler = PhaseProfiler()
+        PhaseProfiler.profile(profiler) {
+            CompileEnvironmentUtil.parseFiles(files, 4)
+        }
+
+        assertTrue("All files should be parsed", files.all(KtFile::isParsed))
+
+        val parseEvents = profiler.events.filter { it.name == "Parse" }
+        assertEquals(files.map { it.name }.sorted(), parseEvents.map { it.detail }.sortedBy { it })
+        val mainThreadId = Thread.currentThread().id
+        assertTrue("Files should be parsed off the calling thread", parseEvents.none { it.threadId == mainThreadId })
+    }
+
+    private val KtFile.isParsed: Boolean
+        get() = (node as FileElement).isParsed
+
+    companion object {
+        private val SOURCES_DIR = KotlinTestUtils.getTestDataPathBase() + "/cli/jvm/parallelCompilation"
+    }
+}
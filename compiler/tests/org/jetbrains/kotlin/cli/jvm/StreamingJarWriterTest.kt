@@ -0,0 +1,135 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.cli.jvm
+
+import com.intellij.testFramework.UsefulTestCase
+import org.jetbrains.kotlin.backend.common.output.OutputFile
+import org.jetbrains.kotlin.backend.common.output.SimpleOutputBinaryFile
+import org.jetbrains.kotlin.backend.common.output.SimpleOutputFileCollection
+import org.jetbrains.kotlin.cli.jvm.compiler.CompileEnvironmentUtil
+import org.jetbrains.kotlin.cli.jvm.compiler.StreamingJarWriter
+import org.jetbrains.kotlin.name.FqName
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import java.io.File
+import java.io.FileOutputStream
+import java.util.jar.JarFile
+import java.util.jar.JarInputStream
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+class StreamingJarWriterTest : UsefulTestCase() {
+    private lateinit var tmpdir: File
+
+    override fun setUp() {
+        super.setUp()
+        tmpdir = KotlinTestUtils.tmpDirForTest(this)
+    }
+
+    fun testEntriesAndManifest() {
+        val jar = File(tmpdir, "output.jar")
+        StreamingJarWriter(jar, FqName("foo.MainKt")).use { writer ->
+            writer.add(listOf(outputFile("foo/A.class", "A"), outputFile("foo/B.class", "B".repeat(10000))))
+            writer.add(listOf(outputFile("foo/A.class", "duplicate"), outputFile("META-INF/main.kotlin_module", "module")))
+        }
+
+        JarInputStream(jar.inputStream()).use { stream ->
+            assertEquals("foo.MainKt", stream.manifest.mainAttributes.getValue("Main-Class"))
+        }
+
+        JarFile(jar).use { jarFile ->
+            assertEquals(
+                    listOf(JarFile.MANIFEST_NAME, "foo/A.class", "foo/B.class", "META-INF/main.kotlin_module"),
+                    jarFile.entries().toList().map { it.name }
+            )
+            assertEquals("A", jarFile.readText("foo/A.class"))
+            assertEquals("B".repeat(10000), jarFile.readText("foo/B.class"))
+            assertEquals("module", jarFile.readText("META-INF/main.kotlin_module"))
+        }
+    }
+
+    fun testClassesAreCopiedFromOtherJar() {
+        val library = File(tmpdir, "library.jar")
+        ZipOutputStream(FileOutputStream(library)).use { stream ->
+            for ((name, content) in listOf("lib/C.class" to "C".repeat(1000), "lib/readme.txt" to "text", "foo/A.class" to "library A")) {
+                stream.putNextEntry(ZipEntry(name))
+                stream.write(content.toByteArray())
+            }
+            stream.putNextEntry(ZipEntry("lib/Stored.class").apply {
+                method = ZipEntry.STORED
+                size = 6
+                crc = java.util.zip.CRC32().apply { update("Stored".toByteArray()) }.value
+            })
+            stream.write("Stored".toByteArray())
+        }
+
+        val jar = File(tmpdir, "output.jar")
+        StreamingJarWriter(jar, null).use { writer ->
+            writer.add(listOf(outputFile("foo/A.class", "A")))
+            writer.addClassesFromJar(library)
+        }
+
+        JarFile(jar).use { jarFile ->
+            assertEquals(
+                    listOf(JarFile.MANIFEST_NAME, "foo/A.class", "lib/C.class", "lib/Stored.class"),
+                    jarFile.entries().toList().map { it.name }
+            )
+            assertEquals("A", jarFile.readText("foo/A.class"))
+            assertEquals("C".repeat(1000), jarFile.readText("lib/C.class"))
+            assertEquals("Stored", jarFile.readText("lib/Stored.class"))
+        }
+    }
+
+    fun testManyEntries() {
+        val jar = File(tmpdir, "output.jar")
+        val count = 70000
+        StreamingJarWriter(jar, null).use { writer ->
+            writer.add((1..count).map { outputFile("C$it.class", "$it") })
+        }
+
+        JarFile(jar).use { jarFile ->
+            assertEquals(count + 1, jarFile.size())
+            assertEquals("$count", jarFile.readText("C$count.class"))
+        }
+    }
+
+    fun testFailedJarIsDeleted() {
+        val jar = File(tmpdir, "output.jar")
+        val failure = IllegalStateException("Generation failed")
+        val failingFile = object : OutputFile {
+            override val relativePath: String get() = "foo/B.class"
+            override val sourceFiles: List<File> get() = emptyList()
+            override fun asByteArray(): ByteArray = throw failure
+            override fun asText(): String = throw failure
+        }
+
+        val thrown = try {
+            CompileEnvironmentUtil.writeToJar(jar, false, null, SimpleOutputFileCollection(listOf(outputFile("foo/A.class", "A"), failingFile)))
+            null
+        }
+        catch (e: IllegalStateException) {
+            e
+        }
+
+        // The failure of the output isn't replaced by a failure to close the jar
+        assertSame(failure, thrown)
+        assertFalse(jar.exists())
+    }
+
+    private fun outputFile(path: String, content: String) = SimpleOutputBinaryFile(emptyList(), path, content.toByteArray())
+
+    private fun JarFile.readText(name: String): String = getInputStream(getEntry(name)).use { it.reader().readText() }
+}
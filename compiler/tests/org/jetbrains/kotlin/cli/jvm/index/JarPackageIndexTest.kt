@@ -0,0 +1,140 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.cli.jvm.index
+
+import com.intellij.core.CoreJarFileSystem
+import com.intellij.openapi.vfs.StandardFileSystems
+import com.intellij.testFramework.UsefulTestCase
+import org.jetbrains.kotlin.name.ClassId
+import org.jetbrains.kotlin.name.FqName
+import org.jetbrains.kotlin.name.Name
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import java.io.File
+import java.io.FileOutputStream
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+class JarPackageIndexTest : UsefulTestCase() {
+    private lateinit var tmpdir: File
+
+    override fun setUp() {
+        super.setUp()
+        tmpdir = KotlinTestUtils.tmpDirForTest(this)
+    }
+
+    fun testPackagesAndClasses() {
+        val jar = createJar("library.jar", "Root.class", "org/jb/A.class", "org/jb/A\$Nested.class", "org/jb/Outer\$Only.class",
+                            "META-INF/MANIFEST.MF", "empty/")
+        val index = JarPackageIndex.build(jar)
+
+        for (packagePath in listOf("", "org", "org/jb", "META-INF", "empty")) {
+            assertTrue(packagePath, index.hasPackage(packagePath))
+        }
+        assertFalse(index.hasPackage("org/jb/A"))
+        assertFalse(index.hasPackage("com"))
+
+        assertTrue(index.mayContainClassFile("", "Root"))
+        assertTrue(index.mayContainClassFile("org/jb", "A"))
+        assertTrue(index.mayContainClassFile("org/jb", "Outer"))
+        assertTrue(index.mayContainClassFile("org/jb", "Outer\$Only"))
+        assertFalse(index.mayContainClassFile("org/jb", "B"))
+        assertFalse(index.mayContainClassFile("org", "A"))
+        assertFalse(index.mayContainClassFile("com", "A"))
+    }
+
+    fun testStoredIndexIsReused() {
+        val jar = createJar("library.jar", "foo/A.class")
+        val storage = File(tmpdir, "storage")
+
+        assertTrue(JarPackageIndex.Cache(storage).getIndex(jar)!!.mayContainClassFile("foo", "A"))
+        assertEquals(1, storage.listFiles().size)
+
+        // The jar can't be read anymore, but the index is stored for its length and timestamp
+        val length = jar.length()
+        val lastModified = jar.lastModified()
+        jar.writeBytes(ByteArray(length.toInt()))
+        jar.setLastModified(lastModified)
+        assertTrue(JarPackageIndex.Cache(storage).getIndex(jar)!!.mayContainClassFile("foo", "A"))
+
+        jar.setLastModified(lastModified + 10000)
+        assertNull(JarPackageIndex.Cache(storage).getIndex(jar))
+    }
+
+    fun testChangedJarIsIndexedAgain() {
+        val cache = JarPackageIndex.Cache(storageDirectory = null)
+        val jar = createJar("library.jar", "foo/A.class")
+        assertTrue(cache.getIndex(jar)!!.hasPackage("foo"))
+
+        val lastModified = jar.lastModified()
+        createJar("library.jar", "bar/B.class", "bar/C.class")
+        jar.setLastModified(lastModified + 10000)
+        val index = cache.getIndex(jar)!!
+        assertFalse(index.hasPackage("foo"))
+        assertTrue(index.mayContainClassFile("bar", "C"))
+    }
+
+    fun testLeastRecentlyUsedIndexIsEvicted() {
+        val jars = listOf("a.jar", "b.jar", "c.jar").map { createJar(it, "foo/A.class") }
+        val indexSize = JarPackageIndex.build(jars[0]).estimatedSize
+        val cache = JarPackageIndex.Cache(storageDirectory = null, maxSizeInBytes = 2 * indexSize)
+
+        cache.getIndex(jars[0])!!
+        cache.getIndex(jars[1])!!
+        cache.getIndex(jars[0])!!
+        cache.getIndex(jars[2])!!
+
+        // The jars can't be read anymore, so only the indices which are still in memory are returned
+        for (jar in jars) {
+            val lastModified = jar.lastModified()
+            jar.writeBytes(ByteArray(jar.length().toInt()))
+            jar.setLastModified(lastModified)
+        }
+        assertNotNull(cache.getIndex(jars[0]))
+        assertNull(cache.getIndex(jars[1]))
+        assertNotNull(cache.getIndex(jars[2]))
+
+        cache.clear()
+        assertNull(cache.getIndex(jars[0]))
+    }
+
+    fun testDirectoryInsideJarIsNotIndexedAsJar() {
+        val jar = createJar("library.jar", "lib/foo/A.class")
+        val jarRoot = CoreJarFileSystem().findFileByPath(jar.path + StandardFileSystems.JAR_SEPARATOR)!!
+
+        val previousCache = JarPackageIndex.Cache.instance
+        JarPackageIndex.Cache.instance = JarPackageIndex.Cache(storageDirectory = null)
+        try {
+            val index = JvmDependenciesIndexImpl(listOf(JavaRoot(jarRoot.findChild("lib")!!, JavaRoot.RootType.BINARY)))
+            val classId = ClassId(FqName("foo"), Name.identifier("A"))
+            assertNotNull(index.findClass(classId) { dir, _ -> dir.findChild("A.class") })
+        }
+        finally {
+            JarPackageIndex.Cache.instance = previousCache
+        }
+    }
+
+    private fun createJar(name: String, vararg entries: String): File {
+        val jar = File(tmpdir, name)
+        ZipOutputStream(FileOutputStream(jar)).use { stream ->
+            for (entry in entries) {
+                stream.putNextEntry(ZipEntry(entry))
+                stream.closeEntry()
+            }
+        }
+        return jar
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.daemon
+
+import junit.framework.TestCase
+import org.jetbrains.kotlin.daemon.client.CallbackChannelServer
+import org.jetbrains.kotlin.daemon.common.RegisteredInline
+import org.jetbrains.kotlin.incremental.components.LookupTracker
+import org.jetbrains.kotlin.load.kotlin.incremental.components.IncrementalCache
+import org.jetbrains.kotlin.load.kotlin.incremental.components.IncrementalCompilationComponents
+import org.jetbrains.kotlin.load.kotlin.incremental.components.JvmPackagePartProto
+import org.jetbrains.kotlin.modules.TargetId
+
+class CallbackChannelTest : TestCase() {
+    private val target = TargetId("main", "java-production")
+    private val otherTarget = TargetId("test", "java-test")
+
+    private val caches = hashMapOf(target to Cache(), otherTarget to Cache())
+    private val fallback = FallbackTransport()
+    private lateinit var transport: CallbackChannelTransport
+
+    override fun setUp() {
+        super.setUp()
+        val server = CallbackChannelServer(object : IncrementalCompilationComponents {
+            override fun getIncrementalCache(target: TargetId): IncrementalCache = caches[target]!!
+
+            override fun getLookupTracker(): LookupTracker = LookupTracker.DO_NOTHING
+        })
+        transport = CallbackChannelTransport(server.address, fallback)
+    }
+
+    override fun tearDown() {
+        transport.close()
+        super.tearDown()
+    }
+
+    fun testQueries() {
+        assertEquals(listOf("a/PartKt"), transport.getObsoletePackageParts(target))
+        assertEquals(emptyList<String>(), transport.getObsoleteMultifileClasses(target))
+        assertEquals(listOf("a/Facade__PartKt"), transport.getMultifileFacadeParts(target, "a/Facade"))
+        assertNull(transport.getMultifileFacadeParts(target, "a/Other"))
+
+        val proto = transport.getPackagePartData(target, "a/PartKt")!!
+        assertEquals(listOf<Byte>(1, 2, 3), proto.data.asList())
+        assertEquals(listOf("foo", "фу"), proto.strings.asList())
+        assertNull(transport.getPackagePartData(target, "a/OtherKt"))
+
+        assertNull(transport.getModuleMappingData(target))
+        caches[otherTarget]!!.moduleMapping = byteArrayOf(4, 5)
+        assertEquals(listOf<Byte>(4, 5), transport.getModuleMappingData(otherTarget)!!.asList())
+
+        assertEquals("/out/a/A.class", transport.getClassFilePath(target, "a/A"))
+        assertEquals(emptyList<String>(), fallback.calls)
+    }
+
+    fun testCallsWithoutResultAreBatched() {
+        transport.registerInlines(target, listOf(RegisteredInline("a/A", "f()V", "b/B"), RegisteredInline("a/A", "g()V", "c/C")))
+        transport.close(target)
+        assertEquals(emptyList<String>(), caches[target]!!.calls)
+
+        transport.getClassFilePath(otherTarget, "a/A")
+        assertEquals(listOf("registerInline a/A f()V b/B", "registerInline a/A g()V c/C", "close"), caches[target]!!.calls)
+
+        transport.registerInlines(otherTarget, listOf(RegisteredInline("a/A", "f()V", "d/D")))
+        transport.close()
+        assertEquals(listOf("getClassFilePath a/A", "registerInline a/A f()V d/D"), caches[otherTarget]!!.calls)
+        assertEquals(emptyList<String>(), fallback.calls)
+    }
+
+    fun testFailureInClient() {
+        try {
+            transport.getClassFilePath(target, "fail")
+            fail("The failure should be reported by the call")
+        }
+        catch (e: IllegalStateException) {
+            assertTrue(e.message!!, e.message!!.contains("Cannot find fail"))
+        }
+        // The channel is still usable
+        assertEquals("/out/a/A.class", transport.getClassFilePath(target, "a/A"))
+        assertEquals(emptyList<String>(), fallback.calls)
+    }
+
+    fun testFallbackAfterClose() {
+        transport.close()
+        assertEquals("/fallback/a/A.class", transport.getClassFilePath(target, "a/A"))
+        transport.close(target)
+        assertEquals(listOf("getClassFilePath a/A", "close"), fallback.calls)
+    }
+
+    private class Cache : IncrementalCache {
+        val calls = arrayListOf<String>()
+        var moduleMapping: ByteArray? = null
+
+        override fun getObsoletePackageParts(): Collection<String> = listOf("a/PartKt")
+
+        override fun getObsoleteMultifileClasses(): Collection<String> = emptyList()
+
+        override fun getStableMultifileFacadeParts(facadeInternalName: String): Collection<String>? =
+                if (facadeInternalName == "a/Facade") listOf("a/Facade__PartKt") else null
+
+        override fun getPackagePartData(partInternalName: String): JvmPackagePartProto? =
+                if (partInternalName == "a/PartKt") JvmPackagePartProto(byteArrayOf(1, 2, 3), arrayOf("foo", "фу")) else null
+
+        override fun getModuleMappingData(): ByteArray? = moduleMapping
+
+        override fun registerInline(fromPath: String, jvmSignature: String, toPath: String) {
+            calls.add("registerInline $fromPath $jvmSignature $toPath")
+        }
+
+        override fun getClassFilePath(internalClassName: String): String {
+            if (internalClassName == "fail") throw IllegalArgumentException("Cannot find $internalClassName")
+            calls.add("getClassFilePath $internalClassName")
+            return "/out/$internalClassName.class"
+        }
+
+        override fun close() {
+            calls.add("close")
+        }
+    }
+
+    private class FallbackTransport : IncrementalCacheTransport {
+        val calls = arrayListOf<String>()
+
+        override fun getObsoletePackageParts(target: TargetId): Collection<String> = throw UnsupportedOperationException()
+
+        override fun getObsoleteMultifileClasses(target: TargetId): Collection<String> = throw UnsupportedOperationException()
+
+        override fun getMultifileFacadeParts(target: TargetId, internalName: String): Collection<String>? =
+                throw UnsupportedOperationException()
+
+        override fun getPackagePartData(target: TargetId, partInternalName: String): JvmPackagePartProto? =
+                throw UnsupportedOperationException()
+
+        override fun getModuleMappingData(target: TargetId): ByteArray? = throw UnsupportedOperationException()
+
+        override fun getClassFilePath(target: TargetId, internalClassName: String): String {
+            calls.add("getClassFilePath $internalClassName")
+            return "/fallback/$internalClassName.class"
+        }
+
+        override fun registerInlines(target: TargetId, inlines: Collection<RegisteredInline>) {
+            calls.add("registerInlines")
+        }
+
+        override fun close(target: TargetId) {
+            calls.add("close")
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.daemon
+
+import junit.framework.TestCase
+import org.jetbrains.kotlin.daemon.common.LookupsChunk
+import org.jetbrains.kotlin.incremental.components.LookupInfo
+import org.jetbrains.kotlin.incremental.components.LookupTracker
+import org.jetbrains.kotlin.incremental.components.Position
+import org.jetbrains.kotlin.incremental.components.ScopeKind
+
+class LookupsChunkTest : TestCase() {
+    private val lookups = listOf(
+            LookupInfo("/src/a.kt", Position(1, 5), "foo", ScopeKind.PACKAGE, "bar"),
+            LookupInfo("/src/a.kt", Position(200, 1000), "foo.A", ScopeKind.CLASSIFIER, "foo"),
+            LookupInfo("/src/b.kt", Position.NO_POSITION, "", ScopeKind.PACKAGE, "foo"),
+            LookupInfo("/src/b.kt", Position(0, 0), "foo.A", ScopeKind.CLASSIFIER, "фу")
+    )
+
+    fun testWithPositions() {
+        assertEquals(lookups.toSet(), decode(LookupsChunk.encode(lookups, withPositions = true)))
+    }
+
+    fun testWithoutPositions() {
+        val expected = lookups.map { it.copy(position = Position.NO_POSITION) }.toSet()
+        assertEquals(expected, decode(LookupsChunk.encode(lookups, withPositions = false)))
+    }
+
+    fun testManyStrings() {
+        val manyLookups = (0 until 1000).map { LookupInfo("/src/$it.kt", Position(it, it * 1000), "p$it", ScopeKind.PACKAGE, "n$it") }
+        assertEquals(manyLookups.toSet(), decode(LookupsChunk.encode(manyLookups, withPositions = true)))
+    }
+
+    fun testAllScopeKinds() {
+        val allKinds = ScopeKind.values().map { LookupInfo("/src/a.kt", Position(1, 1), "foo", it, "bar") }
+        assertEquals(allKinds.toSet(), decode(LookupsChunk.encode(allKinds, withPositions = true)))
+    }
+
+    private fun decode(chunk: ByteArray): Set<LookupInfo> {
+        val result = hashSetOf<LookupInfo>()
+        LookupsChunk.decode(chunk, object : LookupTracker {
+            override val requiresPosition: Boolean
+                get() = true
+
+            override fun record(filePath: String, position: Position, scopeFqName: String, scopeKind: ScopeKind, name: String) {
+                result.add(LookupInfo(filePath, position, scopeFqName, scopeKind, name))
+            }
+        })
+        return result
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.parsing
+
+import com.intellij.openapi.progress.EmptyProgressIndicator
+import com.intellij.openapi.util.TextRange
+import com.intellij.psi.impl.DebugUtil
+import com.intellij.psi.impl.source.text.BlockSupportImpl
+import com.intellij.psi.impl.source.tree.LazyParseableElement
+import org.jetbrains.kotlin.psi.KtBlockExpression
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.psi.KtIfExpression
+import org.jetbrains.kotlin.psi.KtLambdaExpression
+import org.jetbrains.kotlin.psi.KtNamedFunction
+import org.jetbrains.kotlin.resolve.AnalyzingUtils
+import org.jetbrains.kotlin.script.KotlinScriptDefinitionProvider
+import org.jetbrains.kotlin.test.testFramework.KtParsingTestCase
+
+/**
+ * Checks that function bodies are collapsed by the parser and that their lazily parsed and reparsed trees are the same as
+ * those of a full parse
+ */
+class LazyBlockParsingTest : KtParsingTestCase(".", "kt", KotlinParserDefinition()) {
+    override fun setUp() {
+        super.setUp()
+        project.registerService(KotlinScriptDefinitionProvider::class.java)
+    }
+
+    fun testBodyIsCollapsed() {
+        val file = parse("fun f() {\n    val a = 1\n    if (a > 0) { println(a) }\n}\n\nfun g() = 2\n")
+
+        assertEquals(listOf("f", "g"), file.declarations.map { it.name })
+        val body = file.function("f").bodyExpression as KtBlockExpression
+        assertFalse(body.isParsed)
+
+        assertEquals(2, body.statements.size)
+        assertTrue(body.isParsed)
+        assertNoSyntaxErrors(file)
+        ensureCorrectReparse(file)
+    }
+
+    fun testBodyWithStringTemplates() {
+        val file = parse("fun f() {\n    val s = \"}\${ \"{\" + \"}\" }{\"\n    val t = \"\"\"{ \${s.length} }\"\"\"\n}\n\nfun g() {}\n")
+
+        assertEquals(listOf("f", "g"), file.declarations.map { it.name })
+        val body = file.function("f").bodyExpression as KtBlockExpression
+        assertFalse(body.isParsed)
+        assertTrue(body.text.endsWith("}\"\"\"\n}"))
+
+        assertEquals(2, body.statements.size)
+        assertNoSyntaxErrors(file)
+        ensureCorrectReparse(file)
+    }
+
+    fun testUnclosedBody() {
+        val file = parse("fun f() {\n    if (true) {\n    }\n\nfun g() {}\n")
+
+        // The body of f takes the rest of the file, as when it's parsed eagerly
+        assertEquals(listOf("f"), file.declarations.map { it.name })
+        val body = file.function("f").bodyExpression as KtBlockExpression
+        assertFalse(body.isParsed)
+
+        assertEquals(listOf("Expecting '}'"), AnalyzingUtils.getSyntaxErrorRanges(file).map { it.errorDescription })
+        ensureCorrectReparse(file)
+    }
+
+    fun testExtraClosingBrace() {
+        val file = parse("fun f() {\n    val a = 1\n}\n}\n\nfun g() {}\n")
+
+        assertEquals(listOf("f", "g"), file.declarations.map { it.name })
+        assertEquals(1, AnalyzingUtils.getSyntaxErrorRanges(file).size)
+        ensureCorrectReparse(file)
+    }
+
+    fun testReparseInsideBody() {
+        val file = parse("fun f() {\n    val a = 1\n}\n\nfun g() {}\n")
+        val function = file.function("f")
+        function.bodyExpression!!.node.firstChildNode
+
+        reparse(file, "fun f() {\n    val a = \"\${1}\"\n    val b = 2\n}\n\nfun g() {}\n")
+
+        // Only the body is reparsed when its braces are balanced
+        assertSame(function, file.function("f"))
+        assertEquals(2, (function.bodyExpression as KtBlockExpression).statements.size)
+        assertSameTreeAsFullParse(file)
+    }
+
+    fun testReparseUnbalancingBody() {
+        val file = parse("fun f() {\n    if (true) {\n    }\n}\n\nfun g() {}\n")
+        file.function("f").bodyExpression!!.node.firstChildNode
+
+        reparse(file, "fun f() {\n    if (true) {\n    \n}\n\nfun g() {}\n")
+
+        assertEquals(listOf("f"), file.declarations.map { it.name })
+        assertSameTreeAsFullParse(file)
+    }
+
+    fun testReparseBalancingBody() {
+        val file = parse("fun f() {\n    if (true) {\n    \n}\n\nfun g() {}\n")
+
+        reparse(file, "fun f() {\n    if (true) {\n    }\n}\n\nfun g() {}\n")
+
+        assertEquals(listOf("f", "g"), file.declarations.map { it.name })
+        assertSameTreeAsFullParse(file)
+    }
+
+    fun testReparseIfBodyIntoLambda() {
+        val file = parse("fun f() {\n    if (true) {\n        g()\n    }\n}\n\nfun g() {}\n")
+        val body = file.function("f").bodyExpression as KtBlockExpression
+        // Expand the if body too, so that the reparse starts from it
+        assertNotNull((body.statements.single() as KtIfExpression).then!!.node.firstChildNode)
+
+        reparse(file, "fun f() {\n    if (true) {\n        x -> g()\n    }\n}\n\nfun g() {}\n")
+
+        // A full parse makes a lambda of the if body with a parameter, so it can't be reparsed as a block
+        val then = ((file.function("f").bodyExpression as KtBlockExpression).statements.single() as KtIfExpression).then
+        assertTrue(then is KtLambdaExpression)
+        assertSameTreeAsFullParse(file)
+    }
+
+    fun testReparseArrowInBody() {
+        val file = parse("fun f() {\n    g()\n}\n\nfun g() {}\n")
+        file.function("f").bodyExpression!!.node.firstChildNode
+
+        reparse(file, "fun f() {\n    x -> g()\n}\n\nfun g() {}\n")
+
+        assertSameTreeAsFullParse(file)
+    }
+
+    private fun parse(text: String): KtFile = createPsiFile("a", text) as KtFile
+
+    private fun reparse(file: KtFile, newText: String) {
+        val oldText = file.text
+        val prefix = oldText.commonPrefixWith(newText).length
+        val suffix = minOf(oldText.commonSuffixWith(newText).length, oldText.length - prefix)
+        val changedRange = TextRange(prefix, oldText.length - suffix)
+
+        BlockSupportImpl(project).reparseRange(file, file.node, changedRange, newText, EmptyProgressIndicator(), oldText)
+                .performActualPsiChange(file)
+
+        assertEquals(newText, file.text)
+    }
+
+    private fun assertSameTreeAsFullParse(file: KtFile) {
+        assertEquals(DebugUtil.psiToString(parse(file.text), false, false), DebugUtil.psiToString(file, false, false))
+    }
+
+    private fun assertNoSyntaxErrors(file: KtFile) {
+        assertEquals(emptyList<String>(), AnalyzingUtils.getSyntaxErrorRanges(file).map { it.errorDescription })
+    }
+
+    private fun KtFile.function(name: String): KtNamedFunction =
+            declarations.filterIsInstance<KtNamedFunction>().single { it.name == name }
+
+    private val KtBlockExpression.isParsed: Boolean
+        get() = (node as LazyParseableElement).isParsed
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ConcurrentStorageManagerTest extends StorageManagerTest {
+    private static final int THREADS = 8;
+    private static final long TIMEOUT_SECONDS = 30;
+
+    @Override
+    protected StorageManager createStorageManager() {
+        return new ConcurrentStorageManager();
+    }
+
+    public void testLazyValueComputedOnceInManyThreads() throws Exception {
+        AtomicInteger counter = new AtomicInteger();
+        NotNullLazyValue<Object> value = m.createLazyValue(() -> {
+            counter.incrementAndGet();
+            sleep();
+            return new Object();
+        });
+
+        List<Object> results = runInThreads(THREADS, value::invoke);
+        assertEquals(1, counter.get());
+        for (Object result : results) {
+            assertSame(results.get(0), result);
+        }
+    }
+
+    public void testMemoizedFunctionComputedOnceInManyThreads() throws Exception {
+        AtomicInteger counter = new AtomicInteger();
+        MemoizedFunctionToNotNull<Integer, Object> f = m.createMemoizedFunction(key -> {
+            counter.incrementAndGet();
+            sleep();
+            return new Object();
+        });
+
+        List<Object> results = runInThreads(THREADS, () -> f.invoke(42));
+        assertEquals(1, counter.get());
+        for (Object result : results) {
+            assertSame(results.get(0), result);
+        }
+    }
+
+    public void testDifferentValuesAreComputedInParallel() throws Exception {
+        // Each computation waits for the other one to start, so they can't be executed one by one
+        CyclicBarrier barrier = new CyclicBarrier(2);
+        MemoizedFunctionToNotNull<Integer, Integer> f = m.createMemoizedFunction(key -> {
+            await(barrier);
+            return key;
+        });
+
+        List<Integer> results = runInThreads(2, new Callable<Integer>() {
+            private final AtomicInteger key = new AtomicInteger();
+
+            @Override
+            public Integer call() {
+                return f.invoke(key.incrementAndGet());
+            }
+        });
+        assertEquals(3, results.get(0) + results.get(1));
+    }
+
+    public void testCycleBetweenThreadsIsRecursion() throws Exception {
+        CyclicBarrier barrier = new CyclicBarrier(2);
+        class C {
+            NotNullLazyValue<String> a = m.createRecursionTolerantLazyValue(() -> {
+                await(barrier);
+                return "a(" + this.b.invoke() + ")";
+            }, "a");
+
+            NotNullLazyValue<String> b = m.createRecursionTolerantLazyValue(() -> {
+                await(barrier);
+                return "b(" + a.invoke() + ")";
+            }, "b");
+        }
+
+        C c = new C();
+        List<String> results = runInThreads(Arrays.<Callable<String>>asList(c.a::invoke, c.b::invoke));
+
+        // The thread which has detected the cycle uses the value for a recursive call
+        assertTrue(results.toString(), results.contains("a(b(a))") || results.contains("b(a(b))"));
+        assertEquals(results.get(0), c.a.invoke());
+        assertEquals(results.get(1), c.b.invoke());
+    }
+
+    private static <T> List<T> runInThreads(int threads, Callable<T> task) throws Exception {
+        return runInThreads(Collections.nCopies(threads, task));
+    }
+
+    private static <T> List<T> runInThreads(List<Callable<T>> tasks) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+        try {
+            List<Future<T>> futures = new ArrayList<>();
+            for (Callable<T> task : tasks) {
+                futures.add(executor.submit(task));
+            }
+
+            List<T> results = new ArrayList<>();
+            for (Future<T> future : futures) {
+                results.add(future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            }
+            return results;
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException | BrokenBarrierException | TimeoutException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(50);
+        }
+        catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
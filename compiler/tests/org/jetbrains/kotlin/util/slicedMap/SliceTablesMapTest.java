@@ -0,0 +1,109 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.util.slicedMap;
+
+import com.google.common.collect.ImmutableMap;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class SliceTablesMapTest extends TestCase {
+    private final WritableSlice<String, Integer> LENGTH = Slices.<String, Integer>sliceBuilder().setDebugName("LENGTH").build();
+    private final WritableSlice<String, String> UPPER = Slices.<String, String>sliceBuilder().setDebugName("UPPER").build();
+    private final WritableSlice<String, Boolean> USED = Slices.createCollectiveSetSlice();
+
+    private final SliceTablesMap map = SliceTablesMap.create();
+
+    public void testSlicesAreSeparate() {
+        map.put(LENGTH, "a", 1);
+        map.put(UPPER, "a", "A");
+        map.put(LENGTH, "bb", 2);
+
+        assertEquals(1, (int) map.get(LENGTH, "a"));
+        assertEquals(2, (int) map.get(LENGTH, "bb"));
+        assertEquals("A", map.get(UPPER, "a"));
+        assertNull(map.get(UPPER, "bb"));
+
+        assertEquals(ImmutableMap.of("a", 1, "bb", 2), map.getSliceContents(LENGTH));
+        assertEquals(ImmutableMap.of("a", "A"), map.getSliceContents(UPPER));
+        assertTrue(map.getSliceContents(USED).isEmpty());
+    }
+
+    public void testForEachVisitsEntriesInOrderOfPut() {
+        map.put(UPPER, "a", "A");
+        map.put(LENGTH, "a", 1);
+        map.put(UPPER, "b", "B");
+        map.put(UPPER, "a", "AA");
+
+        assertEquals(Arrays.asList(UPPER + ":a=AA", LENGTH + ":a=1", UPPER + ":b=B"), visitAll());
+    }
+
+    public void testForEachSkipsRemovedEntries() {
+        map.put(UPPER, "a", "A");
+        map.put(LENGTH, "a", 1);
+        map.put(UPPER, "b", "B");
+        map.put(UPPER, "a", null);
+        map.put(LENGTH, "b", 2);
+        map.put(UPPER, "a", "A");
+
+        assertEquals(Arrays.asList(LENGTH + ":a=1", UPPER + ":b=B", LENGTH + ":b=2", UPPER + ":a=A"), visitAll());
+    }
+
+    public void testNullValueRemovesEntry() {
+        map.put(LENGTH, "a", 1);
+        map.put(LENGTH, "a", null);
+
+        assertNull(map.get(LENGTH, "a"));
+        assertTrue(map.getSliceContents(LENGTH).isEmpty());
+    }
+
+    public void testCollectiveSliceKeys() {
+        map.put(USED, "a", true);
+        map.put(USED, "b", true);
+
+        assertEquals(Arrays.asList("a", "b"), new ArrayList<>(map.getKeys(USED)));
+        assertTrue(map.get(USED, "a"));
+        assertFalse(map.get(USED, "c"));
+
+        map.clear();
+        assertTrue(map.getKeys(USED).isEmpty());
+        assertFalse(map.get(USED, "a"));
+    }
+
+    public void testFurtherSlices() {
+        @SuppressWarnings("unchecked")
+        WritableSlice<String, Object> OBJECT = Slices.<String, Object>sliceBuilder()
+                .setFurtherLookupSlices(new ReadOnlySlice[] {LENGTH})
+                .setDebugName("OBJECT").build();
+
+        map.put(LENGTH, "a", 1);
+
+        assertEquals(1, map.get(OBJECT, "a"));
+        assertNull(map.get(OBJECT, "b"));
+    }
+
+    private List<String> visitAll() {
+        List<String> visited = new ArrayList<>();
+        map.forEach((slice, key, value) -> {
+            visited.add(slice + ":" + key + "=" + value);
+            return null;
+        });
+        return visited;
+    }
+}
@@ -20,11 +20,16 @@ import org.jetbrains.kotlin.name.ClassId
 import org.jetbrains.kotlin.name.FqName
 import org.jetbrains.kotlin.name.Name
 import org.jetbrains.kotlin.serialization.deserialization.NameResolver
+import org.jetbrains.kotlin.serialization.deserialization.NameResolverImpl
 import org.jetbrains.kotlin.serialization.jvm.JvmProtoBuf
 import org.jetbrains.kotlin.serialization.jvm.JvmProtoBuf.StringTableTypes.Record
 import org.jetbrains.kotlin.serialization.jvm.JvmProtoBuf.StringTableTypes.Record.Operation.*
 import java.util.*
 
+/**
+ * Strings, names and class ids are decoded once per index and memoized, like in [NameResolverImpl]. Racing threads may decode
+ * the same index twice, which is fine because all the decoded values are immutable.
+ */
 class JvmNameResolver(
         private val types: JvmProtoBuf.StringTableTypes,
         private val strings: Array<String>
@@ -43,7 +48,14 @@ class JvmNameResolver(
         this.trimToSize()
     }
 
-    override fun getString(index: Int): String {
+    private val decodedStrings = arrayOfNulls<String>(records.size)
+    private val names = arrayOfNulls<Name>(records.size)
+    private val classIds = arrayOfNulls<ClassId>(records.size)
+
+    override fun getString(index: Int): String =
+            decodedStrings[index] ?: decodeString(index).also { decodedStrings[index] = it }
+
+    private fun decodeString(index: Int): String {
         val record = records[index]
 
         var string = when {
@@ -83,9 +95,13 @@ class JvmNameResolver(
         return string
     }
 
-    override fun getName(index: Int) = Name.guessByFirstCharacter(getString(index))
+    override fun getName(index: Int): Name =
+            names[index] ?: Name.guessByFirstCharacter(getString(index)).also { names[index] = it }
+
+    override fun getClassId(index: Int): ClassId =
+            classIds[index] ?: computeClassId(index).also { classIds[index] = it }
 
-    override fun getClassId(index: Int): ClassId {
+    private fun computeClassId(index: Int): ClassId {
         val string = getString(index)
         val lastSlash = string.lastIndexOf('/')
         val packageName =
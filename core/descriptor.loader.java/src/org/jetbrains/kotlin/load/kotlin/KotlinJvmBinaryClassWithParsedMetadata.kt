@@ -0,0 +1,28 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.load.kotlin
+
+/**
+ * A binary class which can keep the metadata parsed from its header, e.g. to share it between the compilations which read
+ * the same class file. The parsed metadata is immutable, so it can be used by several threads.
+ */
+interface KotlinJvmBinaryClassWithParsedMetadata : KotlinJvmBinaryClass {
+    /**
+     * Returns the metadata parsed from the header of this class by [parse] earlier, or parses it
+     */
+    fun <T : Any> getOrParseMetadata(parse: () -> T): T
+}
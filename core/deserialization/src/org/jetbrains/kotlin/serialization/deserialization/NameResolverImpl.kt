@@ -21,47 +21,51 @@ import org.jetbrains.kotlin.name.FqName
 import org.jetbrains.kotlin.name.Name
 import org.jetbrains.kotlin.serialization.ProtoBuf
 import org.jetbrains.kotlin.serialization.ProtoBuf.QualifiedNameTable.QualifiedName
-import java.util.*
 
+/**
+ * Names, class ids and package names are decoded once per index and memoized, because deserialization asks for the same indices
+ * many times (e.g. for every type referring to a class). Racing threads may decode the same index twice,
+ * which is fine because all the decoded values are immutable.
+ */
 class NameResolverImpl(
         private val strings: ProtoBuf.StringTable,
         private val qualifiedNames: ProtoBuf.QualifiedNameTable
 ) : NameResolver {
+    private val names = arrayOfNulls<Name>(strings.stringCount)
+    private val classIds = arrayOfNulls<ClassId>(qualifiedNames.qualifiedNameCount)
+    private val packageFqNames = arrayOfNulls<FqName>(qualifiedNames.qualifiedNameCount)
 
     override fun getString(index: Int): String = strings.getString(index)
 
-    override fun getName(index: Int) = Name.guessByFirstCharacter(strings.getString(index))
-
-    override fun getClassId(index: Int): ClassId {
-        val (packageFqNameSegments, relativeClassNameSegments, isLocal) = traverseIds(index)
-        return ClassId(FqName.fromSegments(packageFqNameSegments), FqName.fromSegments(relativeClassNameSegments), isLocal)
-    }
+    override fun getName(index: Int): Name =
+            names[index] ?: Name.guessByFirstCharacter(strings.getString(index)).also { names[index] = it }
 
-    fun getPackageFqName(index: Int): FqName {
-        val packageNameSegments = traverseIds(index).first
-        return FqName.fromSegments(packageNameSegments)
-    }
+    override fun getClassId(index: Int): ClassId =
+            classIds[index] ?: computeClassId(index).also { classIds[index] = it }
 
-    private fun traverseIds(startingIndex: Int): Triple<List<String>, List<String>, Boolean> {
-        var index = startingIndex
-        val packageNameSegments = LinkedList<String>()
-        val relativeClassNameSegments = LinkedList<String>()
-        var local = false
+    fun getPackageFqName(index: Int): FqName =
+            packageFqNames[index] ?: computePackageFqName(index).also { packageFqNames[index] = it }
 
-        while (index != -1) {
-            val proto = qualifiedNames.getQualifiedName(index)
-            val shortName = strings.getString(proto.shortName)
-            when (proto.kind!!) {
-                QualifiedName.Kind.CLASS -> relativeClassNameSegments.addFirst(shortName)
-                QualifiedName.Kind.PACKAGE -> packageNameSegments.addFirst(shortName)
-                QualifiedName.Kind.LOCAL -> {
-                    relativeClassNameSegments.addFirst(shortName)
-                    local = true
-                }
-            }
+    private fun computeClassId(index: Int): ClassId {
+        val proto = qualifiedNames.getQualifiedName(index)
+        val parent = proto.parentQualifiedName
+        val shortName = getName(proto.shortName)
+        val isLocal = proto.kind == QualifiedName.Kind.LOCAL
 
-            index = proto.parentQualifiedName
+        // The parent of a class is either its outer class or its package
+        if (parent != -1 && qualifiedNames.getQualifiedName(parent).kind != QualifiedName.Kind.PACKAGE) {
+            val outerClassId = getClassId(parent)
+            return ClassId(outerClassId.packageFqName, outerClassId.relativeClassName.child(shortName), isLocal || outerClassId.isLocal)
         }
-        return Triple(packageNameSegments, relativeClassNameSegments, local)
+
+        val packageFqName = if (parent == -1) FqName.ROOT else getPackageFqName(parent)
+        return ClassId(packageFqName, FqName.topLevel(shortName), isLocal)
+    }
+
+    private fun computePackageFqName(index: Int): FqName {
+        val proto = qualifiedNames.getQualifiedName(index)
+        val parent = proto.parentQualifiedName
+        val parentFqName = if (parent == -1) FqName.ROOT else getPackageFqName(parent)
+        return if (proto.kind == QualifiedName.Kind.PACKAGE) parentFqName.child(getName(proto.shortName)) else parentFqName
     }
 }
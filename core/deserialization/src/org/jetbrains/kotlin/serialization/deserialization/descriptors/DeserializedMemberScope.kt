@@ -34,24 +34,26 @@ import java.util.*
 
 abstract class DeserializedMemberScope protected constructor(
         protected val c: DeserializationContext,
-        functionList: Collection<ProtoBuf.Function>,
-        propertyList: Collection<ProtoBuf.Property>,
-        typeAliasList: Collection<ProtoBuf.TypeAlias>,
+        private val functionList: List<ProtoBuf.Function>,
+        private val propertyList: List<ProtoBuf.Property>,
+        private val typeAliasList: List<ProtoBuf.TypeAlias>,
         classNames: () -> Collection<Name>
 ) : MemberScopeImpl() {
 
-    private val functionProtos by
+    // Positions of the member protos by their names, so that only the protos with the requested name are visited
+    // when their descriptors are loaded
+    private val functionPositions by
             c.storageManager.createLazyValue {
-                functionList.groupByName { it.name }
+                functionList.indexByName { it.name }
             }
-    private val propertyProtos by
+    private val propertyPositions by
             c.storageManager.createLazyValue {
-                propertyList.groupByName { it.name }
+                propertyList.indexByName { it.name }
             }
-    private val typeAliasProtos by
+    private val typeAliasPositions by
             c.storageManager.createLazyValue {
                 if (c.components.configuration.typeAliasesAllowed)
-                    typeAliasList.groupByName { it.name }
+                    typeAliasList.indexByName { it.name }
                 else emptyMap()
             }
 
@@ -63,41 +65,50 @@ abstract class DeserializedMemberScope protected constructor(
             c.storageManager.createMemoizedFunctionWithNullableValues<Name, TypeAliasDescriptor> { createTypeAlias(it) }
 
     private val functionNamesLazy by c.storageManager.createLazyValue {
-        functionProtos.keys + getNonDeclaredFunctionNames()
+        functionPositions.keys + getNonDeclaredFunctionNames()
     }
 
     private val variableNamesLazy by c.storageManager.createLazyValue {
-        propertyProtos.keys + getNonDeclaredVariableNames()
+        propertyPositions.keys + getNonDeclaredVariableNames()
     }
 
-    private val typeAliasNames: Set<Name> get() = typeAliasProtos.keys
+    private val typeAliasNames: Set<Name> get() = typeAliasPositions.keys
 
     internal val classNames by c.storageManager.createLazyValue { classNames().toSet() }
 
     override fun getFunctionNames() = functionNamesLazy
     override fun getVariableNames() = variableNamesLazy
 
-    private inline fun <M : MessageLite> Collection<M>.groupByName(
-            getNameIndex: (M) -> Int
-    ) = groupBy { c.nameResolver.getName(getNameIndex(it)) }
+    private inline fun <M : MessageLite> List<M>.indexByName(getNameIndex: (M) -> Int): Map<Name, IntArray> {
+        val result = LinkedHashMap<Name, IntArray>()
+        for ((position, proto) in withIndex()) {
+            val name = c.nameResolver.getName(getNameIndex(proto))
+            // Most names are not overloaded, so the array is rarely copied
+            result[name] = result[name]?.plus(position) ?: intArrayOf(position)
+        }
+        return result
+    }
 
     private fun computeFunctions(name: Name) =
             computeDescriptors(
                     name,
-                    functionProtos,
+                    functionList,
+                    functionPositions,
                     { c.memberDeserializer.loadFunction(it) },
                     { computeNonDeclaredFunctions(name, it)}
             )
 
     inline private fun <M : MessageLite, D : DeclarationDescriptor> computeDescriptors(
             name: Name,
-            protosByName: Map<Name, Collection<M>>,
+            protos: List<M>,
+            positionsByName: Map<Name, IntArray>,
             factory: (M) -> D,
             computeNonDeclared: (MutableCollection<D>) -> Unit
     ): Collection<D> {
-        val protos = protosByName[name].orEmpty()
+        val positions = positionsByName[name]
 
-        val descriptors = protos.mapTo(arrayListOf(), factory)
+        val descriptors = ArrayList<D>(positions?.size ?: 0)
+        positions?.mapTo(descriptors) { factory(protos[it]) }
 
         computeNonDeclared(descriptors)
         return descriptors.compactIfPossible()
@@ -114,7 +125,8 @@ abstract class DeserializedMemberScope protected constructor(
     private fun computeProperties(name: Name) =
             computeDescriptors(
                     name,
-                    propertyProtos,
+                    propertyList,
+                    propertyPositions,
                     { c.memberDeserializer.loadProperty(it) },
                     { computeNonDeclaredProperties(name, it) }
             )
@@ -123,8 +135,8 @@ abstract class DeserializedMemberScope protected constructor(
     }
 
     private fun createTypeAlias(name: Name) =
-            typeAliasProtos[name]?.singleOrNull()?.let {
-                c.memberDeserializer.loadTypeAlias(it)
+            typeAliasPositions[name]?.singleOrNull()?.let {
+                c.memberDeserializer.loadTypeAlias(typeAliasList[it])
             }
 
     override fun getContributedVariables(name: Name, location: LookupLocation): Collection<PropertyDescriptor> {
@@ -63,7 +63,7 @@ internal abstract class FunctionCaller<out M : Member?>(
     ) {
         override fun call(args: Array<*>): Any? {
             checkArguments(args)
-            return member.newInstance(*args)
+            return ReflectionInvocations.newInstance(member, args)
         }
     }
 
@@ -76,7 +76,7 @@ internal abstract class FunctionCaller<out M : Member?>(
             ) {
         override fun call(args: Array<*>): Any? {
             checkArguments(args)
-            return member.newInstance(*argsWithReceiver(boundReceiver, args))
+            return ReflectionInvocations.newInstance(member, argsWithReceiver(boundReceiver, args))
         }
     }
 
@@ -95,7 +95,7 @@ internal abstract class FunctionCaller<out M : Member?>(
         private val isVoidMethod = returnType == Void.TYPE
 
         protected fun callMethod(instance: Any?, args: Array<*>): Any? {
-            val result = member.invoke(instance, *args)
+            val result = ReflectionInvocations.invoke(member, instance, args)
 
             // If this is a Unit function, the method returns void, Method#invoke returns null, while we should return Unit
             return if (isVoidMethod) Unit else result
@@ -281,8 +281,11 @@ internal abstract class FunctionCaller<out M : Member?>(
         inline fun <reified T> Array<out T>.dropFirst(): Array<T> =
                 if (size <= 1) emptyArray<T>() else copyOfRange(1, size) as Array<T>
 
+        // Not modified by the reflection members, so it's shared by all calls without arguments
+        private val NO_ARGS = arrayOf<Any?>()
+
         @Suppress("UNCHECKED_CAST")
         fun Array<*>.dropFirstArg(): Array<Any?> =
-                (this as Array<Any?>).dropFirst()
+                if (size <= 1) NO_ARGS else (this as Array<Any?>).copyOfRange(1, size)
     }
 }
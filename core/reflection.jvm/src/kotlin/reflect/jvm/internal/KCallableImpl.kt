@@ -111,54 +111,88 @@ internal abstract class KCallableImpl<out R> : KCallable<R> {
         return if (isAnnotationConstructor) callAnnotationConstructor(args) else callDefaultMethod(args)
     }
 
-    // See ArgumentGenerator#generate
-    private fun callDefaultMethod(args: Map<KParameter, Any?>): R {
+    // What callBy needs to know about each parameter, so that it's not recomputed on every call, see callDefaultMethod
+    private class DefaultCallPlan(
+            val parameters: List<KParameter>,
+            val isOptional: BooleanArray,
+            // Values passed for the absent optional parameters, zeros of the primitive types
+            val defaultValues: Array<Any?>,
+            // Index of the mask of the parameter and its bit in the mask, valid for value parameters only
+            val maskIndices: IntArray,
+            val maskBits: IntArray,
+            val maskCount: Int
+    )
+
+    private val defaultCallPlan_ = ReflectProperties.lazySoft {
         val parameters = parameters
-        val arguments = ArrayList<Any?>(parameters.size)
-        var mask = 0
-        val masks = ArrayList<Int>(1)
+        val isOptional = BooleanArray(parameters.size)
+        val defaultValues = arrayOfNulls<Any?>(parameters.size)
+        val maskIndices = IntArray(parameters.size)
+        val maskBits = IntArray(parameters.size)
         var index = 0
 
-        for (parameter in parameters) {
-            if (index != 0 && index % Integer.SIZE == 0) {
-                masks.add(mask)
-                mask = 0
+        for ((i, parameter) in parameters.withIndex()) {
+            isOptional[i] = parameter.isOptional
+            if (isOptional[i]) {
+                defaultValues[i] = defaultPrimitiveValue(parameter.type.javaType)
             }
+            maskIndices[i] = index / Integer.SIZE
+            maskBits[i] = 1 shl (index % Integer.SIZE)
 
+            if (parameter.kind == KParameter.Kind.VALUE) {
+                index++
+            }
+        }
+
+        // There's always at least one mask
+        DefaultCallPlan(parameters, isOptional, defaultValues, maskIndices, maskBits, maxOf(1, (index + Integer.SIZE - 1) / Integer.SIZE))
+    }
+
+    // See ArgumentGenerator#generate
+    private fun callDefaultMethod(args: Map<KParameter, Any?>): R {
+        val plan = defaultCallPlan_()
+        val parameters = plan.parameters
+        val arguments = arrayOfNulls<Any?>(parameters.size)
+        var masks: IntArray? = null
+
+        for (i in parameters.indices) {
+            val parameter = parameters[i]
+            val argument = args[parameter]
             when {
-                args.containsKey(parameter) -> {
-                    arguments.add(args[parameter])
+                argument != null || args.containsKey(parameter) -> {
+                    arguments[i] = argument
                 }
-                parameter.isOptional -> {
-                    arguments.add(defaultPrimitiveValue(parameter.type.javaType))
-                    mask = mask or (1 shl (index % Integer.SIZE))
+                plan.isOptional[i] -> {
+                    arguments[i] = plan.defaultValues[i]
+                    if (masks == null) {
+                        masks = IntArray(plan.maskCount)
+                    }
+                    masks[plan.maskIndices[i]] = masks[plan.maskIndices[i]] or plan.maskBits[i]
                 }
                 else -> {
                     throw IllegalArgumentException("No argument provided for a required parameter: $parameter")
                 }
             }
-
-            if (parameter.kind == KParameter.Kind.VALUE) {
-                index++
-            }
         }
 
-        if (mask == 0 && masks.isEmpty()) {
-            return call(*arguments.toTypedArray())
+        if (masks == null) {
+            @Suppress("UNCHECKED_CAST")
+            return reflectionCall {
+                caller.call(arguments) as R
+            }
         }
 
-        masks.add(mask)
-
         val caller = defaultCaller ?: throw KotlinReflectionInternalError("This callable does not support a default call: $descriptor")
 
-        arguments.addAll(masks)
-
-        // DefaultConstructorMarker or MethodHandle
-        arguments.add(null)
+        // The masks are followed by DefaultConstructorMarker or MethodHandle, which is null
+        val defaultArguments = arguments.copyOf(parameters.size + masks.size + 1)
+        for (i in masks.indices) {
+            defaultArguments[parameters.size + i] = masks[i]
+        }
 
         @Suppress("UNCHECKED_CAST")
         return reflectionCall {
-            caller.call(arguments.toTypedArray()) as R
+            caller.call(defaultArguments) as R
         }
     }
 
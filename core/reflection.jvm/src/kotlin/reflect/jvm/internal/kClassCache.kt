@@ -16,20 +16,34 @@
 
 package kotlin.reflect.jvm.internal
 
+import java.lang.ref.ReferenceQueue
 import java.lang.ref.WeakReference
 import kotlin.reflect.jvm.internal.pcollections.HashPMap
 
-// TODO: collect nulls periodically
-// Key of the map is Class.getName(), each value is either a WeakReference<KClassImpl<*>> or an Array<WeakReference<KClassImpl<*>>>.
+// Key of the map is Class.getName(), each value is either a KClassReference or an Array<KClassReference>.
 // Arrays are needed because the same class can be loaded by different class loaders, which results in different Class instances.
-// This variable is not volatile intentionally: we don't care if there's a data race on it and some KClass instances will be lost.
-// We do care however about general performance on read access to it, thus no synchronization is done here whatsoever
+// This variable is not volatile intentionally: the cache is read without any synchronization because performance is critical there,
+// and a stale value only leads to a lookup under the lock. The cache is only updated under K_CLASS_CACHE_LOCK
 private var K_CLASS_CACHE = HashPMap.empty<String, Any>()
 
+// Unsynchronized updates of the cache could overwrite each other, and a removal of the entry of a collected class polled from
+// the queue by one of them would be lost forever
+private val K_CLASS_CACHE_LOCK = Any()
+
+// Collected KClass instances are enqueued here, and their entries are removed from the cache on the next update of the cache,
+// so that the entries of unloaded classes (e.g. of undeployed applications) don't stay in the cache forever
+private val COLLECTED_K_CLASSES = ReferenceQueue<KClassImpl<*>>()
+
+private class KClassReference(kClass: KClassImpl<*>) : WeakReference<KClassImpl<*>>(kClass, COLLECTED_K_CLASSES) {
+    val name: String = kClass.jClass.name
+}
+
 // This function is invoked on each reflection access to Java classes, properties, etc. Performance is critical here.
-internal fun <T : Any> getOrCreateKotlinClass(jClass: Class<T>): KClassImpl<T> {
-    val name = jClass.name
-    val cached = K_CLASS_CACHE[name]
+internal fun <T : Any> getOrCreateKotlinClass(jClass: Class<T>): KClassImpl<T> =
+        findCachedKotlinClass(K_CLASS_CACHE, jClass) ?: createKotlinClass(jClass)
+
+private fun <T : Any> findCachedKotlinClass(cache: HashPMap<String, Any>, jClass: Class<T>): KClassImpl<T>? {
+    val cached = cache[jClass.name]
     if (cached is WeakReference<*>) {
         @Suppress("UNCHECKED_CAST")
         val kClass = cached.get() as KClassImpl<T>?
@@ -40,31 +54,70 @@ internal fun <T : Any> getOrCreateKotlinClass(jClass: Class<T>): KClassImpl<T> {
     else if (cached != null) {
         // If the cached value is not a weak reference, it's an array of weak references
         @Suppress("UNCHECKED_CAST")
-        (cached as Array<WeakReference<KClassImpl<T>>>)
-        for (ref in cached) {
+        for (ref in cached as Array<KClassReference>) {
             val kClass = ref.get()
             if (kClass?.jClass == jClass) {
-                return kClass
+                @Suppress("UNCHECKED_CAST")
+                return kClass as KClassImpl<T>
             }
         }
+    }
+    return null
+}
 
-        // This is the most unlikely case: we found a cached array of references of length at least 2 (can't be 1 because
-        // the single element would be cached instead), and none of those classes is the one we're looking for
-        val size = cached.size
-        val newArray = arrayOfNulls<WeakReference<KClassImpl<*>>>(size + 1)
-        // Don't use Arrays.copyOf because it works reflectively
-        System.arraycopy(cached, 0, newArray, 0, size)
-        val newKClass = KClassImpl(jClass)
-        newArray[size] = WeakReference(newKClass)
-        K_CLASS_CACHE = K_CLASS_CACHE.plus(name, newArray)
-        return newKClass
+private fun <T : Any> createKotlinClass(jClass: Class<T>): KClassImpl<T> = synchronized(K_CLASS_CACHE_LOCK) {
+    val cache = removeCollectedKClasses(K_CLASS_CACHE)
+    // Another thread could have created the KClass since the lookup without the lock
+    val existing = findCachedKotlinClass(cache, jClass)
+    if (existing != null) {
+        K_CLASS_CACHE = cache
+        return existing
     }
 
+    val name = jClass.name
     val newKClass = KClassImpl(jClass)
-    K_CLASS_CACHE = K_CLASS_CACHE.plus(name, WeakReference(newKClass))
+    val cached = cache[name]
+    if (cached != null && cached !is WeakReference<*>) {
+        // This is the most unlikely case: we found a cached array of references of length at least 2 (can't be 1 because
+        // the single element would be cached instead), and none of those classes is the one we're looking for.
+        // References to the collected classes are not copied to the new array
+        @Suppress("UNCHECKED_CAST")
+        (cached as Array<KClassReference>)
+        val alive = cached.count { it.get() != null }
+        val newArray = arrayOfNulls<KClassReference>(alive + 1)
+        var index = 0
+        for (ref in cached) {
+            if (ref.get() != null) {
+                newArray[index++] = ref
+            }
+        }
+        newArray[index] = KClassReference(newKClass)
+        K_CLASS_CACHE = cache.plus(name, if (alive == 0) newArray[0] else newArray)
+    }
+    else {
+        K_CLASS_CACHE = cache.plus(name, KClassReference(newKClass))
+    }
     return newKClass
 }
 
+private fun removeCollectedKClasses(cache: HashPMap<String, Any>): HashPMap<String, Any> {
+    var result = cache
+    while (true) {
+        val ref = COLLECTED_K_CLASSES.poll() as KClassReference? ?: return result
+        val cached = result[ref.name]
+        if (cached === ref) {
+            result = result.minus(ref.name)
+        }
+        else if (cached != null && cached !is WeakReference<*>) {
+            @Suppress("UNCHECKED_CAST")
+            val alive = (cached as Array<KClassReference>).filter { it !== ref }
+            result = if (alive.size == 1) result.plus(ref.name, alive.single()) else result.plus(ref.name, alive.toTypedArray())
+        }
+    }
+}
+
 internal fun clearKClassCache() {
-    K_CLASS_CACHE = HashPMap.empty()
+    synchronized(K_CLASS_CACHE_LOCK) {
+        K_CLASS_CACHE = HashPMap.empty()
+    }
 }
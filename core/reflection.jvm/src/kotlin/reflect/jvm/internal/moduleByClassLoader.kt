@@ -18,16 +18,19 @@ package kotlin.reflect.jvm.internal
 
 import org.jetbrains.kotlin.load.java.structure.reflect.safeClassLoader
 import org.jetbrains.kotlin.load.kotlin.reflect.RuntimeModuleData
+import java.lang.ref.ReferenceQueue
 import java.lang.ref.WeakReference
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.ConcurrentMap
 
-// TODO: collect nulls periodically
 private val moduleByClassLoader: ConcurrentMap<WeakClassLoaderBox, WeakReference<RuntimeModuleData>> = ConcurrentHashMap()
 
-private class WeakClassLoaderBox(classLoader: ClassLoader) {
-    val ref: WeakReference<ClassLoader> = WeakReference(classLoader)
+// Boxes of the collected class loaders are enqueued here, and their entries are removed from the map when a new module is created,
+// so that the entries of unloaded class loaders (e.g. of undeployed applications) don't stay in the map forever
+private val collectedClassLoaders = ReferenceQueue<ClassLoader>()
 
+// Collected boxes are equal to each other, which is fine because their entries are removed anyway
+private class WeakClassLoaderBox(classLoader: ClassLoader) : WeakReference<ClassLoader>(classLoader, collectedClassLoaders) {
     // Identity hash code is saved because otherwise once the weak reference is GC'd we cannot compute it anymore
     val identityHashCode: Int = System.identityHashCode(classLoader)
 
@@ -35,13 +38,13 @@ private class WeakClassLoaderBox(classLoader: ClassLoader) {
     var temporaryStrongRef: ClassLoader? = classLoader
 
     override fun equals(other: Any?) =
-            other is WeakClassLoaderBox && ref.get() === other.ref.get()
+            other is WeakClassLoaderBox && get() === other.get()
 
     override fun hashCode() =
             identityHashCode
 
     override fun toString() =
-            ref.get()?.toString() ?: "<null>"
+            get()?.toString() ?: "<null>"
 }
 
 internal fun Class<*>.getOrCreateModule(): RuntimeModuleData {
@@ -55,6 +58,8 @@ internal fun Class<*>.getOrCreateModule(): RuntimeModuleData {
         moduleByClassLoader.remove(key, cached)
     }
 
+    removeCollectedClassLoaders()
+
     val module = RuntimeModuleData.create(classLoader)
     try {
         while (true) {
@@ -71,6 +76,13 @@ internal fun Class<*>.getOrCreateModule(): RuntimeModuleData {
     }
 }
 
+private fun removeCollectedClassLoaders() {
+    while (true) {
+        val box = collectedClassLoaders.poll() as WeakClassLoaderBox? ?: return
+        moduleByClassLoader.remove(box)
+    }
+}
+
 internal fun clearModuleByClassLoaderCache() {
     moduleByClassLoader.clear()
 }
@@ -0,0 +1,530 @@
+/*
+ * Copyright 2010-2017 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.storage;
+
+import kotlin.Unit;
+import kotlin.jvm.functions.Function0;
+import kotlin.jvm.functions.Function1;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.storage.LockBasedStorageManager.ExceptionHandlingStrategy;
+import org.jetbrains.kotlin.storage.LockBasedStorageManager.KeyWithComputation;
+import org.jetbrains.kotlin.utils.WrappedValues;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.jetbrains.kotlin.storage.LockBasedStorageManager.sanitizeStackTrace;
+
+/**
+ * A storage manager which doesn't serialize all the computations on one lock, unlike {@link LockBasedStorageManager}.
+ *
+ * Each lazy value and each key of a memoized function is computed by the first thread which requests it,
+ * other threads requesting the same value wait for that computation to finish, so every value is still computed only once.
+ * Computations of different values run in parallel.
+ *
+ * A request of a value which is being computed in the same thread is a recursion and is handled the same way as in
+ * {@link LockBasedStorageManager}. A request which would make a cycle of threads waiting for each other is handled
+ * as a recursion too: the same computations in a single thread would request the value recursively.
+ *
+ * {@link #compute} blocks are executed under a lock which is not held by lazy values and memoized functions,
+ * so they are only atomic with respect to each other.
+ */
+public class ConcurrentStorageManager implements StorageManager {
+    private final ExceptionHandlingStrategy exceptionHandlingStrategy;
+    private final String debugText;
+
+    private final Lock computeLock = new ReentrantLock();
+
+    // The computation each thread is waiting for, guarded by waitLock
+    private final ConcurrentMap<Thread, Computation> waitingThreads = new ConcurrentHashMap<Thread, Computation>();
+    private final Object waitLock = new Object();
+
+    public ConcurrentStorageManager() {
+        this("<unknown creating class>", ExceptionHandlingStrategy.THROW);
+    }
+
+    public ConcurrentStorageManager(@NotNull String debugText, @NotNull ExceptionHandlingStrategy exceptionHandlingStrategy) {
+        this.debugText = debugText;
+        this.exceptionHandlingStrategy = exceptionHandlingStrategy;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "@" + Integer.toHexString(hashCode()) + " (" + debugText + ")";
+    }
+
+    @NotNull
+    @Override
+    public <K, V> MemoizedFunctionToNotNull<K, V> createMemoizedFunction(@NotNull Function1<? super K, ? extends V> compute) {
+        return createMemoizedFunction(compute, ConcurrentStorageManager.<K>createConcurrentHashMap());
+    }
+
+    @NotNull
+    @Override
+    public <K, V> MemoizedFunctionToNotNull<K, V> createMemoizedFunction(
+            @NotNull Function1<? super K, ? extends V> compute,
+            @NotNull ConcurrentMap<K, Object> map
+    ) {
+        return new ConcurrentMemoizedFunctionToNotNull<K, V>(this, map, compute);
+    }
+
+    @NotNull
+    @Override
+    public <K, V> MemoizedFunctionToNullable<K, V> createMemoizedFunctionWithNullableValues(@NotNull Function1<? super K, ? extends V> compute) {
+        return createMemoizedFunctionWithNullableValues(compute, ConcurrentStorageManager.<K>createConcurrentHashMap());
+    }
+
+    @NotNull
+    @Override
+    public <K, V> MemoizedFunctionToNullable<K, V> createMemoizedFunctionWithNullableValues(
+            @NotNull Function1<? super K, ? extends V> compute,
+            @NotNull ConcurrentMap<K, Object> map
+    ) {
+        return new ConcurrentMemoizedFunction<K, V>(this, map, compute);
+    }
+
+    @NotNull
+    @Override
+    public <T> NotNullLazyValue<T> createLazyValue(@NotNull Function0<? extends T> computable) {
+        return new ConcurrentNotNullLazyValue<T>(this, computable);
+    }
+
+    @NotNull
+    @Override
+    public <T> NotNullLazyValue<T> createRecursionTolerantLazyValue(
+            @NotNull Function0<? extends T> computable, @NotNull final T onRecursiveCall
+    ) {
+        return new ConcurrentNotNullLazyValue<T>(this, computable) {
+            @Override
+            protected T recursionDetected(boolean firstTime) {
+                return onRecursiveCall;
+            }
+        };
+    }
+
+    @NotNull
+    @Override
+    public <T> NotNullLazyValue<T> createLazyValueWithPostCompute(
+            @NotNull Function0<? extends T> computable,
+            final Function1<? super Boolean, ? extends T> onRecursiveCall,
+            @NotNull final Function1<? super T, Unit> postCompute
+    ) {
+        return new ConcurrentNotNullLazyValue<T>(this, computable) {
+            @Override
+            protected T recursionDetected(boolean firstTime) {
+                if (onRecursiveCall == null) {
+                    return super.recursionDetected(firstTime);
+                }
+                return onRecursiveCall.invoke(firstTime);
+            }
+
+            @Override
+            protected void postCompute(@NotNull T value) {
+                postCompute.invoke(value);
+            }
+        };
+    }
+
+    @NotNull
+    @Override
+    public <T> NullableLazyValue<T> createNullableLazyValue(@NotNull Function0<? extends T> computable) {
+        return new ConcurrentLazyValue<T>(this, computable);
+    }
+
+    @NotNull
+    @Override
+    public <T> NullableLazyValue<T> createRecursionTolerantNullableLazyValue(@NotNull Function0<? extends T> computable, final T onRecursiveCall) {
+        return new ConcurrentLazyValue<T>(this, computable) {
+            @Override
+            protected T recursionDetected(boolean firstTime) {
+                return onRecursiveCall;
+            }
+        };
+    }
+
+    @NotNull
+    @Override
+    public <T> NullableLazyValue<T> createNullableLazyValueWithPostCompute(
+            @NotNull Function0<? extends T> computable, @NotNull final Function1<? super T, Unit> postCompute
+    ) {
+        return new ConcurrentLazyValue<T>(this, computable) {
+            @Override
+            protected void postCompute(@Nullable T value) {
+                postCompute.invoke(value);
+            }
+        };
+    }
+
+    @NotNull
+    @Override
+    public <K, V> CacheWithNullableValues<K, V> createCacheWithNullableValues() {
+        return new CacheWithNullableValuesBasedOnMemoizedFunction<K, V>(
+                this, ConcurrentStorageManager.<KeyWithComputation<K, V>>createConcurrentHashMap());
+    }
+
+    @NotNull
+    @Override
+    public <K, V> CacheWithNotNullValues<K, V> createCacheWithNotNullValues() {
+        return new CacheWithNotNullValuesBasedOnMemoizedFunction<K, V>(
+                this, ConcurrentStorageManager.<KeyWithComputation<K, V>>createConcurrentHashMap());
+    }
+
+    @Override
+    public <T> T compute(@NotNull Function0<? extends T> computable) {
+        computeLock.lock();
+        try {
+            return computable.invoke();
+        }
+        catch (Throwable throwable) {
+            throw exceptionHandlingStrategy.handleException(throwable);
+        }
+        finally {
+            computeLock.unlock();
+        }
+    }
+
+    @NotNull
+    private static <K> ConcurrentMap<K, Object> createConcurrentHashMap() {
+        // memory optimization: fewer segments and entries stored
+        return new ConcurrentHashMap<K, Object>(3, 1, 2);
+    }
+
+    /**
+     * Waits for the computation to finish in another thread
+     * @return {@code false} if the computation is performed by the current thread or waits for it, so waiting would never end
+     */
+    private boolean await(@NotNull Computation computation) {
+        Thread currentThread = Thread.currentThread();
+
+        synchronized (waitLock) {
+            for (Computation c = computation; c != null; c = waitingThreads.get(c.owner)) {
+                if (c.owner == currentThread) return false;
+            }
+            waitingThreads.put(currentThread, computation);
+        }
+
+        try {
+            computation.await();
+        }
+        finally {
+            waitingThreads.remove(currentThread);
+        }
+        return true;
+    }
+
+    // A value or a key of a memoized function being computed
+    private static class Computation {
+        private static final Object NO_RESULT = new Object();
+
+        private final Thread owner = Thread.currentThread();
+        private final CountDownLatch finished = new CountDownLatch(1);
+
+        // The computed value which is only visible to the owner thread until the computation finishes (see postCompute)
+        private volatile Object result = NO_RESULT;
+
+        private boolean isOwnedByCurrentThread() {
+            return owner == Thread.currentThread();
+        }
+
+        private void finish() {
+            finished.countDown();
+        }
+
+        private void await() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    finished.await();
+                    break;
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "COMPUTING in " + owner.getName();
+        }
+    }
+
+    private enum NotValue {
+        NOT_COMPUTED,
+        RECURSION_WAS_DETECTED
+    }
+
+    private static boolean isValue(@Nullable Object value) {
+        return !(value instanceof NotValue) && !(value instanceof Computation);
+    }
+
+    // Being static is memory optimization to prevent capturing outer-class reference at each level of inheritance hierarchy
+    private static class ConcurrentLazyValue<T> implements NullableLazyValue<T> {
+        private final ConcurrentStorageManager storageManager;
+        private final Function0<? extends T> computable;
+
+        // NOT_COMPUTED, the escaped result, Computation while it's computed or RECURSION_WAS_DETECTED if it has failed because of a recursion
+        @Nullable
+        private volatile Object value = NotValue.NOT_COMPUTED;
+        private volatile boolean recursionWasDetected = false;
+
+        public ConcurrentLazyValue(@NotNull ConcurrentStorageManager storageManager, @NotNull Function0<? extends T> computable) {
+            this.storageManager = storageManager;
+            this.computable = computable;
+        }
+
+        @Override
+        public boolean isComputed() {
+            Object _value = value;
+            return _value != NotValue.NOT_COMPUTED && !(_value instanceof Computation);
+        }
+
+        @Override
+        public boolean isComputing() {
+            return value instanceof Computation;
+        }
+
+        @Override
+        public T invoke() {
+            Object _value = value;
+            if (isValue(_value)) return WrappedValues.unescapeThrowable(_value);
+
+            Computation computation;
+            while (true) {
+                synchronized (this) {
+                    _value = value;
+                    if (isValue(_value)) return WrappedValues.unescapeThrowable(_value);
+
+                    if (_value == NotValue.RECURSION_WAS_DETECTED) {
+                        return recursionDetected(/*firstTime = */ false);
+                    }
+
+                    if (_value == NotValue.NOT_COMPUTED) {
+                        computation = new Computation();
+                        value = computation;
+                        break;
+                    }
+
+                    computation = (Computation) _value;
+                }
+
+                if (computation.isOwnedByCurrentThread()) {
+                    Object result = computation.result;
+                    if (result != Computation.NO_RESULT) return WrappedValues.unescapeThrowable(result);
+                }
+
+                if (computation.isOwnedByCurrentThread() || !storageManager.await(computation)) {
+                    boolean firstTime = !recursionWasDetected;
+                    recursionWasDetected = true;
+                    return recursionDetected(firstTime);
+                }
+            }
+
+            try {
+                T typedValue = computable.invoke();
+                computation.result = typedValue;
+                postCompute(typedValue);
+                value = typedValue;
+                return typedValue;
+            }
+            catch (Throwable throwable) {
+                // Store only if it's a genuine result, not something thrown through recursionDetected()
+                value = recursionWasDetected ? NotValue.RECURSION_WAS_DETECTED : WrappedValues.escapeThrowable(throwable);
+                throw storageManager.exceptionHandlingStrategy.handleException(throwable);
+            }
+            finally {
+                computation.finish();
+            }
+        }
+
+        /**
+         * @param firstTime {@code true} when recursion has been just detected, {@code false} otherwise
+         * @return a value to be returned on a recursive call or subsequent calls
+         */
+        protected T recursionDetected(boolean firstTime) {
+            throw sanitizeStackTrace(new IllegalStateException("Recursive call in a lazy value under " + storageManager));
+        }
+
+        protected void postCompute(T value) {
+            // Doing something in post-compute helps prevent infinite recursion
+        }
+    }
+
+    private static class ConcurrentNotNullLazyValue<T> extends ConcurrentLazyValue<T> implements NotNullLazyValue<T> {
+        public ConcurrentNotNullLazyValue(@NotNull ConcurrentStorageManager storageManager, @NotNull Function0<? extends T> computable) {
+            super(storageManager, computable);
+        }
+
+        @Override
+        @NotNull
+        public T invoke() {
+            T result = super.invoke();
+            assert result != null : "compute() returned null";
+            return result;
+        }
+    }
+
+    private static class ConcurrentMemoizedFunction<K, V> implements MemoizedFunctionToNullable<K, V> {
+        private final ConcurrentStorageManager storageManager;
+        private final ConcurrentMap<K, Object> cache;
+        private final Function1<? super K, ? extends V> compute;
+
+        public ConcurrentMemoizedFunction(
+                @NotNull ConcurrentStorageManager storageManager,
+                @NotNull ConcurrentMap<K, Object> map,
+                @NotNull Function1<? super K, ? extends V> compute
+        ) {
+            this.storageManager = storageManager;
+            this.cache = map;
+            this.compute = compute;
+        }
+
+        @Override
+        @Nullable
+        public V invoke(K input) {
+            Object value = cache.get(input);
+
+            while (true) {
+                if (value == null) {
+                    Computation computation = new Computation();
+                    value = cache.putIfAbsent(input, computation);
+                    if (value == null) {
+                        return compute(input, computation);
+                    }
+                }
+
+                if (!(value instanceof Computation)) return WrappedValues.unescapeExceptionOrNull(value);
+
+                Computation computation = (Computation) value;
+                if (computation.isOwnedByCurrentThread() || !storageManager.await(computation)) {
+                    throw recursionDetected(input);
+                }
+
+                value = cache.get(input);
+            }
+        }
+
+        private V compute(K input, @NotNull Computation computation) {
+            try {
+                V typedValue;
+                try {
+                    typedValue = compute.invoke(input);
+                }
+                catch (Throwable throwable) {
+                    if (!cache.replace(input, computation, WrappedValues.escapeThrowable(throwable))) {
+                        throw raceCondition(input, cache.get(input));
+                    }
+                    throw storageManager.exceptionHandlingStrategy.handleException(throwable);
+                }
+
+                if (!cache.replace(input, computation, WrappedValues.escapeNull(typedValue))) {
+                    throw storageManager.exceptionHandlingStrategy.handleException(raceCondition(input, cache.get(input)));
+                }
+                return typedValue;
+            }
+            finally {
+                computation.finish();
+            }
+        }
+
+        @NotNull
+        private AssertionError recursionDetected(K input) {
+            return sanitizeStackTrace(
+                    new AssertionError("Recursion detected on input: " + input + " under " + storageManager)
+            );
+        }
+
+        @NotNull
+        private AssertionError raceCondition(K input, Object oldValue) {
+            return sanitizeStackTrace(
+                    new AssertionError("Race condition detected on input " + input + ". Old value is " + oldValue +
+                                       " under " + storageManager)
+            );
+        }
+
+        @Override
+        public boolean isComputed(K key) {
+            Object value = cache.get(key);
+            return value != null && !(value instanceof Computation);
+        }
+
+        protected ConcurrentStorageManager getStorageManager() {
+            return storageManager;
+        }
+    }
+
+    private static class ConcurrentMemoizedFunctionToNotNull<K, V> extends ConcurrentMemoizedFunction<K, V> implements MemoizedFunctionToNotNull<K, V> {
+        public ConcurrentMemoizedFunctionToNotNull(
+                @NotNull ConcurrentStorageManager storageManager, @NotNull ConcurrentMap<K, Object> map,
+                @NotNull Function1<? super K, ? extends V> compute
+        ) {
+            super(storageManager, map, compute);
+        }
+
+        @NotNull
+        @Override
+        public V invoke(K input) {
+            V result = super.invoke(input);
+            assert result != null : "compute() returned null under " + getStorageManager();
+            return result;
+        }
+    }
+
+    private static class CacheWithNullableValuesBasedOnMemoizedFunction<K, V> extends ConcurrentMemoizedFunction<KeyWithComputation<K, V>, V> implements CacheWithNullableValues<K, V> {
+        private CacheWithNullableValuesBasedOnMemoizedFunction(
+                @NotNull ConcurrentStorageManager storageManager,
+                @NotNull ConcurrentMap<KeyWithComputation<K, V>, Object> map
+        ) {
+            super(storageManager, map, new Function1<KeyWithComputation<K, V>, V>() {
+                @Override
+                public V invoke(KeyWithComputation<K, V> computation) {
+                    return computation.computation.invoke();
+                }
+            });
+        }
+
+        @Nullable
+        @Override
+        public V computeIfAbsent(K key, @NotNull Function0<? extends V> computation) {
+            return invoke(new KeyWithComputation<K, V>(key, computation));
+        }
+    }
+
+    private static class CacheWithNotNullValuesBasedOnMemoizedFunction<K, V> extends CacheWithNullableValuesBasedOnMemoizedFunction<K, V> implements CacheWithNotNullValues<K, V> {
+        private CacheWithNotNullValuesBasedOnMemoizedFunction(
+                @NotNull ConcurrentStorageManager storageManager,
+                @NotNull ConcurrentMap<KeyWithComputation<K, V>, Object> map
+        ) {
+            super(storageManager, map);
+        }
+
+        @NotNull
+        @Override
+        public V computeIfAbsent(K key, @NotNull Function0<? extends V> computation) {
+            V result = super.computeIfAbsent(key, computation);
+            assert result != null : "computeIfAbsent() returned null under " + getStorageManager();
+            return result;
+        }
+    }
+}
@@ -482,7 +482,7 @@ public class LockBasedStorageManager implements StorageManager {
     }
 
     @NotNull
-    private static <T extends Throwable> T sanitizeStackTrace(@NotNull T throwable) {
+    /*package*/ static <T extends Throwable> T sanitizeStackTrace(@NotNull T throwable) {
         StackTraceElement[] stackTrace = throwable.getStackTrace();
         int size = stackTrace.length;
 
@@ -554,9 +554,9 @@ public class LockBasedStorageManager implements StorageManager {
     }
 
     // equals and hashCode use only key
-    private static class KeyWithComputation<K, V> {
+    /*package*/ static class KeyWithComputation<K, V> {
         private final K key;
-        private final Function0<? extends V> computation;
+        /*package*/ final Function0<? extends V> computation;
 
         public KeyWithComputation(K key, Function0<? extends V> computation) {
             this.key = key;
@@ -6,14 +6,18 @@ import org.jetbrains.kotlin.daemon.common.CompilationResults
 import org.jetbrains.kotlin.daemon.common.LoopbackNetworkInterface
 import org.jetbrains.kotlin.daemon.common.SOCKET_ANY_FREE_PORT
 import org.jetbrains.kotlin.daemon.report.CompileIterationResult
+import org.jetbrains.kotlin.daemon.report.PhaseProfileResult
 import org.jetbrains.kotlin.gradle.plugin.kotlinDebug
 import org.jetbrains.kotlin.incremental.pathsAsStringRelativeTo
+import java.io.File
 import java.io.Serializable
 import java.rmi.RemoteException
 import java.rmi.server.UnicastRemoteObject
 
 internal class GradleCompilationResults(
-        project: Project
+        project: Project,
+        // The phases of the last compilation are written here in the Chrome trace event format
+        private val phaseProfileFile: File
 ): CompilationResults,
    UnicastRemoteObject(SOCKET_ANY_FREE_PORT, LoopbackNetworkInterface.clientLoopbackSocketFactory, LoopbackNetworkInterface.serverLoopbackSocketFactory) {
 
@@ -34,5 +38,14 @@ internal class GradleCompilationResults(
                 log.kotlinDebug { "compiler exit code: $exitCode" }
             }
         }
+        else if (compilationResultCategory == CompilationResultCategory.PHASE_PROFILE.code) {
+            val phaseProfileResult = value as? PhaseProfileResult
+            if (phaseProfileResult != null) {
+                phaseProfileResult.summary.forEach { log.kotlinDebug("compiler phase $it") }
+                phaseProfileFile.parentFile.mkdirs()
+                phaseProfileFile.writeText(phaseProfileResult.chromeTrace)
+                log.kotlinDebug { "compiler phases trace: $phaseProfileFile" }
+            }
+        }
     }
 }
\ No newline at end of file
@@ -39,6 +39,8 @@ internal const val KOTLIN_COMPILER_EXECUTION_STRATEGY_PROPERTY = "kotlin.compile
 internal const val DAEMON_EXECUTION_STRATEGY = "daemon"
 internal const val IN_PROCESS_EXECUTION_STRATEGY = "in-process"
 internal const val OUT_OF_PROCESS_EXECUTION_STRATEGY = "out-of-process"
+// Written to the working directory of a task when debug logging is enabled, see GradleCompilationResults
+internal const val PHASE_PROFILE_FILE_NAME = "compiler-phases.json"
 const val CREATED_CLIENT_FILE_PREFIX = "Created client-is-alive flag file: "
 const val EXISTING_CLIENT_FILE_PREFIX = "Existing client-is-alive flag file: "
 const val CREATED_SESSION_FILE_PREFIX = "Created session-is-alive flag file: "
@@ -210,15 +212,23 @@ internal class GradleCompilerRunner(private val project: Project) : KotlinCompil
                 customCacheVersionFileName = GRADLE_CACHE_VERSION_FILE_NAME,
                 reportCategories = reportCategories(verbose),
                 reportSeverity = reportSeverity(verbose),
-                requestedCompilationResults = arrayOf(CompilationResultCategory.IC_COMPILE_ITERATION.code),
+                requestedCompilationResults = requestedCompilationResults(),
                 compilerMode = CompilerMode.INCREMENTAL_COMPILER,
                 targetPlatform = CompileService.TargetPlatform.JVM
         )
         val servicesFacade = GradleIncrementalCompilerServicesFacadeImpl(project, environment)
         val argsArray = ArgumentUtils.convertArgumentsToStringList(environment.compilerArgs).toTypedArray()
-        return daemon.compile(sessionId, argsArray, compilationOptions, servicesFacade, GradleCompilationResults(project))
+        return daemon.compile(sessionId, argsArray, compilationOptions, servicesFacade, GradleCompilationResults(project, File(environment.workingDir, PHASE_PROFILE_FILE_NAME)))
     }
 
+    private fun requestedCompilationResults(): Array<Int> =
+            if (!project.logger.isDebugEnabled) {
+                arrayOf(CompilationResultCategory.IC_COMPILE_ITERATION.code)
+            }
+            else {
+                arrayOf(CompilationResultCategory.IC_COMPILE_ITERATION.code, CompilationResultCategory.PHASE_PROFILE.code)
+            }
+
     private fun reportCategories(verbose: Boolean): Array<Int> =
             if (!verbose) {
                 arrayOf(ReportCategory.COMPILER_MESSAGE.code)